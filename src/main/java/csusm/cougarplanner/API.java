@@ -1,7 +1,7 @@
 package csusm.cougarplanner;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import csusm.cougarplanner.config.ProfileService;
+
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
@@ -9,7 +9,6 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.Scanner;
 
 public class API {
 
@@ -24,7 +23,7 @@ public class API {
         .build();
 
     public API() {
-        AUTH_TOKEN = getAuthToken();
+        AUTH_TOKEN = ProfileService.getInstance().getProfile().getAuthToken();
     }
 
     /**
@@ -37,29 +36,6 @@ public class API {
         AUTH_TOKEN = token;
     }
 
-    /**
-     * Retrieves the authentication token from the .profile configuration file.
-     * The method searches for the "authToken" key in the properties file.
-     *
-     * @return the authentication token as a String, or null if the file is not found
-     *         or an error occurs during reading
-     * @throws FileNotFoundException if the .profile file cannot be located
-     */
-    private static String getAuthToken() {
-        try (Scanner sc = new Scanner(new File("data/profile.properties"))) {
-            while (sc.hasNextLine()) {
-                String line = sc.nextLine().trim();
-                if (line.startsWith("authToken=")) {
-                    return line.substring("authToken=".length()).trim();
-                }
-            }
-            return null; // authToken not found
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
     /**
      * Performs GET request to fetch courses JSON.
      * Returns response body as String on 2xx status codes, null otherwise.
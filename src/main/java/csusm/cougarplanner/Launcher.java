@@ -1,7 +1,11 @@
 package csusm.cougarplanner;
 
 import csusm.cougarplanner.config.Profile;
-import csusm.cougarplanner.config.ProfileReader;
+import csusm.cougarplanner.config.ProfileService;
+import csusm.cougarplanner.io.DataDirectoryWatcher;
+import csusm.cougarplanner.io.FileTransaction;
+import csusm.cougarplanner.io.IoExecutors;
+import csusm.cougarplanner.services.MergeService;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -9,22 +13,44 @@ import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 
-import java.nio.file.Path;
+import java.io.IOException;
 
 public class Launcher extends Application {
 
     private static Stage primaryStage;
     private static Profile profileConfig;
-    private static final Path PROFILE_PATH = Path.of("data/profile.properties");
 
     @Override
     public void start(Stage stage) throws Exception {
         primaryStage = stage;
 
-        // Load profile
-        ProfileReader reader = new ProfileReader(PROFILE_PATH);
-        ProfileReader.ReadResult result = reader.readProfile();
-        profileConfig = result.getProfile();
+        // Finish or roll back a merge that a crash interrupted before anything reads the data
+        FileTransaction.recover();
+
+        // Pick up edits made to the data directory while the app is open
+        try {
+            DataDirectoryWatcher.getInstance().start();
+        } catch (IOException e) {
+            System.err.println("Data directory watcher unavailable, falling back to per-query checks: " + e.getMessage());
+        }
+
+        // Load profile once; everything else reads it from the service
+        profileConfig = ProfileService.getInstance().getProfile();
+        for (String message : ProfileService.getInstance().getMessages()) {
+            System.err.println("Profile: " + message);
+        }
+
+        // Move rows past the retention period out of the hot files without delaying the first scene
+        int retentionWeeks = profileConfig.getRetentionWeeksAsInt();
+        if (retentionWeeks > 0) {
+            IoExecutors.maintenance().submit(() -> {
+                try {
+                    new MergeService().applyRetention(retentionWeeks);
+                } catch (IOException e) {
+                    System.err.println("Archiving rows past the retention period failed: " + e.getMessage());
+                }
+            });
+        }
 
         // Decide which scene to load based on whether orientation is complete
         if (profileConfig.isOrientationCompleted() && !profileConfig.getAuthToken().isEmpty()) {
@@ -34,6 +60,16 @@ public class Launcher extends Application {
         }
     }
 
+    @Override
+    public void stop() {
+        // Write profile edits still waiting for their batch
+        try {
+            ProfileService.getInstance().flush();
+        } catch (IOException e) {
+            System.err.println("Saving the profile failed: " + e.getMessage());
+        }
+    }
+
     public static void loadScene(String fxmlPath, String title, boolean transparent) throws Exception {
         FXMLLoader loader = new FXMLLoader(Launcher.class.getResource(fxmlPath));
         Scene scene = new Scene(loader.load());
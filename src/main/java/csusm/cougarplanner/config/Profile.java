@@ -35,6 +35,7 @@ public class Profile
         defaults.put("defaultSort.mode", "date_time");
         defaults.put("defaultSort.difficultyOrder", "ascending");
         defaults.put("showRefreshCountdown", "false");
+        defaults.put("retentionWeeks", "0");
         defaults.put("lastViewedWeekStart", "");
         defaults.put("lastViewedDay", "");
         return defaults;
@@ -160,6 +161,16 @@ public class Profile
         return properties.get("showRefreshCountdown");
     }
 
+    /**
+     * Gets the retention period for locally stored assignments and announcements as a string.
+     *
+     * @return number of weeks rows stay in the hot files, or 0 to keep everything
+     */
+    public String getRetentionWeeks()
+    {
+        return properties.get("retentionWeeks");
+    }
+
     /**
      * Gets the last viewed week start date as a string.
      *
@@ -220,6 +231,23 @@ public class Profile
         return "true".equals(getShowRefreshCountdown());
     }
 
+    /**
+     * Gets the retention period as a number of weeks.
+     *
+     * @return number of weeks rows stay in the hot files, or 0 if retention is off or the value is invalid
+     */
+    public int getRetentionWeeksAsInt()
+    {
+        try
+        {
+            return Math.max(0, Integer.parseInt(getRetentionWeeks()));
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
     /**
      * Gets the last viewed week start date as a LocalDate object.
      *
@@ -342,6 +370,16 @@ public class Profile
         properties.put("showRefreshCountdown", String.valueOf(showCountdown));
     }
 
+    /**
+     * Sets the retention period for locally stored assignments and announcements.
+     *
+     * @param retentionWeeks number of weeks rows stay in the hot files, or 0 to keep everything
+     */
+    public void setRetentionWeeks(int retentionWeeks)
+    {
+        properties.put("retentionWeeks", String.valueOf(retentionWeeks));
+    }
+
     /**
      * Sets the last viewed week start date.
      *
@@ -0,0 +1,392 @@
+package csusm.cougarplanner.config;
+
+import csusm.cougarplanner.io.CsvPaths;
+import csusm.cougarplanner.io.DataDirectoryWatcher;
+import csusm.cougarplanner.io.EntityType;
+import csusm.cougarplanner.io.IoExecutors;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the process-wide profile in memory so settings are read from profile.properties once
+ * instead of on every query. The profile is validated through SettingsValidator when it is loaded
+ * and after every edit; edits take effect in memory at once and are written through ProfileWriter
+ * in batches. Listeners are told which settings changed, whether by an edit in the app or by the
+ * file changing on disk.
+ */
+public class ProfileService
+{
+    // Edits made within this window are written together
+    private static final long WRITE_DELAY_MILLIS = 500;
+
+    private static final ProfileService INSTANCE = new ProfileService(CsvPaths.getProfilePath());
+
+    /**
+     * Receives the settings that changed.
+     */
+    public interface Listener
+    {
+        /**
+         * Called after the profile changed.
+         *
+         * @param profile a copy of the profile after the change
+         * @param changedKeys the keys whose values changed
+         */
+        void profileChanged(Profile profile, Set<String> changedKeys);
+    }
+
+    private final Path profilePath;
+    private final ProfileWriter writer;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Never modified once published; readers get copies
+    private volatile Profile profile;
+    private volatile List<String> messages = List.of();
+
+    // Edited values not yet written, by key; guarded by this
+    private final Map<String, String> unwritten = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledWrite;
+
+    /**
+     * Constructs a service for a profile file.
+     *
+     * @param profilePath the profile file to load and write
+     */
+    private ProfileService(Path profilePath)
+    {
+        this.profilePath = profilePath;
+        this.writer = new ProfileWriter(profilePath);
+    }
+
+    /**
+     * Gets the process-wide profile service.
+     *
+     * @return the shared service
+     */
+    public static ProfileService getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets a copy of the current profile, loading it on first use.
+     *
+     * @return the validated profile; edits to the copy are not saved
+     */
+    public Profile getProfile()
+    {
+        return copy(current());
+    }
+
+    /**
+     * Gets the read and validation messages of the last load from disk.
+     *
+     * @return the messages, empty if the file was read cleanly
+     */
+    public List<String> getMessages()
+    {
+        current();
+        return messages;
+    }
+
+    /**
+     * Adds a listener that is told about every change to the profile.
+     * Listeners run on the thread that made the edit, or on the watcher thread for changes on disk.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Edits the profile. The edit takes effect at once and is written to disk together with any
+     * other edits made within a short window. Edited values that fail validation are ignored.
+     *
+     * @param edit applies the changes to a copy of the current profile
+     */
+    public void update(Consumer<Profile> edit)
+    {
+        Profile published;
+        Set<String> changed;
+        synchronized (this)
+        {
+            Profile edited = copy(current());
+            edit.accept(edited);
+            edited = rejectInvalid(profile, edited);
+
+            changed = changedKeys(profile, edited);
+            if (changed.isEmpty())
+            {
+                return;
+            }
+
+            Map<String, String> values = edited.getAllProperties();
+            for (String key : changed)
+            {
+                unwritten.put(key, values.get(key));
+            }
+            profile = edited;
+            published = copy(edited);
+            scheduleWrite();
+        }
+        notifyListeners(published, changed);
+    }
+
+    /**
+     * Replaces the whole profile and writes it to disk at once.
+     * Used when the profile is created, where the caller needs to know the write succeeded.
+     *
+     * @param replacement the new profile
+     * @throws IOException if the profile cannot be written
+     */
+    public void save(Profile replacement) throws IOException
+    {
+        Profile published;
+        Set<String> changed;
+        synchronized (this)
+        {
+            Profile validated = validate(copy(replacement), null).getValidatedProfile();
+            writer.writeProfile(validated);
+
+            changed = changedKeys(profile, validated);
+            unwritten.clear();
+            cancelScheduledWrite();
+            profile = validated;
+            published = copy(validated);
+        }
+        if (!changed.isEmpty())
+        {
+            notifyListeners(published, changed);
+        }
+    }
+
+    /**
+     * Writes any edits that are still waiting for their batch.
+     * Called on shutdown so no edit is lost.
+     *
+     * @throws IOException if the profile cannot be written
+     */
+    public synchronized void flush() throws IOException
+    {
+        cancelScheduledWrite();
+        if (unwritten.isEmpty())
+        {
+            return;
+        }
+        // Only the edited keys are written, so edits made to the file by hand survive
+        writer.updateProfileFields(unwritten);
+        unwritten.clear();
+    }
+
+    /**
+     * Rereads the profile from disk, keeping edits that have not been written yet,
+     * and notifies listeners of any setting that changed.
+     */
+    public void reload()
+    {
+        Profile published;
+        Set<String> changed;
+        synchronized (this)
+        {
+            Profile loaded = load();
+            if (!unwritten.isEmpty())
+            {
+                Map<String, String> values = loaded.getAllProperties();
+                values.putAll(unwritten);
+                loaded = validate(new Profile(values), null).getValidatedProfile();
+            }
+
+            changed = changedKeys(profile, loaded);
+            profile = loaded;
+            if (changed.isEmpty())
+            {
+                return;
+            }
+            published = copy(loaded);
+        }
+        notifyListeners(published, changed);
+    }
+
+    /**
+     * Gets the current profile, loading it on first use.
+     *
+     * @return the current profile; must not be modified
+     */
+    private Profile current()
+    {
+        Profile current = profile;
+        if (current != null)
+        {
+            return current;
+        }
+
+        synchronized (this)
+        {
+            if (profile == null)
+            {
+                profile = load();
+                // Pick up hand edits to the file; our own writes reload to the same values and notify nobody
+                DataDirectoryWatcher.getInstance().addListener(types ->
+                {
+                    if (types.contains(EntityType.PROFILE))
+                    {
+                        reload();
+                    }
+                });
+            }
+            return profile;
+        }
+    }
+
+    /**
+     * Reads and validates the profile file.
+     *
+     * @return the validated profile; defaults if the file is missing or unreadable
+     */
+    private Profile load()
+    {
+        ProfileReader.ReadResult result = new ProfileReader(profilePath).readProfile();
+        SettingsValidator.ValidationResult validation = validate(result.getProfile(), result.getErrors());
+        messages = List.copyOf(validation.getAllMessages());
+        return validation.getValidatedProfile();
+    }
+
+    /**
+     * Validates a profile, replacing invalid values with defaults.
+     *
+     * @param candidate the profile to validate; modified in place
+     * @param existingErrors errors from reading the profile, or null
+     * @return the validation result
+     */
+    private static SettingsValidator.ValidationResult validate(Profile candidate, List<String> existingErrors)
+    {
+        return new SettingsValidator().validateProfile(candidate, existingErrors);
+    }
+
+    /**
+     * Validates an edited profile, keeping the previous value of every setting the edit made invalid.
+     *
+     * @param previous the valid profile before the edit
+     * @param edited the edited profile
+     * @return the edited profile with invalid values reverted
+     */
+    private static Profile rejectInvalid(Profile previous, Profile edited)
+    {
+        Map<String, String> requested = edited.getAllProperties();
+        Map<String, String> values = validate(edited, null).getValidatedProfile().getAllProperties();
+        Map<String, String> old = previous.getAllProperties();
+        for (Map.Entry<String, String> entry : requested.entrySet())
+        {
+            if (!Objects.equals(entry.getValue(), values.get(entry.getKey())))
+            {
+                values.put(entry.getKey(), old.get(entry.getKey()));
+            }
+        }
+        return new Profile(values);
+    }
+
+    /**
+     * Schedules a write of the unwritten edits unless one is already pending.
+     */
+    private void scheduleWrite()
+    {
+        if (scheduledWrite != null && !scheduledWrite.isDone())
+        {
+            return;
+        }
+        scheduledWrite = IoExecutors.scheduler().schedule(() ->
+        {
+            try
+            {
+                flush();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Saving the profile failed: " + e.getMessage());
+            }
+        }, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the pending batch write, if any.
+     */
+    private void cancelScheduledWrite()
+    {
+        if (scheduledWrite != null)
+        {
+            scheduledWrite.cancel(false);
+            scheduledWrite = null;
+        }
+    }
+
+    /**
+     * Tells every listener about a change.
+     *
+     * @param published a copy of the changed profile
+     * @param changed the keys that changed
+     */
+    private void notifyListeners(Profile published, Set<String> changed)
+    {
+        Set<String> keys = Set.copyOf(changed);
+        for (Listener listener : listeners)
+        {
+            listener.profileChanged(copy(published), keys);
+        }
+    }
+
+    /**
+     * Finds the keys whose values differ between two profiles.
+     *
+     * @param before the earlier profile, or null if there was none
+     * @param after the later profile
+     * @return the changed keys
+     */
+    private static Set<String> changedKeys(Profile before, Profile after)
+    {
+        Map<String, String> old = before != null ? before.getAllProperties() : new HashMap<>();
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> entry : after.getAllProperties().entrySet())
+        {
+            if (!Objects.equals(old.get(entry.getKey()), entry.getValue()))
+            {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Copies a profile so callers cannot modify the shared one.
+     *
+     * @param source the profile to copy
+     * @return the copy
+     */
+    private static Profile copy(Profile source)
+    {
+        return new Profile(source.getAllProperties());
+    }
+}
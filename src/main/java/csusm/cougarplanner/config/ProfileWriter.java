@@ -105,6 +105,7 @@ public class ProfileWriter
                         "defaultSort.mode",             // Primary sort method
                         "defaultSort.difficultyOrder",  // Difficulty sort direction
                         "showRefreshCountdown",         // Countdown display preference
+                        "retentionWeeks",               // Weeks of rows kept in the hot files
                         "lastViewedWeekStart",          // Last viewed week context
                         "lastViewedDay"                 // Last viewed day context
                 };
@@ -21,6 +21,7 @@ public class SettingsValidator
     private static final boolean DEFAULT_SHOW_REFRESH_COUNTDOWN = false;
     private static final String DEFAULT_SORT_MODE = "date_time";
     private static final String DEFAULT_SORT_DIFFICULTY_ORDER = "ascending";
+    private static final int DEFAULT_RETENTION_WEEKS = 0;
 
     /**
      * Validates all Profile config values and replaces invalid values with defaults,
@@ -74,6 +75,13 @@ public class SettingsValidator
             validationWarnings.add("Invalid value for defaultSort.difficultyOrder: '" + difficultyOrder + "'. Replacing with default value: " + DEFAULT_SORT_DIFFICULTY_ORDER + ".");
         }
 
+        String retentionWeeks = profile.getRetentionWeeks();
+        if (!isValidRetentionWeeks(retentionWeeks))
+        {
+            profile.setRetentionWeeks(DEFAULT_RETENTION_WEEKS);
+            validationWarnings.add("Invalid value for retentionWeeks: '" + retentionWeeks + "'. Replacing with default value: " + DEFAULT_RETENTION_WEEKS + ".");
+        }
+
         // Combines existing errors with new validation warnings
         List<String> allMessages = new ArrayList<>();
         if (existingErrors != null)
@@ -196,6 +204,17 @@ public class SettingsValidator
         return difficultyOrder != null && ("ascending".equalsIgnoreCase(difficultyOrder) || "descending".equalsIgnoreCase(difficultyOrder));
     }
 
+    /**
+     * Checks if retention weeks value is valid.
+     *
+     * @param retentionWeeks the retention weeks value to validate
+     * @return true if valid (a whole number of weeks, 0 or more), false otherwise
+     */
+    private boolean isValidRetentionWeeks(String retentionWeeks)
+    {
+        return retentionWeeks != null && retentionWeeks.matches("\\d{1,4}");
+    }
+
     /**
      * Represents the result of profile validation.
      * Contains the validated Profile object and all error/warning messages.
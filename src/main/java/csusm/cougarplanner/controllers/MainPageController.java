@@ -4,8 +4,17 @@ import csusm.cougarplanner.transitions.ExponentialTransitionScale;
 import csusm.cougarplanner.transitions.ExponentialTransitionTranslation;
 import csusm.cougarplanner.Launcher;
 import csusm.cougarplanner.config.Profile;
-import csusm.cougarplanner.config.ProfileReader;
+import csusm.cougarplanner.config.ProfileService;
+import csusm.cougarplanner.io.ChangeEvent;
+import csusm.cougarplanner.io.ChangeEventBus;
+import csusm.cougarplanner.io.EntityType;
+import csusm.cougarplanner.models.AnnouncementDisplay;
+import csusm.cougarplanner.models.AssignmentDisplay;
+import csusm.cougarplanner.services.AnnouncementDataProvider;
+import csusm.cougarplanner.services.AssignmentDataProvider;
+import csusm.cougarplanner.services.PeriodPrefetcher;
 import csusm.cougarplanner.util.DateTimeUtil;
+import csusm.cougarplanner.util.WeekRange;
 import csusm.cougarplanner.util.WeekUtil;
 import javafx.animation.PauseTransition;
 import javafx.application.Platform;
@@ -19,22 +28,31 @@ import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.stage.WindowEvent;
 import javafx.util.Duration;
 
 import java.net.URL;
 import java.nio.file.Path;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.Month;
 import java.time.format.TextStyle;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 public class MainPageController implements Initializable {
 
-    ProfileReader reader = new ProfileReader(Path.of("data/profile.properties"));
-    Profile profile = reader.readProfile().getProfile();
+    Profile profile = ProfileService.getInstance().getProfile();
 
     private Node currentlySelectedObject = null;
 
@@ -105,6 +123,7 @@ public class MainPageController implements Initializable {
                 assignmentsRectangle.setVisible(!userClickedAnnouncements);
 
                 showAnnouncements = userClickedAnnouncements;
+                renderShownPeriod();
             }
         }
     }
@@ -155,6 +174,22 @@ public class MainPageController implements Initializable {
     private LocalDate weekDisplayed; //stores the first day of the week displayed
     private final LocalDate currentDate = LocalDate.now();
 
+    private final AssignmentDataProvider assignmentProvider = new AssignmentDataProvider();
+    private final AnnouncementDataProvider announcementProvider = new AnnouncementDataProvider();
+    private final PeriodPrefetcher prefetcher = new PeriodPrefetcher(); //loads the neighbouring weeks or days in the background
+
+    //loads of the period shown; replaced on every navigation so late results of an old period are dropped
+    private CompletableFuture<Map<DayOfWeek, List<AssignmentDisplay>>> assignmentsLoad;
+    private CompletableFuture<Map<DayOfWeek, List<AnnouncementDisplay>>> announcementsLoad;
+
+    //the items of the period shown, by day; only touched on the FX thread
+    private WeekRange shownRange;
+    private Map<DayOfWeek, List<AssignmentDisplay>> shownAssignments = Map.of();
+    private Map<DayOfWeek, List<AnnouncementDisplay>> shownAnnouncements = Map.of();
+
+    //changes to the period shown, delivered at most once per frame; follows the period as the user navigates
+    private ChangeEventBus.Subscription changeSubscription;
+
     private void updateDate(String action, Optional<MouseEvent> day) {
         MouseEvent mouseEvent = day.orElse(null);
         String weekStartSetting = (weekStart) ? "sunday" : "monday";
@@ -231,6 +266,244 @@ public class MainPageController implements Initializable {
         }
 
         fillDate();
+        loadShownPeriod(action);
+    }
+
+    /**
+     * Loads the assignments and announcements of the period now shown on the data layer's threads,
+     * so a slow disk never stalls the FX thread. Both results are handed to the FX thread together
+     * in one runLater, and the neighbouring periods are prefetched once they are in.
+     *
+     * @param action the navigation that led here, or null to reload the same period after a change
+     */
+    private void loadShownPeriod(String action) {
+        //the user has moved on; loads that have not started yet are skipped
+        if (assignmentsLoad != null) { assignmentsLoad.cancel(false); }
+        if (announcementsLoad != null) { announcementsLoad.cancel(false); }
+
+        WeekRange shown = defaultView
+                ? new WeekRange(weekDisplayed, weekDisplayed.plusWeeks(1))
+                : new WeekRange(dateDisplayed, dateDisplayed.plusDays(1));
+        shownRange = shown;
+        followChanges(shown);
+
+        CompletableFuture<Map<DayOfWeek, List<AssignmentDisplay>>> assignments = assignmentProvider.getDataForWeekAsync(shown);
+        CompletableFuture<Map<DayOfWeek, List<AnnouncementDisplay>>> announcements = announcementProvider.getDataForWeekAsync(shown);
+        assignmentsLoad = assignments;
+        announcementsLoad = announcements;
+
+        CompletableFuture.allOf(assignments, announcements).whenCompleteAsync((ignored, failure) -> {
+            if (assignments != assignmentsLoad) { return; } //a newer period was requested meanwhile
+
+            if (failure != null) {
+                Throwable cause = (failure.getCause() != null) ? failure.getCause() : failure;
+                System.err.println("Loading the planner failed: " + cause.getMessage());
+                return;
+            }
+
+            shownAssignments = assignments.join();
+            shownAnnouncements = announcements.join();
+            renderShownPeriod();
+            if (action != null) { prefetchNeighbours(action); } //a reload stays on the same period
+        }, Platform::runLater);
+    }
+
+    /**
+     * Subscribes to changes within the period shown, or moves the subscription to it.
+     *
+     * @param shown the period now shown
+     */
+    private void followChanges(WeekRange shown) {
+        LocalDate last = shown.endExcl().minusDays(1);
+        if (changeSubscription == null) {
+            changeSubscription = ChangeEventBus.getInstance().subscribe(
+                    Set.of(EntityType.COURSES, EntityType.ASSIGNMENTS, EntityType.ANNOUNCEMENTS),
+                    shown.startIncl(), last, Platform::runLater, this::applyChanges);
+        } else {
+            changeSubscription.setRange(shown.startIncl(), last);
+        }
+    }
+
+    /**
+     * Applies changes made by a sync to the period shown. Only the days holding a changed row are
+     * reloaded and swapped in; the rest of the period is left as it is. Changes that cannot be
+     * placed on a day, such as renamed courses or edits made outside the app, reload the whole period.
+     *
+     * @param events the coalesced changes since the last frame
+     */
+    private void applyChanges(List<ChangeEvent> events) {
+        if (!assignmentsLoad.isDone() || !announcementsLoad.isDone()) {
+            loadShownPeriod(null); //the load in flight may have read the rows before the change
+            return;
+        }
+
+        Set<LocalDate> assignmentDays = new TreeSet<>();
+        Set<LocalDate> announcementDays = new TreeSet<>();
+        for (ChangeEvent event : events) {
+            if (event.kind() == ChangeEvent.Kind.UNPLACED || event.dates().isEmpty()) {
+                loadShownPeriod(null);
+                return;
+            }
+
+            Set<LocalDate> days = (event.type() == EntityType.ASSIGNMENTS) ? assignmentDays : announcementDays;
+            for (LocalDate date : event.dates()) {
+                if (isShown(date)) { days.add(date); }
+            }
+        }
+
+        for (LocalDate changedDay : assignmentDays) {
+            assignmentProvider.getDataForPeriodAsync(changedDay, changedDay).whenCompleteAsync((items, failure) -> {
+                if (failure != null) { loadShownPeriod(null); return; } //fall back to a full reload, which reports the failure
+                if (isShown(changedDay)) {
+                    shownAssignments = withDay(shownAssignments, changedDay, items);
+                    renderShownPeriod();
+                }
+            }, Platform::runLater);
+        }
+        for (LocalDate changedDay : announcementDays) {
+            announcementProvider.getDataForPeriodAsync(changedDay, changedDay).whenCompleteAsync((items, failure) -> {
+                if (failure != null) { loadShownPeriod(null); return; }
+                if (isShown(changedDay)) {
+                    shownAnnouncements = withDay(shownAnnouncements, changedDay, items);
+                    renderShownPeriod();
+                }
+            }, Platform::runLater);
+        }
+    }
+
+    /**
+     * Fills the planner with the items of the period shown: one column per day in week view,
+     * or the selected day in day view. Shows announcements or assignments, as chosen in the viewing menu.
+     */
+    private void renderShownPeriod() {
+        if (shownRange == null) { return; } //nothing loaded yet
+
+        if (defaultView) {
+            for (int i = 0; i < weekContentsPanes.length; i++) {
+                LocalDate day = shownRange.startIncl().plusDays(i); //the first column is the first day of the week
+                fillContents(contentsBoxOf(weekContentsPanes[i]), day, false);
+            }
+        } else {
+            fillContents(dayContentsBox, dateDisplayed, true);
+        }
+    }
+
+    /**
+     * Replaces a day's contents with its announcements or assignments.
+     *
+     * @param box the box holding the day's contents
+     * @param day the day to show
+     * @param showEmptyMessage true to say so when the day has nothing, which only fits the wide day view
+     */
+    private void fillContents(VBox box, LocalDate day, boolean showEmptyMessage) {
+        box.getChildren().clear();
+        if (!isShown(day)) { return; } //the load for this period has not come in yet
+
+        if (showAnnouncements) {
+            for (AnnouncementDisplay announcement : shownAnnouncements.getOrDefault(day.getDayOfWeek(), List.of())) {
+                box.getChildren().add(itemNode(announcement.getCourseName(), announcement.getTitle()));
+            }
+        } else {
+            for (AssignmentDisplay assignment : shownAssignments.getOrDefault(day.getDayOfWeek(), List.of())) {
+                String due = (assignment.getDueTime() != null && !assignment.getDueTime().isEmpty())
+                        ? " (due " + assignment.getDueTime() + ")" : "";
+                box.getChildren().add(itemNode(assignment.getCourseName(), assignment.getAssignmentName() + due));
+            }
+        }
+
+        if (box.getChildren().isEmpty() && showEmptyMessage) {
+            Label empty = new Label(showAnnouncements ? announcementProvider.getEmptyMessage() : assignmentProvider.getEmptyMessage());
+            empty.setStyle("-fx-text-fill: #696969; -fx-padding: 8;");
+            box.getChildren().add(empty);
+        }
+    }
+
+    /**
+     * Builds the node of one announcement or assignment: a course header above the item's text.
+     *
+     * @param courseName the course the item belongs to
+     * @param text the title or name of the item
+     * @return the item's node
+     */
+    private static Node itemNode(String courseName, String text) {
+        Label header = new Label(courseName);
+        header.setTextFill(Color.WHITE);
+        header.setFont(Font.font("Arial Rounded MT Bold", 12.0));
+        header.setWrapText(true);
+        header.setMaxWidth(Double.MAX_VALUE);
+        header.setStyle("-fx-background-color: #696969; -fx-padding: 4 6 4 6;");
+
+        Label body = new Label(text);
+        body.setWrapText(true);
+        body.setStyle("-fx-padding: 4 6 4 6;");
+
+        VBox item = new VBox(header, body);
+        item.setStyle("-fx-border-color: #bcbec0; -fx-border-width: 0 0 3 0;"); //separator under each item
+        return item;
+    }
+
+    /**
+     * Gets the box a week column lays its contents out in.
+     *
+     * @param contentsPane the day's column
+     * @return the column's box
+     */
+    private static VBox contentsBoxOf(AnchorPane contentsPane) {
+        for (Node child : contentsPane.getChildren()) {
+            if (child instanceof VBox box) { return box; }
+        }
+        VBox box = new VBox();
+        AnchorPane.setTopAnchor(box, 0.0);
+        AnchorPane.setBottomAnchor(box, 0.0);
+        AnchorPane.setLeftAnchor(box, 0.0);
+        AnchorPane.setRightAnchor(box, 0.0);
+        contentsPane.getChildren().add(box);
+        return box;
+    }
+
+    /**
+     * Checks whether a date is within the period shown.
+     *
+     * @param date the date to check
+     * @return true if the date is shown
+     */
+    private boolean isShown(LocalDate date) {
+        return !date.isBefore(shownRange.startIncl()) && date.isBefore(shownRange.endExcl());
+    }
+
+    /**
+     * Copies a period's items with one day's items replaced.
+     *
+     * @param byDay the items of the period, by day
+     * @param changedDay the day to replace
+     * @param items the day's new items
+     * @return the updated copy
+     */
+    private static <T> Map<DayOfWeek, List<T>> withDay(Map<DayOfWeek, List<T>> byDay, LocalDate changedDay, List<T> items) {
+        Map<DayOfWeek, List<T>> updated = new EnumMap<>(DayOfWeek.class);
+        updated.putAll(byDay);
+        updated.put(changedDay.getDayOfWeek(), items);
+        return updated;
+    }
+
+    /**
+     * Starts loading the periods next to the one now shown, in the direction the user is moving.
+     * Called after the period's data is in, so the prefetch never delays it.
+     *
+     * @param action the navigation that led here
+     */
+    private void prefetchNeighbours(String action) {
+        PeriodPrefetcher.Direction direction = switch (action) {
+            case "nextWeek", "nextDay" -> PeriodPrefetcher.Direction.FORWARD;
+            case "previousWeek", "previousDay" -> PeriodPrefetcher.Direction.BACKWARD;
+            default -> PeriodPrefetcher.Direction.NONE;
+        };
+
+        if (defaultView) { //week view shows the whole week
+            prefetcher.viewed(weekDisplayed, weekDisplayed.plusDays(6), direction);
+        } else {
+            prefetcher.viewed(dateDisplayed, dateDisplayed, direction);
+        }
     }
 
     @FXML
@@ -334,12 +607,14 @@ public class MainPageController implements Initializable {
         dayPlanner.setVisible(!userClickedViewByWeek);
 
         defaultView = userClickedViewByWeek;
-        profile.setDefaultView(defaultView ? "week" : "day");
+        String viewSetting = defaultView ? "week" : "day";
+        ProfileService.getInstance().update(p -> p.setDefaultView(viewSetting));
 
         organizePlannerByWeekStart(); //the first day of the week isn't changed on the day-week view that's hidden, so it needs to be updated
         if (!defaultView) { //the user changed the planner to see the day view
             changeDayViewed(weekDayViewed);//planner defaults to viewing the first day; change this to the day selected. weekDayViewed is updated before toggleViewByWeek is called
         }
+        loadShownPeriod("toggleView"); //the other view shows a different period
     }
 
     @FXML
@@ -348,6 +623,11 @@ public class MainPageController implements Initializable {
     @FXML
     private AnchorPane sundayContentsPane, mondayContentsPane, tuesdayContentsPane, wednesdayContentsPane, thursdayContentsPane, fridayContentsPane, saturdayContentsPane;
 
+    private AnchorPane[] weekContentsPanes; //the columns in the order shown; the first is the first day of the week
+
+    @FXML
+    private VBox dayContentsBox;
+
     @FXML
     private AnchorPane sundayDayHeaderPane, mondayDayHeaderPane, tuesdayDayHeaderPane, wednesdayDayHeaderPane, thursdayDayHeaderPane, fridayDayHeaderPane, saturdayDayHeaderPane;
 
@@ -464,27 +744,51 @@ public class MainPageController implements Initializable {
             boolean userClickedSunday = label.getText().equals("Sunday");
 
             if (weekStart != userClickedSunday) { //if the user clicks the other unselected option
-                sundayRectangle.setVisible(userClickedSunday);
-                mondayRectangle.setVisible(!userClickedSunday);
-
-                weekStart = userClickedSunday;
-                profile.setWeekStart(weekStart ? "sunday" : "monday");
-
-                organizePlannerByWeekStart();
-                updateDate("changeWeekStart", Optional.empty());
-                if (!defaultView) { //if the user is currently seeing the day view
-                    weekDayViewed = dateDisplayed.getDayOfWeek().getValue();
-                    if (weekStart) { //if the user changed the start of the week to be sunday
-                        weekDayViewed += (weekDayViewed == 7) ? -7 : 0;
-                    } else {
-                        weekDayViewed--;
-                    }
-                    changeDayViewed(weekDayViewed);
-                }
+                changeWeekStart(userClickedSunday);
+                ProfileService.getInstance().update(p -> p.setWeekStart(userClickedSunday ? "sunday" : "monday"));
             }
         }
     }
 
+    /**
+     * Rearranges the planner for a new first day of the week, keeping the viewed day selected.
+     *
+     * @param sunday true if the week now starts on sunday, false for monday
+     */
+    private void changeWeekStart(boolean sunday) {
+        sundayRectangle.setVisible(sunday);
+        mondayRectangle.setVisible(!sunday);
+
+        weekStart = sunday;
+
+        organizePlannerByWeekStart();
+        updateDate("changeWeekStart", Optional.empty());
+        if (!defaultView) { //if the user is currently seeing the day view
+            weekDayViewed = dateDisplayed.getDayOfWeek().getValue();
+            if (weekStart) { //if the user changed the start of the week to be sunday
+                weekDayViewed += (weekDayViewed == 7) ? -7 : 0;
+            } else {
+                weekDayViewed--;
+            }
+            changeDayViewed(weekDayViewed);
+        }
+    }
+
+    /**
+     * Follows week start changes made outside this page, such as a hand edit of the profile.
+     * Changes made by toggleWeekStart arrive here too and find the planner already up to date.
+     */
+    private final ProfileService.Listener weekStartListener = (changedProfile, changedKeys) -> {
+        if (changedKeys.contains("weekStart")) {
+            boolean sunday = changedProfile.getWeekStart().equalsIgnoreCase("sunday");
+            Platform.runLater(() -> {
+                if (weekStart != sunday) {
+                    changeWeekStart(sunday);
+                }
+            });
+        }
+    };
+
     private AnchorPane[] listOfDayHeaders;
 
     private int weekDayViewed = 0; //0 - sunday, 6 - saturday
@@ -553,11 +857,35 @@ public class MainPageController implements Initializable {
 
     @FXML
     private void closeApplication(MouseEvent event) {
+        stopFollowingChanges(); //exiting does not hide the window, so the close handler would not run
         Platform.exit();
     }
 
+    /**
+     * Stops following profile and data changes once the page is closed, so the process-wide
+     * services do not keep the page alive or update it after it is gone.
+     */
+    private void stopFollowingChanges() {
+        ProfileService.getInstance().removeListener(weekStartListener);
+        if (changeSubscription != null) {
+            changeSubscription.close();
+            changeSubscription = null;
+        }
+        prefetcher.cancel();
+    }
+
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
+        weekContentsPanes = new AnchorPane[] {
+            sundayContentsPane,
+            mondayContentsPane,
+            tuesdayContentsPane,
+            wednesdayContentsPane,
+            thursdayContentsPane,
+            fridayContentsPane,
+            saturdayContentsPane
+        };
+
         listOfDayHeaders = new AnchorPane[] {
             sundayDayHeaderPane,
             mondayDayHeaderPane,
@@ -619,6 +947,18 @@ public class MainPageController implements Initializable {
         sundayRectangle.setVisible(weekStart);
         mondayRectangle.setVisible(!weekStart);
 
+        ProfileService.getInstance().addListener(weekStartListener);
+        //the page is put in a scene and a window only after loading, so wait for the window to hook its closing
+        displayDateParent.sceneProperty().addListener((sceneProperty, oldScene, scene) -> {
+            if (scene != null) {
+                scene.windowProperty().addListener((windowProperty, oldWindow, window) -> {
+                    if (window != null) {
+                        window.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> stopFollowingChanges());
+                    }
+                });
+            }
+        });
+
         Platform.runLater(() -> {
             dateMemory = (dateDisplayed == null) ? LocalDate.now() : dateDisplayed;
             displayDateParentPaneCenter = displayDateParent.getWidth() / 2; //calculate the center point of the displayDateParentPane when the object is rendered
@@ -3,7 +3,7 @@ package csusm.cougarplanner.controllers;
 import csusm.cougarplanner.API;
 import csusm.cougarplanner.Launcher;
 import csusm.cougarplanner.config.Profile;
-import csusm.cougarplanner.config.ProfileWriter;
+import csusm.cougarplanner.config.ProfileService;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Path;
@@ -137,8 +137,7 @@ public class OrientationController implements Initializable {
 
                     // Creating profile.properties file with given token with set defaults
                     try {
-                        ProfileWriter writer = new ProfileWriter(Path.of("data/profile.properties"));
-                        writer.writeProfile(profile);
+                        ProfileService.getInstance().save(profile);
                     } catch (IOException e) {
                         statusLabel.setStyle("-fx-text-fill: #ff3030;");
                         statusLabel.setText("|    Failed to save profile.");
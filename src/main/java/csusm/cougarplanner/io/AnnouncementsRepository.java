@@ -5,48 +5,76 @@ import csusm.cougarplanner.models.Announcement;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
 import csusm.cougarplanner.util.DateTimeUtil;
-import csusm.cougarplanner.util.WeekUtil;
 
 /**
- * Repository class for managing Announcement data persistence in announcements.csv.
+ * Repository class for managing Announcement data persistence in the monthly announcement partitions.
+ * Announcement bodies are kept out of the rows in a compressed body store and read only on demand.
+ * Storage of the rows is delegated to the {@link StorageBackend} chosen by {@link StorageKind}.
  *
  * Part of T03: Implement CSV layer for announcements.csv with upsert by ID functionality.
  */
 public class AnnouncementsRepository
 {
     // CSV column headers matching the announcements.csv file specification
-    private static final String[] HEADERS = {"announcement_id", "course_id", "title", "posted_at", "body"};
+    // body is only filled for rows written before bodies moved to the body store
+    private static final String[] HEADERS = {"announcement_id", "course_id", "title", "posted_at", "body", "body_offset", "body_length"};
     // Formatter for parsing and formatting the combined datetime in posted_at field
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 
-    private final CsvReader csvReader;
-    private final CsvWriter csvWriter;
+    private static final AnnouncementCodec CODEC = new AnnouncementCodec();
+    // Shared by every repository instance so rows are loaded and indexed once per process
+    private static final SharedBackend<Announcement> BACKEND =
+            new SharedBackend<>(EntityType.ANNOUNCEMENTS, AnnouncementsRepository::createBackend);
+    private static final BodyStore BODIES = new BodyStore(CsvPaths.getAnnouncementBodiesPath());
 
     /**
-     * Constructs a new AnnouncementsRepository with default CSV reader/writer.
+     * Constructs a new AnnouncementsRepository over the shared storage backend.
      */
     public AnnouncementsRepository()
     {
-        this.csvReader = new CsvReader();
-        this.csvWriter = new CsvWriter();
     }
 
     /**
-     * Retrieves all announcements from the announcements.csv file.
+     * Replaces the shared backend, for tests that run the repository over their own storage.
+     *
+     * @param backend the backend to use from now on, or null to create the configured one again on next use
+     */
+    static void useBackend(StorageBackend<Announcement> backend)
+    {
+        BACKEND.replace(backend);
+    }
+
+    /**
+     * Creates the backend configured for this process: the embedded store, or the announcement partitions by default.
+     * The embedded store starts out with the rows of the partitions, so switching keeps them.
+     *
+     * @return the announcement backend
+     */
+    private static StorageBackend<Announcement> createBackend()
+    {
+        ArchiveStore<Announcement> archive = new ArchiveStore<>(CsvPaths.getAnnouncementsArchiveDirectory(), CODEC);
+        PartitionedCsvStore<Announcement> partitions =
+                new PartitionedCsvStore<>(CsvPaths.getAnnouncementsPartitionDirectory(), CsvPaths.getAnnouncementsPath(), CODEC);
+        if (StorageKind.configured() == StorageKind.EMBEDDED)
+        {
+            return new EmbeddedStore<>(CsvPaths.getAnnouncementsStorePath(), CODEC, archive, new IndexedTable<>(partitions, CODEC));
+        }
+        return new IndexedTable<>(partitions, CODEC, CsvPaths.getAnnouncementsSnapshotPath(), archive);
+    }
+
+    /**
+     * Retrieves all announcements from every announcement partition.
      *
      * @return List of all Announcement objects in the database
      * @throws IOException if the CSV file cannot be read
      */
     public List<Announcement> findAll() throws IOException
     {
-        List<Map<String, String>> records = csvReader.readAll(CsvPaths.getAnnouncementsPath());
-        return records.stream()
-                .map(this::mapToAnnouncement)
-                .collect(Collectors.toList());
+        return BACKEND.get().findAll();
     }
 
 
@@ -57,13 +85,11 @@ public class AnnouncementsRepository
      * @param weekStart the start date of the week (inclusive)
      * @param weekEnd the end date of the week (inclusive)
      * @return List of announcements posted within the specific week
-     * @throws IOException if the CSV file cannot be read
+     * @throws IOException if the partitions cannot be read
      */
     public List<Announcement> findByWeek(LocalDate weekStart, LocalDate weekEnd) throws IOException
     {
-        return findAll().stream()
-                .filter(announcement -> isInWeek(announcement, weekStart, weekEnd))
-                .collect(Collectors.toList());
+        return BACKEND.get().findRange(weekStart, weekEnd);
     }
 
     /**
@@ -72,13 +98,23 @@ public class AnnouncementsRepository
      *
      * @param day the specific day to filter announcements by
      * @return List of announcements posted on the specific day
-     * @throws IOException if the CSV file cannot be read
+     * @throws IOException if the partitions cannot be read
      */
     public List<Announcement> findByDay(LocalDate day) throws IOException
     {
-        return findAll().stream()
-                .filter(announcement -> isOnDay(announcement, day))
-                .collect(Collectors.toList());
+        return BACKEND.get().findDay(day);
+    }
+
+    /**
+     * Finds all announcements of a course.
+     *
+     * @param courseId the course to filter announcements by
+     * @return List of the course's announcements
+     * @throws IOException if the stored announcements cannot be read
+     */
+    public List<Announcement> findByCourse(String courseId) throws IOException
+    {
+        return BACKEND.get().findByCourse(courseId);
     }
 
     /**
@@ -89,79 +125,272 @@ public class AnnouncementsRepository
      */
     public void upsert(Announcement announcement) throws IOException
     {
-        List<Announcement> allAnnouncements = findAll();
+        // Replaces any existing announcement with the same ID
+        upsertAll(List.of(announcement));
+    }
 
-        // Removes existing announcement with same ID
-        allAnnouncements.removeIf(a -> a.getAnnouncementId().equals(announcement.getAnnouncementId()));
+    /**
+     * Upsert operation for multiple announcements.
+     *
+     * @param announcements List of announcements to upsert
+     * @return what the upsert changed
+     * @throws IOException if the CSV file cannot be written
+     */
+    public MergeDiff<Announcement> upsertAll(List<Announcement> announcements) throws IOException
+    {
+        // Begun before the bodies are stored, so they are appended while the data lock is held
+        try (FileTransaction transaction = FileTransaction.begin())
+        {
+            MergeDiff<Announcement> diff = upsertAll(announcements, transaction);
+            if (!diff.isEmpty())
+            {
+                transaction.commit();
+                publishChanges(diff);
+            }
+            return diff;
+        }
+    }
 
-        // Adds updated announcement
-        allAnnouncements.add(announcement);
+    /**
+     * Upsert operation for multiple announcements as part of a transaction.
+     * The partitions are replaced when the transaction commits; bodies are stored right away.
+     *
+     * @param announcements List of announcements to upsert
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed
+     * @throws IOException if the bodies cannot be stored or the partitions cannot be staged
+     */
+    public MergeDiff<Announcement> upsertAll(List<Announcement> announcements, FileTransaction transaction) throws IOException
+    {
+        return BACKEND.get().upsertAll(withStoredBodies(announcements), (existing, updated) -> updated, transaction);
+    }
 
-        // Writes back to file
-        List<Map<String, String>> records = allAnnouncements.stream()
-                .map(this::announcementToMap)
-                .collect(Collectors.toList());
+    /**
+     * Performs the sync upsert as part of a transaction, removing stored announcements that the fetch
+     * covered completely but did not return. Removed announcements are kept as tombstones in the archive.
+     *
+     * @param announcements List of announcements to upsert
+     * @param scope what the fetch returned completely, or null to never remove announcements
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed, including the removed announcements
+     * @throws IOException if the partitions cannot be staged
+     */
+    public MergeDiff<Announcement> upsertAll(List<Announcement> announcements, FetchScope scope,
+                                   FileTransaction transaction) throws IOException
+    {
+        return BACKEND.get().upsertAll(withStoredBodies(announcements), (existing, updated) -> updated, scope, transaction);
+    }
 
-        csvWriter.writeAll(CsvPaths.getAnnouncementsPath(), records, HEADERS);
+    /**
+     * Upsert operation for multiple announcements with a bounded amount of memory,
+     * for histories too large to load. Incoming bodies are moved to the body store.
+     *
+     * @param announcements List of announcements to upsert
+     * @param memoryBudget bytes of rows the merge may buffer before spilling to disk
+     * @return what the upsert changed
+     * @throws IOException if the bodies cannot be stored or the partitions cannot be written
+     */
+    public MergeDiff<Announcement> upsertAllExternal(List<Announcement> announcements, long memoryBudget) throws IOException
+    {
+        // Begun before the bodies are stored, so they are appended while the data lock is held
+        try (FileTransaction transaction = FileTransaction.begin())
+        {
+            MergeDiff<Announcement> diff = upsertAllExternal(announcements, memoryBudget, transaction);
+            if (!diff.isEmpty())
+            {
+                transaction.commit();
+                publishChanges(diff);
+            }
+            return diff;
+        }
     }
 
     /**
-     * Upsert operation for multiple announcements.
+     * Upsert operation for multiple announcements with a bounded amount of memory as part of a transaction.
      *
      * @param announcements List of announcements to upsert
-     * @throws IOException if the CSV file cannot be written
+     * @param memoryBudget bytes of rows the merge may buffer before spilling to disk
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed
+     * @throws IOException if the bodies cannot be stored or the partitions cannot be staged
      */
-    public void upsertAll(List<Announcement> announcements) throws IOException
+    public MergeDiff<Announcement> upsertAllExternal(List<Announcement> announcements, long memoryBudget,
+                                                     FileTransaction transaction) throws IOException
     {
-        Map<String, Announcement> announcementMap = new HashMap<>();
+        return BACKEND.get().upsertAllExternal(withStoredBodies(announcements), (existing, updated) -> updated,
+                memoryBudget, transaction);
+    }
 
-        // Loads existing announcements
-        for (Announcement existing : findAll())
+    /**
+     * Loads the full body of an announcement from the body store.
+     *
+     * @param announcement the announcement whose body to load
+     * @return the body text, or an empty string if the announcement has none
+     * @throws IOException if the body store cannot be read
+     */
+    public String loadBody(Announcement announcement) throws IOException
+    {
+        if (hasInlineBody(announcement))
         {
-            announcementMap.put(existing.getAnnouncementId(), existing);
+            return announcement.getBody();
         }
+        if (announcement.hasStoredBody())
+        {
+            return loadBody(announcement.getBodyOffset(), announcement.getBodyLength());
+        }
+        return "";
+    }
+
+    /**
+     * Loads a body from the body store by its location, as carried by a row or a display object.
+     *
+     * @param bodyOffset byte offset of the compressed body
+     * @param bodyLength length of the compressed body in bytes
+     * @return the body text
+     * @throws IOException if the body store cannot be read
+     */
+    public String loadBody(long bodyOffset, int bodyLength) throws IOException
+    {
+        return BODIES.read(bodyOffset, bodyLength);
+    }
+
+    /**
+     * Performs the sync upsert with a bounded amount of memory as part of a transaction,
+     * removing stored announcements that the fetch covered completely but did not return.
+     *
+     * @param announcements List of announcements to upsert
+     * @param memoryBudget bytes of rows the merge may buffer before spilling to disk
+     * @param scope what the fetch returned completely, or null to never remove announcements
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed, including the removed announcements
+     * @throws IOException if the partitions or spill files cannot be read or staged
+     */
+    public MergeDiff<Announcement> upsertAllExternal(List<Announcement> announcements, long memoryBudget, FetchScope scope,
+                                                   FileTransaction transaction) throws IOException
+    {
+        return BACKEND.get().upsertAllExternal(withStoredBodies(announcements), (existing, updated) -> updated, memoryBudget, scope, transaction);
+    }
+
+    /**
+     * Publishes the changes of an upsert staged in a transaction the caller has since committed.
+     * Writes the repository commits itself are published by the repository.
+     *
+     * @param diff what the committed upsert changed
+     */
+    public void publishChanges(MergeDiff<Announcement> diff)
+    {
+        ChangeEventBus.getInstance().publish(ChangeEvent.of(EntityType.ANNOUNCEMENTS, diff, CODEC));
+    }
 
-        // Updates with new announcements
+    /**
+     * Moves announcements dated before the cutoff out of the hot partitions into the compressed archive.
+     * Week and day queries still find them.
+     *
+     * @param cutoff the first date that stays in the hot partitions
+     * @return the number of announcements archived
+     * @throws IOException if the partitions or the archive cannot be written
+     */
+    public int archiveBefore(LocalDate cutoff) throws IOException
+    {
+        return BACKEND.get().archiveBefore(cutoff);
+    }
+
+    /**
+     * Writes the binary announcement snapshot that the next startup reads instead of parsing CSVs.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot() throws IOException
+    {
+        BACKEND.get().writeSnapshot();
+    }
+
+    /**
+     * Gets how many announcement bodies were deduplicated by the body store and the bytes saved.
+     *
+     * @return the body store's dedup statistics
+     */
+    public DedupStats getBodyDedupStats()
+    {
+        return BODIES.getDedupStats();
+    }
+
+    /**
+     * Gets the hit, miss and reload counters of the shared announcement cache.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats getCacheStats()
+    {
+        return BACKEND.get().getCacheStats();
+    }
+
+    /**
+     * Copies announcements for storage with their bodies in the body store,
+     * without touching the stored rows. A stored row from an older file keeps its inline body
+     * until its announcement is upserted again, which replaces the row by ID.
+     *
+     * @param announcements the announcements to store
+     * @return the copies to upsert
+     * @throws IOException if a body cannot be stored
+     */
+    private static List<Announcement> withStoredBodies(List<Announcement> announcements) throws IOException
+    {
+        // Stored as one batch, so the body file is forced once per upsert rather than once per body
+        List<String> bodies = new ArrayList<>();
         for (Announcement announcement : announcements)
         {
-            announcementMap.put(announcement.getAnnouncementId(), announcement);
+            if (hasInlineBody(announcement))
+            {
+                bodies.add(announcement.getBody());
+            }
         }
+        Iterator<BodyStore.BodyRef> refs = BODIES.storeAll(bodies).iterator();
 
-        // Writes back
-        List<Map<String, String>> records = announcementMap.values().stream()
-                .map(this::announcementToMap)
-                .collect(Collectors.toList());
-
-        csvWriter.writeAll(CsvPaths.getAnnouncementsPath(), records, HEADERS);
+        List<Announcement> stored = new ArrayList<>(announcements.size());
+        for (Announcement announcement : announcements)
+        {
+            stored.add(withStoredBody(announcement, hasInlineBody(announcement) ? refs.next() : null));
+        }
+        return stored;
     }
 
     /**
-     * Checks if an announcement was posted within specific week range.
+     * Checks whether an announcement still holds its body in memory.
      *
-     * @param announcement the Announcement to check
-     * @param weekStart the start date of the week
-     * @param weekEnd the end date of the week
-     * @return true if the announcement was posted within the week range, false otherwise
+     * @param announcement the announcement to check
+     * @return true if the body text is set on the object
      */
-    private boolean isInWeek(Announcement announcement, LocalDate weekStart, LocalDate weekEnd)
+    private static boolean hasInlineBody(Announcement announcement)
     {
-        LocalDateTime postedAt = DateTimeUtil.parseDateTime(announcement.getPostedAt());
-        if (postedAt == null) return false;
-        LocalDate postedDate = postedAt.toLocalDate();
-        return WeekUtil.isDateInWeek(postedDate, weekStart, weekEnd);
+        return announcement.getBody() != null && !announcement.getBody().isEmpty();
     }
 
     /**
-     * Checks if an announcement was posted on the specific day.
+     * Copies an announcement for storage, pointing it at its body in the body store.
+     * The copy carries only the body's offset and length; the caller's object is not modified.
+     * A body that is already stored resolves to the same location, so re-syncing an unchanged
+     * announcement leaves its row, and therefore its shard, unchanged.
      *
-     * @param announcement the Announcement to check
-     * @param day the specific day to check against
-     * @return true if the announcement was posted on the specific day, false otherwise
+     * @param announcement the announcement to store
+     * @param ref where its inline body was stored, or null if it has no inline body
+     * @return the copy to put in the table
      */
-    private boolean isOnDay(Announcement announcement, LocalDate day)
+    private static Announcement withStoredBody(Announcement announcement, BodyStore.BodyRef ref)
     {
-        LocalDateTime postedAt = DateTimeUtil.parseDateTime(announcement.getPostedAt());
-        return postedAt != null && postedAt.toLocalDate().equals(day);
+        Announcement stored = new Announcement(announcement.getAnnouncementId(), announcement.getCourseId(),
+                announcement.getTitle(), announcement.getPostedAt(), null);
+        if (ref != null)
+        {
+            stored.setBodyOffset(ref.offset());
+            stored.setBodyLength(ref.length());
+        }
+        else
+        {
+            stored.setBodyOffset(announcement.getBodyOffset());
+            stored.setBodyLength(announcement.getBodyLength());
+        }
+        return stored;
     }
 
     /**
@@ -170,14 +399,29 @@ public class AnnouncementsRepository
      * @param record Map representing a CSV row with snake_case keys
      * @return Announcement object populated from the CSV data
      */
-    private Announcement mapToAnnouncement(Map<String, String> record)
+    private static Announcement mapToAnnouncement(Map<String, String> record)
     {
         Announcement announcement = new Announcement();
         announcement.setAnnouncementId(record.get("announcement_id"));
         announcement.setCourseId(record.get("course_id"));
         announcement.setTitle(record.get("title"));
         announcement.setPostedAt(record.get("posted_at"));
-        announcement.setBody(record.get("body"));
+        String body = record.get("body");
+        announcement.setBody(body != null && !body.isEmpty() ? body : null);
+        try
+        {
+            String offset = record.get("body_offset");
+            if (offset != null && !offset.isEmpty())
+            {
+                announcement.setBodyOffset(Long.parseLong(offset));
+                announcement.setBodyLength(Integer.parseInt(record.getOrDefault("body_length", "0")));
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            announcement.setBodyOffset(-1);
+            announcement.setBodyLength(0);
+        }
         return announcement;
     }
 
@@ -187,7 +431,7 @@ public class AnnouncementsRepository
      * @param announcement the Announcement object to convert
      * @return Map representing a CSV row with snake_case keys
      */
-    private Map<String, String> announcementToMap(Announcement announcement)
+    private static Map<String, String> announcementToMap(Announcement announcement)
     {
         Map<String, String> record = new HashMap<>();
         record.put("announcement_id", announcement.getAnnouncementId());
@@ -195,6 +439,59 @@ public class AnnouncementsRepository
         record.put("title", announcement.getTitle());
         record.put("posted_at", announcement.getPostedAt());
         record.put("body", announcement.getBody() != null ? announcement.getBody() : "");
+        record.put("body_offset", announcement.hasStoredBody() ? String.valueOf(announcement.getBodyOffset()) : "");
+        record.put("body_length", announcement.hasStoredBody() ? String.valueOf(announcement.getBodyLength()) : "");
         return record;
     }
+
+    /**
+     * Describes how announcements are stored in partition rows.
+     * Announcements are partitioned by the date they were posted.
+     */
+    private static class AnnouncementCodec implements RowCodec<Announcement>
+    {
+        @Override
+        public String[] headers()
+        {
+            return HEADERS;
+        }
+
+        @Override
+        public String idOf(Announcement announcement)
+        {
+            return announcement.getAnnouncementId();
+        }
+
+        @Override
+        public String courseOf(Announcement announcement)
+        {
+            return announcement.getCourseId();
+        }
+
+        @Override
+        public LocalDate dateOf(Announcement announcement)
+        {
+            LocalDateTime postedAt = DateTimeUtil.parseDateTime(announcement.getPostedAt());
+            return postedAt != null ? postedAt.toLocalDate() : null;
+        }
+
+        @Override
+        public LocalTime timeOf(Announcement announcement)
+        {
+            LocalDateTime postedAt = DateTimeUtil.parseDateTime(announcement.getPostedAt());
+            return postedAt != null ? postedAt.toLocalTime() : null;
+        }
+
+        @Override
+        public Announcement fromRecord(Map<String, String> record)
+        {
+            return mapToAnnouncement(record);
+        }
+
+        @Override
+        public Map<String, String> toRecord(Announcement announcement)
+        {
+            return announcementToMap(announcement);
+        }
+    }
 }
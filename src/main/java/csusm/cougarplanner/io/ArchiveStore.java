@@ -0,0 +1,535 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Cold storage for rows that no longer belong in the hot partitions, e.g. data/archive/assignments.
+ *
+ * Rows past the retention period are moved into one gzip-compressed segment per month
+ * (YYYY-MM.csv.gz). Segments are only read when a query reaches back into an archived month,
+ * so the hot shards hold just the active term.
+ *
+ * Rows deleted upstream are kept as tombstones in tombstones.csv: the full row plus when it was
+ * removed. Tombstoned rows are never returned by queries, but a row that comes back later is
+ * restored from its tombstone, so local values such as difficulty survive. Tombstones older than
+ * a year are purged the next time the file is rewritten.
+ *
+ * An archived row that is fetched again is merged over its archived version and moves back into
+ * hot storage, so it is looked up by ID; the month of each archived ID is indexed on first lookup.
+ * The months that have segments are listed once per data version, so a query after the newest
+ * archived month reads nothing, and recently read segments are kept decoded while unchanged.
+ *
+ * @param <T> the model type stored in the archive
+ */
+public class ArchiveStore<T>
+{
+    private static final String SEGMENT_EXTENSION = ".csv.gz";
+    private static final String TOMBSTONES_FILE = "tombstones.csv";
+    private static final String REMOVED_AT = "removed_at";
+    private static final DateTimeFormatter REMOVED_AT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // Tombstones older than this are dropped; a row deleted that long ago is not coming back
+    private static final Period TOMBSTONE_MAX_AGE = Period.ofYears(1);
+    // Decoded segments kept for queries that reach back into the archive
+    private static final int MAX_CACHED_SEGMENTS = 6;
+
+    private final Path directory;
+    private final RowCodec<T> codec;
+    private final String[] tombstoneHeaders;
+    private final CsvReader csvReader;
+    private final CsvWriter csvWriter;
+
+    // All guarded by this
+    // Tombstone records by ID, loaded on first use
+    private Map<String, Map<String, String>> tombstones;
+    // The months that have a segment, as of monthsVersion; null until listed
+    private NavigableSet<String> months;
+    private long monthsVersion = -1;
+    // The month segment of each archived ID, as of idsVersion; null until first looked up
+    private Map<String, String> monthById;
+    private long idsVersion = -1;
+    // Decoded segment records by month, least recently used first
+    private final LinkedHashMap<String, Segment> segments = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The decoded records of a segment and the stamp of the file they were read from.
+     *
+     * @param stamp the segment file's stamp when it was read
+     * @param records the segment's records, in file order
+     */
+    private record Segment(FileStamp stamp, List<Map<String, String>> records) {}
+
+    /**
+     * Constructs an archive. Nothing is read or created until it is used.
+     *
+     * @param directory the directory that holds the segments and the tombstones
+     * @param codec converts between rows and model objects
+     */
+    public ArchiveStore(Path directory, RowCodec<T> codec)
+    {
+        this.directory = directory;
+        this.codec = codec;
+        this.tombstoneHeaders = Arrays.copyOf(codec.headers(), codec.headers().length + 1);
+        this.tombstoneHeaders[codec.headers().length] = REMOVED_AT;
+        this.csvReader = new CsvReader();
+        // Segments are only staged; the transaction that publishes them syncs the directory
+        this.csvWriter = new CsvWriter(CsvWriter.Durability.FSYNC_FILE);
+    }
+
+    /**
+     * Reads the archived rows dated within the range.
+     * Only the segments of archived months that overlap the range are read, from memory if unchanged.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the archived rows in the range, in segment order
+     * @throws IOException if a segment cannot be read
+     */
+    public List<T> readRange(LocalDate start, LocalDate end) throws IOException
+    {
+        List<T> items = new ArrayList<>();
+        for (String month : monthsBetween(YearMonth.from(start).toString(), YearMonth.from(end).toString()))
+        {
+            for (Map<String, String> record : segment(month))
+            {
+                T item = codec.fromRecord(record);
+                LocalDate date = codec.dateOf(item);
+                if (date != null && !date.isBefore(start) && !date.isAfter(end))
+                {
+                    items.add(item);
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Adds the archived rows of a range to rows found in hot storage, keeping date order.
+     * A hot row wins over an archived row with the same ID.
+     *
+     * @param rows the hot rows, ordered by date
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the combined rows
+     * @throws IOException if a segment cannot be read
+     */
+    public List<T> withArchived(List<T> rows, LocalDate start, LocalDate end) throws IOException
+    {
+        List<T> archived = readRange(start, end);
+        if (archived.isEmpty())
+        {
+            return rows;
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (T row : rows)
+        {
+            ids.add(codec.idOf(row));
+        }
+        List<T> combined = new ArrayList<>(rows);
+        for (T row : archived)
+        {
+            if (ids.add(codec.idOf(row)))
+            {
+                combined.add(row);
+            }
+        }
+        combined.sort(Comparator.comparing(codec::dateOf, Comparator.nullsLast(Comparator.naturalOrder())));
+        return combined;
+    }
+
+    /**
+     * Moves rows into their month segments as part of a transaction.
+     * Each affected segment is rewritten whole; a row already archived under the same ID is replaced.
+     *
+     * @param rows the rows to archive
+     * @param transaction the transaction to stage the segments in
+     * @throws IOException if a segment cannot be read or staged
+     */
+    public void append(Collection<T> rows, FileTransaction transaction) throws IOException
+    {
+        Map<String, List<T>> byMonth = new TreeMap<>();
+        Map<String, String> movedIn = new HashMap<>();
+        for (T row : rows)
+        {
+            String month = PartitionedCsvStore.partitionKey(codec.dateOf(row));
+            byMonth.computeIfAbsent(month, k -> new ArrayList<>()).add(row);
+            movedIn.put(codec.idOf(row), month);
+        }
+
+        Files.createDirectories(directory);
+        for (Map.Entry<String, List<T>> month : byMonth.entrySet())
+        {
+            Path segment = segmentPath(month.getKey());
+            Map<String, Map<String, String>> records = new LinkedHashMap<>();
+            for (Map<String, String> record : segment(month.getKey()))
+            {
+                records.put(codec.idOf(codec.fromRecord(record)), record);
+            }
+            for (T row : month.getValue())
+            {
+                records.put(codec.idOf(row), codec.toRecord(row));
+            }
+            transaction.write(segment, staged -> csvWriter.prepareCompressed(staged, records.values(), codec.headers()));
+        }
+        long stagedVersion = DataLock.getInstance().version();
+        transaction.onCommit(() -> commitSegments(movedIn, Set.of(), Set.of(), stagedVersion, transaction));
+    }
+
+    /**
+     * Gets the archived version of a row, so a row fetched again can be merged over it.
+     *
+     * @param id the row's ID
+     * @return the archived row, or null if the ID is not archived
+     * @throws IOException if the segments cannot be read
+     */
+    public synchronized T archived(String id) throws IOException
+    {
+        String month = monthById().get(id);
+        if (month == null)
+        {
+            return null;
+        }
+        for (Map<String, String> record : segment(month))
+        {
+            T row = codec.fromRecord(record);
+            if (id.equals(codec.idOf(row)))
+            {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the archived versions of rows that moved back into hot storage, as part of a transaction.
+     * Each affected segment is rewritten without them, or deleted once it is empty.
+     *
+     * @param ids the IDs of the rows to drop; IDs that are not archived are ignored
+     * @param transaction the transaction to stage the segments in
+     * @throws IOException if a segment cannot be read or staged
+     */
+    public synchronized void remove(Collection<String> ids, FileTransaction transaction) throws IOException
+    {
+        Map<String, Set<String>> byMonth = new TreeMap<>();
+        for (String id : ids)
+        {
+            String month = monthById().get(id);
+            if (month != null)
+            {
+                byMonth.computeIfAbsent(month, k -> new HashSet<>()).add(id);
+            }
+        }
+        if (byMonth.isEmpty())
+        {
+            return;
+        }
+
+        Set<String> movedOut = new HashSet<>();
+        Set<String> emptied = new HashSet<>();
+        for (Map.Entry<String, Set<String>> month : byMonth.entrySet())
+        {
+            List<Map<String, String>> kept = new ArrayList<>();
+            for (Map<String, String> record : segment(month.getKey()))
+            {
+                if (!month.getValue().contains(codec.idOf(codec.fromRecord(record))))
+                {
+                    kept.add(record);
+                }
+            }
+            Path segment = segmentPath(month.getKey());
+            if (kept.isEmpty())
+            {
+                transaction.delete(segment);
+                emptied.add(month.getKey());
+            }
+            else
+            {
+                transaction.write(segment, staged -> csvWriter.prepareCompressed(staged, kept, codec.headers()));
+            }
+            movedOut.addAll(month.getValue());
+        }
+        long stagedVersion = DataLock.getInstance().version();
+        transaction.onCommit(() -> commitSegments(Map.of(), movedOut, emptied, stagedVersion, transaction));
+    }
+
+    /**
+     * Gets the row a tombstone keeps for an ID.
+     *
+     * @param id the row's ID
+     * @return the removed row, or null if the ID has no tombstone
+     * @throws IOException if the tombstones cannot be read
+     */
+    public synchronized T tombstoned(String id) throws IOException
+    {
+        Map<String, String> record = tombstones().get(id);
+        return record != null ? codec.fromRecord(record) : null;
+    }
+
+    /**
+     * Gets the IDs of every row removed upstream and not restored since.
+     *
+     * @return the tombstoned IDs
+     * @throws IOException if the tombstones cannot be read
+     */
+    public synchronized Set<String> tombstonedIds() throws IOException
+    {
+        return Set.copyOf(tombstones().keySet());
+    }
+
+    /**
+     * Records removed rows as tombstones and drops the tombstones of restored rows,
+     * as part of a transaction. The tombstones seen by this archive change when it commits.
+     *
+     * @param removed rows that were removed upstream
+     * @param restoredIds IDs of tombstoned rows that were fetched again
+     * @param transaction the transaction to stage the tombstone file in
+     * @throws IOException if the tombstones cannot be read or staged
+     */
+    public synchronized void updateTombstones(Collection<T> removed, Collection<String> restoredIds,
+                                              FileTransaction transaction) throws IOException
+    {
+        Map<String, Map<String, String>> updated = new LinkedHashMap<>(tombstones());
+        boolean changed = updated.keySet().removeAll(restoredIds);
+        if (!removed.isEmpty() || changed)
+        {
+            // Only purged when the file is rewritten anyway
+            String purgeBefore = LocalDateTime.now().minus(TOMBSTONE_MAX_AGE).format(REMOVED_AT_FORMATTER);
+            updated.values().removeIf(record -> isOlder(record.get(REMOVED_AT), purgeBefore));
+        }
+        String removedAt = LocalDateTime.now().format(REMOVED_AT_FORMATTER);
+        for (T row : removed)
+        {
+            Map<String, String> record = new HashMap<>(codec.toRecord(row));
+            record.put(REMOVED_AT, removedAt);
+            updated.put(codec.idOf(row), record);
+            changed = true;
+        }
+        if (!changed)
+        {
+            return;
+        }
+
+        Files.createDirectories(directory);
+        transaction.write(directory.resolve(TOMBSTONES_FILE), updated.values(), tombstoneHeaders);
+        transaction.onCommit(() -> commitTombstones(updated));
+    }
+
+    /**
+     * Replaces the in-memory tombstones once their file is published.
+     *
+     * @param updated the tombstones that were written
+     */
+    private synchronized void commitTombstones(Map<String, Map<String, String>> updated)
+    {
+        tombstones = updated;
+    }
+
+    /**
+     * Updates the month indexes with a committed archive change. The indexes are kept only if they
+     * were current when the change was staged and no other process committed since; otherwise they
+     * are listed again on next use.
+     *
+     * @param movedIn the month of every row moved into the archive, by ID
+     * @param movedOut the IDs of rows dropped from the archive
+     * @param emptied months whose segment was deleted
+     * @param stagedVersion the data version when the change was staged
+     * @param transaction the committed transaction
+     */
+    private synchronized void commitSegments(Map<String, String> movedIn, Set<String> movedOut, Set<String> emptied,
+                                             long stagedVersion, FileTransaction transaction)
+    {
+        long committedVersion = transaction.getCommittedVersion();
+        boolean unchangedSince;
+        try
+        {
+            unchangedSince = DataLock.getInstance().version() == committedVersion;
+        }
+        catch (IOException e)
+        {
+            unchangedSince = false;
+        }
+
+        if (months != null && monthsVersion == stagedVersion && unchangedSince)
+        {
+            months.removeAll(emptied);
+            months.addAll(movedIn.values());
+            monthsVersion = committedVersion;
+        }
+        else
+        {
+            months = null;
+        }
+        if (monthById != null && idsVersion == stagedVersion && unchangedSince)
+        {
+            monthById.keySet().removeAll(movedOut);
+            monthById.putAll(movedIn);
+            idsVersion = committedVersion;
+        }
+        else
+        {
+            monthById = null;
+        }
+    }
+
+    /**
+     * Gets the archived months within a range of months.
+     *
+     * @param first the first month (YYYY-MM, inclusive)
+     * @param last the last month (YYYY-MM, inclusive)
+     * @return the months in the range that have a segment, in order
+     * @throws IOException if the directory cannot be listed or the data version cannot be read
+     */
+    private synchronized List<String> monthsBetween(String first, String last) throws IOException
+    {
+        return new ArrayList<>(months().subSet(first, true, last, true));
+    }
+
+    /**
+     * Gets the months that have a segment, listing the directory once per data version.
+     * Callers hold this archive's monitor.
+     *
+     * @return the archived months, in order
+     * @throws IOException if the directory cannot be listed or the data version cannot be read
+     */
+    private NavigableSet<String> months() throws IOException
+    {
+        long version = DataLock.getInstance().version();
+        if (months == null || monthsVersion != version)
+        {
+            NavigableSet<String> listed = new TreeSet<>();
+            if (Files.isDirectory(directory))
+            {
+                try (Stream<Path> files = Files.list(directory))
+                {
+                    files.map(file -> file.getFileName().toString())
+                            .filter(name -> name.endsWith(SEGMENT_EXTENSION))
+                            .forEach(name -> listed.add(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+                }
+            }
+            months = listed;
+            monthsVersion = version;
+        }
+        return months;
+    }
+
+    /**
+     * Gets the month segment of every archived ID, reading every segment once per data version.
+     * Callers hold this archive's monitor.
+     *
+     * @return archived IDs mapped to their month
+     * @throws IOException if a segment cannot be read or the data version cannot be read
+     */
+    private Map<String, String> monthById() throws IOException
+    {
+        long version = DataLock.getInstance().version();
+        if (monthById == null || idsVersion != version)
+        {
+            Map<String, String> indexed = new HashMap<>();
+            for (String month : new ArrayList<>(months()))
+            {
+                csvReader.readCompressed(segmentPath(month), record -> indexed.put(codec.idOf(codec.fromRecord(record)), month));
+            }
+            monthById = indexed;
+            idsVersion = version;
+        }
+        return monthById;
+    }
+
+    /**
+     * Gets the records of a month segment, decoding the file only if it changed since it was last read.
+     * The file is read without holding this archive's monitor.
+     *
+     * @param month the partition key (YYYY-MM)
+     * @return the segment's records, empty if it does not exist; never modified
+     * @throws IOException if the segment cannot be read
+     */
+    private List<Map<String, String>> segment(String month) throws IOException
+    {
+        Path path = segmentPath(month);
+        // Stamped before reading, so a segment replaced meanwhile is read again next time
+        FileStamp stamp = FileStamp.of(path);
+        synchronized (this)
+        {
+            Segment cached = segments.get(month);
+            if (cached != null && cached.stamp().equals(stamp))
+            {
+                return cached.records();
+            }
+        }
+
+        List<Map<String, String>> records = new ArrayList<>();
+        csvReader.readCompressed(path, records::add);
+        List<Map<String, String>> decoded = Collections.unmodifiableList(records);
+        synchronized (this)
+        {
+            segments.put(month, new Segment(stamp, decoded));
+            if (segments.size() > MAX_CACHED_SEGMENTS)
+            {
+                segments.remove(segments.keySet().iterator().next());
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Checks whether a tombstone's removal time is before a cutoff. Both use the same sortable format.
+     *
+     * @param removedAt the tombstone's removal time, or null
+     * @param cutoff the cutoff time
+     * @return true if the tombstone is older; false if its time is missing
+     */
+    private static boolean isOlder(String removedAt, String cutoff)
+    {
+        return removedAt != null && !removedAt.isEmpty() && removedAt.compareTo(cutoff) < 0;
+    }
+
+    /**
+     * Gets the tombstone records, loading them the first time.
+     *
+     * @return tombstone records by ID
+     * @throws IOException if the file cannot be read
+     */
+    private Map<String, Map<String, String>> tombstones() throws IOException
+    {
+        if (tombstones == null)
+        {
+            Map<String, Map<String, String>> loaded = new LinkedHashMap<>();
+            csvReader.read(directory.resolve(TOMBSTONES_FILE), record -> loaded.put(codec.idOf(codec.fromRecord(record)), record));
+            tombstones = loaded;
+        }
+        return tombstones;
+    }
+
+    /**
+     * Gets the file path of a month segment.
+     *
+     * @param month the partition key (YYYY-MM)
+     * @return path to the segment's compressed CSV file
+     */
+    private Path segmentPath(String month)
+    {
+        return directory.resolve(month + SEGMENT_EXTENSION);
+    }
+}
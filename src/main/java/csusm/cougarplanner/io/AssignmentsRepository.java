@@ -1,33 +1,63 @@
 package csusm.cougarplanner.io;
 
 import csusm.cougarplanner.models.Assignment;
+import csusm.cougarplanner.util.DateTimeUtil;
 
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
- * Repository class for managing Assignment data persistence in assignments.csv.
+ * Repository class for managing Assignment data persistence in the monthly assignment partitions.
  * Implements upsert logic to preserve local difficulty settings during sync.
+ * Storage itself is delegated to the {@link StorageBackend} chosen by {@link StorageKind}.
  */
 public class AssignmentsRepository
 {
     private static final String[] HEADERS = {"assignment_id", "course_id", "assignment_name", "due_date", "due_time", "difficulty"};
-    private final CsvReader csvReader;
-    private final CsvWriter csvWriter;
+    private static final AssignmentCodec CODEC = new AssignmentCodec();
+    // Shared by every repository instance so rows are loaded and indexed once per process
+    private static final SharedBackend<Assignment> BACKEND =
+            new SharedBackend<>(EntityType.ASSIGNMENTS, AssignmentsRepository::createBackend);
 
     /**
-     * Constructs a new AssignmentsRepository with CSV reader/writer.
+     * Constructs a new AssignmentsRepository over the shared storage backend.
      */
     public AssignmentsRepository()
     {
-        this.csvReader = new CsvReader();
-        this.csvWriter = new CsvWriter();
     }
 
     /**
-     * Reads entire assignments.csv file
+     * Replaces the shared backend, for tests that run the repository over their own storage.
+     *
+     * @param backend the backend to use from now on, or null to create the configured one again on next use
+     */
+    static void useBackend(StorageBackend<Assignment> backend)
+    {
+        BACKEND.replace(backend);
+    }
+
+    /**
+     * Creates the backend configured for this process: the embedded store, or the assignment partitions by default.
+     * The embedded store starts out with the rows of the partitions, so switching keeps them.
+     *
+     * @return the assignment backend
+     */
+    private static StorageBackend<Assignment> createBackend()
+    {
+        ArchiveStore<Assignment> archive = new ArchiveStore<>(CsvPaths.getAssignmentsArchiveDirectory(), CODEC);
+        PartitionedCsvStore<Assignment> partitions =
+                new PartitionedCsvStore<>(CsvPaths.getAssignmentsPartitionDirectory(), CsvPaths.getAssignmentsPath(), CODEC);
+        if (StorageKind.configured() == StorageKind.EMBEDDED)
+        {
+            return new EmbeddedStore<>(CsvPaths.getAssignmentsStorePath(), CODEC, archive, new IndexedTable<>(partitions, CODEC));
+        }
+        return new IndexedTable<>(partitions, CODEC, CsvPaths.getAssignmentsSnapshotPath(), archive);
+    }
+
+    /**
+     * Reads every assignment partition.
      * Each CSV row becomes a Map with keys assignment_id and so forth.
      * Converts each Map to an Assignment object.
      *
@@ -36,10 +66,7 @@ public class AssignmentsRepository
      */
     public List<Assignment> findAll() throws IOException
     {
-        List<Map<String, String>> records = csvReader.readAll(CsvPaths.getAssignmentsPath());
-        return records.stream()
-                .map(this::mapToAssignment)
-                .collect(Collectors.toList());
+        return BACKEND.get().findAll();
     }
 
     /**
@@ -48,13 +75,11 @@ public class AssignmentsRepository
      * @param weekStart the start date of the week
      * @param weekEnd the end date of the week
      * @return List of assignments due within the specific week
-     * @throws IOException if the CSV file cannot be read
+     * @throws IOException if the partitions cannot be read
      */
     public List<Assignment> findByWeek(LocalDate weekStart, LocalDate weekEnd) throws IOException
     {
-        return findAll().stream()
-                .filter(assignment -> isInWeek(assignment, weekStart, weekEnd))
-                .collect(Collectors.toList());
+        return BACKEND.get().findRange(weekStart, weekEnd);
     }
 
     /**
@@ -62,13 +87,23 @@ public class AssignmentsRepository
      *
      * @param day the specific day to filter assignments by
      * @return List of assignments due on the specific day
-     * @throws IOException if the CSV file cannot be read
+     * @throws IOException if the partitions cannot be read
      */
     public List<Assignment> findByDay(LocalDate day) throws IOException
     {
-        return findAll().stream()
-                .filter(assignment -> isOnDay(assignment, day))
-                .collect(Collectors.toList());
+        return BACKEND.get().findDay(day);
+    }
+
+    /**
+     * Finds all assignments of a course.
+     *
+     * @param courseId the course to filter assignments by
+     * @return List of the course's assignments
+     * @throws IOException if the stored assignments cannot be read
+     */
+    public List<Assignment> findByCourse(String courseId) throws IOException
+    {
+        return BACKEND.get().findByCourse(courseId);
     }
 
     /**
@@ -79,99 +114,161 @@ public class AssignmentsRepository
      */
     public void upsert(Assignment assignment) throws IOException
     {
-        List<Assignment> allAssignments = findAll();
+        // Replaces any existing assignment with the same ID
+        publishChanges(BACKEND.get().upsertAll(List.of(assignment), (existing, updated) -> updated));
+    }
 
-        // Removes existing assignment with same ID
-        allAssignments.removeIf(a -> a.getAssignmentId().equals(assignment.getAssignmentId()));
+    /**
+     * Performs upsert operation on multiple assignments and preserves difficulty level.
+     * This is used during Canvas API sync.
+     *
+     * @param assignments List of assignments to upsert
+     * @return what the upsert changed
+     * @throws IOException if the CSV file cannot be written
+     */
+    public MergeDiff<Assignment> upsertAll(List<Assignment> assignments) throws IOException
+    {
+        MergeDiff<Assignment> diff = BACKEND.get().upsertAll(assignments, AssignmentsRepository::keepDifficulty);
+        publishChanges(diff);
+        return diff;
+    }
 
-        // Adds updated assignment
-        allAssignments.add(assignment);
+    /**
+     * Performs upsert operation on multiple assignments as part of a transaction.
+     * The partitions are replaced when the transaction commits.
+     *
+     * @param assignments List of assignments to upsert
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed
+     * @throws IOException if the partitions cannot be staged
+     */
+    public MergeDiff<Assignment> upsertAll(List<Assignment> assignments, FileTransaction transaction) throws IOException
+    {
+        return BACKEND.get().upsertAll(assignments, AssignmentsRepository::keepDifficulty, transaction);
+    }
 
-        // Writes back to file
-        List<Map<String, String>> records = allAssignments.stream()
-                .map(this::assignmentToMap)
-                .collect(Collectors.toList());
+    /**
+     * Performs the sync upsert as part of a transaction, removing stored assignments that the fetch
+     * covered completely but did not return. Removed assignments are kept as tombstones in the archive.
+     *
+     * @param assignments List of assignments to upsert
+     * @param scope what the fetch returned completely, or null to never remove assignments
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed, including the removed assignments
+     * @throws IOException if the partitions cannot be staged
+     */
+    public MergeDiff<Assignment> upsertAll(List<Assignment> assignments, FetchScope scope,
+                                   FileTransaction transaction) throws IOException
+    {
+        return BACKEND.get().upsertAll(assignments, AssignmentsRepository::keepDifficulty, scope, transaction);
+    }
 
-        csvWriter.writeAll(CsvPaths.getAssignmentsPath(), records, HEADERS);
+    /**
+     * Performs the sync upsert with a bounded amount of memory, for histories too large to load.
+     * Preserves difficulty levels like upsertAll, but never loads every assignment into memory.
+     *
+     * @param assignments List of assignments to upsert
+     * @param memoryBudget bytes of rows the merge may buffer before spilling to disk
+     * @return what the upsert changed
+     * @throws IOException if the partitions or spill files cannot be read or written
+     */
+    public MergeDiff<Assignment> upsertAllExternal(List<Assignment> assignments, long memoryBudget) throws IOException
+    {
+        MergeDiff<Assignment> diff = BACKEND.get().upsertAllExternal(assignments, AssignmentsRepository::keepDifficulty, memoryBudget);
+        publishChanges(diff);
+        return diff;
     }
 
     /**
-     * Performs upsert operation on multiple assignments and preserves difficulty level.
-     * This is used during Canvas API sync.
+     * Performs the sync upsert with a bounded amount of memory as part of a transaction.
      *
      * @param assignments List of assignments to upsert
-     * @throws IOException if the CSV file cannot be written
+     * @param memoryBudget bytes of rows the merge may buffer before spilling to disk
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed
+     * @throws IOException if the partitions or spill files cannot be read or staged
      */
-    public void upsertAll(List<Assignment> assignments) throws IOException
+    public MergeDiff<Assignment> upsertAllExternal(List<Assignment> assignments, long memoryBudget,
+                                                   FileTransaction transaction) throws IOException
     {
-        Map<String, Assignment> assignmentMap = new HashMap<>();
+        return BACKEND.get().upsertAllExternal(assignments, AssignmentsRepository::keepDifficulty, memoryBudget, transaction);
+    }
 
-        // Loads existing assignments
-        for (Assignment existing : findAll())
-        {
-            assignmentMap.put(existing.getAssignmentId(), existing);
-        }
+    /**
+     * Performs the sync upsert with a bounded amount of memory as part of a transaction,
+     * removing stored assignments that the fetch covered completely but did not return.
+     *
+     * @param assignments List of assignments to upsert
+     * @param memoryBudget bytes of rows the merge may buffer before spilling to disk
+     * @param scope what the fetch returned completely, or null to never remove assignments
+     * @param transaction the transaction to stage the partitions in
+     * @return what the upsert changed, including the removed assignments
+     * @throws IOException if the partitions or spill files cannot be read or staged
+     */
+    public MergeDiff<Assignment> upsertAllExternal(List<Assignment> assignments, long memoryBudget, FetchScope scope,
+                                                   FileTransaction transaction) throws IOException
+    {
+        return BACKEND.get().upsertAllExternal(assignments, AssignmentsRepository::keepDifficulty, memoryBudget, scope, transaction);
+    }
 
-        // Updates with new assignments
-        for (Assignment assignment : assignments)
-        {
-            Assignment existing = assignmentMap.get(assignment.getAssignmentId());
-            if (existing != null && existing.getDifficulty() != null)
-            {
-                assignment.setDifficulty(existing.getDifficulty());
-            }
-            assignmentMap.put(assignment.getAssignmentId(), assignment);
-        }
+    /**
+     * Publishes the changes of an upsert staged in a transaction the caller has since committed.
+     * Writes the repository commits itself are published by the repository.
+     *
+     * @param diff what the committed upsert changed
+     */
+    public void publishChanges(MergeDiff<Assignment> diff)
+    {
+        ChangeEventBus.getInstance().publish(ChangeEvent.of(EntityType.ASSIGNMENTS, diff, CODEC));
+    }
 
-        // Writes back
-        List<Map<String, String>> records = assignmentMap.values().stream()
-                .map(this::assignmentToMap)
-                .collect(Collectors.toList());
+    /**
+     * Moves assignments dated before the cutoff out of the hot partitions into the compressed archive.
+     * Week and day queries still find them.
+     *
+     * @param cutoff the first date that stays in the hot partitions
+     * @return the number of assignments archived
+     * @throws IOException if the partitions or the archive cannot be written
+     */
+    public int archiveBefore(LocalDate cutoff) throws IOException
+    {
+        return BACKEND.get().archiveBefore(cutoff);
+    }
 
-        csvWriter.writeAll(CsvPaths.getAssignmentsPath(), records, HEADERS);
+    /**
+     * Writes the binary assignment snapshot that the next startup reads instead of parsing CSVs.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot() throws IOException
+    {
+        BACKEND.get().writeSnapshot();
     }
 
     /**
-     * Checks if an assignment's due date is within the specific week range.
+     * Gets the hit, miss and reload counters of the shared assignment cache.
      *
-     * @param assignment the Assignment to check
-     * @param weekStart the start date of the week
-     * @param weekEnd the end date of the week
-     * @return true if the assignment is due within the week range, false otherwise
+     * @return the cache statistics
      */
-    private boolean isInWeek(Assignment assignment, LocalDate weekStart, LocalDate weekEnd)
+    public CacheStats getCacheStats()
     {
-        if (assignment.getDueDate() == null || assignment.getDueDate().isEmpty()) return false;
-        try
-        {
-            LocalDate dueDate = LocalDate.parse(assignment.getDueDate());
-            return !dueDate.isBefore(weekStart) && !dueDate.isAfter(weekEnd);
-        }
-        catch (Exception e)
-        {
-            return false;
-        }
+        return BACKEND.get().getCacheStats();
     }
 
     /**
-     * Checks if an assignment is due on the specific day.
+     * Merges a fetched assignment over the stored one, keeping the locally set difficulty.
      *
-     * @param assignment the Assignment to check
-     * @param day the specific day to check against
-     * @return true if the assignment is due on the specified day, false otherwise
+     * @param existing the stored assignment
+     * @param assignment the fetched assignment
+     * @return the assignment to store
      */
-    private boolean isOnDay(Assignment assignment, LocalDate day)
+    private static Assignment keepDifficulty(Assignment existing, Assignment assignment)
     {
-        if (assignment.getDueDate() == null || assignment.getDueDate().isEmpty()) return false;
-        try
+        if (existing.getDifficulty() != null)
         {
-            LocalDate dueDate = LocalDate.parse(assignment.getDueDate());
-            return dueDate.equals(day);
-        }
-        catch (Exception e)
-        {
-            return false;
+            assignment.setDifficulty(existing.getDifficulty());
         }
+        return assignment;
     }
 
     /**
@@ -181,7 +278,7 @@ public class AssignmentsRepository
      * @param record Map representing a CSV row with snake_case keys
      * @return Assignment object populated from the CSV data
      */
-    private Assignment mapToAssignment(Map<String, String> record)
+    private static Assignment mapToAssignment(Map<String, String> record)
     {
         Assignment assignment = new Assignment();
         assignment.setAssignmentId(record.get("assignment_id"));
@@ -212,7 +309,7 @@ public class AssignmentsRepository
      * @param assignment the Assignment object to convert
      * @return Map representing a CSV row with snake_case keys
      */
-    private Map<String, String> assignmentToMap(Assignment assignment)
+    private static Map<String, String> assignmentToMap(Assignment assignment)
     {
         Map<String, String> record = new HashMap<>();
         record.put("assignment_id", assignment.getAssignmentId());
@@ -224,4 +321,53 @@ public class AssignmentsRepository
                 assignment.getDifficulty().toString() : "");
         return record;
     }
+
+    /**
+     * Describes how assignments are stored in partition rows.
+     * Assignments are partitioned by their due date.
+     */
+    private static class AssignmentCodec implements RowCodec<Assignment>
+    {
+        @Override
+        public String[] headers()
+        {
+            return HEADERS;
+        }
+
+        @Override
+        public String idOf(Assignment assignment)
+        {
+            return assignment.getAssignmentId();
+        }
+
+        @Override
+        public String courseOf(Assignment assignment)
+        {
+            return assignment.getCourseId();
+        }
+
+        @Override
+        public LocalDate dateOf(Assignment assignment)
+        {
+            return DateTimeUtil.parseDate(assignment.getDueDate());
+        }
+
+        @Override
+        public LocalTime timeOf(Assignment assignment)
+        {
+            return DateTimeUtil.parseTime(assignment.getDueTime());
+        }
+
+        @Override
+        public Assignment fromRecord(Map<String, String> record)
+        {
+            return mapToAssignment(record);
+        }
+
+        @Override
+        public Map<String, String> toRecord(Assignment assignment)
+        {
+            return assignmentToMap(assignment);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,347 @@
+package csusm.cougarplanner.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only, content-addressed file of deflate-compressed text bodies (e.g. announcement HTML).
+ * Each body is compressed on its own and addressed by its offset and compressed length,
+ * so rows only carry those two numbers and a body is read back only when it is needed.
+ *
+ * Bodies are keyed by the SHA-256 of their text. A side index (bodies.idx next to the body file)
+ * maps each hash to where the body is stored, so storing a body that is already present, such as
+ * a cross-listed or re-synced announcement, returns the existing location and writes nothing.
+ *
+ * Bodies are never rewritten in place. A crash during an append can leave a partial body at
+ * the end of the file, but no row refers to it because rows are written after their bodies,
+ * and the index entry is only appended once its body is on disk. The index itself is not forced:
+ * losing its last entries in a crash only means those bodies may be stored once more.
+ *
+ * Appends happen while the data lock is held, so several processes may share the store.
+ * The index is reloaded when it grew since it was read, which picks up another process's bodies.
+ */
+public class BodyStore
+{
+    private static final int HASH_LENGTH = 32;
+    // Index entry: body hash, offset, compressed length
+    private static final int INDEX_ENTRY_LENGTH = HASH_LENGTH + Long.BYTES + Integer.BYTES;
+
+    private final Path filePath;
+    private final Path indexPath;
+    private final DedupStats dedupStats = new DedupStats();
+
+    // Loaded on first use
+    private Map<String, BodyRef> refsByHash;
+    // Size of the index file when it was loaded, to notice another process's appends
+    private long loadedIndexLength = -1;
+
+    /**
+     * A body's location in the store.
+     *
+     * @param offset byte offset of the compressed body
+     * @param length length of the compressed body in bytes
+     */
+    public record BodyRef(long offset, int length) {}
+
+    /**
+     * Constructs a body store backed by the given file. The file is created on the first append.
+     *
+     * @param filePath the body file
+     */
+    public BodyStore(Path filePath)
+    {
+        this.filePath = filePath;
+        String fileName = filePath.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        this.indexPath = filePath.resolveSibling((extension > 0 ? fileName.substring(0, extension) : fileName) + ".idx");
+    }
+
+    /**
+     * Stores several bodies, finding those already stored, including repeats within the batch.
+     * The new bodies are compressed, appended and forced to disk with a single force before returning,
+     * so rows written afterwards never point at lost data.
+     * Callers hold the data lock exclusively, normally through an open transaction.
+     *
+     * @param bodies the texts to store
+     * @return where each body is stored, in the order given
+     * @throws IOException if the file or its index cannot be read or written
+     */
+    public synchronized List<BodyRef> storeAll(List<String> bodies) throws IOException
+    {
+        Map<String, BodyRef> refs = refsByHash(true);
+        List<BodyRef> stored = new ArrayList<>(bodies.size());
+        // New bodies of this batch, placed one after another from the end of the file
+        Map<String, BodyRef> added = new HashMap<>();
+        List<byte[]> compressedBodies = new ArrayList<>();
+        ByteArrayOutputStream indexEntries = new ByteArrayOutputStream();
+        long start = size();
+        long bodyFileEnd = start;
+        for (String body : bodies)
+        {
+            byte[] data = body.getBytes(StandardCharsets.UTF_8);
+            byte[] hash = sha256(data);
+            String key = HexFormat.of().formatHex(hash);
+
+            BodyRef existing = refs.containsKey(key) ? refs.get(key) : added.get(key);
+            if (existing != null)
+            {
+                dedupStats.recordDuplicate(data.length, existing.length());
+                stored.add(existing);
+                continue;
+            }
+
+            byte[] compressed = deflate(data);
+            BodyRef ref = new BodyRef(bodyFileEnd, compressed.length);
+            bodyFileEnd += compressed.length;
+            compressedBodies.add(compressed);
+            indexEntries.writeBytes(ByteBuffer.allocate(INDEX_ENTRY_LENGTH)
+                    .put(hash)
+                    .putLong(ref.offset())
+                    .putInt(ref.length())
+                    .array());
+            added.put(key, ref);
+            dedupStats.recordStored(data.length, compressed.length);
+            stored.add(ref);
+        }
+
+        if (!added.isEmpty())
+        {
+            // Bodies first, forced once for the whole batch; then the index entries that point at them
+            writeAt(filePath, start, compressedBodies, true);
+            writeAt(indexPath, loadedIndexLength, List.of(indexEntries.toByteArray()), false);
+            refs.putAll(added);
+            loadedIndexLength += indexEntries.size();
+        }
+        return stored;
+    }
+
+    /**
+     * Reads and decompresses one body.
+     *
+     * @param offset byte offset of the compressed body
+     * @param length length of the compressed body in bytes
+     * @return the body text
+     * @throws IOException if the file cannot be read or the body is damaged
+     */
+    public String read(long offset, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ))
+        {
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                {
+                    throw new IOException("Body at offset " + offset + " runs past the end of " + filePath);
+                }
+            }
+        }
+        return new String(inflate(buffer.array()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the size of the body file.
+     *
+     * @return the file size in bytes, or 0 if nothing was stored yet
+     * @throws IOException if the file size cannot be read
+     */
+    public long size() throws IOException
+    {
+        return Files.exists(filePath) ? Files.size(filePath) : 0;
+    }
+
+    /**
+     * Gets the number of distinct bodies in the store.
+     *
+     * @return the distinct body count
+     * @throws IOException if the index cannot be read
+     */
+    public synchronized int distinctBodies() throws IOException
+    {
+        return refsByHash(false).size();
+    }
+
+    /**
+     * Gets the dedup counters of this store since it was opened.
+     *
+     * @return the dedup statistics
+     */
+    public DedupStats getDedupStats()
+    {
+        return dedupStats;
+    }
+
+    /**
+     * Gets the hash index, loading it from disk the first time and again whenever the file grew.
+     * Entries cut short by a crash, or pointing past the end of the body file, are ignored.
+     *
+     * @param locked true if the caller holds the data lock, so a torn entry cannot be an append in progress
+     * @return map of hex body hash to body location
+     * @throws IOException if the index cannot be read
+     */
+    private Map<String, BodyRef> refsByHash(boolean locked) throws IOException
+    {
+        long indexLength = Files.exists(indexPath) ? Files.size(indexPath) : 0;
+        if (refsByHash != null && indexLength == loadedIndexLength)
+        {
+            return refsByHash;
+        }
+
+        Map<String, BodyRef> refs = new HashMap<>();
+        if (indexLength > 0)
+        {
+            long bodyFileSize = size();
+            ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+            byte[] hash = new byte[HASH_LENGTH];
+            while (index.remaining() >= INDEX_ENTRY_LENGTH)
+            {
+                index.get(hash);
+                BodyRef ref = new BodyRef(index.getLong(), index.getInt());
+                if (ref.offset() >= 0 && ref.offset() + ref.length() <= bodyFileSize)
+                {
+                    refs.put(HexFormat.of().formatHex(hash), ref);
+                }
+            }
+
+            // Drops a torn entry so later appends stay aligned
+            if (index.hasRemaining() && locked)
+            {
+                try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE))
+                {
+                    channel.truncate(index.position());
+                }
+            }
+            indexLength = index.position();
+        }
+        refsByHash = refs;
+        loadedIndexLength = indexLength;
+        return refs;
+    }
+
+    /**
+     * Writes chunks one after another at an offset, which callers take from the end of the file.
+     *
+     * @param file the file to write; created if missing
+     * @param offset where the first chunk goes
+     * @param chunks the bytes to write
+     * @param force true to force the bytes to disk before returning
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeAt(Path file, long offset, List<byte[]> chunks, boolean force) throws IOException
+    {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            long position = offset;
+            for (byte[] chunk : chunks)
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                while (buffer.hasRemaining())
+                {
+                    position += channel.write(buffer, position);
+                }
+            }
+            if (force)
+            {
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Computes the SHA-256 hash of a body's bytes.
+     *
+     * @param data the bytes to hash
+     * @return the 32-byte hash
+     */
+    private static byte[] sha256(byte[] data)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Compresses bytes with raw deflate.
+     *
+     * @param data the bytes to compress
+     * @return the compressed bytes
+     */
+    private static byte[] deflate(byte[] data)
+    {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try
+        {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished())
+            {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses raw deflate bytes.
+     *
+     * @param data the compressed bytes
+     * @return the original bytes
+     * @throws IOException if the data is not valid deflate output
+     */
+    private static byte[] inflate(byte[] data) throws IOException
+    {
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished())
+            {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IOException("Stored body is truncated or damaged");
+                }
+                out.write(chunk, 0, inflated);
+            }
+            return out.toByteArray();
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Stored body is damaged", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package csusm.cougarplanner.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often a cache answered from memory and how often it had to go back to disk.
+ * A reload is a miss caused by the data on disk changing after it was cached.
+ */
+public class CacheStats
+{
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    /**
+     * Records a lookup that was answered from memory.
+     */
+    public void recordHit()
+    {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Records a lookup that had to load from disk.
+     */
+    public void recordMiss()
+    {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Records a lookup that had to load from disk because the cached data went stale.
+     * Counts as a miss as well.
+     */
+    public void recordReload()
+    {
+        reloads.incrementAndGet();
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of lookups answered from memory.
+     *
+     * @return the hit count
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that loaded from disk, including reloads.
+     *
+     * @return the miss count
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of loads caused by the data on disk changing.
+     *
+     * @return the reload count
+     */
+    public long getReloads()
+    {
+        return reloads.get();
+    }
+
+    /**
+     * Gets the fraction of lookups answered from memory.
+     *
+     * @return the hit rate between 0 and 1, or 0 if there were no lookups
+     */
+    public double getHitRate()
+    {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    /**
+     * Returns a summary of the counters for logging.
+     *
+     * @return string containing the hit, miss and reload counts
+     */
+    @Override
+    public String toString()
+    {
+        return "CacheStats{" +
+                "hits=" + hits.get() +
+                ", misses=" + misses.get() +
+                ", reloads=" + reloads.get() +
+                ", hitRate=" + String.format("%.2f", getHitRate()) +
+                '}';
+    }
+}
@@ -0,0 +1,350 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+/**
+ * Keeps the decoded rows of a single CSV file in memory.
+ * The cached rows are reused for as long as the file's stamp (last-modified time, size, inode)
+ * is unchanged; writes through this class refresh the cache instead of invalidating it.
+ * While the {@link DataDirectoryWatcher} is running the stamp is only compared after it reports a change
+ * or another process commits, which moves the {@link DataLock} version.
+ *
+ * As a {@link StorageBackend} it serves small tables such as courses.csv: queries filter the
+ * cached rows, and upserts rewrite the whole file, only when something differs.
+ *
+ * @param <T> the model type stored in the file
+ */
+public class CachedCsvFile<T> implements StorageBackend<T>
+{
+    private final Path filePath;
+    private final RowCodec<T> codec;
+    private final CsvReader csvReader;
+    private final CacheStats cacheStats = new CacheStats();
+
+    private List<T> rows;
+    private FileStamp loadedStamp;
+    // The data version the rows were loaded or last checked at
+    private long loadedVersion = -1;
+    private volatile boolean stale = true;
+
+    /**
+     * Constructs a cache over a CSV file. Nothing is read until the first call to readAll.
+     *
+     * @param filePath the CSV file
+     * @param codec converts between rows and model objects
+     */
+    public CachedCsvFile(Path filePath, RowCodec<T> codec)
+    {
+        this.filePath = filePath;
+        this.codec = codec;
+        this.csvReader = new CsvReader();
+    }
+
+    /**
+     * Gets every row of the file, reading it only if it changed since it was cached.
+     * The file is read without the cache's monitor, since the read may wait for the shared data lock
+     * and a writer holding the lock exclusively may need the monitor to finish.
+     *
+     * @return a copy of the cached rows
+     * @throws IOException if the file cannot be read
+     */
+    public List<T> readAll() throws IOException
+    {
+        List<T> cached = cachedRows();
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        DataLock.Versioned<List<T>> read = DataLock.getInstance().readConsistently(() ->
+        {
+            List<T> loaded = new ArrayList<>();
+            for (Map<String, String> record : csvReader.readAll(filePath))
+            {
+                loaded.add(codec.fromRecord(record));
+            }
+            return loaded;
+        });
+        // Stamped after a consistent read: a stamp taken before it may predate a commit the read saw
+        return publish(read, FileStamp.of(filePath));
+    }
+
+    /**
+     * Gets the cached rows if they still match the file, checking its stamp when it may have changed.
+     *
+     * @return a copy of the cached rows, or null if the file has to be read
+     * @throws IOException if the data version or the file's stamp cannot be read
+     */
+    private synchronized List<T> cachedRows() throws IOException
+    {
+        DataLock dataLock = DataLock.getInstance();
+        if (rows != null && !stale && DataDirectoryWatcher.getInstance().isRunning()
+                && dataLock.version() == loadedVersion)
+        {
+            cacheStats.recordHit();
+            return copies(rows);
+        }
+
+        // Cleared before stamping so an invalidation that arrives meanwhile is not lost
+        stale = false;
+        long version = dataLock.version();
+        FileStamp currentStamp = FileStamp.of(filePath);
+        if (rows != null && currentStamp.equals(loadedStamp) && (version & 1) == 0 && dataLock.version() == version)
+        {
+            loadedVersion = version;
+            cacheStats.recordHit();
+            return copies(rows);
+        }
+
+        if (rows == null)
+        {
+            cacheStats.recordMiss();
+        }
+        else
+        {
+            cacheStats.recordReload();
+        }
+        return null;
+    }
+
+    /**
+     * Caches the rows of a consistent read, unless a commit or another read cached a later version meanwhile.
+     *
+     * @param read the rows read and the data version they were read at
+     * @param stamp the file's stamp, taken after the read
+     * @return a copy of the rows now cached
+     */
+    private synchronized List<T> publish(DataLock.Versioned<List<T>> read, FileStamp stamp)
+    {
+        if (rows == null || read.version() >= loadedVersion)
+        {
+            rows = read.value();
+            loadedStamp = stamp;
+            loadedVersion = read.version();
+        }
+        return copies(rows);
+    }
+
+    /**
+     * Gets every row of the file.
+     *
+     * @return a copy of the cached rows
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public List<T> findAll() throws IOException
+    {
+        return readAll();
+    }
+
+    /**
+     * Gets every row dated within the range, ordered by date. Undated rows never match.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the matching rows
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public List<T> findRange(LocalDate start, LocalDate end) throws IOException
+    {
+        List<T> matching = new ArrayList<>();
+        for (T item : readAll())
+        {
+            LocalDate date = codec.dateOf(item);
+            if (date != null && !date.isBefore(start) && !date.isAfter(end))
+            {
+                matching.add(item);
+            }
+        }
+        matching.sort(Comparator.comparing(codec::dateOf));
+        return matching;
+    }
+
+    /**
+     * Gets every row of a course.
+     *
+     * @param courseId the course to look up
+     * @return the course's rows
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public List<T> findByCourse(String courseId) throws IOException
+    {
+        List<T> matching = new ArrayList<>();
+        for (T item : readAll())
+        {
+            if (courseId.equals(codec.courseOf(item)))
+            {
+                matching.add(item);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Inserts or replaces rows by ID as part of a transaction, keeping the file's row order.
+     * The file is not staged at all if every incoming row matches what is stored.
+     * The last of several incoming rows with the same ID wins.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param scope what the incoming rows cover completely, or null to never remove rows
+     * @param transaction the transaction to stage the file in
+     * @return what the upsert changed
+     * @throws IOException if the file cannot be read or staged
+     */
+    @Override
+    public MergeDiff<T> upsertAll(Collection<T> incoming, BinaryOperator<T> merge, FetchScope scope,
+                                  FileTransaction transaction) throws IOException
+    {
+        Map<String, T> stored = new LinkedHashMap<>();
+        for (T existing : readAll())
+        {
+            stored.put(codec.idOf(existing), existing);
+        }
+
+        Map<String, T> latest = new LinkedHashMap<>();
+        for (T item : incoming)
+        {
+            latest.put(codec.idOf(item), item);
+        }
+
+        Map<String, T> updated = new LinkedHashMap<>(stored);
+        MergeDiff.Builder<T> diff = new MergeDiff.Builder<>(codec);
+        for (Map.Entry<String, T> entry : latest.entrySet())
+        {
+            T existing = stored.get(entry.getKey());
+            T row = existing != null ? merge.apply(existing, entry.getValue()) : entry.getValue();
+            diff.compare(existing, row);
+            updated.put(entry.getKey(), row);
+        }
+        if (scope != null)
+        {
+            for (T existing : stored.values())
+            {
+                if (!latest.containsKey(codec.idOf(existing)) && scope.covers(codec.courseOf(existing), codec.dateOf(existing)))
+                {
+                    updated.remove(codec.idOf(existing));
+                    diff.removed(existing);
+                }
+            }
+        }
+
+        MergeDiff<T> result = diff.build();
+        if (!result.isEmpty())
+        {
+            writeAll(updated.values(), transaction);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the file's contents and the cached rows, as a transaction of its own.
+     *
+     * @param items the rows to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeAll(Collection<T> items) throws IOException
+    {
+        // Not synchronized: the transaction must be started before the cache is locked
+        try (FileTransaction transaction = FileTransaction.begin())
+        {
+            writeAll(items, transaction);
+            transaction.commit();
+        }
+    }
+
+    /**
+     * Stages new file contents in a transaction. The cached rows are replaced when it commits.
+     *
+     * @param items the rows to write
+     * @param transaction the transaction to stage the file in
+     * @throws IOException if the file cannot be staged
+     */
+    public synchronized void writeAll(Collection<T> items, FileTransaction transaction) throws IOException
+    {
+        // Copied so the caller cannot change the cached rows after the commit
+        List<T> written = copies(items);
+        Iterable<Map<String, String>> records = () -> written.stream()
+                .map(codec::toRecord)
+                .iterator();
+        transaction.write(filePath, records, codec.headers());
+        transaction.onCommit(() -> applyCommitted(written, transaction.getCommittedVersion()));
+    }
+
+    /**
+     * Replaces the cached rows with the contents of a committed write.
+     *
+     * @param written the rows that were written
+     * @param committedVersion the data version the write's commit published
+     */
+    private synchronized void applyCommitted(List<T> written, long committedVersion)
+    {
+        rows = written;
+        try
+        {
+            // Our own write must not look like an outside change, unless another process committed since
+            FileStamp currentStamp = FileStamp.of(filePath);
+            if (DataLock.getInstance().version() == committedVersion)
+            {
+                loadedStamp = currentStamp;
+                loadedVersion = committedVersion;
+                return;
+            }
+        }
+        catch (IOException e)
+        {
+            // Falls through to force a reload
+        }
+        // Forces the next read to compare the stamp and reload
+        loadedStamp = null;
+        stale = true;
+    }
+
+    /**
+     * Copies rows, so the cached versions never leave this class.
+     *
+     * @param items the rows to copy
+     * @return copies of the rows, in the same order
+     */
+    private List<T> copies(Collection<T> items)
+    {
+        List<T> copies = new ArrayList<>(items.size());
+        for (T item : items)
+        {
+            copies.add(codec.copy(item));
+        }
+        return copies;
+    }
+
+    /**
+     * Marks the file as possibly changed, so the next read compares its stamp.
+     * Called by the data directory watcher.
+     */
+    @Override
+    public void invalidate()
+    {
+        stale = true;
+    }
+
+    /**
+     * Gets the hit, miss and reload counters of this cache.
+     *
+     * @return the cache statistics
+     */
+    @Override
+    public CacheStats getCacheStats()
+    {
+        return cacheStats;
+    }
+}
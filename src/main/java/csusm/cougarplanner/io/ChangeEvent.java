@@ -0,0 +1,127 @@
+package csusm.cougarplanner.io;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One stored row that changed, as delivered through the ChangeEventBus.
+ *
+ * @param type the kind of data that changed
+ * @param kind how the row changed
+ * @param id the row's ID, or null for an UNPLACED change
+ * @param dates the dates the row was on before and after the change; empty for undated rows and UNPLACED changes
+ */
+public record ChangeEvent(EntityType type, Kind kind, String id, Set<LocalDate> dates)
+{
+    /**
+     * How a row changed.
+     */
+    public enum Kind
+    {
+        ADDED,
+        CHANGED,
+        REMOVED,
+        // Changed outside the app; which rows and dates is unknown, so everything of the type may differ
+        UNPLACED
+    }
+
+    /**
+     * Constructs an event, copying the dates.
+     *
+     * @param type the kind of data that changed
+     * @param kind how the row changed
+     * @param id the row's ID, or null for an UNPLACED change
+     * @param dates the dates the row was on
+     */
+    public ChangeEvent
+    {
+        dates = Set.copyOf(dates);
+    }
+
+    /**
+     * Gets the event for a change to a type that cannot be placed on rows or dates.
+     *
+     * @param type the kind of data that changed
+     * @return the event
+     */
+    public static ChangeEvent unplaced(EntityType type)
+    {
+        return new ChangeEvent(type, Kind.UNPLACED, null, Set.of());
+    }
+
+    /**
+     * Gets one event per row an upsert added, changed or removed.
+     *
+     * @param type the kind of data that was merged
+     * @param diff what the upsert changed
+     * @param codec gets each row's ID and date
+     * @param <T> the model type that was merged
+     * @return the events, empty if the diff is
+     */
+    public static <T> List<ChangeEvent> of(EntityType type, MergeDiff<T> diff, RowCodec<T> codec)
+    {
+        List<ChangeEvent> events = new ArrayList<>();
+        for (T added : diff.getAdded())
+        {
+            events.add(new ChangeEvent(type, Kind.ADDED, codec.idOf(added), datesOf(codec, added, null)));
+        }
+        for (MergeDiff.Change<T> change : diff.getChanged())
+        {
+            // A new due date moves the row, so both days are affected
+            events.add(new ChangeEvent(type, Kind.CHANGED, change.id(), datesOf(codec, change.before(), change.after())));
+        }
+        for (T removed : diff.getRemoved())
+        {
+            events.add(new ChangeEvent(type, Kind.REMOVED, codec.idOf(removed), datesOf(codec, removed, null)));
+        }
+        return events;
+    }
+
+    /**
+     * Checks whether the event may affect a date range.
+     *
+     * @param start the first date of the range
+     * @param end the last date of the range
+     * @return true if the event has a date in the range, or no dates at all
+     */
+    public boolean affects(LocalDate start, LocalDate end)
+    {
+        if (dates.isEmpty())
+        {
+            // Undated rows and unplaced changes can show anywhere
+            return true;
+        }
+        for (LocalDate date : dates)
+        {
+            if (!date.isBefore(start) && !date.isAfter(end))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the dates of up to two versions of a row.
+     *
+     * @param codec gets the row's date
+     * @param first a version of the row
+     * @param second another version of the row, or null
+     * @param <T> the model type
+     * @return the non-null dates
+     */
+    private static <T> Set<LocalDate> datesOf(RowCodec<T> codec, T first, T second)
+    {
+        Set<LocalDate> dates = new HashSet<>(2);
+        dates.add(codec.dateOf(first));
+        if (second != null)
+        {
+            dates.add(codec.dateOf(second));
+        }
+        dates.remove(null);
+        return dates;
+    }
+}
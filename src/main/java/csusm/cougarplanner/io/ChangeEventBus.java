@@ -0,0 +1,252 @@
+package csusm.cougarplanner.io;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Carries row changes from storage to the open views, so a view can update the rows that changed
+ * instead of reloading everything.
+ *
+ * Repositories publish the changes of writes they commit themselves; code that commits a
+ * FileTransaction publishes the changes staged in it once it has committed. Changes made outside
+ * the app are published as UNPLACED events by the caches that learn of them from the watcher.
+ *
+ * Each subscriber names the types and the date range it shows. Events published before the
+ * subscriber's executor gets to run are coalesced per row and delivered in one call; with
+ * Platform::runLater as the executor, that is at most one delivery per frame.
+ */
+public final class ChangeEventBus
+{
+    private static final ChangeEventBus INSTANCE = new ChangeEventBus();
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private ChangeEventBus() {}
+
+    /**
+     * Gets the process-wide change event bus.
+     *
+     * @return the shared bus
+     */
+    public static ChangeEventBus getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Subscribes to changes of some types within a date range.
+     *
+     * @param types the types to follow
+     * @param start the first date shown
+     * @param end the last date shown
+     * @param executor runs the deliveries, such as Platform::runLater
+     * @param listener receives the coalesced events of one delivery, never an empty list
+     * @return the subscription, used to move the range and to unsubscribe
+     */
+    public Subscription subscribe(Set<EntityType> types, LocalDate start, LocalDate end,
+                                  Executor executor, Consumer<List<ChangeEvent>> listener)
+    {
+        Subscription subscription = new Subscription(types, start, end, executor, listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Publishes committed changes to every subscriber whose range they affect.
+     *
+     * @param events the changes; may be empty
+     */
+    public void publish(List<ChangeEvent> events)
+    {
+        if (events.isEmpty())
+        {
+            return;
+        }
+        for (Subscription subscription : subscriptions)
+        {
+            subscription.offer(events);
+        }
+    }
+
+    /**
+     * One subscriber's interest and the events waiting for its next delivery.
+     */
+    public final class Subscription implements AutoCloseable
+    {
+        private record Key(EntityType type, String id) {}
+
+        private final Set<EntityType> types;
+        private final Executor executor;
+        private final Consumer<List<ChangeEvent>> listener;
+
+        // All guarded by this
+        private LocalDate start;
+        private LocalDate end;
+        // Coalesced per row, in publishing order; an UNPLACED event is keyed by its type alone
+        private final Map<Key, ChangeEvent> pending = new LinkedHashMap<>();
+        private boolean deliveryScheduled;
+        private boolean closed;
+
+        /**
+         * Constructs a subscription.
+         *
+         * @param types the types to follow
+         * @param start the first date shown
+         * @param end the last date shown
+         * @param executor runs the deliveries
+         * @param listener receives the events
+         */
+        private Subscription(Set<EntityType> types, LocalDate start, LocalDate end,
+                             Executor executor, Consumer<List<ChangeEvent>> listener)
+        {
+            this.types = EnumSet.copyOf(types);
+            this.start = start;
+            this.end = end;
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        /**
+         * Moves the range to the dates now shown. Pending events outside the new range are dropped
+         * on delivery, since the view reloads the new range anyway.
+         *
+         * @param start the first date shown
+         * @param end the last date shown
+         */
+        public synchronized void setRange(LocalDate start, LocalDate end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Stops deliveries. A delivery already handed to the executor finds nothing to deliver.
+         */
+        @Override
+        public void close()
+        {
+            subscriptions.remove(this);
+            synchronized (this)
+            {
+                closed = true;
+                pending.clear();
+            }
+        }
+
+        /**
+         * Queues the events this subscription follows and schedules a delivery unless one is pending.
+         *
+         * @param events the published events
+         */
+        private void offer(List<ChangeEvent> events)
+        {
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                for (ChangeEvent event : events)
+                {
+                    if (types.contains(event.type()) && event.affects(start, end))
+                    {
+                        coalesce(event);
+                    }
+                }
+                if (pending.isEmpty() || deliveryScheduled)
+                {
+                    return;
+                }
+                deliveryScheduled = true;
+            }
+            executor.execute(this::deliver);
+        }
+
+        /**
+         * Merges an event into the pending events of its row.
+         *
+         * @param event the event to add
+         */
+        private void coalesce(ChangeEvent event)
+        {
+            Key unplacedKey = new Key(event.type(), null);
+            if (pending.containsKey(unplacedKey))
+            {
+                // The type is reloaded as a whole anyway
+                return;
+            }
+            if (event.kind() == ChangeEvent.Kind.UNPLACED)
+            {
+                pending.keySet().removeIf(key -> key.type() == event.type());
+                pending.put(unplacedKey, event);
+                return;
+            }
+
+            Key key = new Key(event.type(), event.id());
+            ChangeEvent earlier = pending.remove(key);
+            if (earlier == null)
+            {
+                pending.put(key, event);
+                return;
+            }
+
+            // The row was on the earlier event's dates too, so the view must look at both
+            Set<LocalDate> dates = new HashSet<>(earlier.dates());
+            dates.addAll(event.dates());
+            pending.put(key, new ChangeEvent(event.type(), combine(earlier.kind(), event.kind()), event.id(), dates));
+        }
+
+        /**
+         * Hands the pending events to the listener. Runs on the subscriber's executor.
+         */
+        private void deliver()
+        {
+            List<ChangeEvent> events = new ArrayList<>();
+            synchronized (this)
+            {
+                deliveryScheduled = false;
+                for (ChangeEvent event : pending.values())
+                {
+                    if (event.affects(start, end))
+                    {
+                        events.add(event);
+                    }
+                }
+                pending.clear();
+            }
+            if (!events.isEmpty())
+            {
+                listener.accept(events);
+            }
+        }
+    }
+
+    /**
+     * Combines two changes to the same row into one.
+     *
+     * @param earlier the first change
+     * @param later the second change
+     * @return the net change
+     */
+    private static ChangeEvent.Kind combine(ChangeEvent.Kind earlier, ChangeEvent.Kind later)
+    {
+        if (earlier == ChangeEvent.Kind.ADDED && later == ChangeEvent.Kind.CHANGED)
+        {
+            return ChangeEvent.Kind.ADDED;
+        }
+        if (earlier == ChangeEvent.Kind.REMOVED && later == ChangeEvent.Kind.ADDED)
+        {
+            return ChangeEvent.Kind.CHANGED;
+        }
+        return later;
+    }
+}
@@ -0,0 +1,532 @@
+package csusm.cougarplanner.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Versioned binary snapshot of a table's rows, read in one piece on start so the first queries
+ * do not have to parse the CSV files or any date strings.
+ *
+ * The file is columnar: an epoch-day int column, a minute-of-day short column, a dictionary-encoded
+ * course column, and one column of string heap offsets per remaining CSV column. Rows are sorted by
+ * date, so a week is found by binary search and only the rows inside it are decoded.
+ *
+ * The header carries a fingerprint of the CSV files the snapshot was built from. A snapshot whose
+ * fingerprint no longer matches the files is ignored; the CSVs remain the source of truth.
+ *
+ * The file is read into memory and closed right away rather than mapped, so nothing holds it open
+ * and a merge can replace it on every platform, Windows included.
+ *
+ * @param <T> the model type stored in the snapshot
+ */
+public final class ColumnarSnapshot<T>
+{
+    private static final int MAGIC = 0x43505342; // "CPSB"
+    private static final int VERSION = 1;
+    private static final int FINGERPRINT_LENGTH = 32;
+    private static final String COURSE_COLUMN = "course_id";
+    // Sentinels for rows without a date or time; undated rows sort last
+    private static final int NO_DATE = Integer.MAX_VALUE;
+    private static final short NO_TIME = -1;
+    private static final int NO_STRING = -1;
+
+    private final ByteBuffer buffer;
+    private final RowCodec<T> codec;
+    private final int rowCount;
+    private final String[] columns;
+    private final String[] courseDictionary;
+    private final int epochDayOffset;
+    private final int minuteOffset;
+    private final int courseCodeOffset;
+    private final int[] columnOffsets;
+    private final int heapOffset;
+
+    /**
+     * Lays out the sections of a snapshot. Reads the header and the course dictionary.
+     *
+     * @param buffer the file's bytes, positioned after the fingerprint
+     * @param codec converts records back into model objects
+     */
+    private ColumnarSnapshot(ByteBuffer buffer, RowCodec<T> codec)
+    {
+        this.buffer = buffer;
+        this.codec = codec;
+        this.rowCount = buffer.getInt();
+
+        int columnCount = buffer.getInt();
+        this.columns = new String[columnCount];
+        for (int i = 0; i < columnCount; i++)
+        {
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            columns[i] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        this.epochDayOffset = buffer.position();
+        this.minuteOffset = epochDayOffset + rowCount * Integer.BYTES;
+
+        int dictionaryOffset = minuteOffset + rowCount * Short.BYTES;
+        int dictionarySize = buffer.getInt(dictionaryOffset);
+        int[] dictionaryRefs = new int[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++)
+        {
+            dictionaryRefs[i] = buffer.getInt(dictionaryOffset + Integer.BYTES * (i + 1));
+        }
+        this.courseCodeOffset = dictionaryOffset + Integer.BYTES * (dictionarySize + 1);
+
+        this.columnOffsets = new int[columnCount];
+        int offset = courseCodeOffset + rowCount * Integer.BYTES;
+        for (int i = 0; i < columnCount; i++)
+        {
+            if (!columns[i].equals(COURSE_COLUMN))
+            {
+                columnOffsets[i] = offset;
+                offset += rowCount * Integer.BYTES;
+            }
+        }
+
+        int heapSize = buffer.getInt(offset);
+        this.heapOffset = offset + Integer.BYTES;
+        if (heapOffset + heapSize != buffer.limit())
+        {
+            throw new IllegalStateException("Snapshot sections do not match the file size");
+        }
+
+        this.courseDictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++)
+        {
+            courseDictionary[i] = heapString(dictionaryRefs[i]);
+        }
+    }
+
+    /**
+     * Opens a snapshot if it exists and was built from files with the given fingerprint.
+     *
+     * @param path the snapshot file
+     * @param codec converts records back into model objects
+     * @param expectedFingerprint fingerprint of the CSV files as they are now
+     * @return the snapshot, or null if it is missing, stale, from another version, or damaged
+     * @throws IOException if the file exists but cannot be read
+     */
+    public static <T> ColumnarSnapshot<T> open(Path path, RowCodec<T> codec, byte[] expectedFingerprint) throws IOException
+    {
+        if (!Files.isRegularFile(path))
+        {
+            return null;
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                return null; // Never written this large; not a snapshot
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    throw new EOFException("Snapshot shrank while it was read: " + path);
+                }
+            }
+            buffer.flip();
+        }
+
+        try
+        {
+            if (buffer.getInt() == MAGIC && buffer.getInt() == VERSION)
+            {
+                byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+                buffer.get(fingerprint);
+                if (Arrays.equals(fingerprint, expectedFingerprint))
+                {
+                    return new ColumnarSnapshot<>(buffer, codec);
+                }
+            }
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalStateException e)
+        {
+            // Truncated or damaged; fall back to the CSVs
+        }
+        return null;
+    }
+
+    /**
+     * Writes a snapshot of the rows, replacing any previous snapshot atomically.
+     *
+     * @param path the snapshot file
+     * @param rows every row of the table
+     * @param codec describes the rows' columns, course, date and time
+     * @param fingerprint fingerprint of the CSV files holding exactly these rows
+     * @throws IOException if the file cannot be written
+     */
+    public static <T> void write(Path path, Collection<T> rows, RowCodec<T> codec, byte[] fingerprint) throws IOException
+    {
+        // Resolves each row's date, time and record once, then sorts by date
+        List<EncodedRow> encoded = new ArrayList<>(rows.size());
+        for (T row : rows)
+        {
+            LocalDate date = codec.dateOf(row);
+            LocalTime time = codec.timeOf(row);
+            encoded.add(new EncodedRow(
+                    date != null ? (int) date.toEpochDay() : NO_DATE,
+                    time != null ? (short) (time.getHour() * 60 + time.getMinute()) : NO_TIME,
+                    codec.idOf(row),
+                    codec.toRecord(row)));
+        }
+        encoded.sort(Comparator.comparingInt(EncodedRow::epochDay)
+                .thenComparing(EncodedRow::id, Comparator.nullsLast(Comparator.naturalOrder())));
+
+        String[] columns = codec.headers();
+        StringHeap heap = new StringHeap();
+        Map<String, Integer> dictionaryCodes = new LinkedHashMap<>();
+        int[] courseCodes = new int[encoded.size()];
+        int[][] columnRefs = new int[columns.length][encoded.size()];
+        for (int row = 0; row < encoded.size(); row++)
+        {
+            Map<String, String> record = encoded.get(row).record();
+            for (int column = 0; column < columns.length; column++)
+            {
+                String value = record.get(columns[column]);
+                if (columns[column].equals(COURSE_COLUMN))
+                {
+                    courseCodes[row] = value == null ? NO_STRING
+                            : dictionaryCodes.computeIfAbsent(value, v -> dictionaryCodes.size());
+                }
+                else
+                {
+                    columnRefs[column][row] = heap.add(value);
+                }
+            }
+        }
+        int[] dictionaryRefs = new int[dictionaryCodes.size()];
+        for (Map.Entry<String, Integer> entry : dictionaryCodes.entrySet())
+        {
+            dictionaryRefs[entry.getValue()] = heap.add(entry.getKey());
+        }
+
+        byte[][] columnNames = new byte[columns.length][];
+        int headerSize = Integer.BYTES * 4 + FINGERPRINT_LENGTH;
+        int stringColumns = 0;
+        for (int i = 0; i < columns.length; i++)
+        {
+            columnNames[i] = columns[i].getBytes(StandardCharsets.UTF_8);
+            headerSize += Short.BYTES + columnNames[i].length;
+            if (!columns[i].equals(COURSE_COLUMN))
+            {
+                stringColumns++;
+            }
+        }
+        int rowCount = encoded.size();
+        long size = (long) headerSize
+                + (long) rowCount * (Integer.BYTES + Short.BYTES + Integer.BYTES)
+                + Integer.BYTES * (dictionaryRefs.length + 1L)
+                + (long) stringColumns * rowCount * Integer.BYTES
+                + Integer.BYTES + heap.size();
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IOException("Snapshot would exceed 2 GB: " + path);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) size);
+        out.putInt(MAGIC).putInt(VERSION).put(fingerprint).putInt(rowCount).putInt(columns.length);
+        for (byte[] name : columnNames)
+        {
+            out.putShort((short) name.length).put(name);
+        }
+        for (EncodedRow row : encoded)
+        {
+            out.putInt(row.epochDay());
+        }
+        for (EncodedRow row : encoded)
+        {
+            out.putShort(row.minuteOfDay());
+        }
+        out.putInt(dictionaryRefs.length);
+        for (int ref : dictionaryRefs)
+        {
+            out.putInt(ref);
+        }
+        for (int code : courseCodes)
+        {
+            out.putInt(code);
+        }
+        for (int column = 0; column < columns.length; column++)
+        {
+            if (!columns[column].equals(COURSE_COLUMN))
+            {
+                for (int ref : columnRefs[column])
+                {
+                    out.putInt(ref);
+                }
+            }
+        }
+        out.putInt(heap.size());
+        heap.writeTo(out);
+        out.flip();
+
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try
+        {
+            try (FileChannel channel = FileChannel.open(tempFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                while (out.hasRemaining())
+                {
+                    channel.write(out);
+                }
+                channel.force(true);
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a store's files from their stamps (path, last-modified time, size).
+     *
+     * @param stamps the stamps of every file the store reads
+     * @return the SHA-256 fingerprint
+     */
+    public static byte[] fingerprint(Map<Path, FileStamp> stamps)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        Map<String, FileStamp> sorted = new TreeMap<>();
+        for (Map.Entry<Path, FileStamp> entry : stamps.entrySet())
+        {
+            sorted.put(entry.getKey().toString(), entry.getValue());
+        }
+        for (Map.Entry<String, FileStamp> entry : sorted.entrySet())
+        {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update(ByteBuffer.allocate(Long.BYTES * 2)
+                    .putLong(entry.getValue().lastModifiedMillis())
+                    .putLong(entry.getValue().size())
+                    .array());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Gets the number of rows in the snapshot.
+     *
+     * @return the row count
+     */
+    public int size()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Gets a row's date straight from the epoch-day column.
+     *
+     * @param row the row number
+     * @return the row's date, or null if it has none
+     */
+    public LocalDate dateAt(int row)
+    {
+        int epochDay = buffer.getInt(epochDayOffset + row * Integer.BYTES);
+        return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+
+    /**
+     * Gets a row's time of day straight from the minute-of-day column.
+     *
+     * @param row the row number
+     * @return minutes since midnight, or -1 if the row has no time
+     */
+    public int minuteAt(int row)
+    {
+        return buffer.getShort(minuteOffset + row * Short.BYTES);
+    }
+
+    /**
+     * Decodes one row into a model object.
+     *
+     * @param row the row number
+     * @return the decoded item
+     */
+    public T rowAt(int row)
+    {
+        Map<String, String> record = new HashMap<>();
+        for (int column = 0; column < columns.length; column++)
+        {
+            if (columns[column].equals(COURSE_COLUMN))
+            {
+                int code = buffer.getInt(courseCodeOffset + row * Integer.BYTES);
+                record.put(COURSE_COLUMN, code != NO_STRING ? courseDictionary[code] : null);
+            }
+            else
+            {
+                record.put(columns[column], heapString(buffer.getInt(columnOffsets[column] + row * Integer.BYTES)));
+            }
+        }
+        return codec.fromRecord(record);
+    }
+
+    /**
+     * Decodes only the rows dated within the range, found by binary search on the epoch-day column.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the matching items, ordered by date
+     */
+    public List<T> range(LocalDate start, LocalDate end)
+    {
+        List<T> result = new ArrayList<>();
+        if (end.isBefore(start))
+        {
+            return result;
+        }
+        int from = firstRowOnOrAfter(start.toEpochDay());
+        int to = firstRowOnOrAfter(end.toEpochDay() + 1);
+        for (int row = from; row < to; row++)
+        {
+            result.add(rowAt(row));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the first row dated on or after an epoch day.
+     *
+     * @param epochDay the day to search for
+     * @return the row number, or the row count if every row is earlier
+     */
+    private int firstRowOnOrAfter(long epochDay)
+    {
+        int low = 0;
+        int high = rowCount;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(epochDayOffset + mid * Integer.BYTES) < epochDay)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string from the heap.
+     *
+     * @param ref the string's offset in the heap
+     * @return the string, or null for the null reference
+     */
+    private String heapString(int ref)
+    {
+        if (ref == NO_STRING)
+        {
+            return null;
+        }
+        int position = heapOffset + ref;
+        byte[] bytes = new byte[buffer.getInt(position)];
+        buffer.get(position + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A row resolved for writing.
+     */
+    private record EncodedRow(int epochDay, short minuteOfDay, String id, Map<String, String> record) {}
+
+    /**
+     * Accumulates length-prefixed UTF-8 strings, storing repeated values once.
+     */
+    private static final class StringHeap
+    {
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final List<byte[]> entries = new ArrayList<>();
+        private int size;
+
+        /**
+         * Adds a string to the heap.
+         *
+         * @param value the string, or null
+         * @return the string's heap offset, or the null reference
+         */
+        int add(String value)
+        {
+            if (value == null)
+            {
+                return NO_STRING;
+            }
+            Integer existing = offsets.get(value);
+            if (existing != null)
+            {
+                return existing;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int offset = size;
+            offsets.put(value, offset);
+            entries.add(bytes);
+            size += Integer.BYTES + bytes.length;
+            return offset;
+        }
+
+        /**
+         * Gets the heap size in bytes.
+         *
+         * @return the heap size
+         */
+        int size()
+        {
+            return size;
+        }
+
+        /**
+         * Writes every entry in offset order.
+         *
+         * @param out the buffer to write into
+         */
+        void writeTo(ByteBuffer out)
+        {
+            for (byte[] entry : entries)
+            {
+                out.putInt(entry.length).put(entry);
+            }
+        }
+    }
+}
@@ -3,11 +3,12 @@ package csusm.cougarplanner.io;
 import csusm.cougarplanner.models.Course;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
- * Repository class for managing Course data persistence in courses.csv.
+ * Repository class for managing Course data persistence in courses.csv,
+ * or in the embedded store when {@link StorageKind} selects it.
  *
  * Part of T03: Implement CSV layer for courses.csv with upsert by ID functionality.
  */
@@ -15,16 +16,29 @@ public class CoursesRepository
 {
     // CSV column headers matching the courses.csv file specification
     private static final String[] HEADERS = {"course_id", "course_name"};
-    private final CsvReader csvReader;
-    private final CsvWriter csvWriter;
+    private static final CourseCodec CODEC = new CourseCodec();
+    // Shared by every repository instance so courses.csv is parsed only when it changes;
+    // the embedded store starts out with the courses of courses.csv
+    private static final SharedBackend<Course> BACKEND = new SharedBackend<>(EntityType.COURSES, () ->
+            StorageKind.configured() == StorageKind.EMBEDDED
+                    ? new EmbeddedStore<>(CsvPaths.getCoursesStorePath(), CODEC, null, new CachedCsvFile<>(CsvPaths.getCoursesPath(), CODEC))
+                    : new CachedCsvFile<>(CsvPaths.getCoursesPath(), CODEC));
 
     /**
-     * Constructs a new CoursesRepository with default CSV reader/writer.
+     * Constructs a new CoursesRepository over the shared storage backend.
      */
     public CoursesRepository()
     {
-        this.csvReader = new CsvReader();
-        this.csvWriter = new CsvWriter();
+    }
+
+    /**
+     * Replaces the shared backend, for tests that run the repository over their own storage.
+     *
+     * @param backend the backend to use from now on, or null to create the configured one again on next use
+     */
+    static void useBackend(StorageBackend<Course> backend)
+    {
+        BACKEND.replace(backend);
     }
 
     /**
@@ -36,10 +50,7 @@ public class CoursesRepository
      */
     public List<Course> findAll() throws IOException
     {
-        List<Map<String, String>> records = csvReader.readAll(CsvPaths.getCoursesPath());
-        return records.stream()
-                .map(this::mapToCourse)
-                .collect(Collectors.toList());
+        return BACKEND.get().findAll();
     }
 
     /**
@@ -50,50 +61,59 @@ public class CoursesRepository
      */
     public void upsert(Course course) throws IOException
     {
-        List<Course> allCourses = findAll();
-
-        // Removes existing course with same ID
-        allCourses.removeIf(c -> c.getCourseId().equals(course.getCourseId()));
-
-        // Adds updated course
-        allCourses.add(course);
-
-        // Writes back to file
-        List<Map<String, String>> records = allCourses.stream()
-                .map(this::courseToMap)
-                .collect(Collectors.toList());
-
-        csvWriter.writeAll(CsvPaths.getCoursesPath(), records, HEADERS);
+        // Replaces any existing course with the same ID
+        publishChanges(BACKEND.get().upsertAll(List.of(course), (existing, updated) -> updated));
     }
 
     /**
      * Upsert operation on multiple courses.
+     * courses.csv is only rewritten if a course was added or changed.
      *
      * @param courses List of courses to upsert
+     * @return what the upsert changed
      * @throws IOException if the CSV file cannot be written
      */
-    public void upsertAll(List<Course> courses) throws IOException
+    public MergeDiff<Course> upsertAll(List<Course> courses) throws IOException
     {
-        Map<String, Course> courseMap = new HashMap<>();
-
-        // Loads existing courses
-        for (Course existing : findAll())
-        {
-            courseMap.put(existing.getCourseId(), existing);
-        }
+        MergeDiff<Course> diff = BACKEND.get().upsertAll(courses, (existing, updated) -> updated);
+        publishChanges(diff);
+        return diff;
+    }
 
-        // Updates with new courses
-        for (Course course : courses)
-        {
-            courseMap.put(course.getCourseId(), course);
-        }
+    /**
+     * Upsert operation on multiple courses as part of a transaction.
+     * courses.csv is replaced when the transaction commits, and is not staged at all
+     * if every course matches what is stored. The last of several courses with the same ID wins.
+     *
+     * @param courses List of courses to upsert
+     * @param transaction the transaction to stage courses.csv in
+     * @return what the upsert changed
+     * @throws IOException if the CSV file cannot be staged
+     */
+    public MergeDiff<Course> upsertAll(List<Course> courses, FileTransaction transaction) throws IOException
+    {
+        return BACKEND.get().upsertAll(courses, (existing, updated) -> updated, transaction);
+    }
 
-        // Writes back
-        List<Map<String, String>> records = courseMap.values().stream()
-                .map(this::courseToMap)
-                .collect(Collectors.toList());
+    /**
+     * Publishes the changes of an upsert staged in a transaction the caller has since committed.
+     * Writes the repository commits itself are published by the repository.
+     *
+     * @param diff what the committed upsert changed
+     */
+    public void publishChanges(MergeDiff<Course> diff)
+    {
+        ChangeEventBus.getInstance().publish(ChangeEvent.of(EntityType.COURSES, diff, CODEC));
+    }
 
-        csvWriter.writeAll(CsvPaths.getCoursesPath(), records, HEADERS);
+    /**
+     * Gets the hit, miss and reload counters of the shared courses.csv cache.
+     *
+     * @return the cache statistics
+     */
+    public CacheStats getCacheStats()
+    {
+        return BACKEND.get().getCacheStats();
     }
 
     /**
@@ -103,7 +123,7 @@ public class CoursesRepository
      * @param record Map representing a CSV row with snake_case keys
      * @return Course object populated from the CSV data
      */
-    private Course mapToCourse(Map<String, String> record)
+    private static Course mapToCourse(Map<String, String> record)
     {
         Course course = new Course();
         course.setCourseId(record.get("course_id"));
@@ -118,11 +138,53 @@ public class CoursesRepository
      * @param course the Course object to convert
      * @return Map representing a CSV row with snake_case keys
      */
-    private Map<String, String> courseToMap(Course course)
+    private static Map<String, String> courseToMap(Course course)
     {
         Map<String, String> record = new HashMap<>();
         record.put("course_id", course.getCourseId());
         record.put("course_name", course.getCourseName());
         return record;
     }
-}
+
+    /**
+     * Describes how courses are stored in courses.csv rows.
+     */
+    private static class CourseCodec implements RowCodec<Course>
+    {
+        @Override
+        public String[] headers()
+        {
+            return HEADERS;
+        }
+
+        @Override
+        public String idOf(Course course)
+        {
+            return course.getCourseId();
+        }
+
+        @Override
+        public String courseOf(Course course)
+        {
+            return course.getCourseId();
+        }
+
+        @Override
+        public LocalDate dateOf(Course course)
+        {
+            return null; // Courses are not dated
+        }
+
+        @Override
+        public Course fromRecord(Map<String, String> record)
+        {
+            return mapToCourse(record);
+        }
+
+        @Override
+        public Map<String, String> toRecord(Course course)
+        {
+            return courseToMap(course);
+        }
+    }
+}
\ No newline at end of file
@@ -4,14 +4,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 /**
- * Centralizes all file system paths for CSV data storage and JSON snapshots.
+ * Centralizes all file system paths for CSV data storage and binary snapshots.
  *
  * Part of T03: Implement CSV layer with centralized file location management.
  */
 public class CsvPaths
 {
-    // Root directory for all application data files
-    private static final String DATA_DIR = "data";
+    // Root directory for all application data files; the cougarplanner.dataDir system property moves it elsewhere
+    private static final String DATA_DIR = System.getProperty("cougarplanner.dataDir", "data");
 
     /**
      * Gets the file system path for the courses.csv file.
@@ -27,6 +27,7 @@ public class CsvPaths
     /**
      * Gets the file system path for the assignments.csv file.
      * Contains assignment data with due dates, times, and user-set difficulty levels.
+     * Assignments now live in monthly partitions; this file is only read once to migrate older data.
      *
      * @return Path to assignments.csv in the data directory
      */
@@ -37,6 +38,7 @@ public class CsvPaths
 
     /**
      * Gets the file system path for the announcements.csv file.
+     * Announcements now live in monthly partitions; this file is only read once to migrate older data.
      *
      * @return Path to announcements.csv in the data directory
      */
@@ -46,13 +48,193 @@ public class CsvPaths
     }
 
     /**
-     * Gets the file system path for the snapshots.json file.
+     * Gets the directory that holds the monthly assignment partitions.
+     * Each month of due dates is stored as its own YYYY-MM.csv file.
      *
-     * @return Path to snapshots.json in the data directory
+     * @return Path to the assignments partition directory
+     */
+    public static Path getAssignmentsPartitionDirectory()
+    {
+        return Paths.get(DATA_DIR, "assignments");
+    }
+
+    /**
+     * Gets the directory that holds the monthly announcement partitions.
+     * Each month of posting dates is stored as its own YYYY-MM.csv file.
+     *
+     * @return Path to the announcements partition directory
+     */
+    public static Path getAnnouncementsPartitionDirectory()
+    {
+        return Paths.get(DATA_DIR, "announcements");
+    }
+
+    /**
+     * Gets the file system path for the announcement body store.
+     * Holds the compressed announcement bodies that announcement rows refer to by offset and length.
+     *
+     * @return Path to bodies.dat in the announcements partition directory
+     */
+    public static Path getAnnouncementBodiesPath()
+    {
+        return getAnnouncementsPartitionDirectory().resolve("bodies.dat");
+    }
+
+    /**
+     * Gets the directory that holds the binary snapshots loaded at startup.
+     * Snapshots are rebuilt after each merge; the CSV files remain the source of truth.
+     *
+     * @return Path to the snapshots directory
      */
     public static Path getSnapshotsPath()
     {
-        return Paths.get(DATA_DIR, "snapshots.json");
+        return Paths.get(DATA_DIR, "snapshots");
+    }
+
+    /**
+     * Gets the file system path for the assignments snapshot.
+     *
+     * @return Path to assignments.bin in the snapshots directory
+     */
+    public static Path getAssignmentsSnapshotPath()
+    {
+        return getSnapshotsPath().resolve("assignments.bin");
+    }
+
+    /**
+     * Gets the file system path for the announcements snapshot.
+     *
+     * @return Path to announcements.bin in the snapshots directory
+     */
+    public static Path getAnnouncementsSnapshotPath()
+    {
+        return getSnapshotsPath().resolve("announcements.bin");
+    }
+
+    /**
+     * Gets the directory that holds archived rows: compressed month segments past the
+     * retention period and tombstones of rows deleted upstream.
+     *
+     * @return Path to the archive directory
+     */
+    public static Path getArchiveDirectory()
+    {
+        return Paths.get(DATA_DIR, "archive");
+    }
+
+    /**
+     * Gets the directory that holds the archived assignments.
+     *
+     * @return Path to the assignments archive directory
+     */
+    public static Path getAssignmentsArchiveDirectory()
+    {
+        return getArchiveDirectory().resolve("assignments");
+    }
+
+    /**
+     * Gets the directory that holds the archived announcements.
+     *
+     * @return Path to the announcements archive directory
+     */
+    public static Path getAnnouncementsArchiveDirectory()
+    {
+        return getArchiveDirectory().resolve("announcements");
+    }
+
+    /**
+     * Gets the file system path for the profile.properties file.
+     * Contains the user's settings and, optionally, the Canvas API token.
+     *
+     * @return Path to profile.properties in the data directory
+     */
+    public static Path getProfilePath()
+    {
+        return Paths.get(DATA_DIR, "profile.properties");
+    }
+
+    /**
+     * Gets the file system path for the merge transaction intent log.
+     * The file only exists while a transaction is being committed, or after a crash interrupted one.
+     *
+     * @return Path to transaction.log in the data directory
+     */
+    public static Path getTransactionLogPath()
+    {
+        return Paths.get(DATA_DIR, "transaction.log");
+    }
+
+    /**
+     * Gets the directory that holds the sorted run files of memory-bounded merges.
+     * Run files are temporary and are removed when the merge that wrote them finishes.
+     *
+     * @return Path to the spill directory in the data directory
+     */
+    public static Path getSpillDirectory()
+    {
+        return Paths.get(DATA_DIR, "spill");
+    }
+
+    /**
+     * Gets the directory that holds the embedded store files, used instead of the CSVs
+     * when the embedded storage backend is configured.
+     *
+     * @return Path to the store directory in the data directory
+     */
+    public static Path getStoreDirectory()
+    {
+        return Paths.get(DATA_DIR, "store");
+    }
+
+    /**
+     * Gets the file system path for the embedded assignment store.
+     *
+     * @return Path to assignments.db in the store directory
+     */
+    public static Path getAssignmentsStorePath()
+    {
+        return getStoreDirectory().resolve("assignments.db");
+    }
+
+    /**
+     * Gets the file system path for the embedded announcement store.
+     *
+     * @return Path to announcements.db in the store directory
+     */
+    public static Path getAnnouncementsStorePath()
+    {
+        return getStoreDirectory().resolve("announcements.db");
+    }
+
+    /**
+     * Gets the file system path for the embedded course store.
+     *
+     * @return Path to courses.db in the store directory
+     */
+    public static Path getCoursesStorePath()
+    {
+        return getStoreDirectory().resolve("courses.db");
+    }
+
+    /**
+     * Gets the file system path for the lock file that serializes writers across processes.
+     * The file also holds the data version that readers check for concurrent writes.
+     *
+     * @return Path to data.lock in the data directory
+     */
+    public static Path getLockPath()
+    {
+        return Paths.get(DATA_DIR, "data.lock");
+    }
+
+    /**
+     * Gets the root directory for all application data files.
+     *
+     * @return Path to the data directory
+     */
+    public static Path getDataDirectory()
+    {
+        return Paths.get(DATA_DIR);
     }
 
     /**
@@ -1,10 +1,14 @@
 package csusm.cougarplanner.io;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 /**
  * CSV file reader that parses CSV files into lists of maps.
@@ -29,39 +33,102 @@ public class CsvReader
      * @throws IOException if the file exists but cannot be read (permission issues, etc.)
      */
     public List<Map<String, String>> readAll(Path filePath) throws IOException
+    {
+        List<Map<String, String>> records = new ArrayList<>();
+        read(filePath, records::add);
+        return records;
+    }
+
+    /**
+     * Reads a CSV file one line at a time and hands each record to the handler as it is parsed,
+     * so callers can process files larger than memory. Parsing follows the same rules as readAll.
+     *
+     * @param filePath the path to the CSV file to read; nothing is read if it doesn't exist
+     * @param handler receives each row as a map of header→value
+     * @throws IOException if the file exists but cannot be read, or the handler fails
+     */
+    public void read(Path filePath, RecordHandler handler) throws IOException
+    {
+        if (!Files.exists(filePath))
+        {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(filePath))
+        {
+            parse(reader, handler);
+        }
+    }
+
+    /**
+     * Reads a gzip-compressed CSV file one line at a time, handing each record to the handler.
+     *
+     * @param filePath the path to the compressed CSV file; nothing is read if it doesn't exist
+     * @param handler receives each row as a map of header→value
+     * @throws IOException if the file exists but cannot be read or decompressed, or the handler fails
+     */
+    public void readCompressed(Path filePath, RecordHandler handler) throws IOException
     {
         if (!Files.exists(filePath))
         {
-            return new ArrayList<>();
+            return;
         }
 
-        List<String> lines = Files.readAllLines(filePath);
-        if (lines.isEmpty())
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(filePath)), StandardCharsets.UTF_8)))
         {
-            return new ArrayList<>();
+            parse(reader, handler);
+        }
+    }
+
+    /**
+     * Parses the header line and then each data line of a CSV stream.
+     *
+     * @param reader the reader positioned at the header line
+     * @param handler receives each row as a map of header→value
+     * @throws IOException if the stream cannot be read or the handler fails
+     */
+    private void parse(BufferedReader reader, RecordHandler handler) throws IOException
+    {
+        String headerLine = reader.readLine();
+        if (headerLine == null)
+        {
+            return;
         }
 
         // Parses headers
-        String[] headers = Arrays.stream(lines.get(0).split(","))
+        String[] headers = Arrays.stream(headerLine.split(","))
                 .map(String::trim)
                 .map(String::toLowerCase)
                 .toArray(String[]::new);
 
         // Parses data rows
-        List<Map<String, String>> records = new ArrayList<>();
-        for (int i = 1; i < lines.size(); i++)
+        for (String line = reader.readLine(); line != null; line = reader.readLine())
         {
-            String[] values = parseCsvLine(lines.get(i));
+            String[] values = parseCsvLine(line);
             Map<String, String> record = new HashMap<>();
 
             for (int j = 0; j < Math.min(headers.length, values.length); j++)
             {
                 record.put(headers[j], values[j].trim());
             }
-            records.add(record);
+            handler.accept(record);
         }
+    }
 
-        return records;
+    /**
+     * Receives the records of a CSV file as they are read.
+     */
+    @FunctionalInterface
+    public interface RecordHandler
+    {
+        /**
+         * Handles one parsed row.
+         *
+         * @param record the row as a map of header→value
+         * @throws IOException if the handler cannot process the row
+         */
+        void accept(Map<String, String> record) throws IOException;
     }
 
     /**
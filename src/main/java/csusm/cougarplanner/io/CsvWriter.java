@@ -1,60 +1,171 @@
 package csusm.cougarplanner.io;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Writes data to CSV files while maintaining data integrity through atomic operations.
+ * Rows are encoded straight into a buffered writer on a FileChannel, so memory use
+ * stays bounded by the buffer size no matter how many rows are written.
  *
  * Part of T03: Implement CSV layer with atomic writes and proper CSV formatting.
  */
 public class CsvWriter
 {
+    // Size of the reused character buffer between the row encoder and the file channel
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How much crash safety a write should pay for.
+     */
+    public enum Durability
+    {
+        /** Leaves flushing to the operating system; fastest, may lose the write on power loss. */
+        NONE,
+        /** Forces the temp file to disk before it replaces the target. */
+        FSYNC_FILE,
+        /** Forces the temp file and then the parent directory so the rename itself survives a crash. */
+        FSYNC_FILE_AND_DIRECTORY
+    }
+
+    private final Durability durability;
+
+    /**
+     * Constructs a CsvWriter that fsyncs each file before it is renamed into place.
+     */
+    public CsvWriter()
+    {
+        this(Durability.FSYNC_FILE);
+    }
+
+    /**
+     * Constructs a CsvWriter with the given durability mode.
+     *
+     * @param durability how much crash safety each write should provide
+     */
+    public CsvWriter(Durability durability)
+    {
+        this.durability = durability;
+    }
+
+    /**
+     * Gets the durability mode used by this writer.
+     *
+     * @return the configured durability mode
+     */
+    public Durability getDurability()
+    {
+        return durability;
+    }
 
     /**
      * Writes all records to a CSV file with atomic operation.
      * Uses temporary file and atomic move to prevent data corruption during write.
+     * Records are consumed one at a time, so callers may pass a lazily mapped view.
      *
      * @param filePath the path to the CSV file to write
-     * @param records list of maps representing rows, with keys matching headers
+     * @param records rows to write, with keys matching headers
      * @param headers column headers for the CSV file
      * @throws IOException if the file cannot be written
      *
      */
-    public void writeAll(Path filePath, List<Map<String, String>> records, String[] headers) throws IOException
+    public void writeAll(Path filePath, Iterable<Map<String, String>> records, String[] headers) throws IOException
+    {
+        Path tempFile = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        prepare(tempFile, records, headers);
+        publish(tempFile, filePath);
+    }
+
+    /**
+     * Writes a complete CSV file to a staging path without touching the target file.
+     * The staged file is forced to disk according to the durability setting, so it can be
+     * published later, for example once every file of a transaction has been prepared.
+     *
+     * @param stagedPath the path to write the staged file to
+     * @param records rows to write, with keys matching headers
+     * @param headers column headers for the CSV file
+     * @throws IOException if the file cannot be written
+     */
+    public void prepare(Path stagedPath, Iterable<Map<String, String>> records, String[] headers) throws IOException
     {
         CsvPaths.ensureDataDirectory();
 
-        Path tempFile = filePath.resolveSibling(filePath.getFileName() + ".tmp");
-        List<String> lines = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(stagedPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            BufferedWriter writer = new BufferedWriter(
+                    Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+            writeRows(writer, records, headers);
 
-        // Writes headers
-        lines.add(String.join(",", headers));
+            writer.flush();
+            if (durability != Durability.NONE)
+            {
+                channel.force(true);
+            }
+        }
+    }
 
-        // Writes records
-        for (Map<String, String> record : records)
+    /**
+     * Writes a complete gzip-compressed CSV file to a staging path without touching the target file.
+     * Used for archive segments, which are rarely read and only ever rewritten whole.
+     *
+     * @param stagedPath the path to write the staged file to
+     * @param records rows to write, with keys matching headers
+     * @param headers column headers for the CSV file
+     * @throws IOException if the file cannot be written
+     */
+    public void prepareCompressed(Path stagedPath, Iterable<Map<String, String>> records, String[] headers) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(stagedPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
         {
-            String[] values = new String[headers.length];
-            for (int i = 0; i < headers.length; i++)
+            GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+            writeRows(writer, records, headers);
+
+            writer.flush();
+            gzip.finish();
+            if (durability != Durability.NONE)
             {
-                String value = record.get(headers[i]);
-                values[i] = escapeCsvValue(value != null ? value : "");
+                channel.force(true);
             }
-            lines.add(String.join(",", values));
         }
+    }
 
-        Files.write(tempFile, lines);
-        Files.move(tempFile, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    /**
+     * Atomically replaces the target file with a staged file written by prepare.
+     *
+     * @param stagedPath the staged file
+     * @param filePath the file to replace
+     * @throws IOException if the file cannot be moved into place
+     */
+    public void publish(Path stagedPath, Path filePath) throws IOException
+    {
+        Files.move(stagedPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (durability == Durability.FSYNC_FILE_AND_DIRECTORY)
+        {
+            syncDirectory(filePath.toAbsolutePath().getParent());
+        }
     }
 
     /**
      * Appends a single record to an existing CSV file.
-     * Creates the file with headers if it doesn't exist.
+     * Creates the file with headers if it doesn't exist or is empty. A file whose last line
+     * has no line break, e.g. after a hand edit, gets one first so the record starts its own line.
      *
      * @param filePath the path to the CSV file to append to
      * @param record the single record to append as a map
@@ -66,20 +177,96 @@ public class CsvWriter
         CsvPaths.ensureDataDirectory();
 
         // If file doesn't exist, creates it with headers
-        if (!Files.exists(filePath))
+        if (!Files.exists(filePath) || Files.size(filePath) == 0)
         {
             writeAll(filePath, List.of(record), headers);
             return;
         }
 
         // Appends to existing file
-        String line = String.join(",",
-                java.util.Arrays.stream(headers)
-                        .map(header -> escapeCsvValue(record.get(header)))
-                        .toArray(String[]::new)
-        );
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            long end = channel.size();
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            channel.read(lastByte, end - 1);
+            channel.position(end);
 
-        Files.write(filePath, (System.lineSeparator() + line).getBytes(), java.nio.file.StandardOpenOption.APPEND);
+            Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+            if (lastByte.get(0) != '\n')
+            {
+                writer.write(System.lineSeparator());
+            }
+            writeRow(writer, record, headers);
+            writer.flush();
+            if (durability != Durability.NONE)
+            {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Writes the header line and every record.
+     *
+     * @param writer the writer to encode into
+     * @param records rows to write, with keys matching headers
+     * @param headers column headers for the CSV file
+     * @throws IOException if the writer fails
+     */
+    private void writeRows(BufferedWriter writer, Iterable<Map<String, String>> records, String[] headers) throws IOException
+    {
+        // Writes headers
+        writer.write(String.join(",", headers));
+        writer.newLine();
+
+        // Writes records
+        for (Map<String, String> record : records)
+        {
+            writeRow(writer, record, headers);
+        }
+    }
+
+    /**
+     * Encodes one record as a CSV line directly into the writer.
+     *
+     * @param writer the writer to encode into
+     * @param record the record to encode
+     * @param headers column headers that define the column order
+     * @throws IOException if the writer fails
+     */
+    private void writeRow(Writer writer, Map<String, String> record, String[] headers) throws IOException
+    {
+        for (int i = 0; i < headers.length; i++)
+        {
+            if (i > 0)
+            {
+                writer.write(',');
+            }
+            writer.write(escapeCsvValue(record.get(headers[i])));
+        }
+        writer.write(System.lineSeparator());
+    }
+
+    /**
+     * Forces a directory entry to disk so a completed rename survives a crash.
+     * Some platforms (Windows) cannot open directories; the rename is still atomic there.
+     *
+     * @param directory the directory to sync
+     */
+    private void syncDirectory(Path directory)
+    {
+        if (directory == null)
+        {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            // Directory sync is not supported on this platform
+        }
     }
 
     /**
@@ -98,4 +285,4 @@ public class CsvWriter
         }
         return value;
     }
-}
\ No newline at end of file
+}
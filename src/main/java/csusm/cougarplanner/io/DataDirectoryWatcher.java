@@ -0,0 +1,362 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the data directory for changes made outside the running app: hand edits,
+ * ops scripts, or a second app instance. Bursts of file events are debounced into one
+ * notification per quiet period, the caches of the affected entity types are invalidated,
+ * and listeners are told which entity types changed.
+ *
+ * While the watcher is running, caches trust it and skip checking file stamps on every query.
+ */
+public class DataDirectoryWatcher
+{
+    // Quiet period that ends a burst of file events
+    private static final long DEBOUNCE_MILLIS = 250;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String STAGED_SUFFIX = ".staged";
+
+    private static final DataDirectoryWatcher INSTANCE = new DataDirectoryWatcher(CsvPaths.getDataDirectory());
+
+    private final Path dataDirectory;
+    private final Map<EntityType, List<Runnable>> invalidators = new EnumMap<>(EntityType.class);
+    private final List<Consumer<Set<EntityType>>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    private volatile boolean running = false;
+    private WatchService watchService;
+    private Thread watchThread;
+
+    /**
+     * Constructs a watcher for a data directory.
+     *
+     * @param dataDirectory the directory to watch
+     */
+    private DataDirectoryWatcher(Path dataDirectory)
+    {
+        this.dataDirectory = dataDirectory;
+        for (EntityType type : EntityType.values())
+        {
+            invalidators.put(type, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Gets the process-wide watcher for the data directory.
+     *
+     * @return the shared watcher
+     */
+    public static DataDirectoryWatcher getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts watching the data directory on a background daemon thread.
+     * Does nothing if the watcher is already running.
+     *
+     * @throws IOException if the directory cannot be watched
+     */
+    public synchronized void start() throws IOException
+    {
+        if (running)
+        {
+            return;
+        }
+
+        CsvPaths.ensureDataDirectory();
+        watchService = FileSystems.getDefault().newWatchService();
+        registerTree(dataDirectory);
+
+        // Caches may have missed changes made while nobody was watching
+        invalidate(EnumSet.allOf(EntityType.class));
+
+        running = true;
+        watchThread = new Thread(this::watchLoop, "data-directory-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /**
+     * Stops watching. Caches go back to checking file stamps on every query.
+     */
+    public synchronized void stop()
+    {
+        if (!running)
+        {
+            return;
+        }
+        running = false;
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            // Already closed
+        }
+        watchThread.interrupt();
+    }
+
+    /**
+     * Checks whether the watcher is running and can be trusted to report changes.
+     *
+     * @return true if the data directory is being watched
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Registers a cache invalidation to run whenever an entity type's files change.
+     *
+     * @param type the entity type the cache holds
+     * @param invalidator marks the cache stale
+     */
+    public void registerCache(EntityType type, Runnable invalidator)
+    {
+        invalidators.get(type).add(invalidator);
+    }
+
+    /**
+     * Adds a listener that is told which entity types changed after each burst of events.
+     * Listeners run on the watcher thread.
+     *
+     * @param listener receives the set of changed entity types
+     */
+    public void addListener(Consumer<Set<EntityType>> listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeListener(Consumer<Set<EntityType>> listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Collects file events until a quiet period passes, then publishes the changed entity types.
+     */
+    private void watchLoop()
+    {
+        Set<EntityType> pending = EnumSet.noneOf(EntityType.class);
+        while (running)
+        {
+            WatchKey key;
+            try
+            {
+                key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+
+            if (key == null)
+            {
+                // Quiet period elapsed; publish the burst
+                publish(pending);
+                pending = EnumSet.noneOf(EntityType.class);
+                continue;
+            }
+
+            Path directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents())
+            {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null)
+                {
+                    pending.addAll(EnumSet.allOf(EntityType.class));
+                    continue;
+                }
+
+                Path changed = directory.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed))
+                {
+                    try
+                    {
+                        registerTree(changed);
+                    }
+                    catch (IOException e)
+                    {
+                        // The directory vanished again; nothing to watch
+                    }
+                }
+
+                EntityType type = entityTypeOf(changed);
+                if (type != null)
+                {
+                    pending.add(type);
+                }
+            }
+
+            if (!key.reset())
+            {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the affected caches and notifies listeners.
+     *
+     * @param changed the entity types whose files changed
+     */
+    private void publish(Set<EntityType> changed)
+    {
+        invalidate(changed);
+        Set<EntityType> snapshot = Set.copyOf(changed);
+        for (Consumer<Set<EntityType>> listener : listeners)
+        {
+            listener.accept(snapshot);
+        }
+    }
+
+    /**
+     * Runs the registered invalidations for each changed entity type.
+     *
+     * @param changed the entity types to invalidate
+     */
+    private void invalidate(Set<EntityType> changed)
+    {
+        for (EntityType type : changed)
+        {
+            for (Runnable invalidator : invalidators.get(type))
+            {
+                invalidator.run();
+            }
+        }
+    }
+
+    /**
+     * Maps a changed file to the entity type it stores.
+     *
+     * @param changed the changed file or directory
+     * @return the entity type, or null if the file is not one the app reads
+     */
+    private EntityType entityTypeOf(Path changed)
+    {
+        String fileName = changed.getFileName().toString();
+        if (fileName.endsWith(TEMP_SUFFIX) || fileName.endsWith(STAGED_SUFFIX))
+        {
+            return null; // The rename that follows is what matters
+        }
+
+        Path relative = dataDirectory.relativize(changed);
+        String top = relative.getName(0).toString();
+        if (top.equals(CsvPaths.getAssignmentsPartitionDirectory().getFileName().toString()))
+        {
+            return EntityType.ASSIGNMENTS;
+        }
+        if (top.equals(CsvPaths.getAnnouncementsPartitionDirectory().getFileName().toString()))
+        {
+            return EntityType.ANNOUNCEMENTS;
+        }
+        if (top.equals(CsvPaths.getCoursesPath().getFileName().toString()))
+        {
+            return EntityType.COURSES;
+        }
+        if (top.equals(CsvPaths.getProfilePath().getFileName().toString()))
+        {
+            return EntityType.PROFILE;
+        }
+        if (relative.getNameCount() < 2)
+        {
+            return null; // The store or archive directory itself, not a file in it
+        }
+
+        // Embedded backend: one store file per entity type
+        String second = relative.getName(1).toString();
+        if (top.equals(CsvPaths.getStoreDirectory().getFileName().toString()))
+        {
+            return entityTypeOf(second,
+                    CsvPaths.getAssignmentsStorePath(),
+                    CsvPaths.getAnnouncementsStorePath(),
+                    CsvPaths.getCoursesStorePath());
+        }
+        // Archive: one directory of segments and tombstones per entity type
+        if (top.equals(CsvPaths.getArchiveDirectory().getFileName().toString()))
+        {
+            return entityTypeOf(second,
+                    CsvPaths.getAssignmentsArchiveDirectory(),
+                    CsvPaths.getAnnouncementsArchiveDirectory(),
+                    null);
+        }
+        return null;
+    }
+
+    /**
+     * Maps a file or directory name under the store or archive directory to its entity type.
+     *
+     * @param name the name directly under the store or archive directory
+     * @param assignments the assignments path there
+     * @param announcements the announcements path there
+     * @param courses the courses path there, or null if courses are not kept there
+     * @return the entity type, or null if the name is not one the app reads
+     */
+    private static EntityType entityTypeOf(String name, Path assignments, Path announcements, Path courses)
+    {
+        if (name.equals(assignments.getFileName().toString()))
+        {
+            return EntityType.ASSIGNMENTS;
+        }
+        if (name.equals(announcements.getFileName().toString()))
+        {
+            return EntityType.ANNOUNCEMENTS;
+        }
+        if (courses != null && name.equals(courses.getFileName().toString()))
+        {
+            return EntityType.COURSES;
+        }
+        return null;
+    }
+
+    /**
+     * Registers a directory and all of its subdirectories with the watch service.
+     *
+     * @param directory the root of the tree to watch
+     * @throws IOException if a directory cannot be registered
+     */
+    private void registerTree(Path directory) throws IOException
+    {
+        WatchKey key = directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirectories.put(key, directory);
+
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory, Files::isDirectory))
+        {
+            for (Path child : children)
+            {
+                registerTree(child);
+            }
+        }
+    }
+}
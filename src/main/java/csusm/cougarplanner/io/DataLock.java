@@ -0,0 +1,411 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Coordinates writers across processes, such as two app instances or the app and a sync job,
+ * through an advisory lock on data/data.lock.
+ *
+ * Writers take the lock exclusively for the length of a transaction, so the read-modify-write of
+ * an upsert cannot interleave with another process's. The lock file also holds a version counter
+ * that a writer makes odd while it publishes files and even again once everything is in place.
+ * Readers do not lock: they note the version, read, and check the version again, repeating the read
+ * if a writer published meanwhile. Only a reader that keeps losing that race takes the shared lock.
+ *
+ * The OS lock covers a byte past the counter, so the counter stays readable on platforms where
+ * locks are mandatory. Threads of this process are serialized by a local lock before the OS lock
+ * is taken, because the OS lock is held per process.
+ */
+public class DataLock
+{
+    // The counter occupies the first bytes; the locked byte lies after it
+    private static final int VERSION_BYTES = Long.BYTES;
+    private static final long LOCK_POSITION = VERSION_BYTES;
+    // Optimistic attempts before a reader falls back to the shared lock
+    private static final int OPTIMISTIC_ATTEMPTS = 6;
+    // Pause after the first failed attempt; doubled after each further one, up to the cap
+    private static final long FIRST_BACKOFF_NANOS = 50_000;
+    private static final long MAX_BACKOFF_NANOS = 2_000_000;
+
+    private static final DataLock INSTANCE = new DataLock(CsvPaths.getLockPath());
+
+    private final Path lockPath;
+    private final StampedLock local = new StampedLock();
+    private final LockStats stats = new LockStats();
+
+    private FileChannel channel;
+    private FileLock sharedLock;
+    private int sharedHolders;
+
+    /**
+     * Constructs the lock over a lock file. The file is created on first use.
+     *
+     * @param lockPath the lock file
+     */
+    private DataLock(Path lockPath)
+    {
+        this.lockPath = lockPath;
+    }
+
+    /**
+     * Gets the process-wide lock for the data directory.
+     *
+     * @return the shared lock
+     */
+    public static DataLock getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Takes the lock exclusively, waiting for other threads and processes to let go.
+     * The returned handle may be closed by a different thread than the one that took it.
+     *
+     * @return the held lock; close it to release
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public Held lockExclusive() throws IOException
+    {
+        long start = System.nanoTime();
+        long stamp = local.writeLock();
+        FileLock fileLock;
+        try
+        {
+            fileLock = channel().lock(LOCK_POSITION, 1, false);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            local.unlockWrite(stamp);
+            throw e;
+        }
+        stats.recordExclusive(System.nanoTime() - start);
+        return new Held(() ->
+        {
+            try
+            {
+                fileLock.release();
+            }
+            finally
+            {
+                local.unlockWrite(stamp);
+            }
+        });
+    }
+
+    /**
+     * Takes the lock shared, waiting for any writer to finish.
+     * Threads of this process that hold it shared at the same time share one OS lock.
+     *
+     * @return the held lock; close it to release
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    public Held lockShared() throws IOException
+    {
+        long start = System.nanoTime();
+        long stamp = local.readLock();
+        try
+        {
+            synchronized (this)
+            {
+                if (sharedHolders == 0)
+                {
+                    sharedLock = channel().lock(LOCK_POSITION, 1, true);
+                }
+                sharedHolders++;
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            local.unlockRead(stamp);
+            throw e;
+        }
+        stats.recordShared(System.nanoTime() - start);
+        return new Held(() ->
+        {
+            try
+            {
+                synchronized (this)
+                {
+                    if (--sharedHolders == 0)
+                    {
+                        sharedLock.release();
+                        sharedLock = null;
+                    }
+                }
+            }
+            finally
+            {
+                local.unlockRead(stamp);
+            }
+        });
+    }
+
+    /**
+     * Reads the version counter without locking.
+     *
+     * @return the current version; odd while a writer is publishing, 0 if nothing was written yet
+     * @throws IOException if the lock file cannot be read
+     */
+    public long version() throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(VERSION_BYTES);
+        FileChannel file = channel();
+        while (buffer.hasRemaining())
+        {
+            if (file.read(buffer, buffer.position()) < 0)
+            {
+                return 0;
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Runs a read that must see the files of one version, without locking if possible.
+     * The read is repeated if a writer published while it ran, pausing a little longer after each
+     * attempt; after a few attempts it runs once more under the shared lock.
+     *
+     * The caller must not hold a monitor that a writer may need while holding the lock exclusively,
+     * such as a table's or store's, since the shared lock waits for that writer. A read that needs
+     * such a monitor takes it inside the read.
+     *
+     * @param read the read to run
+     * @param <R> the read's result type
+     * @return the result and the version it was read at
+     * @throws IOException if the read fails or the lock file cannot be read or locked
+     */
+    public <R> Versioned<R> readConsistently(Read<R> read) throws IOException
+    {
+        Versioned<R> result = readOptimistically(read);
+        return result != null ? result : readShared(read);
+    }
+
+    /**
+     * Runs a read that must see the files of one version, without ever waiting for the lock.
+     * The read is repeated if a writer published while it ran, pausing a little longer after each attempt.
+     * Callers may hold monitors that writers need, since nothing here waits for a writer.
+     *
+     * @param read the read to run
+     * @param <R> the read's result type
+     * @return the result and the version it was read at, or null if every attempt overlapped a publish
+     * @throws IOException if the read fails or the lock file cannot be read
+     */
+    public <R> Versioned<R> readOptimistically(Read<R> read) throws IOException
+    {
+        long backoff = FIRST_BACKOFF_NANOS;
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++)
+        {
+            long before = version();
+            if ((before & 1) == 0)
+            {
+                R result = read.run();
+                if (version() == before)
+                {
+                    return new Versioned<>(result, before);
+                }
+            }
+            stats.recordOptimisticRetry();
+            // A publish takes milliseconds, so retrying right away would mostly fail again
+            LockSupport.parkNanos(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
+        return null;
+    }
+
+    /**
+     * Runs a read under the shared lock, so no writer can publish while it runs.
+     * The same rule as for readConsistently applies to the monitors the caller holds.
+     *
+     * @param read the read to run
+     * @param <R> the read's result type
+     * @return the result and the version it was read at
+     * @throws IOException if the read fails or the lock file cannot be read or locked
+     */
+    public <R> Versioned<R> readShared(Read<R> read) throws IOException
+    {
+        Held held = lockShared();
+        try
+        {
+            return new Versioned<>(read.run(), version());
+        }
+        finally
+        {
+            held.close();
+        }
+    }
+
+    /**
+     * Checks whether a thread of this process holds the lock exclusively.
+     *
+     * @return true while a writer of this process holds the lock
+     */
+    boolean isLockedExclusively()
+    {
+        return local.isWriteLocked();
+    }
+
+    /**
+     * Gets the acquisition and wait counters of this lock.
+     *
+     * @return the lock statistics
+     */
+    public LockStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * Marks the start of publishing by making the version odd. The caller holds the lock exclusively.
+     *
+     * @throws IOException if the counter cannot be written
+     */
+    void beginPublish() throws IOException
+    {
+        long current = version();
+        if ((current & 1) == 0)
+        {
+            writeVersion(current + 1);
+        }
+    }
+
+    /**
+     * Marks the end of publishing by making the version even. The caller holds the lock exclusively.
+     * Also closes out a publish that a crash cut short.
+     *
+     * @return the new version
+     * @throws IOException if the counter cannot be written
+     */
+    long endPublish() throws IOException
+    {
+        long current = version();
+        long next = (current & 1) == 0 ? current + 2 : current + 1;
+        writeVersion(next);
+        return next;
+    }
+
+    /**
+     * Checks whether the last publish was cut short before it finished.
+     *
+     * @return true if the version is odd
+     * @throws IOException if the counter cannot be read
+     */
+    boolean isPublishing() throws IOException
+    {
+        return (version() & 1) != 0;
+    }
+
+    /**
+     * Writes the version counter.
+     *
+     * @param version the new version
+     * @throws IOException if the counter cannot be written
+     */
+    private void writeVersion(long version) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(VERSION_BYTES).putLong(0, version);
+        FileChannel file = channel();
+        while (buffer.hasRemaining())
+        {
+            file.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * Gets the open lock file, opening it the first time.
+     *
+     * @return the lock file channel
+     * @throws IOException if the file cannot be created or opened
+     */
+    private synchronized FileChannel channel() throws IOException
+    {
+        if (channel == null || !channel.isOpen())
+        {
+            Files.createDirectories(lockPath.toAbsolutePath().getParent());
+            channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    /**
+     * A read run by readConsistently.
+     *
+     * @param <R> the read's result type
+     */
+    @FunctionalInterface
+    public interface Read<R>
+    {
+        /**
+         * Runs the read.
+         *
+         * @return the result
+         * @throws IOException if the files cannot be read
+         */
+        R run() throws IOException;
+    }
+
+    /**
+     * The result of a consistent read and the version of the files it saw.
+     *
+     * @param value the read's result
+     * @param version the version the files were at
+     * @param <R> the read's result type
+     */
+    public record Versioned<R>(R value, long version) {}
+
+    /**
+     * A held lock. Closing it releases the lock; closing it again does nothing.
+     */
+    public static final class Held implements AutoCloseable
+    {
+        private final Release release;
+        private boolean released;
+
+        /**
+         * Constructs a handle that runs the release action once.
+         *
+         * @param release releases the OS lock and the local lock
+         */
+        private Held(Release release)
+        {
+            this.release = release;
+        }
+
+        /**
+         * Releases the lock.
+         *
+         * @throws IOException if the OS lock cannot be released
+         */
+        @Override
+        public synchronized void close() throws IOException
+        {
+            if (released)
+            {
+                return;
+            }
+            released = true;
+            release.run();
+        }
+    }
+
+    /**
+     * Releases a held lock.
+     */
+    @FunctionalInterface
+    private interface Release
+    {
+        /**
+         * Releases the lock.
+         *
+         * @throws IOException if the OS lock cannot be released
+         */
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,101 @@
+package csusm.cougarplanner.io;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of items keyed by epoch day.
+ * Dates are resolved once when an item is added, so week and day lookups never parse date strings.
+ *
+ * @param <T> the indexed item type
+ */
+public class DateIndex<T>
+{
+    private final NavigableMap<Long, List<T>> itemsByEpochDay = new TreeMap<>();
+
+    /**
+     * Copies the index, so a new version can be built without touching one that readers still use.
+     *
+     * @return an independent copy holding the same items
+     */
+    public DateIndex<T> copy()
+    {
+        DateIndex<T> copy = new DateIndex<>();
+        for (Map.Entry<Long, List<T>> day : itemsByEpochDay.entrySet())
+        {
+            copy.itemsByEpochDay.put(day.getKey(), new ArrayList<>(day.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Adds an item under its date. Items without a date are not indexed.
+     *
+     * @param date the item's date, or null
+     * @param item the item to add
+     */
+    public void add(LocalDate date, T item)
+    {
+        if (date != null)
+        {
+            itemsByEpochDay.computeIfAbsent(date.toEpochDay(), day -> new ArrayList<>(2)).add(item);
+        }
+    }
+
+    /**
+     * Removes an item from under its date.
+     *
+     * @param date the date the item was added under, or null
+     * @param item the item to remove
+     */
+    public void remove(LocalDate date, T item)
+    {
+        if (date == null)
+        {
+            return;
+        }
+        long epochDay = date.toEpochDay();
+        List<T> items = itemsByEpochDay.get(epochDay);
+        if (items != null && items.remove(item) && items.isEmpty())
+        {
+            itemsByEpochDay.remove(epochDay);
+        }
+    }
+
+    /**
+     * Gets every item dated within the range, ordered by date.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the matching items
+     */
+    public List<T> range(LocalDate start, LocalDate end)
+    {
+        List<T> result = new ArrayList<>();
+        if (end.isBefore(start))
+        {
+            return result;
+        }
+        for (Map.Entry<Long, List<T>> day : itemsByEpochDay.subMap(start.toEpochDay(), true, end.toEpochDay(), true).entrySet())
+        {
+            result.addAll(day.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Gets every item dated on the given day.
+     *
+     * @param day the day to look up
+     * @return the matching items
+     */
+    public List<T> day(LocalDate day)
+    {
+        List<T> items = itemsByEpochDay.get(day.toEpochDay());
+        return items != null ? new ArrayList<>(items) : new ArrayList<>();
+    }
+}
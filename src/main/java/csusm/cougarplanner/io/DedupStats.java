@@ -0,0 +1,122 @@
+package csusm.cougarplanner.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how much content a content-addressed store was asked to keep and how much of it
+ * was already there. Duplicates are stored once, so every duplicate is space and a write saved.
+ */
+public class DedupStats
+{
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * Records content that was new and written to the store.
+     *
+     * @param originalBytes size of the content before compression
+     * @param writtenBytes bytes appended to the store
+     */
+    public void recordStored(long originalBytes, long writtenBytes)
+    {
+        stores.incrementAndGet();
+        logicalBytes.addAndGet(originalBytes);
+        storedBytes.addAndGet(writtenBytes);
+    }
+
+    /**
+     * Records content that was already in the store and was not written again.
+     *
+     * @param originalBytes size of the content before compression
+     * @param existingBytes bytes the existing copy takes in the store
+     */
+    public void recordDuplicate(long originalBytes, long existingBytes)
+    {
+        stores.incrementAndGet();
+        duplicates.incrementAndGet();
+        logicalBytes.addAndGet(originalBytes);
+        savedBytes.addAndGet(existingBytes);
+    }
+
+    /**
+     * Gets the number of times content was handed to the store.
+     *
+     * @return the store request count
+     */
+    public long getStores()
+    {
+        return stores.get();
+    }
+
+    /**
+     * Gets the number of store requests that matched content already in the store.
+     *
+     * @return the duplicate count
+     */
+    public long getDuplicates()
+    {
+        return duplicates.get();
+    }
+
+    /**
+     * Gets the total size of all content handed to the store, before compression and dedup.
+     *
+     * @return the logical byte count
+     */
+    public long getLogicalBytes()
+    {
+        return logicalBytes.get();
+    }
+
+    /**
+     * Gets the number of bytes actually appended to the store.
+     *
+     * @return the stored byte count
+     */
+    public long getStoredBytes()
+    {
+        return storedBytes.get();
+    }
+
+    /**
+     * Gets the number of store bytes that duplicates would have taken if written again.
+     *
+     * @return the saved byte count
+     */
+    public long getSavedBytes()
+    {
+        return savedBytes.get();
+    }
+
+    /**
+     * Gets how many store requests there were per distinct piece of content written.
+     *
+     * @return the dedup ratio, 1 when nothing was duplicated, or 0 if nothing was stored
+     */
+    public double getDedupRatio()
+    {
+        long distinct = stores.get() - duplicates.get();
+        return distinct == 0 ? (stores.get() == 0 ? 0.0 : Double.POSITIVE_INFINITY) : (double) stores.get() / distinct;
+    }
+
+    /**
+     * Returns a summary of the counters for logging.
+     *
+     * @return string containing the request, duplicate and byte counts
+     */
+    @Override
+    public String toString()
+    {
+        return "DedupStats{" +
+                "stores=" + stores.get() +
+                ", duplicates=" + duplicates.get() +
+                ", logicalBytes=" + logicalBytes.get() +
+                ", storedBytes=" + storedBytes.get() +
+                ", savedBytes=" + savedBytes.get() +
+                ", dedupRatio=" + String.format("%.2f", getDedupRatio()) +
+                '}';
+    }
+}
@@ -0,0 +1,1059 @@
+package csusm.cougarplanner.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded, log-structured key-value store holding one entity type in a single file
+ * (e.g. data/store/assignments.db), as an alternative to the CSV backends.
+ *
+ * The file is a short header followed by records. A record stores either a row (PUT) or the
+ * removal of an ID (DELETE); the last record of an ID wins. Upserting a row appends one record
+ * instead of rewriting a file, and appends join a {@link FileTransaction} so they are published
+ * with the rest of a merge. Once dead records outweigh live ones the file is compacted in the
+ * background: live records are copied into a new file with the next generation number.
+ *
+ * The indexes live in memory: each ID's live record, payload included, and secondary indexes from
+ * date and from course to IDs, so queries decode rows without reading the file. The indexes catch
+ * up by scanning just the records appended since the last scan, whether this process or another
+ * one wrote them; a new generation means the file was compacted and is scanned again. A damaged
+ * record is skipped by resynchronizing on the next record that passes its checksum; the damage is
+ * counted, and the file is not compacted over it.
+ *
+ * A store given an import source copies the source's rows in the first time it is used without a
+ * file, so switching a data directory from the CSV backend keeps its rows. Until the import has
+ * committed, queries are answered by the source.
+ *
+ * @param <T> the model type held by the store
+ */
+public class EmbeddedStore<T> implements StorageBackend<T>
+{
+    private static final int MAGIC = 0x43504B56; // "CPKV"
+    private static final int FORMAT = 1;
+    // Header: magic, format, generation
+    private static final int HEADER_LENGTH = Integer.BYTES * 2 + Long.BYTES;
+    // Record header: payload length, CRC-32 of type and payload, type
+    private static final int RECORD_HEADER_LENGTH = Integer.BYTES * 2 + 1;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final long UNDATED = Long.MIN_VALUE;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    // Files smaller than this are not worth compacting
+    private static final long COMPACTION_MIN_BYTES = 1024 * 1024;
+
+    private final Path filePath;
+    private final RowCodec<T> codec;
+    private final ArchiveStore<T> archive;
+    private final CacheStats cacheStats = new CacheStats();
+
+    // Where the live record of each ID is, and the secondary indexes over them
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeMap<Long, Set<String>> idsByDay = new TreeMap<>();
+    private final Map<String, Set<String>> idsByCourse = new HashMap<>();
+    private long generation = -1;
+    private long scannedEnd;
+    private long liveBytes;
+    private long loadedVersion = -1;
+    private volatile boolean stale = true;
+    // Bytes skipped over damaged records in the current generation
+    private long damagedBytes;
+
+    // Where rows come from the first time the store is used without a file; null to start empty
+    private final StorageBackend<T> importSource;
+    private volatile boolean importPending;
+    // The transaction that staged the import and the rows it staged, so they are staged only once
+    private FileTransaction importStagedIn;
+    private List<T> importStaged;
+
+    // The transaction that staged the header of a new file, so it is staged only once
+    private FileTransaction headerStagedIn;
+    private boolean compactionScheduled;
+
+    /**
+     * The location of an ID's live record and the values it is indexed by.
+     *
+     * @param offset byte offset of the record, header included
+     * @param length length of the record in bytes, header included
+     * @param epochDay the row's date as an epoch day, or UNDATED
+     * @param courseId the row's course, or null
+     * @param payload the record's encoded row
+     */
+    private record Entry(long offset, int length, long epochDay, String courseId, byte[] payload) {}
+
+    /**
+     * Constructs a store over a file. Nothing is read or created until it is used.
+     *
+     * @param filePath the store file
+     * @param codec converts between rows and model objects
+     * @param archive the archive for expired and deleted rows, or null to keep every row in the store
+     */
+    public EmbeddedStore(Path filePath, RowCodec<T> codec, ArchiveStore<T> archive)
+    {
+        this(filePath, codec, archive, null);
+    }
+
+    /**
+     * Constructs a store over a file that imports another backend's rows if the file does not exist yet.
+     * Nothing is read or created until it is used.
+     *
+     * @param filePath the store file
+     * @param codec converts between rows and model objects
+     * @param archive the archive for expired and deleted rows, or null to keep every row in the store
+     * @param importSource the backend whose rows the store starts with, or null to start empty
+     */
+    public EmbeddedStore(Path filePath, RowCodec<T> codec, ArchiveStore<T> archive, StorageBackend<T> importSource)
+    {
+        this.filePath = filePath;
+        this.codec = codec;
+        this.archive = archive;
+        this.importSource = importSource;
+        this.importPending = importSource != null;
+    }
+
+    /**
+     * Gets every stored row, in file order, decoded from the in-memory index.
+     *
+     * @return List of all rows
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public List<T> findAll() throws IOException
+    {
+        if (!importIfPending())
+        {
+            return importSource.findAll();
+        }
+        return query(() ->
+        {
+            List<Entry> all = new ArrayList<>(entries.values());
+            all.sort(Comparator.comparingLong(Entry::offset));
+            return all;
+        });
+    }
+
+    /**
+     * Gets every row dated within the range, ordered by date, including archived rows.
+     * Only the records of the matching IDs are decoded.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the matching rows
+     * @throws IOException if the file or the archive cannot be read
+     */
+    @Override
+    public List<T> findRange(LocalDate start, LocalDate end) throws IOException
+    {
+        if (!importIfPending())
+        {
+            return importSource.findRange(start, end);
+        }
+        List<T> rows = query(() ->
+        {
+            List<Entry> matching = new ArrayList<>();
+            for (Set<String> ids : idsByDay.subMap(start.toEpochDay(), true, end.toEpochDay(), true).values())
+            {
+                for (String id : ids)
+                {
+                    matching.add(entries.get(id));
+                }
+            }
+            return matching;
+        });
+        return archive != null ? archive.withArchived(rows, start, end) : rows;
+    }
+
+    /**
+     * Gets every stored row of a course. Only the records of the course's IDs are decoded.
+     *
+     * @param courseId the course to look up
+     * @return the course's rows
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public List<T> findByCourse(String courseId) throws IOException
+    {
+        if (!importIfPending())
+        {
+            return importSource.findByCourse(courseId);
+        }
+        return query(() ->
+        {
+            List<Entry> matching = new ArrayList<>();
+            for (String id : idsByCourse.getOrDefault(courseId, Set.of()))
+            {
+                matching.add(entries.get(id));
+            }
+            return matching;
+        });
+    }
+
+    /**
+     * Inserts or replaces rows by ID as part of a transaction, appending a record for every row
+     * that differs from its stored version and a removal for every row the fetch scope covers but
+     * the incoming rows lack. Removed rows are tombstoned in the archive, and a tombstoned row that
+     * comes back is merged over its tombstone. An archived row fetched again is merged over its
+     * archived version and, if that changes it, moves back into the store. Only the stored rows
+     * involved are read.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param scope what the incoming rows cover completely, or null to never remove rows
+     * @param transaction the transaction to stage the appended records in
+     * @return what the upsert changed
+     * @throws IOException if the file cannot be read or the records cannot be staged
+     */
+    @Override
+    public synchronized MergeDiff<T> upsertAll(Collection<T> incoming, BinaryOperator<T> merge, FetchScope scope,
+                                               FileTransaction transaction) throws IOException
+    {
+        // The caller's transaction holds the data lock, so the file cannot change while this runs
+        Map<String, T> stored = new HashMap<>();
+        List<T> removed = new ArrayList<>();
+        List<T> imported = stageImport(transaction);
+        if (imported != null)
+        {
+            // The store has no file yet; the rows being imported are what is stored
+            for (T row : imported)
+            {
+                stored.put(codec.idOf(row), row);
+            }
+            if (scope != null)
+            {
+                for (T row : stored.values())
+                {
+                    if (scope.covers(codec.courseOf(row), codec.dateOf(row)))
+                    {
+                        removed.add(row);
+                    }
+                }
+            }
+        }
+        else
+        {
+            try (FileChannel channel = openForRead())
+            {
+                refresh(channel);
+            }
+            for (T item : incoming)
+            {
+                Entry entry = entries.get(codec.idOf(item));
+                if (entry != null && !stored.containsKey(codec.idOf(item)))
+                {
+                    stored.put(codec.idOf(item), decode(entry.payload()));
+                }
+            }
+            if (scope != null)
+            {
+                for (String courseId : scope.courseIds())
+                {
+                    for (String id : idsByCourse.getOrDefault(courseId, Set.of()))
+                    {
+                        Entry entry = entries.get(id);
+                        LocalDate date = entry.epochDay() == UNDATED ? null : LocalDate.ofEpochDay(entry.epochDay());
+                        if (scope.covers(courseId, date))
+                        {
+                            removed.add(decode(entry.payload()));
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<String, T> updated = new LinkedHashMap<>();
+        List<String> restoredIds = new ArrayList<>();
+        Map<String, T> unarchived = new HashMap<>();
+        for (T item : incoming)
+        {
+            String id = codec.idOf(item);
+            T existing = updated.containsKey(id) ? updated.get(id) : stored.get(id);
+            T row = item;
+            if (existing == null && archive != null)
+            {
+                T tombstoned = archive.tombstoned(id);
+                T archived = tombstoned == null ? archive.archived(id) : null;
+                if (tombstoned != null)
+                {
+                    // Deleted upstream earlier and now back; keeps what was set locally
+                    restoredIds.add(id);
+                    row = merge.apply(tombstoned, item);
+                }
+                else if (archived != null)
+                {
+                    // Archived earlier and fetched again; stays archived unless the merge changes it
+                    row = merge.apply(archived, item);
+                    if (MergeDiff.fieldChanges(codec, archived, row).isEmpty())
+                    {
+                        continue;
+                    }
+                    unarchived.put(id, archived);
+                }
+            }
+            else if (existing != null)
+            {
+                row = merge.apply(existing, item);
+            }
+            updated.put(id, row);
+        }
+
+        MergeDiff.Builder<T> diff = new MergeDiff.Builder<>(codec);
+        for (Map.Entry<String, T> entry : updated.entrySet())
+        {
+            T before = stored.containsKey(entry.getKey()) ? stored.get(entry.getKey()) : unarchived.get(entry.getKey());
+            diff.compare(before, entry.getValue());
+        }
+        removed.removeIf(row -> updated.containsKey(codec.idOf(row)));
+        for (T row : removed)
+        {
+            diff.removed(row);
+        }
+
+        MergeDiff<T> result = diff.build();
+        if (result.isEmpty())
+        {
+            return result; // Everything fetched is already stored
+        }
+
+        List<T> written = new ArrayList<>(result.getAdded());
+        for (MergeDiff.Change<T> change : result.getChanged())
+        {
+            written.add(change.after());
+        }
+        List<String> deletedIds = new ArrayList<>();
+        for (T row : removed)
+        {
+            deletedIds.add(codec.idOf(row));
+        }
+        stageRecords(written, deletedIds, transaction);
+        if (archive != null)
+        {
+            archive.updateTombstones(removed, restoredIds, transaction);
+            archive.remove(unarchived.keySet(), transaction);
+        }
+        return result;
+    }
+
+    /**
+     * Moves every row dated before the cutoff into the archive as part of a transaction,
+     * appending a removal for each. Undated rows stay. Does nothing if the store has no archive.
+     *
+     * @param cutoff the first date that stays in the store
+     * @param transaction the transaction to stage the records and segments in
+     * @return the number of rows archived
+     * @throws IOException if the file cannot be read or the records and segments cannot be staged
+     */
+    @Override
+    public synchronized int archiveBefore(LocalDate cutoff, FileTransaction transaction) throws IOException
+    {
+        if (archive == null)
+        {
+            return 0;
+        }
+
+        List<T> expired = new ArrayList<>();
+        List<String> expiredIds = new ArrayList<>();
+        List<T> imported = stageImport(transaction);
+        if (imported != null)
+        {
+            for (T row : imported)
+            {
+                LocalDate date = codec.dateOf(row);
+                if (date != null && date.isBefore(cutoff))
+                {
+                    expired.add(row);
+                    expiredIds.add(codec.idOf(row));
+                }
+            }
+        }
+        else
+        {
+            try (FileChannel channel = openForRead())
+            {
+                refresh(channel);
+            }
+            for (Set<String> ids : idsByDay.headMap(cutoff.toEpochDay(), false).values())
+            {
+                for (String id : ids)
+                {
+                    expired.add(decode(entries.get(id).payload()));
+                    expiredIds.add(id);
+                }
+            }
+        }
+        if (expired.isEmpty())
+        {
+            return 0;
+        }
+
+        stageRecords(List.of(), expiredIds, transaction);
+        archive.append(expired, transaction);
+        return expired.size();
+    }
+
+    /**
+     * Rewrites the file with only its live records, in a transaction of its own.
+     * Records are copied as they are; the new file gets the next generation number.
+     * A file with damaged records is left as it is.
+     *
+     * @throws IOException if the file cannot be read, has damaged records, or the new file cannot be written
+     */
+    public void compact() throws IOException
+    {
+        // Not synchronized: the transaction must be started before the store is locked
+        try (FileTransaction transaction = FileTransaction.begin())
+        {
+            synchronized (this)
+            {
+                compactionScheduled = false;
+                if (!Files.exists(filePath))
+                {
+                    return;
+                }
+                try (FileChannel channel = openForRead())
+                {
+                    refresh(channel);
+                }
+                if (damagedBytes > 0)
+                {
+                    // Kept for salvage; compacting would drop the damaged records for good
+                    throw new IOException(filePath + " has " + damagedBytes + " damaged bytes; not compacting over them");
+                }
+                List<Entry> live = new ArrayList<>(entries.values());
+                live.sort(Comparator.comparingLong(Entry::offset));
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream records = new DataOutputStream(bytes);
+                for (Entry entry : live)
+                {
+                    writeRecord(records, PUT, entry.payload());
+                }
+                records.flush();
+                long nextGeneration = generation + 1;
+                byte[] header = header(nextGeneration);
+                transaction.write(filePath, staged ->
+                {
+                    try (FileChannel out = FileChannel.open(staged,
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+                    {
+                        out.write(ByteBuffer.wrap(header));
+                        ByteBuffer body = ByteBuffer.wrap(bytes.toByteArray());
+                        while (body.hasRemaining())
+                        {
+                            out.write(body);
+                        }
+                        out.force(true);
+                    }
+                });
+                transaction.onCommit(this::invalidate);
+            }
+            transaction.commit();
+        }
+    }
+
+    /**
+     * Imports the import source's rows, in a transaction of its own, if the store has no file yet.
+     * Deferred while this process holds the data lock exclusively, since the caller may be the
+     * thread holding it; a transaction already open imports the rows when it upserts.
+     *
+     * @return true if the store's file answers queries; false if the import source answers them for now
+     * @throws IOException if the source cannot be read or the import cannot be committed
+     */
+    private boolean importIfPending() throws IOException
+    {
+        if (!importPending)
+        {
+            return true;
+        }
+        if (Files.exists(filePath))
+        {
+            importPending = false;
+            return true;
+        }
+        if (DataLock.getInstance().isLockedExclusively())
+        {
+            return false;
+        }
+
+        try (FileTransaction transaction = FileTransaction.begin())
+        {
+            boolean staged;
+            synchronized (this)
+            {
+                staged = stageImport(transaction) != null;
+            }
+            if (staged)
+            {
+                transaction.commit();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stages the import source's rows as the first records of a new file, if the store has no file yet.
+     * The import is finished once the transaction commits. Callers hold this store's monitor.
+     *
+     * @param transaction the transaction to stage the records in
+     * @return the rows staged in this transaction, or null if there is nothing to import
+     * @throws IOException if the source cannot be read or the records cannot be staged
+     */
+    private List<T> stageImport(FileTransaction transaction) throws IOException
+    {
+        if (!importPending)
+        {
+            return null;
+        }
+        if (importStagedIn == transaction)
+        {
+            return importStaged;
+        }
+        if (Files.exists(filePath))
+        {
+            importPending = false;
+            return null;
+        }
+
+        List<T> rows = importSource.findAll();
+        if (rows.isEmpty())
+        {
+            importPending = false;
+            return null;
+        }
+        stageRecords(rows, List.of(), transaction);
+        importStagedIn = transaction;
+        importStaged = rows;
+        transaction.onCommit(this::importCommitted);
+        return rows;
+    }
+
+    /**
+     * Marks the import as done once its records are published.
+     */
+    private synchronized void importCommitted()
+    {
+        importPending = false;
+        importStagedIn = null;
+        importStaged = null;
+    }
+
+    /**
+     * Marks the indexes as possibly behind the file, so the next query checks for new records.
+     */
+    @Override
+    public void invalidate()
+    {
+        stale = true;
+    }
+
+    /**
+     * Gets the hit, miss and reload counters of the store's indexes.
+     * A reload is a scan of records appended since the last scan; a miss is a full scan.
+     *
+     * @return the cache statistics
+     */
+    @Override
+    public CacheStats getCacheStats()
+    {
+        return cacheStats;
+    }
+
+    /**
+     * Decodes the rows of the entries a query selects from an up-to-date index.
+     * The read is repeated if another process published while it ran.
+     *
+     * The store's monitor is taken inside the read, so a read that falls back to the shared data lock
+     * takes the lock before the monitor, in the same order as writers do.
+     *
+     * @param select picks the entries to read once the indexes are current
+     * @return the selected rows, in the order of the entries
+     * @throws IOException if the file cannot be read
+     */
+    private List<T> query(Supplier<List<Entry>> select) throws IOException
+    {
+        return DataLock.getInstance().readConsistently(() ->
+        {
+            synchronized (this)
+            {
+                try (FileChannel channel = openForRead())
+                {
+                    refresh(channel);
+                }
+                List<T> rows = new ArrayList<>();
+                for (Entry entry : select.get())
+                {
+                    rows.add(decode(entry.payload()));
+                }
+                return rows;
+            }
+        }).value();
+    }
+
+    /**
+     * Opens the store file for reading.
+     *
+     * @return the open file, or null if the store has no file yet
+     * @throws IOException if the file cannot be opened
+     */
+    private FileChannel openForRead() throws IOException
+    {
+        try
+        {
+            return FileChannel.open(filePath, StandardOpenOption.READ);
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Brings the indexes up to the end of the file: scans the records appended since the last scan,
+     * or the whole file if it was compacted or replaced since.
+     *
+     * @param channel the open store file, or null if there is none
+     * @throws IOException if the file cannot be read or is not a store file
+     */
+    private void refresh(FileChannel channel) throws IOException
+    {
+        long version = DataLock.getInstance().version();
+        if (!stale && version == loadedVersion)
+        {
+            cacheStats.recordHit();
+            return;
+        }
+
+        // Cleared before scanning so an invalidation that arrives meanwhile is not lost
+        stale = false;
+        if (channel == null)
+        {
+            reset(-1);
+            loadedVersion = version;
+            return;
+        }
+
+        long fileGeneration = readGeneration(channel);
+        if (fileGeneration != generation || channel.size() < scannedEnd)
+        {
+            cacheStats.recordMiss();
+            reset(fileGeneration);
+        }
+        else
+        {
+            cacheStats.recordReload();
+        }
+        scan(channel);
+        loadedVersion = version;
+    }
+
+    /**
+     * Empties the indexes before a full scan.
+     *
+     * @param fileGeneration the generation of the file about to be scanned, or -1 if there is none
+     */
+    private void reset(long fileGeneration)
+    {
+        entries.clear();
+        idsByDay.clear();
+        idsByCourse.clear();
+        liveBytes = 0;
+        damagedBytes = 0;
+        generation = fileGeneration;
+        scannedEnd = HEADER_LENGTH;
+    }
+
+    /**
+     * Indexes the records from the last scanned position to the end of the file.
+     * Stops at a record that is cut short or fails its checksum at the end of the file, such as one
+     * still being published, and picks up from there on the next scan. A damaged record followed by
+     * intact ones is skipped: the scan resumes at the next record that passes its checksum.
+     *
+     * @param channel the open store file
+     * @throws IOException if the file cannot be read
+     */
+    private void scan(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        long position = scannedEnd;
+        channel.position(position);
+        // Not closed: closing the stream would close the channel the caller still reads from
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), SCAN_BUFFER_SIZE));
+        while (position + RECORD_HEADER_LENGTH <= size)
+        {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            byte type = in.readByte();
+            byte[] payload = null;
+            if (length >= 0 && position + RECORD_HEADER_LENGTH + length <= size)
+            {
+                payload = new byte[length];
+                in.readFully(payload);
+            }
+            if (payload == null || checksum(type, payload) != checksum)
+            {
+                long next = nextRecord(channel, position + 1, size);
+                if (next < 0)
+                {
+                    break; // Nothing intact follows; the tail may still be being published
+                }
+                damagedBytes += next - position;
+                position = next;
+                channel.position(position);
+                in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), SCAN_BUFFER_SIZE));
+                continue;
+            }
+
+            int recordLength = RECORD_HEADER_LENGTH + length;
+            if (type == PUT)
+            {
+                T item = decode(payload);
+                LocalDate date = codec.dateOf(item);
+                index(codec.idOf(item), new Entry(position, recordLength,
+                        date != null ? date.toEpochDay() : UNDATED, codec.courseOf(item), payload));
+            }
+            else if (type == DELETE)
+            {
+                unindex(new String(payload, StandardCharsets.UTF_8));
+            }
+            position += recordLength;
+        }
+        scannedEnd = position;
+    }
+
+    /**
+     * Finds the next intact record after a damaged one: a position whose header has a known type,
+     * fits in the file and matches the checksum of its payload.
+     *
+     * @param channel the open store file
+     * @param from the first position to try
+     * @param size the file size
+     * @return the position of the next intact record, or -1 if there is none
+     * @throws IOException if the file cannot be read
+     */
+    private long nextRecord(FileChannel channel, long from, long size) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        for (long candidate = from; candidate + RECORD_HEADER_LENGTH <= size; candidate++)
+        {
+            header.clear();
+            readFully(channel, header, candidate);
+            int length = header.getInt(0);
+            byte type = header.get(Integer.BYTES * 2);
+            if ((type != PUT && type != DELETE) || length < 0 || candidate + RECORD_HEADER_LENGTH + length > size)
+            {
+                continue;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, candidate + RECORD_HEADER_LENGTH);
+            if (checksum(type, payload.array()) == header.getInt(Integer.BYTES))
+            {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fills a buffer from a position of the file.
+     *
+     * @param channel the open store file
+     * @param buffer the buffer to fill
+     * @param position where to start reading
+     * @throws IOException if the file ends before the buffer is full
+     */
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new EOFException("Record at offset " + position + " runs past the end of " + filePath);
+            }
+        }
+    }
+
+    /**
+     * Gets how many bytes of damaged records the last scans skipped in the current file generation.
+     * A file with damage is not compacted, so the damaged bytes stay available for salvage.
+     *
+     * @return the damaged bytes, 0 if the file is intact
+     */
+    public synchronized long getDamagedBytes()
+    {
+        return damagedBytes;
+    }
+
+    /**
+     * Points an ID at its newest record and updates the secondary indexes.
+     *
+     * @param id the row's ID
+     * @param entry the record's location and index values
+     */
+    private void index(String id, Entry entry)
+    {
+        unindex(id);
+        entries.put(id, entry);
+        liveBytes += entry.length();
+        if (entry.epochDay() != UNDATED)
+        {
+            idsByDay.computeIfAbsent(entry.epochDay(), k -> new LinkedHashSet<>()).add(id);
+        }
+        if (entry.courseId() != null)
+        {
+            idsByCourse.computeIfAbsent(entry.courseId(), k -> new LinkedHashSet<>()).add(id);
+        }
+    }
+
+    /**
+     * Removes an ID from every index.
+     *
+     * @param id the row's ID
+     */
+    private void unindex(String id)
+    {
+        Entry previous = entries.remove(id);
+        if (previous == null)
+        {
+            return;
+        }
+        liveBytes -= previous.length();
+        if (previous.epochDay() != UNDATED)
+        {
+            Set<String> ids = idsByDay.get(previous.epochDay());
+            ids.remove(id);
+            if (ids.isEmpty())
+            {
+                idsByDay.remove(previous.epochDay());
+            }
+        }
+        if (previous.courseId() != null)
+        {
+            Set<String> ids = idsByCourse.get(previous.courseId());
+            ids.remove(id);
+            if (ids.isEmpty())
+            {
+                idsByCourse.remove(previous.courseId());
+            }
+        }
+    }
+
+    /**
+     * Stages PUT records for written rows and DELETE records for removed IDs as one append.
+     * The indexes catch up with the appended records on the next query after commit,
+     * and the file is compacted in the background once it is mostly dead records.
+     *
+     * @param written rows to store
+     * @param deletedIds IDs to remove
+     * @param transaction the transaction to stage the append in
+     * @throws IOException if the append cannot be staged
+     */
+    private void stageRecords(List<T> written, List<String> deletedIds, FileTransaction transaction) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (generation < 0 && headerStagedIn != transaction)
+        {
+            out.write(header(0));
+            headerStagedIn = transaction;
+        }
+        for (T row : written)
+        {
+            writeRecord(out, PUT, encode(row));
+        }
+        for (String id : deletedIds)
+        {
+            writeRecord(out, DELETE, id.getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+
+        Files.createDirectories(filePath.toAbsolutePath().getParent());
+        transaction.append(filePath, bytes.toByteArray());
+        transaction.onCommit(this::afterCommit);
+    }
+
+    /**
+     * Marks the indexes as behind the file and schedules a compaction if the file is mostly dead records.
+     */
+    private synchronized void afterCommit()
+    {
+        stale = true;
+        headerStagedIn = null;
+        long deadBytes = scannedEnd - HEADER_LENGTH - liveBytes;
+        if (!compactionScheduled && damagedBytes == 0 && scannedEnd >= COMPACTION_MIN_BYTES && deadBytes > liveBytes)
+        {
+            compactionScheduled = true;
+            IoExecutors.maintenance().submit(() ->
+            {
+                try
+                {
+                    compact();
+                }
+                catch (IOException e)
+                {
+                    // Left for the next commit to schedule again
+                    synchronized (this)
+                    {
+                        compactionScheduled = false;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the generation number from the file header.
+     *
+     * @param channel the open store file
+     * @return the file's generation
+     * @throws IOException if the header cannot be read or is not a store header
+     */
+    private long readGeneration(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining())
+        {
+            if (channel.read(header, header.position()) < 0)
+            {
+                throw new EOFException(filePath + " is too short to be a store file");
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(Integer.BYTES) != FORMAT)
+        {
+            throw new IOException(filePath + " is not a store file of a supported format");
+        }
+        return header.getLong(Integer.BYTES * 2);
+    }
+
+    /**
+     * Builds a file header.
+     *
+     * @param fileGeneration the generation number of the file
+     * @return the header bytes
+     */
+    private static byte[] header(long fileGeneration)
+    {
+        return ByteBuffer.allocate(HEADER_LENGTH)
+                .putInt(MAGIC)
+                .putInt(FORMAT)
+                .putLong(fileGeneration)
+                .array();
+    }
+
+    /**
+     * Writes one framed record.
+     *
+     * @param out the stream to write to
+     * @param type PUT or DELETE
+     * @param payload the encoded row or the removed ID
+     * @throws IOException if the stream cannot be written
+     */
+    private static void writeRecord(DataOutputStream out, byte type, byte[] payload) throws IOException
+    {
+        out.writeInt(payload.length);
+        out.writeInt(checksum(type, payload));
+        out.writeByte(type);
+        out.write(payload);
+    }
+
+    /**
+     * Computes the checksum of a record's type and payload.
+     *
+     * @param type the record type
+     * @param payload the record payload
+     * @return the CRC-32, as stored in the record header
+     */
+    private static int checksum(byte type, byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Encodes a row as its field count, then each field in header order as its UTF-8 length
+     * (-1 for null) and bytes.
+     *
+     * @param row the row to encode
+     * @return the PUT payload
+     * @throws IOException if the payload cannot be built
+     */
+    private byte[] encode(T row) throws IOException
+    {
+        Map<String, String> record = codec.toRecord(row);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        String[] headers = codec.headers();
+        out.writeShort(headers.length);
+        for (String header : headers)
+        {
+            String value = record.get(header);
+            if (value == null)
+            {
+                out.writeInt(-1);
+                continue;
+            }
+            byte[] field = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(field.length);
+            out.write(field);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a PUT payload into a new row.
+     * Fields beyond the current headers are ignored and missing ones read as null.
+     *
+     * @param payload the payload bytes
+     * @return the row
+     * @throws IOException if the payload is damaged
+     */
+    private T decode(byte[] payload) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String[] headers = codec.headers();
+        int count = in.readUnsignedShort();
+        Map<String, String> record = new HashMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            int fieldLength = in.readInt();
+            String value = null;
+            if (fieldLength >= 0)
+            {
+                byte[] field = new byte[fieldLength];
+                in.readFully(field);
+                value = new String(field, StandardCharsets.UTF_8);
+            }
+            if (i < headers.length)
+            {
+                record.put(headers[i], value);
+            }
+        }
+        return codec.fromRecord(record);
+    }
+}
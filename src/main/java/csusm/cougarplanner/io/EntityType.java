@@ -0,0 +1,13 @@
+package csusm.cougarplanner.io;
+
+/**
+ * The kinds of data kept in the data directory.
+ * Used to tell caches and views which data changed.
+ */
+public enum EntityType
+{
+    COURSES,
+    ASSIGNMENTS,
+    ANNOUNCEMENTS,
+    PROFILE
+}
@@ -0,0 +1,383 @@
+package csusm.cougarplanner.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts rows of string fields that may not fit in memory.
+ *
+ * Rows are buffered until their estimated size reaches the memory budget, then the buffer is
+ * sorted and spilled to a run file. Reading the result k-way merges the runs; when there are
+ * more runs than the budget can hold read buffers for, runs are first merged into larger runs.
+ * If nothing was spilled the rows are sorted and returned from memory.
+ *
+ * Run files live in a spill directory and are deleted when the sorter is closed.
+ */
+public class ExternalSorter implements AutoCloseable
+{
+    // Read buffer of each open run while merging
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+    // Rough heap cost of a row array and of each String in it, on top of the characters
+    private static final long ROW_OVERHEAD = 32;
+    private static final long FIELD_OVERHEAD = 48;
+
+    private final Comparator<String[]> order;
+    private final long memoryBudget;
+    private final Path spillDirectory;
+
+    private final List<String[]> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long bufferedBytes;
+    private int spilledRuns;
+
+    /**
+     * Constructs a sorter.
+     *
+     * @param order the order to sort rows into
+     * @param memoryBudget how many bytes of rows to buffer before spilling, which also caps the merge's read
+     *                     buffers; sorters that hold rows at the same time must each be given a share
+     * @param spillDirectory the directory to write run files to; created on the first spill
+     */
+    public ExternalSorter(Comparator<String[]> order, long memoryBudget, Path spillDirectory)
+    {
+        this.order = order;
+        this.memoryBudget = Math.max(RUN_BUFFER_SIZE * 2L, memoryBudget);
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Adds a row, spilling the buffered rows to a run file if the budget is reached.
+     *
+     * @param row the row's fields; null fields are kept as null
+     * @throws IOException if a run file cannot be written
+     */
+    public void add(String[] row) throws IOException
+    {
+        buffer.add(row);
+        bufferedBytes += estimateSize(row);
+        if (bufferedBytes >= memoryBudget)
+        {
+            spill();
+        }
+    }
+
+    /**
+     * Finishes adding rows and gets them back in sorted order.
+     * Rows that compare equal come back in the order they were added.
+     *
+     * @return source of the sorted rows
+     * @throws IOException if the runs cannot be written or opened
+     */
+    public RowSource sorted() throws IOException
+    {
+        if (runs.isEmpty())
+        {
+            buffer.sort(order);
+            List<String[]> rows = new ArrayList<>(buffer);
+            buffer.clear();
+            bufferedBytes = 0;
+            return new RowSource()
+            {
+                private int position;
+
+                @Override
+                public String[] next()
+                {
+                    return position < rows.size() ? rows.get(position++) : null;
+                }
+
+                @Override
+                public void close()
+                {
+                }
+            };
+        }
+
+        if (!buffer.isEmpty())
+        {
+            spill();
+        }
+
+        // Each open run costs one read buffer, so the budget limits how many are merged at once
+        int fanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memoryBudget / RUN_BUFFER_SIZE));
+        while (runs.size() > fanIn)
+        {
+            List<Path> batch = new ArrayList<>(runs.subList(0, fanIn));
+            runs.subList(0, fanIn).clear();
+            Path merged = newRunFile();
+            try (RunWriter writer = new RunWriter(merged);
+                 RowSource source = merge(batch))
+            {
+                for (String[] row = source.next(); row != null; row = source.next())
+                {
+                    writer.write(row);
+                }
+            }
+            for (Path run : batch)
+            {
+                Files.deleteIfExists(run);
+            }
+            // The merged run holds the earliest rows, so it takes their place at the front
+            runs.add(0, merged);
+        }
+        return merge(runs);
+    }
+
+    /**
+     * Gets the number of run files written so far, including runs produced by intermediate merges.
+     *
+     * @return the spilled run count
+     */
+    public int getSpilledRuns()
+    {
+        return spilledRuns;
+    }
+
+    /**
+     * Deletes every run file this sorter wrote.
+     *
+     * @throws IOException if a run file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException
+    {
+        buffer.clear();
+        for (Path run : runs)
+        {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    /**
+     * Sorts the buffered rows and writes them to a new run file.
+     *
+     * @throws IOException if the run file cannot be written
+     */
+    private void spill() throws IOException
+    {
+        buffer.sort(order);
+        Path run = newRunFile();
+        try (RunWriter writer = new RunWriter(run))
+        {
+            for (String[] row : buffer)
+            {
+                writer.write(row);
+            }
+        }
+        runs.add(run);
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Creates an empty run file in the spill directory.
+     *
+     * @return the new run file
+     * @throws IOException if the file cannot be created
+     */
+    private Path newRunFile() throws IOException
+    {
+        Files.createDirectories(spillDirectory);
+        spilledRuns++;
+        return Files.createTempFile(spillDirectory, "run-", ".tmp");
+    }
+
+    /**
+     * K-way merges sorted runs. Ties go to the earlier run, which holds the earlier rows.
+     *
+     * @param sources the run files to merge, in the order they were written
+     * @return source of the merged rows
+     * @throws IOException if a run cannot be opened
+     */
+    private RowSource merge(List<Path> sources) throws IOException
+    {
+        List<RunReader> readers = new ArrayList<>();
+        PriorityQueue<RunReader> heads = new PriorityQueue<>((a, b) ->
+        {
+            int compare = order.compare(a.head, b.head);
+            return compare != 0 ? compare : Integer.compare(a.sequence, b.sequence);
+        });
+        try
+        {
+            for (Path source : sources)
+            {
+                RunReader reader = new RunReader(source, readers.size());
+                readers.add(reader);
+                if (reader.advance())
+                {
+                    heads.add(reader);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            for (RunReader reader : readers)
+            {
+                reader.close();
+            }
+            throw e;
+        }
+
+        return new RowSource()
+        {
+            @Override
+            public String[] next() throws IOException
+            {
+                RunReader reader = heads.poll();
+                if (reader == null)
+                {
+                    return null;
+                }
+                String[] row = reader.head;
+                if (reader.advance())
+                {
+                    heads.add(reader);
+                }
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                for (RunReader reader : readers)
+                {
+                    reader.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Estimates the heap a buffered row takes.
+     *
+     * @param row the row's fields
+     * @return the estimated size in bytes
+     */
+    private static long estimateSize(String[] row)
+    {
+        long size = ROW_OVERHEAD + 8L * row.length;
+        for (String field : row)
+        {
+            if (field != null)
+            {
+                size += FIELD_OVERHEAD + 2L * field.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Sorted rows read back one at a time.
+     */
+    public interface RowSource extends AutoCloseable
+    {
+        /**
+         * Gets the next row.
+         *
+         * @return the next row, or null when there are no more rows
+         * @throws IOException if a run file cannot be read
+         */
+        String[] next() throws IOException;
+
+        /**
+         * Closes any run files being read.
+         *
+         * @throws IOException if a run file cannot be closed
+         */
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Writes rows to a run file: a row marker, the field count, then each field
+     * as its UTF-8 length (-1 for null) and bytes. A zero marker ends the file.
+     */
+    private static final class RunWriter implements AutoCloseable
+    {
+        private final DataOutputStream out;
+
+        RunWriter(Path run) throws IOException
+        {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), RUN_BUFFER_SIZE));
+        }
+
+        void write(String[] row) throws IOException
+        {
+            out.writeByte(1);
+            out.writeInt(row.length);
+            for (String field : row)
+            {
+                if (field == null)
+                {
+                    out.writeInt(-1);
+                    continue;
+                }
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.writeByte(0);
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a run file written by RunWriter, holding the row at its head.
+     */
+    private static final class RunReader implements AutoCloseable
+    {
+        private final DataInputStream in;
+        private final int sequence;
+        private String[] head;
+
+        RunReader(Path run, int sequence) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), RUN_BUFFER_SIZE));
+            this.sequence = sequence;
+        }
+
+        boolean advance() throws IOException
+        {
+            if (in.readByte() == 0)
+            {
+                head = null;
+                return false;
+            }
+            String[] row = new String[in.readInt()];
+            for (int i = 0; i < row.length; i++)
+            {
+                int length = in.readInt();
+                if (length >= 0)
+                {
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    row[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+            head = row;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package csusm.cougarplanner.io;
+
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * Describes what a fetch returned completely: every row of the listed courses dated within the
+ * range. A merge given a scope treats stored rows inside it that the fetch did not return as
+ * deleted upstream. Courses whose fetch failed or was cut short must be left out of the scope.
+ *
+ * @param courseIds the courses that were fetched completely
+ * @param start the first date of the fetched range (inclusive), or null for no lower bound
+ * @param end the last date of the fetched range (inclusive), or null for no upper bound
+ */
+public record FetchScope(Set<String> courseIds, LocalDate start, LocalDate end)
+{
+    /**
+     * Constructs a scope, copying the course set.
+     */
+    public FetchScope
+    {
+        courseIds = Set.copyOf(courseIds);
+    }
+
+    /**
+     * Creates a scope covering every row of the given courses, dated or not.
+     *
+     * @param courseIds the courses that were fetched completely
+     * @return the scope
+     */
+    public static FetchScope wholeCourses(Set<String> courseIds)
+    {
+        return new FetchScope(courseIds, null, null);
+    }
+
+    /**
+     * Checks whether a row belongs to what the fetch returned completely.
+     * Undated rows are only covered by a scope without date bounds.
+     *
+     * @param courseId the row's course
+     * @param date the row's date, or null if it has none
+     * @return true if the fetch would have returned the row had it still existed
+     */
+    public boolean covers(String courseId, LocalDate date)
+    {
+        if (courseId == null || !courseIds.contains(courseId))
+        {
+            return false;
+        }
+        if (date == null)
+        {
+            return start == null && end == null;
+        }
+        return (start == null || !date.isBefore(start)) && (end == null || !date.isAfter(end));
+    }
+}
@@ -0,0 +1,41 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Identifies one version of a file on disk by its last-modified time, size and file key (inode).
+ * Two stamps of the same path differ whenever the file was rewritten, replaced or edited in place.
+ *
+ * @param lastModifiedMillis last-modified time in milliseconds, or -1 if the file does not exist
+ * @param size file size in bytes, or -1 if the file does not exist
+ * @param fileKey the platform file key (the inode on Unix), or null where unsupported
+ */
+public record FileStamp(long lastModifiedMillis, long size, Object fileKey)
+{
+    /** Stamp of a file that does not exist. */
+    public static final FileStamp MISSING = new FileStamp(-1, -1, null);
+
+    /**
+     * Reads the current stamp of a file.
+     *
+     * @param path the file to stamp
+     * @return the file's stamp, or MISSING if it does not exist
+     * @throws IOException if the file's attributes cannot be read
+     */
+    public static FileStamp of(Path path) throws IOException
+    {
+        try
+        {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.fileKey());
+        }
+        catch (NoSuchFileException e)
+        {
+            return MISSING;
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Publishes a set of file writes and deletes atomically, using a write-ahead intent log.
+ *
+ * Writes are first prepared as staged files next to their targets, and every staged file and
+ * delete is recorded in the intent log before it happens. Commit appends a commit marker, forces
+ * the log to disk, then moves the staged files into place and applies the deletes. If the process
+ * dies before the marker is on disk, recovery removes the staged files and nothing changed; if it
+ * dies after, recovery finishes publishing. Either way readers see all of the writes or none.
+ *
+ * Appends to log-structured files are staged the same way: the bytes wait in a staged file and
+ * the intent records the offset they go to, so replaying an append writes the same bytes to the
+ * same place however often it runs.
+ *
+ * Only one transaction runs at a time, in this process or any other sharing the data directory:
+ * begin takes the data lock exclusively and commit or rollback releases it. Publishing bumps the
+ * data version so readers that did not lock can tell their read overlapped a commit.
+ * Preparing may happen on several threads at once.
+ */
+public class FileTransaction implements AutoCloseable
+{
+    private static final String STAGED_SUFFIX = ".staged";
+    private static final String BEGIN = "BEGIN";
+    private static final String WRITE = "WRITE";
+    private static final String APPEND = "APPEND";
+    private static final String DELETE = "DELETE";
+    private static final String COMMIT = "COMMIT";
+    private static final char SEPARATOR = '\t';
+
+    private final String id;
+    private final Path logPath;
+    private final FileChannel log;
+    private final CsvWriter csvWriter;
+    private final List<Path[]> writes = new ArrayList<>();
+    private final List<Append> appends = new ArrayList<>();
+    // Where the next append to each file will land, counting appends staged so far
+    private final Map<Path, Long> appendEnds = new HashMap<>();
+    private final List<Path> deletes = new ArrayList<>();
+    private final List<Runnable> commitActions = new ArrayList<>();
+    // Held from begin until commit or abort, possibly released by another thread
+    private final DataLock.Held lock;
+    // Read by caches on other threads to recognise the commit's version
+    private volatile long committedVersion;
+    // Set once commit or rollback lets go of the lock, after committedVersion is known
+    private volatile boolean lockReleased;
+    private boolean finished;
+    // Set once the commit marker is on disk, after which recovery replays the transaction
+    private boolean markerForced;
+
+    /**
+     * Opens the intent log of a new transaction.
+     *
+     * @param logPath the intent log file
+     * @param lock the exclusive data lock the transaction holds
+     * @throws IOException if the log cannot be created
+     */
+    private FileTransaction(Path logPath, DataLock.Held lock) throws IOException
+    {
+        this.id = UUID.randomUUID().toString();
+        this.logPath = logPath;
+        this.lock = lock;
+        // Every rename must be on disk before the log that would replay it is deleted
+        this.csvWriter = new CsvWriter(CsvWriter.Durability.FSYNC_FILE_AND_DIRECTORY);
+        Files.createDirectories(logPath.toAbsolutePath().getParent());
+        this.log = FileChannel.open(logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        appendLog(BEGIN + SEPARATOR + id);
+    }
+
+    /**
+     * Starts a transaction, first finishing or rolling back any transaction a crash interrupted.
+     * Blocks while another transaction is running, here or in another process.
+     *
+     * @return the new transaction
+     * @throws IOException if the lock cannot be taken, recovery fails or the intent log cannot be created
+     */
+    public static FileTransaction begin() throws IOException
+    {
+        DataLock.Held lock = DataLock.getInstance().lockExclusive();
+        try
+        {
+            recoverLocked();
+            return new FileTransaction(CsvPaths.getTransactionLogPath(), lock);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            lock.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Prepares a CSV file to replace the target when the transaction commits.
+     *
+     * @param target the file the rows belong in
+     * @param records rows to write, with keys matching headers
+     * @param headers column headers for the CSV file
+     * @throws IOException if the staged file or the intent cannot be written
+     */
+    public void write(Path target, Iterable<Map<String, String>> records, String[] headers) throws IOException
+    {
+        write(target, staged -> csvWriter.prepare(staged, records, headers));
+    }
+
+    /**
+     * Prepares a file of any format to replace the target when the transaction commits.
+     *
+     * @param target the file the content belongs in
+     * @param content writes the complete file to the staging path it is given
+     * @throws IOException if the staged file or the intent cannot be written
+     */
+    public void write(Path target, StagedContent content) throws IOException
+    {
+        Path staged = target.resolveSibling(target.getFileName() + "." + id + STAGED_SUFFIX);
+        synchronized (this)
+        {
+            checkOpen();
+            // The intent goes first so recovery can always find the staged file
+            appendLog(WRITE + SEPARATOR + staged + SEPARATOR + target);
+            writes.add(new Path[] {staged, target});
+        }
+        if (staged.getParent() != null)
+        {
+            Files.createDirectories(staged.getParent());
+        }
+        content.writeTo(staged);
+    }
+
+    /**
+     * Appends bytes to the end of a file when the transaction commits.
+     * Several appends to one file land one after the other in the order they were staged.
+     *
+     * @param target the file to append to; created on commit if missing
+     * @param bytes the bytes to append
+     * @return the offset the bytes will be written at
+     * @throws IOException if the staged file or the intent cannot be written
+     */
+    public long append(Path target, byte[] bytes) throws IOException
+    {
+        Path staged;
+        long offset;
+        synchronized (this)
+        {
+            checkOpen();
+            Long end = appendEnds.get(target);
+            offset = end != null ? end : (Files.exists(target) ? Files.size(target) : 0);
+            staged = target.resolveSibling(target.getFileName() + "." + id + "." + appends.size() + STAGED_SUFFIX);
+            appendLog(APPEND + SEPARATOR + staged + SEPARATOR + target + SEPARATOR + offset);
+            appends.add(new Append(staged, target, offset));
+            appendEnds.put(target, offset + bytes.length);
+        }
+        if (staged.getParent() != null)
+        {
+            Files.createDirectories(staged.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(staged,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        return offset;
+    }
+
+    /**
+     * Deletes a file when the transaction commits.
+     *
+     * @param target the file to delete
+     * @throws IOException if the intent cannot be written
+     */
+    public synchronized void delete(Path target) throws IOException
+    {
+        checkOpen();
+        appendLog(DELETE + SEPARATOR + target);
+        deletes.add(target);
+    }
+
+    /**
+     * Registers work to run after the transaction's files are published, such as refreshing caches.
+     *
+     * @param action the action to run on commit
+     */
+    public synchronized void onCommit(Runnable action)
+    {
+        commitActions.add(action);
+    }
+
+    /**
+     * Gets the data version this transaction's commit published.
+     *
+     * @return the version after commit, or 0 if it has not committed
+     */
+    public long getCommittedVersion()
+    {
+        return committedVersion;
+    }
+
+    /**
+     * Checks whether the transaction still holds the data lock. While it does, no other process can
+     * publish, so the data version only moves through this transaction's own commit.
+     *
+     * @return true until the transaction commits or rolls back
+     */
+    public boolean holdsLock()
+    {
+        return !lockReleased;
+    }
+
+    /**
+     * Commits the transaction: forces the commit marker to disk, then publishes every write and delete.
+     * If publishing fails, the transaction is recovered before the lock is released: replayed from the
+     * log if the marker reached it, rolled back otherwise. Commit actions run whenever it ends up committed.
+     *
+     * @throws IOException if the transaction was rolled back, or if even recovery failed, which leaves
+     *                     the log for the next transaction or recover() to finish
+     */
+    public void commit() throws IOException
+    {
+        synchronized (this)
+        {
+            checkOpen();
+            finished = true;
+        }
+
+        try
+        {
+            appendLog(COMMIT + SEPARATOR + id);
+            log.force(true);
+            log.close();
+            markerForced = true;
+
+            DataLock dataLock = DataLock.getInstance();
+            dataLock.beginPublish();
+            for (Path[] write : writes)
+            {
+                csvWriter.publish(write[0], write[1]);
+            }
+            for (Append append : appends)
+            {
+                publishAppend(append);
+            }
+            for (Path target : deletes)
+            {
+                Files.deleteIfExists(target);
+            }
+            Files.deleteIfExists(logPath);
+            committedVersion = dataLock.endPublish();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            if (!recoverAfterFailure(e))
+            {
+                throw e;
+            }
+        }
+        finally
+        {
+            lockReleased = true;
+            lock.close();
+        }
+
+        for (Runnable action : commitActions)
+        {
+            action.run();
+        }
+    }
+
+    /**
+     * Finishes or rolls back this transaction after its commit failed partway, while the lock is still
+     * held, so no one sees half-published files or an odd version.
+     *
+     * @param failure what made the commit fail; a recovery failure is added to it as suppressed
+     * @return true if the transaction ended up committed
+     */
+    private boolean recoverAfterFailure(Exception failure)
+    {
+        try
+        {
+            log.close();
+            // A missing log after a forced marker means every file was published before the failure
+            boolean committed = recoverLocked() || (markerForced && !Files.exists(logPath));
+            if (committed)
+            {
+                committedVersion = DataLock.getInstance().version();
+            }
+            return committed;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            failure.addSuppressed(e);
+            return false;
+        }
+    }
+
+    /**
+     * Rolls the transaction back if it has not been committed. Staged files are removed
+     * and the targets are left as they were.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (finished)
+            {
+                return;
+            }
+            finished = true;
+        }
+
+        try
+        {
+            log.close();
+            for (Path[] write : writes)
+            {
+                Files.deleteIfExists(write[0]);
+            }
+            for (Append append : appends)
+            {
+                Files.deleteIfExists(append.staged());
+            }
+            Files.deleteIfExists(logPath);
+        }
+        catch (IOException e)
+        {
+            // Whatever is left behind is cleaned up by the next recovery
+        }
+        finally
+        {
+            lockReleased = true;
+            try
+            {
+                lock.close();
+            }
+            catch (IOException e)
+            {
+                // The OS drops the lock when the process exits
+            }
+        }
+    }
+
+    /**
+     * Finishes or rolls back a transaction left behind by a crash.
+     * A log with a commit marker is replayed; a log without one is rolled back.
+     * Replaying is safe to repeat because staged files that were already moved are simply gone.
+     *
+     * @throws IOException if the lock cannot be taken, the log cannot be read or a file cannot be published or removed
+     */
+    public static void recover() throws IOException
+    {
+        DataLock.Held lock = DataLock.getInstance().lockExclusive();
+        try
+        {
+            recoverLocked();
+        }
+        finally
+        {
+            lock.close();
+        }
+    }
+
+    /**
+     * Recovers while the caller holds the data lock exclusively.
+     * Replaying counts as a publish, and a version left odd by a crash mid-publish is made even again.
+     *
+     * @return true if a committed transaction was replayed, false if one was rolled back or there was none
+     * @throws IOException if the log cannot be read or a file cannot be published or removed
+     */
+    private static boolean recoverLocked() throws IOException
+    {
+        DataLock dataLock = DataLock.getInstance();
+        Path logPath = CsvPaths.getTransactionLogPath();
+        boolean committed = false;
+        if (Files.exists(logPath))
+        {
+            dataLock.beginPublish();
+            committed = replay(logPath);
+            dataLock.endPublish();
+        }
+        else if (dataLock.isPublishing())
+        {
+            dataLock.endPublish();
+        }
+        return committed;
+    }
+
+    /**
+     * Replays a committed intent log or rolls back an uncommitted one, then removes the log.
+     *
+     * @param logPath the intent log left behind
+     * @return true if the log was committed and replayed
+     * @throws IOException if the log cannot be read or a file cannot be published or removed
+     */
+    private static boolean replay(Path logPath) throws IOException
+    {
+        List<String> lines = Files.readAllLines(logPath, StandardCharsets.UTF_8);
+        String id = null;
+        boolean committed = false;
+        List<Path[]> writes = new ArrayList<>();
+        List<Append> appends = new ArrayList<>();
+        List<Path> deletes = new ArrayList<>();
+        for (String line : lines)
+        {
+            String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+            switch (fields[0])
+            {
+                case BEGIN -> id = fields.length > 1 ? fields[1] : null;
+                case WRITE ->
+                {
+                    if (fields.length == 3)
+                    {
+                        writes.add(new Path[] {Paths.get(fields[1]), Paths.get(fields[2])});
+                    }
+                }
+                case APPEND ->
+                {
+                    if (fields.length == 4)
+                    {
+                        appends.add(new Append(Paths.get(fields[1]), Paths.get(fields[2]), Long.parseLong(fields[3])));
+                    }
+                }
+                case DELETE ->
+                {
+                    if (fields.length == 2)
+                    {
+                        deletes.add(Paths.get(fields[1]));
+                    }
+                }
+                case COMMIT -> committed = id != null && fields.length == 2 && fields[1].equals(id);
+                default -> { } // A torn last line
+            }
+        }
+
+        CsvWriter writer = new CsvWriter(CsvWriter.Durability.FSYNC_FILE_AND_DIRECTORY);
+        for (Path[] write : writes)
+        {
+            if (committed && Files.exists(write[0]))
+            {
+                writer.publish(write[0], write[1]);
+            }
+            else
+            {
+                Files.deleteIfExists(write[0]);
+            }
+        }
+        for (Append append : appends)
+        {
+            if (committed && Files.exists(append.staged()))
+            {
+                publishAppend(append);
+            }
+            else
+            {
+                Files.deleteIfExists(append.staged());
+            }
+        }
+        if (committed)
+        {
+            for (Path target : deletes)
+            {
+                Files.deleteIfExists(target);
+            }
+        }
+        Files.deleteIfExists(logPath);
+        return committed;
+    }
+
+    /**
+     * Writes a staged append at its offset, forces it to disk, then removes the staged file.
+     *
+     * @param append the staged append
+     * @throws IOException if the staged bytes cannot be read or written
+     */
+    private static void publishAppend(Append append) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(append.staged()));
+        try (FileChannel channel = FileChannel.open(append.target(), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer, append.offset() + buffer.position());
+            }
+            channel.force(false);
+        }
+        Files.delete(append.staged());
+    }
+
+    /**
+     * Appends one line to the intent log.
+     *
+     * @param line the line to append, without a line terminator
+     * @throws IOException if the log cannot be written
+     */
+    private synchronized void appendLog(String line) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining())
+        {
+            log.write(buffer);
+        }
+    }
+
+    /**
+     * Fails if the transaction was already committed or rolled back.
+     */
+    private void checkOpen()
+    {
+        if (finished)
+        {
+            throw new IllegalStateException("Transaction " + id + " is already finished");
+        }
+    }
+
+    /**
+     * Writes the complete content of a file being staged by a transaction.
+     */
+    @FunctionalInterface
+    public interface StagedContent
+    {
+        /**
+         * Writes the file and forces it to disk.
+         *
+         * @param staged the staging path to write to
+         * @throws IOException if the file cannot be written
+         */
+        void writeTo(Path staged) throws IOException;
+    }
+
+    /**
+     * An append staged by a transaction.
+     *
+     * @param staged the file holding the bytes to append
+     * @param target the file to append to
+     * @param offset where in the target the bytes go
+     */
+    private record Append(Path staged, Path target, long offset) {}
+}
@@ -0,0 +1,876 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+
+/**
+ * Keeps the rows of a partitioned store in memory together with a date index.
+ * The rows are loaded from disk once, and upserts update the in-memory rows and the
+ * index as they write, so week and day queries are index lookups rather than file scans.
+ *
+ * Before answering, the table compares the stamps (last-modified time, size, inode) of the
+ * store's files with the ones taken when it loaded. If another process or a hand edit changed
+ * a file, the rows are reloaded; otherwise the query is served from memory. Week and day queries
+ * only compare the manifest and the shards of their months. While the
+ * {@link DataDirectoryWatcher} is running the stamps are only compared after it reports a change
+ * or the {@link DataLock} version moves, which another process's commit does. Loads do not lock:
+ * a load that overlapped a commit is repeated, so the rows always come from one committed version.
+ *
+ * A table can also keep a {@link ColumnarSnapshot} of its rows. Until the rows are first loaded,
+ * week and day queries are answered from the snapshot, and the first full load decodes the
+ * snapshot instead of parsing CSVs, as long as the snapshot matches the files.
+ * After that load the snapshot is dropped, since the in-memory rows answer every query.
+ *
+ * With an {@link ArchiveStore}, rows past the retention period are moved out of the table into
+ * compressed segments that range queries still reach, and rows deleted upstream are tombstoned.
+ *
+ * The rows are held as immutable versions published through an AtomicReference. Queries read
+ * the current version without locking, so a sync never blocks the UI and a query never sees a
+ * half-applied upsert. A committed upsert builds the next version from a copy of the current one
+ * and swaps it in; the old version is garbage once the queries still reading it return.
+ *
+ * @param <T> the model type held by the table
+ */
+public class IndexedTable<T> implements StorageBackend<T>
+{
+    private final PartitionedCsvStore<T> store;
+    private final RowCodec<T> codec;
+    private final Path snapshotPath;
+    private final ArchiveStore<T> archive;
+
+    private final CacheStats cacheStats = new CacheStats();
+
+    // The current version of the rows, or null until loaded and after an eviction
+    private final AtomicReference<Loaded<T>> current = new AtomicReference<>();
+    private volatile boolean stale = true;
+
+    // Serializes the checks and loads of refresh; never held while waiting for the data lock
+    private final Object loadLock = new Object();
+    // Serializes upserts and archiving; queries never take it. Holders that load rows hold the data lock
+    // exclusively, so their loads never wait for the shared lock
+    private final Object writeLock = new Object();
+    // The transaction holding this table's latest staged write, until its commit is applied
+    private final AtomicReference<FileTransaction> pendingTransaction = new AtomicReference<>();
+
+    // All guarded by this
+    private ColumnarSnapshot<T> snapshot;
+    private byte[] snapshotFingerprint;
+    // Set once the snapshot turned out unusable or the rows were fully loaded
+    private boolean snapshotRetired;
+
+    /**
+     * Constructs a table over a partitioned store. Nothing is read until the first query.
+     *
+     * @param store the store that persists the rows
+     * @param codec describes the rows' IDs and dates
+     */
+    public IndexedTable(PartitionedCsvStore<T> store, RowCodec<T> codec)
+    {
+        this(store, codec, null);
+    }
+
+    /**
+     * Constructs a table over a partitioned store with a binary snapshot for fast startup.
+     * Nothing is read until the first query.
+     *
+     * @param store the store that persists the rows
+     * @param codec describes the rows' IDs, dates and times
+     * @param snapshotPath the snapshot file, or null to always load from the CSVs
+     */
+    public IndexedTable(PartitionedCsvStore<T> store, RowCodec<T> codec, Path snapshotPath)
+    {
+        this(store, codec, snapshotPath, null);
+    }
+
+    /**
+     * Constructs a table over a partitioned store with a binary snapshot and an archive.
+     * Nothing is read until the first query.
+     *
+     * @param store the store that persists the rows
+     * @param codec describes the rows' IDs, dates and times
+     * @param snapshotPath the snapshot file, or null to always load from the CSVs
+     * @param archive the archive for expired and deleted rows, or null to keep every row in the table
+     */
+    public IndexedTable(PartitionedCsvStore<T> store, RowCodec<T> codec, Path snapshotPath, ArchiveStore<T> archive)
+    {
+        this.store = store;
+        this.codec = codec;
+        this.snapshotPath = snapshotPath;
+        this.snapshotRetired = snapshotPath == null;
+        this.archive = archive;
+    }
+
+    /**
+     * Gets every row in the table.
+     *
+     * @return List of all rows
+     * @throws IOException if the rows cannot be loaded
+     */
+    @Override
+    public List<T> findAll() throws IOException
+    {
+        return copies(rows().itemsById().values());
+    }
+
+    /**
+     * Gets every row dated within the range, ordered by date, including archived rows.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the matching rows
+     * @throws IOException if the rows or the archive cannot be read
+     */
+    @Override
+    public List<T> findRange(LocalDate start, LocalDate end) throws IOException
+    {
+        ColumnarSnapshot<T> columns = current.get() == null ? currentSnapshot() : null;
+        if (columns != null)
+        {
+            List<T> rows = columns.range(start, end);
+            cacheStats.recordHit();
+            return withArchived(rows, start, end);
+        }
+        return withArchived(copies(rows(start, end).dateIndex().range(start, end)), start, end);
+    }
+
+    /**
+     * Gets every row dated on the given day, including archived rows.
+     *
+     * @param day the day to look up
+     * @return the matching rows
+     * @throws IOException if the rows or the archive cannot be read
+     */
+    @Override
+    public List<T> findDay(LocalDate day) throws IOException
+    {
+        ColumnarSnapshot<T> columns = current.get() == null ? currentSnapshot() : null;
+        if (columns != null)
+        {
+            List<T> rows = columns.range(day, day);
+            cacheStats.recordHit();
+            return withArchived(rows, day, day);
+        }
+        return withArchived(copies(rows(day, day).dateIndex().day(day)), day, day);
+    }
+
+    /**
+     * Gets every row of a course.
+     *
+     * @param courseId the course to look up
+     * @return the course's rows
+     * @throws IOException if the rows cannot be loaded
+     */
+    @Override
+    public List<T> findByCourse(String courseId) throws IOException
+    {
+        List<T> rows = new ArrayList<>();
+        for (T item : rows().itemsById().values())
+        {
+            if (courseId.equals(codec.courseOf(item)))
+            {
+                rows.add(codec.copy(item));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Copies stored rows for a caller, since the versions queries read must never change.
+     *
+     * @param rows the stored rows
+     * @return copies of the rows, in the same order
+     */
+    private List<T> copies(Collection<T> rows)
+    {
+        List<T> copies = new ArrayList<>(rows.size());
+        for (T item : rows)
+        {
+            copies.add(codec.copy(item));
+        }
+        return copies;
+    }
+
+    /**
+     * Inserts or replaces rows by ID as part of a transaction, removing stored rows that the
+     * fetch scope covers but the incoming rows no longer contain. Removed rows are tombstoned
+     * in the archive, and a tombstoned row that comes back is merged over its tombstone.
+     * An archived row that is fetched again is merged over its archived version; if that changes
+     * it, it moves back into the table and its archived copy is dropped.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param scope what the incoming rows cover completely, or null to never remove rows
+     * @param transaction the transaction to stage the shards in
+     * @return what the upsert changed
+     * @throws IOException if the rows cannot be loaded or the shards cannot be staged
+     */
+    @Override
+    public MergeDiff<T> upsertAll(Collection<T> incoming, BinaryOperator<T> merge, FetchScope scope,
+                                  FileTransaction transaction) throws IOException
+    {
+        synchronized (writeLock)
+        {
+            return upsertLocked(incoming, merge, scope, transaction);
+        }
+    }
+
+    /**
+     * Prepares an upsert against the current version of the rows. Callers hold the write lock.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param scope what the incoming rows cover completely, or null to never remove rows
+     * @param transaction the transaction to stage the shards in
+     * @return what the upsert changed
+     * @throws IOException if the rows cannot be loaded or the shards cannot be staged
+     */
+    private MergeDiff<T> upsertLocked(Collection<T> incoming, BinaryOperator<T> merge, FetchScope scope,
+                                      FileTransaction transaction) throws IOException
+    {
+        // Queries keep reading this version until the commit swaps in the next one
+        Map<String, T> itemsById = rows().itemsById();
+
+        Map<String, T> updated = new LinkedHashMap<>(itemsById);
+        Map<String, T> previousItems = new HashMap<>();
+        Map<String, LocalDate> previousDates = new HashMap<>();
+        List<String> restoredIds = new ArrayList<>();
+        Map<String, T> unarchived = new HashMap<>();
+        List<T> touched = new ArrayList<>();
+        for (T fetched : incoming)
+        {
+            // Stored as a copy, so neither the caller nor the merge function can change a published version
+            T item = codec.copy(fetched);
+            String id = codec.idOf(item);
+            T existing = updated.get(id);
+            T stored = item;
+            if (existing == null && archive != null)
+            {
+                T tombstoned = archive.tombstoned(id);
+                T archived = tombstoned == null ? archive.archived(id) : null;
+                if (tombstoned != null)
+                {
+                    // Deleted upstream earlier and now back; keeps what was set locally
+                    restoredIds.add(id);
+                    stored = merge.apply(tombstoned, item);
+                }
+                else if (archived != null)
+                {
+                    // Archived earlier and fetched again; stays archived unless the merge changes it
+                    stored = merge.apply(archived, item);
+                    if (MergeDiff.fieldChanges(codec, archived, stored).isEmpty())
+                    {
+                        continue;
+                    }
+                    unarchived.put(id, archived);
+                }
+            }
+            else if (existing != null)
+            {
+                if (!previousDates.containsKey(id) && itemsById.containsKey(id))
+                {
+                    previousItems.put(id, existing);
+                    previousDates.put(id, codec.dateOf(existing));
+                }
+                touched.add(existing);
+                stored = merge.apply(existing, item);
+            }
+            updated.put(id, stored);
+            touched.add(stored);
+        }
+
+        Map<String, T> changed = new LinkedHashMap<>();
+        MergeDiff.Builder<T> diff = new MergeDiff.Builder<>(codec);
+        for (T item : incoming)
+        {
+            String id = codec.idOf(item);
+            if (!changed.containsKey(id) && updated.containsKey(id))
+            {
+                changed.put(id, updated.get(id));
+                diff.compare(itemsById.containsKey(id) ? itemsById.get(id) : unarchived.get(id), updated.get(id));
+            }
+        }
+
+        List<T> removed = new ArrayList<>();
+        if (scope != null)
+        {
+            for (T item : itemsById.values())
+            {
+                if (!changed.containsKey(codec.idOf(item)) && scope.covers(codec.courseOf(item), codec.dateOf(item)))
+                {
+                    updated.remove(codec.idOf(item));
+                    touched.add(item);
+                    removed.add(item);
+                    diff.removed(item);
+                }
+            }
+        }
+
+        MergeDiff<T> result = diff.build();
+        if (result.isEmpty())
+        {
+            return result; // Everything fetched is already stored
+        }
+
+        store.write(updated.values(), touched, transaction);
+        if (archive != null)
+        {
+            archive.updateTombstones(removed, restoredIds, transaction);
+            archive.remove(unarchived.keySet(), transaction);
+        }
+        pendingTransaction.set(transaction);
+        transaction.onCommit(() -> applyCommitted(changed, previousItems, previousDates, removed, transaction));
+        return result;
+    }
+
+    /**
+     * Inserts or replaces rows by ID with a bounded amount of memory, as part of a transaction,
+     * removing and tombstoning stored rows that the fetch scope covers but the incoming rows lack.
+     * Rows coming back from a tombstone or the archive are added afresh and their tombstone or
+     * archived copy is dropped; only the in-memory upsert merges them over the earlier row.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param memoryBudget bytes of rows the merge may buffer before spilling
+     * @param scope what the incoming rows cover completely, or null to never remove rows
+     * @param transaction the transaction to stage the shards in
+     * @return what the upsert changed
+     * @throws IOException if the shards or spill files cannot be read or written
+     */
+    @Override
+    public MergeDiff<T> upsertAllExternal(Collection<T> incoming, BinaryOperator<T> merge, long memoryBudget,
+                                          FetchScope scope, FileTransaction transaction) throws IOException
+    {
+        // Not synchronized: queries keep being answered from the current files while the merge runs
+        evict();
+        MergeDiff<T> diff = store.mergeExternal(incoming, merge, memoryBudget, scope, transaction);
+        if (!diff.isEmpty())
+        {
+            if (archive != null)
+            {
+                List<String> addedIds = new ArrayList<>();
+                for (T item : diff.getAdded())
+                {
+                    addedIds.add(codec.idOf(item));
+                }
+                archive.updateTombstones(diff.getRemoved(), addedIds, transaction);
+                archive.remove(addedIds, transaction);
+            }
+            transaction.onCommit(this::evict);
+        }
+        return diff;
+    }
+
+    /**
+     * Moves every row dated before the cutoff into the archive as part of a transaction.
+     * Undated rows stay in the table. Does nothing if the table has no archive.
+     *
+     * @param cutoff the first date that stays in the table
+     * @param transaction the transaction to stage the shards and segments in
+     * @return the number of rows archived
+     * @throws IOException if the rows cannot be loaded or the shards and segments cannot be staged
+     */
+    @Override
+    public int archiveBefore(LocalDate cutoff, FileTransaction transaction) throws IOException
+    {
+        if (archive == null)
+        {
+            return 0;
+        }
+        synchronized (writeLock)
+        {
+            Loaded<T> rows = rows();
+            Map<String, T> kept = new LinkedHashMap<>(rows.itemsById());
+            List<T> expired = new ArrayList<>();
+            for (T item : rows.dateIndex().range(LocalDate.MIN, cutoff.minusDays(1)))
+            {
+                kept.remove(codec.idOf(item));
+                expired.add(item);
+            }
+            if (expired.isEmpty())
+            {
+                return 0;
+            }
+
+            store.write(kept.values(), expired, transaction);
+            archive.append(expired, transaction);
+            pendingTransaction.set(transaction);
+            transaction.onCommit(() -> applyCommitted(Map.of(), Map.of(), Map.of(), expired, transaction));
+            return expired.size();
+        }
+    }
+
+    /**
+     * Writes a binary snapshot of the current rows for the next startup to read.
+     * Does nothing if the table was constructed without a snapshot path.
+     * If the snapshot cannot be written, the old one is deleted rather than left describing older rows.
+     *
+     * @throws IOException if the rows cannot be loaded or the snapshot cannot be written
+     */
+    @Override
+    public void writeSnapshot() throws IOException
+    {
+        if (snapshotPath == null)
+        {
+            return;
+        }
+        // Loaded before taking the write lock, since a load may wait for a writer that needs it
+        Loaded<T> rows = rows();
+        // The rows are loaded, so the old snapshot is no longer consulted
+        retireSnapshot();
+        synchronized (writeLock)
+        {
+            try
+            {
+                ColumnarSnapshot.write(snapshotPath, rows.itemsById().values(), codec, ColumnarSnapshot.fingerprint(rows.stamp()));
+            }
+            catch (IOException e)
+            {
+                try
+                {
+                    Files.deleteIfExists(snapshotPath);
+                }
+                catch (IOException deleteFailure)
+                {
+                    e.addSuppressed(deleteFailure);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Marks the table's files as possibly changed, so the next query compares their stamps.
+     * Called by the data directory watcher; the rows themselves are only reloaded if a stamp differs.
+     */
+    @Override
+    public void invalidate()
+    {
+        stale = true;
+    }
+
+    /**
+     * Drops the in-memory rows and index, so the next query loads them again.
+     */
+    public synchronized void evict()
+    {
+        current.set(null);
+        stale = true;
+    }
+
+    /**
+     * Gets the hit, miss and reload counters of this table.
+     *
+     * @return the table's cache statistics
+     */
+    @Override
+    public CacheStats getCacheStats()
+    {
+        return cacheStats;
+    }
+
+    /**
+     * Publishes the version of the rows a committed upsert produced, then stops treating the
+     * transaction as pending, so queries meanwhile keep answering from the current rows.
+     *
+     * @param changed the stored version of every upserted row, by ID
+     * @param previousItems the rows the upsert replaced, by ID
+     * @param previousDates the dates those rows were indexed under, by ID
+     * @param removed rows the upsert removed from the table
+     * @param transaction the committed transaction
+     */
+    private synchronized void applyCommitted(Map<String, T> changed, Map<String, T> previousItems,
+                                             Map<String, LocalDate> previousDates, Collection<T> removed,
+                                             FileTransaction transaction)
+    {
+        try
+        {
+            swapInCommitted(changed, previousItems, previousDates, removed, transaction.getCommittedVersion());
+        }
+        finally
+        {
+            // A later transaction may already have staged its own write
+            pendingTransaction.compareAndSet(transaction, null);
+        }
+    }
+
+    /**
+     * Swaps in the version of the rows a committed upsert produced. The next version is built
+     * from a copy of the current one, so queries reading the current one are not disturbed.
+     * Callers hold this table's monitor.
+     *
+     * @param changed the stored version of every upserted row, by ID
+     * @param previousItems the rows the upsert replaced, by ID
+     * @param previousDates the dates those rows were indexed under, by ID
+     * @param removed rows the upsert removed from the table
+     * @param committedVersion the data version the upsert's commit published
+     */
+    private void swapInCommitted(Map<String, T> changed, Map<String, T> previousItems,
+                                 Map<String, LocalDate> previousDates, Collection<T> removed,
+                                 long committedVersion)
+    {
+        Loaded<T> base = current.get();
+        if (base == null)
+        {
+            return; // Evicted meanwhile; the next query loads what was committed
+        }
+        Map<String, T> itemsById = new LinkedHashMap<>(base.itemsById());
+        DateIndex<T> dateIndex = base.dateIndex().copy();
+        for (T item : removed)
+        {
+            T previous = itemsById.remove(codec.idOf(item));
+            if (previous != null)
+            {
+                dateIndex.remove(codec.dateOf(previous), previous);
+            }
+        }
+        for (Map.Entry<String, T> entry : changed.entrySet())
+        {
+            T stored = entry.getValue();
+            T previous = itemsById.put(entry.getKey(), stored);
+            if (previous != null)
+            {
+                // The rows may have been reloaded since the upsert was prepared
+                LocalDate previousDate = previous == previousItems.get(entry.getKey())
+                        ? previousDates.get(entry.getKey())
+                        : codec.dateOf(previous);
+                dateIndex.remove(previousDate, previous);
+            }
+            dateIndex.add(codec.dateOf(stored), stored);
+        }
+
+        try
+        {
+            // Our own write must not look like an outside change, unless another process committed since
+            Map<Path, FileStamp> currentStamp = store.stamp();
+            if (DataLock.getInstance().version() == committedVersion)
+            {
+                current.set(Loaded.of(itemsById, dateIndex, currentStamp, committedVersion));
+                return;
+            }
+        }
+        catch (IOException e)
+        {
+            // Falls through to force a reload
+        }
+        // No stamp, so the next query compares stamps and reloads
+        current.set(Loaded.of(itemsById, dateIndex, null, base.version()));
+        stale = true;
+    }
+
+    /**
+     * Adds the archived rows of a range to rows found in the table, keeping date order.
+     *
+     * @param rows the rows found in the table, ordered by date
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the combined rows
+     * @throws IOException if an archive segment cannot be read
+     */
+    private List<T> withArchived(List<T> rows, LocalDate start, LocalDate end) throws IOException
+    {
+        return archive != null ? archive.withArchived(rows, start, end) : rows;
+    }
+
+    /**
+     * Gets the current version of the rows, making sure it matches the files on disk.
+     * Lock-free while nothing changed; otherwise loads, checks or reloads the rows.
+     *
+     * @return the current rows; never modified
+     * @throws IOException if the rows or file stamps cannot be read
+     */
+    private Loaded<T> rows() throws IOException
+    {
+        Loaded<T> rows = current.get();
+        if (isCurrent(rows))
+        {
+            cacheStats.recordHit();
+            return rows;
+        }
+        return refresh();
+    }
+
+    /**
+     * Gets the current rows for a query that only reads the months overlapping a date range.
+     * Without the watcher, the rows answer as long as those months' shards and the manifest are
+     * unchanged, so the shards of every other month are not stamped on each query.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the current rows, loaded or refreshed if needed
+     * @throws IOException if the rows or file stamps cannot be read
+     */
+    private Loaded<T> rows(LocalDate start, LocalDate end) throws IOException
+    {
+        Loaded<T> rows = current.get();
+        if (isCurrent(rows))
+        {
+            cacheStats.recordHit();
+            return rows;
+        }
+        if (rows != null && rows.stamp() != null && !DataDirectoryWatcher.getInstance().isRunning())
+        {
+            DataLock dataLock = DataLock.getInstance();
+            long version = dataLock.version();
+            if ((version & 1) == 0 && store.isUnchanged(rows.stamp(), start, end) && dataLock.version() == version)
+            {
+                cacheStats.recordHit();
+                return rows;
+            }
+        }
+        return refresh();
+    }
+
+    /**
+     * Checks whether a version of the rows can answer queries without looking at the files,
+     * either because nothing changed or because the change is a commit that will swap in its own rows.
+     *
+     * @param rows the version to check, or null
+     * @return true if the version can answer queries as it is
+     * @throws IOException if the data version cannot be read
+     */
+    private boolean isCurrent(Loaded<T> rows) throws IOException
+    {
+        // Not cleared of staleness: the files are compared once the commit has swapped in its rows
+        return isFresh(rows) || (rows != null && isBeingCommitted(DataLock.getInstance().version()));
+    }
+
+    /**
+     * Checks whether the data version moved only because a commit is still publishing its files,
+     * or because this table's own commit has published but not yet swapped in its rows.
+     * While the transaction holding this table's write still holds the data lock, no one else can
+     * have published. Either way the current rows are the last committed version and stay consistent,
+     * while a reload would read every file only to arrive at what the commit is about to swap in.
+     *
+     * @param version the current data version
+     * @return true if the current rows can keep answering until the commit finishes
+     */
+    private boolean isBeingCommitted(long version)
+    {
+        if ((version & 1) == 1)
+        {
+            return true;
+        }
+        FileTransaction pending = pendingTransaction.get();
+        return pending != null && (pending.holdsLock() || pending.getCommittedVersion() == version);
+    }
+
+    /**
+     * Checks whether a version of the rows can answer queries without looking at the files.
+     *
+     * @param rows the version to check, or null
+     * @return true if nothing can have changed since the version was loaded or checked
+     * @throws IOException if the data version cannot be read
+     */
+    private boolean isFresh(Loaded<T> rows) throws IOException
+    {
+        return rows != null && !stale && DataDirectoryWatcher.getInstance().isRunning()
+                && DataLock.getInstance().version() == rows.version();
+    }
+
+    /**
+     * Brings the rows in step with the files on disk and publishes the result.
+     * Loads them the first time, reloads them if a file changed, and otherwise only records the check.
+     *
+     * One query at a time checks and loads, so queries arriving meanwhile reuse its result. The load
+     * lock is only held for reads that never wait for a writer: a load that keeps overlapping commits
+     * waits for the shared data lock after letting go, since a writer holding the data lock may need
+     * to load too. The result is published unless a commit replaced the rows meanwhile.
+     *
+     * @return the current rows
+     * @throws IOException if the rows or file stamps cannot be read
+     */
+    private Loaded<T> refresh() throws IOException
+    {
+        DataLock dataLock = DataLock.getInstance();
+        Loaded<T> rows;
+        ColumnarSnapshot<T> source;
+        synchronized (loadLock)
+        {
+            // Another query may have refreshed, or a commit swapped in its rows, while this one waited
+            rows = current.get();
+            if (isCurrent(rows))
+            {
+                cacheStats.recordHit();
+                return rows;
+            }
+
+            // Cleared before stamping so an invalidation that arrives meanwhile is not lost
+            stale = false;
+            long version = dataLock.version();
+            Map<Path, FileStamp> currentStamp = store.stamp();
+            if (rows != null && currentStamp.equals(rows.stamp()) && (version & 1) == 0 && dataLock.version() == version)
+            {
+                // Another process committed files this table does not use
+                cacheStats.recordHit();
+                return publish(rows, Loaded.of(rows.itemsById(), rows.dateIndex(), rows.stamp(), version));
+            }
+
+            if (rows == null)
+            {
+                cacheStats.recordMiss();
+            }
+            else
+            {
+                cacheStats.recordReload();
+            }
+
+            source = rows == null ? currentSnapshot() : null;
+            DataLock.Versioned<Loaded<T>> read = dataLock.readOptimistically(() -> load(source));
+            if (read != null)
+            {
+                return publish(rows, read);
+            }
+        }
+        // Kept overlapping commits; other queries may load meanwhile, and the first to finish wins
+        return publish(rows, dataLock.readShared(() -> load(source)));
+    }
+
+    /**
+     * Swaps in a loaded version unless the version it replaces was replaced meanwhile.
+     *
+     * @param expected the version the load started from, or null
+     * @param read the loaded rows and the data version they were read at
+     * @return the version now current
+     */
+    private Loaded<T> publish(Loaded<T> expected, DataLock.Versioned<Loaded<T>> read)
+    {
+        // From here on the in-memory rows answer every query
+        retireSnapshot();
+        Loaded<T> loaded = read.value();
+        return publish(expected, Loaded.of(loaded.itemsById(), loaded.dateIndex(), loaded.stamp(), read.version()));
+    }
+
+    /**
+     * Swaps in a refreshed version unless the version it was refreshed from was replaced meanwhile.
+     *
+     * @param expected the version the refresh started from, or null
+     * @param refreshed the refreshed version
+     * @return the version now current; the refreshed one, or whatever replaced the expected one
+     */
+    private Loaded<T> publish(Loaded<T> expected, Loaded<T> refreshed)
+    {
+        if (current.compareAndSet(expected, refreshed))
+        {
+            return refreshed;
+        }
+        Loaded<T> winner = current.get();
+        // Evicted meanwhile; the refreshed rows are still a committed version, and the next query checks them
+        return winner != null ? winner : refreshed;
+    }
+
+    /**
+     * Stops consulting the snapshot once the in-memory rows answer every query, and lets it go.
+     */
+    private synchronized void retireSnapshot()
+    {
+        snapshot = null;
+        snapshotRetired = true;
+    }
+
+    /**
+     * Reads every row and indexes it by date, from the snapshot if one is given and from the CSVs otherwise.
+     * Runs without the table's fields so an attempt that overlapped a commit can simply be repeated.
+     *
+     * @param source the snapshot to decode, or null to parse the store's files
+     * @return the rows, their index and the stamp of the files they came from
+     * @throws IOException if the rows or file stamps cannot be read
+     */
+    private Loaded<T> load(ColumnarSnapshot<T> source) throws IOException
+    {
+        Map<String, T> loaded = new LinkedHashMap<>();
+        DateIndex<T> index = new DateIndex<>();
+        if (source != null)
+        {
+            // Dates come straight from the epoch-day column; nothing is parsed
+            for (int row = 0; row < source.size(); row++)
+            {
+                T item = source.rowAt(row);
+                loaded.put(codec.idOf(item), item);
+                index.add(source.dateAt(row), item);
+            }
+        }
+        else
+        {
+            for (T item : store.readAll())
+            {
+                T previous = loaded.put(codec.idOf(item), item);
+                if (previous != null)
+                {
+                    index.remove(codec.dateOf(previous), previous);
+                }
+                index.add(codec.dateOf(item), item);
+            }
+        }
+        // Stamped after reading so a legacy migration's own writes do not look like an outside change
+        return Loaded.of(loaded, index, store.stamp(), -1);
+    }
+
+    /**
+     * Gets the snapshot if it still matches the store's files, reading it on first use.
+     * Once the snapshot is found stale it is not consulted again until the next startup.
+     *
+     * @return the usable snapshot, or null if there is none
+     * @throws IOException if the file stamps cannot be read or the snapshot cannot be read
+     */
+    private synchronized ColumnarSnapshot<T> currentSnapshot() throws IOException
+    {
+        if (snapshotRetired)
+        {
+            return null;
+        }
+        if (snapshot != null && !stale && DataDirectoryWatcher.getInstance().isRunning())
+        {
+            return snapshot;
+        }
+
+        stale = false;
+        byte[] fingerprint = ColumnarSnapshot.fingerprint(store.stamp());
+        if (snapshot == null || !Arrays.equals(fingerprint, snapshotFingerprint))
+        {
+            snapshot = ColumnarSnapshot.open(snapshotPath, codec, fingerprint);
+            snapshotFingerprint = fingerprint;
+            snapshotRetired = snapshot == null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * One version of the rows. Never modified once published; the next version is built from copies.
+     *
+     * @param itemsById the rows by ID, unmodifiable
+     * @param dateIndex the rows by date
+     * @param stamp the stamp of the files the rows match, or null to force the next query to compare stamps
+     * @param version the data version the rows were loaded or last checked at
+     * @param <T> the model type held by the table
+     */
+    private record Loaded<T>(Map<String, T> itemsById, DateIndex<T> dateIndex, Map<Path, FileStamp> stamp, long version)
+    {
+        /**
+         * Builds a version, wrapping the row map so it cannot be changed through the version.
+         *
+         * @param itemsById the rows by ID; must not be modified afterwards
+         * @param dateIndex the rows by date; must not be modified afterwards
+         * @param stamp the stamp of the files the rows match, or null
+         * @param version the data version of the rows
+         * @param <T> the model type held by the table
+         * @return the version
+         */
+        static <T> Loaded<T> of(Map<String, T> itemsById, DateIndex<T> dateIndex, Map<Path, FileStamp> stamp, long version)
+        {
+            return new Loaded<>(Collections.unmodifiableMap(itemsById), dateIndex, stamp, version);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the background threads used by the data layer.
+ * All threads are daemons so they never keep the application alive after the window closes.
+ */
+public final class IoExecutors
+{
+    // Shard writes are disk bound; a few threads are enough to keep the device busy
+    private static final int SHARD_WRITER_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService SHARD_WRITERS =
+            Executors.newFixedThreadPool(SHARD_WRITER_THREADS, daemonThreads("csv-shard-writer", Thread.NORM_PRIORITY));
+
+    // One thread per entity type prepared by a merge transaction; kept apart from the shard
+    // writers because each preparation waits on shard writes of its own
+    private static final ExecutorService MERGE_PREPARERS =
+            Executors.newFixedThreadPool(3, daemonThreads("merge-preparer", Thread.NORM_PRIORITY));
+
+    // Housekeeping such as archiving old rows; one low-priority thread so it never competes with the UI
+    private static final ExecutorService MAINTENANCE =
+            Executors.newSingleThreadExecutor(daemonThreads("data-maintenance", Thread.MIN_PRIORITY));
+
+    // Delayed work such as batched writes; one thread because each task is short
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("data-scheduler", Thread.NORM_PRIORITY));
+
+    // Speculative loads of periods the user may open next; lowest priority so it yields to everything else
+    private static final ScheduledExecutorService PREFETCHER =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("period-prefetcher", Thread.MIN_PRIORITY));
+
+    // Period loads requested by the UI; two threads so assignments and announcements load side by side
+    private static final ExecutorService VIEW_LOADERS =
+            Executors.newFixedThreadPool(2, daemonThreads("view-loader", Thread.NORM_PRIORITY));
+
+    private IoExecutors() {}
+
+    /**
+     * Gets the pool used to write storage shards in parallel.
+     *
+     * @return the shard writer pool
+     */
+    public static ExecutorService shardWriters()
+    {
+        return SHARD_WRITERS;
+    }
+
+    /**
+     * Gets the pool used to prepare the entity files of a merge transaction in parallel.
+     *
+     * @return the merge preparer pool
+     */
+    public static ExecutorService mergePreparers()
+    {
+        return MERGE_PREPARERS;
+    }
+
+    /**
+     * Gets the thread used for background housekeeping of the data files.
+     *
+     * @return the maintenance executor
+     */
+    public static ExecutorService maintenance()
+    {
+        return MAINTENANCE;
+    }
+
+    /**
+     * Gets the thread used to run delayed work, such as writes batched over a short window.
+     *
+     * @return the scheduler
+     */
+    public static ScheduledExecutorService scheduler()
+    {
+        return SCHEDULER;
+    }
+
+    /**
+     * Gets the thread used to load periods ahead of navigation.
+     *
+     * @return the prefetch executor
+     */
+    public static ScheduledExecutorService prefetcher()
+    {
+        return PREFETCHER;
+    }
+
+    /**
+     * Gets the pool that loads the data the UI is about to show, keeping disk reads off the FX thread.
+     *
+     * @return the view loader pool
+     */
+    public static ExecutorService viewLoaders()
+    {
+        return VIEW_LOADERS;
+    }
+
+    /**
+     * Runs a task on an executor and returns its result as a future.
+     * The future fails with the task's own exception, such as an IOException, rather than a wrapper.
+     * A task whose future was cancelled before it started is skipped, so a queue of stale loads drains at once.
+     *
+     * @param executor the executor to run the task on
+     * @param task the task to run
+     * @param <T> the result type
+     * @return the future result
+     */
+    public static <T> CompletableFuture<T> supplyAsync(ExecutorService executor, Callable<T> task)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() ->
+        {
+            if (future.isDone())
+            {
+                return;
+            }
+            try
+            {
+                future.complete(task.call());
+            }
+            catch (Throwable e)
+            {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs every task on the executor and waits for all of them to finish.
+     * The first IOException thrown by a task is rethrown to the caller.
+     *
+     * @param executor the executor to run the tasks on
+     * @param tasks the tasks to run
+     * @throws IOException if any task failed with an IOException
+     */
+    public static void runAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException
+    {
+        if (tasks.size() == 1)
+        {
+            // Not worth a thread hop for a single write
+            callUnchecked(tasks.get(0));
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks)
+        {
+            futures.add(executor.submit(task));
+        }
+
+        IOException failure = null;
+        for (Future<Void> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for storage writes", e);
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                {
+                    failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs a task on the calling thread, unwrapping its IOException.
+     *
+     * @param task the task to run
+     * @throws IOException if the task failed with an IOException
+     */
+    private static void callUnchecked(Callable<Void> task) throws IOException
+    {
+        try
+        {
+            task.call();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Creates a thread factory for named daemon threads.
+     *
+     * @param name prefix for the thread names
+     * @param priority the thread priority
+     * @return the thread factory
+     */
+    static ThreadFactory daemonThreads(String name, int priority)
+    {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable ->
+        {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,135 @@
+package csusm.cougarplanner.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often the data lock was taken and how long callers waited for it.
+ * Optimistic reads that had to retry because a writer published meanwhile are counted too.
+ */
+public class LockStats
+{
+    private final AtomicLong exclusiveAcquisitions = new AtomicLong();
+    private final AtomicLong sharedAcquisitions = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong optimisticRetries = new AtomicLong();
+
+    /**
+     * Records an exclusive acquisition and how long it waited.
+     *
+     * @param waitNanos time spent waiting for the lock
+     */
+    public void recordExclusive(long waitNanos)
+    {
+        exclusiveAcquisitions.incrementAndGet();
+        recordWait(waitNanos);
+    }
+
+    /**
+     * Records a shared acquisition and how long it waited.
+     *
+     * @param waitNanos time spent waiting for the lock
+     */
+    public void recordShared(long waitNanos)
+    {
+        sharedAcquisitions.incrementAndGet();
+        recordWait(waitNanos);
+    }
+
+    /**
+     * Records an optimistic read that saw a writer publish and had to be repeated.
+     */
+    public void recordOptimisticRetry()
+    {
+        optimisticRetries.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of exclusive acquisitions.
+     *
+     * @return the exclusive acquisition count
+     */
+    public long getExclusiveAcquisitions()
+    {
+        return exclusiveAcquisitions.get();
+    }
+
+    /**
+     * Gets the number of shared acquisitions.
+     *
+     * @return the shared acquisition count
+     */
+    public long getSharedAcquisitions()
+    {
+        return sharedAcquisitions.get();
+    }
+
+    /**
+     * Gets the total time spent waiting for the lock.
+     *
+     * @return the total wait in milliseconds
+     */
+    public double getTotalWaitMillis()
+    {
+        return totalWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Gets the longest single wait for the lock.
+     *
+     * @return the longest wait in milliseconds
+     */
+    public double getMaxWaitMillis()
+    {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Gets the average wait per acquisition.
+     *
+     * @return the average wait in milliseconds, or 0 if the lock was never taken
+     */
+    public double getAverageWaitMillis()
+    {
+        long acquisitions = exclusiveAcquisitions.get() + sharedAcquisitions.get();
+        return acquisitions == 0 ? 0.0 : getTotalWaitMillis() / acquisitions;
+    }
+
+    /**
+     * Gets the number of optimistic reads that had to be repeated.
+     *
+     * @return the retry count
+     */
+    public long getOptimisticRetries()
+    {
+        return optimisticRetries.get();
+    }
+
+    /**
+     * Adds one wait to the totals.
+     *
+     * @param waitNanos time spent waiting for the lock
+     */
+    private void recordWait(long waitNanos)
+    {
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Returns a summary of the counters for logging.
+     *
+     * @return string containing the acquisition counts and wait times
+     */
+    @Override
+    public String toString()
+    {
+        return "LockStats{" +
+                "exclusive=" + exclusiveAcquisitions.get() +
+                ", shared=" + sharedAcquisitions.get() +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()) +
+                ", optimisticRetries=" + optimisticRetries.get() +
+                '}';
+    }
+}
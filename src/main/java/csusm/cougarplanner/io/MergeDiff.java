@@ -0,0 +1,246 @@
+package csusm.cougarplanner.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * What an upsert changed compared with the stored rows: rows added, rows changed (with the
+ * fields that differ), rows removed, and how many incoming rows matched what was already stored.
+ * An empty diff means the upsert did not write anything.
+ *
+ * @param <T> the model type that was merged
+ */
+public final class MergeDiff<T>
+{
+    private final List<T> added;
+    private final List<Change<T>> changed;
+    private final List<T> removed;
+    private final int unchanged;
+
+    /**
+     * One field whose stored value differs from the incoming value.
+     *
+     * @param field the CSV column name
+     * @param before the stored value
+     * @param after the new value
+     */
+    public record FieldChange(String field, String before, String after) {}
+
+    /**
+     * One row whose stored version differs from the incoming version.
+     *
+     * @param id the row's ID
+     * @param before the stored row
+     * @param after the row as it is stored now
+     * @param fields the fields that differ; empty if the row was edited in place and cannot be compared
+     * @param <T> the model type
+     */
+    public record Change<T>(String id, T before, T after, List<FieldChange> fields) {}
+
+    /**
+     * Constructs a diff from its parts.
+     *
+     * @param added rows that did not exist before
+     * @param changed rows that differ from their stored version
+     * @param removed rows that were removed
+     * @param unchanged number of incoming rows identical to their stored version
+     */
+    private MergeDiff(List<T> added, List<Change<T>> changed, List<T> removed, int unchanged)
+    {
+        this.added = Collections.unmodifiableList(added);
+        this.changed = Collections.unmodifiableList(changed);
+        this.removed = Collections.unmodifiableList(removed);
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * Gets a diff for a merge that had nothing to compare.
+     *
+     * @return an empty diff
+     */
+    public static <T> MergeDiff<T> empty()
+    {
+        return new MergeDiff<>(List.of(), List.of(), List.of(), 0);
+    }
+
+    /**
+     * Gets the rows that did not exist before.
+     *
+     * @return the added rows
+     */
+    public List<T> getAdded()
+    {
+        return added;
+    }
+
+    /**
+     * Gets the rows that differ from their stored version.
+     *
+     * @return the changed rows with their differing fields
+     */
+    public List<Change<T>> getChanged()
+    {
+        return changed;
+    }
+
+    /**
+     * Gets the rows that were removed.
+     *
+     * @return the removed rows
+     */
+    public List<T> getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * Gets the number of incoming rows that matched their stored version exactly.
+     *
+     * @return the unchanged row count
+     */
+    public int getUnchanged()
+    {
+        return unchanged;
+    }
+
+    /**
+     * Checks whether the merge changed anything.
+     *
+     * @return true if no row was added, changed or removed
+     */
+    public boolean isEmpty()
+    {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Returns a summary of the diff for logging.
+     *
+     * @return string containing the added, changed, removed and unchanged counts
+     */
+    @Override
+    public String toString()
+    {
+        return "MergeDiff{" +
+                "added=" + added.size() +
+                ", changed=" + changed.size() +
+                ", removed=" + removed.size() +
+                ", unchanged=" + unchanged +
+                '}';
+    }
+
+    /**
+     * Compares two versions of a row field by field.
+     *
+     * @param codec converts rows to their CSV fields
+     * @param before the earlier version
+     * @param after the later version
+     * @param <T> the model type
+     * @return the fields that differ, in header order; empty if the versions store the same
+     */
+    static <T> List<FieldChange> fieldChanges(RowCodec<T> codec, T before, T after)
+    {
+        Map<String, String> beforeRecord = codec.toRecord(before);
+        Map<String, String> afterRecord = codec.toRecord(after);
+        List<FieldChange> fields = new ArrayList<>();
+        for (String header : codec.headers())
+        {
+            String beforeValue = beforeRecord.get(header);
+            String afterValue = afterRecord.get(header);
+            if (!Objects.equals(blankToNull(beforeValue), blankToNull(afterValue)))
+            {
+                fields.add(new FieldChange(header, beforeValue, afterValue));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Treats empty CSV fields and missing fields alike, as a round trip through CSV does.
+     *
+     * @param value the field value
+     * @return the value, or null if it is empty
+     */
+    private static String blankToNull(String value)
+    {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Collects a diff by comparing each incoming row's stored version before and after the merge.
+     *
+     * @param <T> the model type being merged
+     */
+    public static final class Builder<T>
+    {
+        private final RowCodec<T> codec;
+        private final List<T> added = new ArrayList<>();
+        private final List<Change<T>> changed = new ArrayList<>();
+        private final List<T> removed = new ArrayList<>();
+        private int unchanged;
+
+        /**
+         * Constructs a builder that compares rows field by field.
+         *
+         * @param codec converts rows to their CSV fields
+         */
+        public Builder(RowCodec<T> codec)
+        {
+            this.codec = codec;
+        }
+
+        /**
+         * Compares a row's stored version with the version the merge will store.
+         *
+         * @param before the stored row, or null if the row is new
+         * @param after the row the merge will store
+         */
+        public void compare(T before, T after)
+        {
+            if (before == null)
+            {
+                added.add(after);
+                return;
+            }
+            if (before == after)
+            {
+                // Edited in place by the caller; there is no old version left to compare
+                changed.add(new Change<>(codec.idOf(after), before, after, List.of()));
+                return;
+            }
+
+            List<FieldChange> fields = fieldChanges(codec, before, after);
+            if (fields.isEmpty())
+            {
+                unchanged++;
+            }
+            else
+            {
+                changed.add(new Change<>(codec.idOf(after), before, after, List.copyOf(fields)));
+            }
+        }
+
+        /**
+         * Records a row the merge removes.
+         *
+         * @param row the removed row
+         */
+        public void removed(T row)
+        {
+            removed.add(row);
+        }
+
+        /**
+         * Builds the diff.
+         *
+         * @return the collected diff
+         */
+        public MergeDiff<T> build()
+        {
+            return new MergeDiff<>(added, changed, removed, unchanged);
+        }
+    }
+}
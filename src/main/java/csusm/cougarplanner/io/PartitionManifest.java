@@ -0,0 +1,219 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Small CSV index of the shards in a partitioned store (manifest.csv).
+ * Records the row count and content hash of every shard so unchanged shards are never rewritten,
+ * and the size and modification time each shard file had when it was written, so a shard can be
+ * trusted to still hold those rows without reading it again.
+ */
+public class PartitionManifest
+{
+    private static final String[] HEADERS = {"shard", "row_count", "content_hash", "size", "modified"};
+
+    private final Path manifestPath;
+    private final Map<String, Entry> entries;
+    // Stamps of the shard files as written; missing for shards listed by older manifests
+    private final Map<String, FileStamp> stamps;
+
+    /**
+     * One shard's manifest entry.
+     *
+     * @param rowCount number of rows in the shard
+     * @param contentHash hex SHA-256 of the shard's encoded rows
+     */
+    public record Entry(int rowCount, String contentHash) {}
+
+    /**
+     * Constructs an empty manifest stored at the given path.
+     *
+     * @param manifestPath the manifest file
+     */
+    private PartitionManifest(Path manifestPath)
+    {
+        this.manifestPath = manifestPath;
+        this.entries = new TreeMap<>();
+        this.stamps = new HashMap<>();
+    }
+
+    /**
+     * Loads a manifest, or returns an empty one if the file does not exist yet.
+     *
+     * @param manifestPath the manifest file
+     * @return the loaded manifest
+     * @throws IOException if the file exists but cannot be read
+     */
+    public static PartitionManifest load(Path manifestPath) throws IOException
+    {
+        PartitionManifest manifest = new PartitionManifest(manifestPath);
+        for (Map<String, String> record : new CsvReader().readAll(manifestPath))
+        {
+            String shard = record.get("shard");
+            if (shard == null || shard.isEmpty())
+            {
+                continue;
+            }
+            int rowCount;
+            try
+            {
+                rowCount = Integer.parseInt(record.getOrDefault("row_count", "0"));
+            }
+            catch (NumberFormatException e)
+            {
+                rowCount = 0;
+            }
+            manifest.entries.put(shard, new Entry(rowCount, record.getOrDefault("content_hash", "")));
+            try
+            {
+                long size = Long.parseLong(record.getOrDefault("size", ""));
+                long modified = Long.parseLong(record.getOrDefault("modified", ""));
+                manifest.stamps.put(shard, new FileStamp(modified, size, null));
+            }
+            catch (NumberFormatException e)
+            {
+                // Not stamped yet; the shard is checked by content once
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Gets the entry for a shard.
+     *
+     * @param shard the shard key
+     * @return the entry, or null if the shard is not listed
+     */
+    public Entry get(String shard)
+    {
+        return entries.get(shard);
+    }
+
+    /**
+     * Records the current row count and hash of a shard. The shard's stamp is dropped until the
+     * file holding the new rows is stamped.
+     *
+     * @param shard the shard key
+     * @param entry the shard's new entry
+     */
+    public void put(String shard, Entry entry)
+    {
+        entries.put(shard, entry);
+        stamps.remove(shard);
+    }
+
+    /**
+     * Gets the stamp the shard file had when it was written.
+     * Only the size and modification time are recorded; the file key is always null.
+     *
+     * @param shard the shard key
+     * @return the stamp, or null if the shard has not been stamped
+     */
+    public FileStamp getStamp(String shard)
+    {
+        return stamps.get(shard);
+    }
+
+    /**
+     * Records the stamp of the file that holds a shard's listed rows.
+     *
+     * @param shard the shard key
+     * @param stamp the file's stamp
+     */
+    public void putStamp(String shard, FileStamp stamp)
+    {
+        stamps.put(shard, stamp);
+    }
+
+    /**
+     * Removes a shard that no longer has any rows.
+     *
+     * @param shard the shard key
+     */
+    public void remove(String shard)
+    {
+        entries.remove(shard);
+        stamps.remove(shard);
+    }
+
+    /**
+     * Gets the total number of rows across all shards.
+     *
+     * @return the total row count
+     */
+    public long totalRows()
+    {
+        long total = 0;
+        for (Entry entry : entries.values())
+        {
+            total += entry.rowCount();
+        }
+        return total;
+    }
+
+    /**
+     * Writes the manifest back to disk.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException
+    {
+        save(null);
+    }
+
+    /**
+     * Writes the manifest back to disk, staged in a transaction if one is given.
+     *
+     * @param transaction the transaction to stage the manifest in, or null to write it directly
+     * @throws IOException if the file cannot be written
+     */
+    public void save(FileTransaction transaction) throws IOException
+    {
+        Iterable<Map<String, String>> records = () -> entries.entrySet().stream()
+                .map(e -> toRecord(e.getKey(), e.getValue(), stamps.get(e.getKey())))
+                .iterator();
+        if (transaction != null)
+        {
+            transaction.write(manifestPath, records, HEADERS);
+        }
+        else
+        {
+            // Only an index: a lost or stale manifest makes the next write check the shards themselves
+            new CsvWriter(CsvWriter.Durability.NONE).writeAll(manifestPath, records, HEADERS);
+        }
+    }
+
+    /**
+     * Converts a shard entry to a CSV record Map.
+     *
+     * @param shard the shard key
+     * @param entry the shard entry
+     * @param stamp the shard file's stamp, or null if it has none
+     * @return Map representing a CSV row
+     */
+    private static Map<String, String> toRecord(String shard, Entry entry, FileStamp stamp)
+    {
+        Map<String, String> record = new HashMap<>();
+        record.put("shard", shard);
+        record.put("row_count", String.valueOf(entry.rowCount()));
+        record.put("content_hash", entry.contentHash());
+        record.put("size", stamp != null ? String.valueOf(stamp.size()) : "");
+        record.put("modified", stamp != null ? String.valueOf(stamp.lastModifiedMillis()) : "");
+        return record;
+    }
+
+    /**
+     * Lists the shard keys in the manifest.
+     *
+     * @return shard keys in sorted order
+     */
+    public List<String> shards()
+    {
+        return List.copyOf(entries.keySet());
+    }
+}
@@ -0,0 +1,1107 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BinaryOperator;
+
+/**
+ * Stores dated rows sharded by calendar month and course under a data subdirectory,
+ * e.g. data/assignments/2025-10/12345.csv. Rows without a date go to undated/.
+ *
+ * Range queries only open the month directories that overlap the requested dates, so the cost
+ * of reading a week stays the same no matter how much history has accumulated. Each shard is
+ * kept sorted by date, and the shards of a month are merge-sorted when they are read.
+ *
+ * A manifest.csv next to the shards records each shard's row count and content hash. Upserts
+ * only rewrite shards whose hash changed, so syncing one course rewrites that course's files,
+ * and the changed shards are written in parallel.
+ *
+ * For histories too large to hold in memory, mergeExternal merges incoming rows through
+ * sorted spill files instead of the caller's in-memory copy of every row.
+ *
+ * @param <T> the model type stored in the shards
+ */
+public class PartitionedCsvStore<T>
+{
+    // Partition key for rows that have no usable date
+    static final String UNDATED_PARTITION = "undated";
+    private static final String SHARD_EXTENSION = ".csv";
+    private static final String MANIFEST_FILE = "manifest.csv";
+    // Sides of an external merge; stored rows sort before incoming rows with the same ID
+    private static final String STORED_SIDE = "0";
+    private static final String INCOMING_SIDE = "1";
+    // Sorts after every ISO date, so undated rows come last within a shard
+    private static final String UNDATED_SORT_KEY = "~";
+    // Shard row order: by date with undated rows last, then by ID
+    private static final Comparator<LocalDate> DATE_ORDER = Comparator.nullsLast(Comparator.naturalOrder());
+    private static final Comparator<String> ID_ORDER = Comparator.nullsLast(Comparator.naturalOrder());
+
+    private final Path directory;
+    private final Path legacyFile;
+    private final RowCodec<T> codec;
+    private final CsvReader csvReader;
+    private final CsvWriter csvWriter;
+    private final Comparator<T> shardOrder;
+
+    // Set once this process has checked for, and migrated, rows in older layouts
+    private final Object migrationLock = new Object();
+    private volatile boolean migrated;
+
+    /**
+     * Constructs a partitioned store.
+     *
+     * @param directory the directory that holds the month directories and the manifest
+     * @param legacyFile the single-file CSV this store replaces; migrated on first access
+     * @param codec converts between rows and model objects
+     */
+    public PartitionedCsvStore(Path directory, Path legacyFile, RowCodec<T> codec)
+    {
+        this.directory = directory;
+        this.legacyFile = legacyFile;
+        this.codec = codec;
+        this.csvReader = new CsvReader();
+        // Direct writes migrate rows out of files that are deleted next, so the renames must be on disk first
+        this.csvWriter = new CsvWriter(CsvWriter.Durability.FSYNC_FILE_AND_DIRECTORY);
+        this.shardOrder = Comparator.comparing(codec::dateOf, DATE_ORDER).thenComparing(codec::idOf, ID_ORDER);
+    }
+
+    /**
+     * Reads every row from every shard.
+     *
+     * @return List of all stored items
+     * @throws IOException if a shard cannot be read
+     */
+    public List<T> readAll() throws IOException
+    {
+        migrateLegacyFiles();
+
+        List<T> items = new ArrayList<>();
+        if (!Files.isDirectory(directory))
+        {
+            return items;
+        }
+
+        try (DirectoryStream<Path> partitions = Files.newDirectoryStream(directory, Files::isDirectory))
+        {
+            for (Path partition : partitions)
+            {
+                for (Path shard : listShards(partition))
+                {
+                    readShard(shard, items);
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Reads the rows of every shard in the months that overlap the date range.
+     * The shards of each month are merge-sorted, so the result is ordered by date.
+     * The shards hold whole months, so callers still filter the result by exact date.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return List of items from the overlapping months, ordered by date
+     * @throws IOException if a shard cannot be read
+     */
+    public List<T> readRange(LocalDate start, LocalDate end) throws IOException
+    {
+        migrateLegacyFiles();
+
+        List<T> items = new ArrayList<>();
+        YearMonth last = YearMonth.from(end);
+        for (YearMonth month = YearMonth.from(start); !month.isAfter(last); month = month.plusMonths(1))
+        {
+            List<List<T>> shards = new ArrayList<>();
+            for (Path shard : listShards(directory.resolve(month.toString())))
+            {
+                List<T> rows = new ArrayList<>();
+                readShard(shard, rows);
+                shards.add(rows);
+            }
+            mergeSorted(shards, items);
+        }
+        return items;
+    }
+
+    /**
+     * Stamps every file the store reads: the shards, the manifest and any files still waiting
+     * for migration. Comparing two stamps tells whether anything on disk changed in between.
+     *
+     * @return stamp of each file, keyed by path
+     * @throws IOException if the directory cannot be listed
+     */
+    public Map<Path, FileStamp> stamp() throws IOException
+    {
+        Map<Path, FileStamp> stamps = new HashMap<>();
+        if (!Files.isDirectory(directory))
+        {
+            if (legacyFile != null)
+            {
+                stamps.put(legacyFile, FileStamp.of(legacyFile));
+            }
+            return stamps;
+        }
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+        {
+            for (Path entry : entries)
+            {
+                if (Files.isDirectory(entry))
+                {
+                    for (Path shard : listShards(entry))
+                    {
+                        stamps.put(shard, FileStamp.of(shard));
+                    }
+                }
+                else if (entry.getFileName().toString().endsWith(SHARD_EXTENSION))
+                {
+                    stamps.put(entry, FileStamp.of(entry));
+                }
+            }
+        }
+        return stamps;
+    }
+
+    /**
+     * Checks whether the files a range query reads still match a stamp taken by stamp(): the shards
+     * of the months overlapping the range, and the manifest, which every write through the store
+     * rewrites. Only those files are stamped, so the check costs the same however many months are stored.
+     *
+     * @param stamp a stamp taken by stamp()
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return true if none of those files changed, appeared or disappeared since the stamp
+     * @throws IOException if a month directory cannot be listed
+     */
+    public boolean isUnchanged(Map<Path, FileStamp> stamp, LocalDate start, LocalDate end) throws IOException
+    {
+        if (!Files.isDirectory(directory))
+        {
+            // Not migrated yet; only the legacy file is stamped
+            return stamp.equals(stamp());
+        }
+
+        Path manifest = directory.resolve(MANIFEST_FILE);
+        if (!FileStamp.of(manifest).equals(stamp.getOrDefault(manifest, FileStamp.MISSING)))
+        {
+            return false;
+        }
+        Set<Path> months = new HashSet<>();
+        YearMonth last = YearMonth.from(end);
+        for (YearMonth month = YearMonth.from(start); !month.isAfter(last); month = month.plusMonths(1))
+        {
+            months.add(directory.resolve(month.toString()));
+        }
+        int stampedShards = 0;
+        for (Path shard : stamp.keySet())
+        {
+            if (months.contains(shard.getParent()))
+            {
+                stampedShards++;
+            }
+        }
+        int currentShards = 0;
+        for (Path month : months)
+        {
+            for (Path shard : listShards(month))
+            {
+                currentShards++;
+                if (!FileStamp.of(shard).equals(stamp.get(shard)))
+                {
+                    return false;
+                }
+            }
+        }
+        // Equal counts with every current shard stamped means no stamped shard was deleted
+        return currentShards == stampedShards;
+    }
+
+    /**
+     * Persists a change to the stored items, rewriting only the shards whose content changed.
+     * Callers pass the complete item set after the change plus the items the change touched:
+     * new and updated rows as well as the previous versions of rows that moved or were replaced.
+     *
+     * @param allItems every item the store should hold after the change
+     * @param touched items whose shards may have changed
+     * @throws IOException if the shards cannot be written
+     */
+    public void write(Collection<T> allItems, Collection<T> touched) throws IOException
+    {
+        write(allItems, touched, null);
+    }
+
+    /**
+     * Persists a change to the stored items as part of a transaction.
+     * The changed shards and the manifest are only staged; they replace the current files
+     * when the transaction commits.
+     *
+     * @param allItems every item the store should hold after the change
+     * @param touched items whose shards may have changed
+     * @param transaction the transaction to stage the files in, or null to write them directly
+     * @throws IOException if the shards cannot be written
+     */
+    public void write(Collection<T> allItems, Collection<T> touched, FileTransaction transaction) throws IOException
+    {
+        Set<String> dirtyShards = new HashSet<>();
+        for (T item : touched)
+        {
+            dirtyShards.add(shardKey(item));
+        }
+        writeShards(allItems, dirtyShards, transaction);
+    }
+
+    /**
+     * Merges incoming rows into the store without holding the stored rows in memory.
+     *
+     * Stored and incoming rows are sorted by ID into spill files, and a streaming sort-merge join
+     * combines each ID's stored row with its incoming rows. The merged rows are sorted again into
+     * shard order and written out one shard at a time, skipping shards whose content hash matches
+     * the manifest and deleting shards that end up empty. Apart from the sort buffers, only one
+     * shard (one course's month) is in memory at a time, however much history is stored.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param memoryBudget bytes of rows the merge may buffer before spilling, shared by its two sorts
+     * @param scope what the incoming rows cover completely; stored rows it covers that have no
+     *              incoming row are removed. Null to never remove rows
+     * @param transaction the transaction to stage the files in, or null to write them directly
+     * @return what the merge changed; nothing is written if it is empty
+     * @throws IOException if the shards or spill files cannot be read or written
+     */
+    public MergeDiff<T> mergeExternal(Collection<T> incoming, BinaryOperator<T> merge, long memoryBudget,
+                                      FetchScope scope, FileTransaction transaction) throws IOException
+    {
+        migrateLegacyFiles();
+
+        Path spillDirectory = CsvPaths.getSpillDirectory().resolve(directory.getFileName());
+        clearSpillDirectory(spillDirectory); // Runs left behind by an interrupted merge
+        String[] headers = codec.headers();
+        // Entries of the shards on disk, hashed as they are read for the join
+        Map<String, PartitionManifest.Entry> storedShards = new HashMap<>();
+        MergeDiff.Builder<T> diff = new MergeDiff.Builder<>(codec);
+
+        // Rows by ID, stored before incoming; the sort keeps each side's rows in their original order
+        Comparator<String[]> byId = Comparator.<String[], String>comparing(row -> row[0])
+                .thenComparing(row -> row[1]);
+        // Rows in the order a shard keeps them: shard, then date with undated last, then ID
+        Comparator<String[]> byShard = Comparator.<String[], String>comparing(row -> row[0])
+                .thenComparing(row -> row[1])
+                .thenComparing(row -> row[2]);
+
+        // The shard sort fills while the ID sort is drained, so both hold rows at once
+        long sortBudget = memoryBudget / 2;
+        try (ExternalSorter idSorter = new ExternalSorter(byId, sortBudget, spillDirectory);
+             ExternalSorter shardSorter = new ExternalSorter(byShard, sortBudget, spillDirectory))
+        {
+            if (Files.isDirectory(directory))
+            {
+                try (DirectoryStream<Path> partitions = Files.newDirectoryStream(directory, Files::isDirectory))
+                {
+                    for (Path partition : partitions)
+                    {
+                        for (Path shard : listShards(partition))
+                        {
+                            ShardHash hash = new ShardHash();
+                            csvReader.read(shard, record ->
+                            {
+                                hash.add(record);
+                                idSorter.add(sortRow(STORED_SIDE, codec.fromRecord(record), headers));
+                            });
+                            storedShards.put(shardKey(partition, shard), hash.entry());
+                        }
+                    }
+                }
+            }
+            for (T item : incoming)
+            {
+                idSorter.add(sortRow(INCOMING_SIDE, item, headers));
+            }
+
+            // Join: fold each ID's incoming rows into its stored row, as an in-memory upsert would
+            try (ExternalSorter.RowSource rows = idSorter.sorted())
+            {
+                String[] row = rows.next();
+                while (row != null)
+                {
+                    String id = row[0];
+                    T stored = null;
+                    T merged = null;
+                    boolean updated = false;
+                    for (; row != null && row[0].equals(id); row = rows.next())
+                    {
+                        T item = codec.fromRecord(recordOf(row, 2, headers));
+                        if (row[1].equals(STORED_SIDE))
+                        {
+                            stored = item; // A later duplicate wins, as when loading
+                            merged = item;
+                        }
+                        else
+                        {
+                            merged = merged == null ? item : merge.apply(merged, item);
+                            updated = true;
+                        }
+                    }
+                    if (updated)
+                    {
+                        diff.compare(stored, merged);
+                    }
+                    else if (scope != null && scope.covers(codec.courseOf(stored), codec.dateOf(stored)))
+                    {
+                        diff.removed(stored); // Deleted upstream
+                        continue;
+                    }
+
+                    LocalDate date = codec.dateOf(merged);
+                    String[] shardRow = new String[headers.length + 3];
+                    shardRow[0] = shardKey(merged);
+                    shardRow[1] = date != null ? date.toString() : UNDATED_SORT_KEY;
+                    shardRow[2] = id;
+                    writeFields(codec.toRecord(merged), headers, shardRow, 3);
+                    shardSorter.add(shardRow);
+                }
+            }
+
+            MergeDiff<T> result = diff.build();
+            if (result.isEmpty())
+            {
+                return result; // Everything incoming is already stored
+            }
+
+            Files.createDirectories(directory);
+            PartitionManifest manifest = PartitionManifest.load(directory.resolve(MANIFEST_FILE));
+            boolean manifestChanged = false;
+            try (ExternalSorter.RowSource rows = shardSorter.sorted())
+            {
+                String[] row = rows.next();
+                while (row != null)
+                {
+                    String key = row[0];
+                    List<Map<String, String>> records = new ArrayList<>();
+                    for (; row != null && row[0].equals(key); row = rows.next())
+                    {
+                        records.add(recordOf(row, 3, headers));
+                    }
+                    PartitionManifest.Entry onDisk = storedShards.remove(key);
+
+                    PartitionManifest.Entry entry = manifestEntry(records);
+                    Path shard = shardPath(key);
+                    if (!entry.equals(manifest.get(key)))
+                    {
+                        manifest.put(key, entry);
+                        manifestChanged = true;
+                    }
+                    if (entry.equals(onDisk))
+                    {
+                        // Unchanged shard; just read, so its current stamp is known to go with these rows
+                        FileStamp stamp = FileStamp.of(shard);
+                        if (!sameFile(manifest.getStamp(key), stamp))
+                        {
+                            manifest.putStamp(key, stamp);
+                            manifestChanged = true;
+                        }
+                        continue;
+                    }
+                    manifest.putStamp(key, writeShard(shard, records, transaction));
+                    manifestChanged = true;
+                }
+            }
+
+            // Shards whose rows all moved elsewhere
+            for (String key : storedShards.keySet())
+            {
+                if (transaction != null)
+                {
+                    transaction.delete(shardPath(key));
+                }
+                else
+                {
+                    Files.deleteIfExists(shardPath(key));
+                }
+                if (manifest.get(key) != null)
+                {
+                    manifest.remove(key);
+                    manifestChanged = true;
+                }
+            }
+            if (manifestChanged)
+            {
+                manifest.save(transaction);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Gets the partition key for a date.
+     *
+     * @param date the row date, or null
+     * @return the year-month key (YYYY-MM), or "undated" if the date is null
+     */
+    static String partitionKey(LocalDate date)
+    {
+        return date != null ? YearMonth.from(date).toString() : UNDATED_PARTITION;
+    }
+
+    /**
+     * Gets the shard key of an item: its month partition and course, e.g. "2025-10/12345".
+     *
+     * @param item the item to route
+     * @return the shard key
+     */
+    private String shardKey(T item)
+    {
+        return partitionKey(codec.dateOf(item)) + "/" + courseFileName(codec.courseOf(item));
+    }
+
+    /**
+     * Converts a course ID into a safe file name. An ID that had to be changed gets a suffix
+     * of its hash after a dot, which a safe ID never contains, so distinct courses never share a shard.
+     *
+     * @param courseId the course ID
+     * @return the file name stem for the course's shards
+     */
+    static String courseFileName(String courseId)
+    {
+        if (courseId == null || courseId.isBlank())
+        {
+            return "_none";
+        }
+        String trimmed = courseId.trim();
+        String safe = trimmed.replaceAll("[^A-Za-z0-9_-]", "_");
+        if (safe.equals(trimmed))
+        {
+            return safe;
+        }
+        return safe + "." + HexFormat.of().formatHex(sha256().digest(trimmed.getBytes(StandardCharsets.UTF_8)), 0, 8);
+    }
+
+    /**
+     * Gets the shard key of a shard file from its month directory and file name.
+     *
+     * @param partition the month directory
+     * @param shard the shard file
+     * @return the shard key, e.g. "2025-10/12345"
+     */
+    private static String shardKey(Path partition, Path shard)
+    {
+        String fileName = shard.getFileName().toString();
+        return partition.getFileName() + "/" + fileName.substring(0, fileName.length() - SHARD_EXTENSION.length());
+    }
+
+    /**
+     * Rewrites the given shards from the full item set.
+     * Shards whose content hash matches the manifest, and whose file still has the stamp the
+     * manifest recorded, are skipped; shards that end up empty are deleted, and the remaining
+     * shards are written in parallel.
+     *
+     * @param items every stored item
+     * @param shardKeys keys of the shards that may have changed
+     * @param transaction the transaction to stage the files in, or null to write them directly
+     * @throws IOException if a shard cannot be written
+     */
+    private void writeShards(Collection<T> items, Set<String> shardKeys, FileTransaction transaction) throws IOException
+    {
+        Map<String, List<T>> grouped = new HashMap<>();
+        for (T item : items)
+        {
+            String key = shardKey(item);
+            if (shardKeys.contains(key))
+            {
+                grouped.computeIfAbsent(key, k -> new ArrayList<>()).add(item);
+            }
+        }
+
+        Files.createDirectories(directory);
+        PartitionManifest manifest = PartitionManifest.load(directory.resolve(MANIFEST_FILE));
+        List<Callable<Void>> writes = new ArrayList<>();
+        Map<String, FileStamp> written = new ConcurrentHashMap<>();
+        boolean manifestChanged = false;
+
+        for (String key : shardKeys)
+        {
+            List<T> rows = grouped.get(key);
+            if (rows == null)
+            {
+                if (transaction != null)
+                {
+                    transaction.delete(shardPath(key));
+                }
+                else
+                {
+                    Files.deleteIfExists(shardPath(key));
+                }
+                if (manifest.get(key) != null)
+                {
+                    manifest.remove(key);
+                    manifestChanged = true;
+                }
+                continue;
+            }
+
+            // A fixed order keeps the content hash stable and lets reads merge-sort shards
+            rows.sort(shardOrder);
+            List<Map<String, String>> records = new ArrayList<>(rows.size());
+            for (T row : rows)
+            {
+                records.add(codec.toRecord(row));
+            }
+
+            PartitionManifest.Entry entry = manifestEntry(records);
+            Path shard = shardPath(key);
+            if (entry.equals(manifest.get(key)))
+            {
+                // The file is only read when its stamp moved since it was written, e.g. after a hand edit
+                FileStamp stamp = FileStamp.of(shard);
+                if (sameFile(manifest.getStamp(key), stamp))
+                {
+                    continue; // Unchanged shard
+                }
+                if (entry.equals(manifestEntryOnDisk(shard)))
+                {
+                    manifest.putStamp(key, stamp);
+                    manifestChanged = true;
+                    continue; // Unchanged shard, stamped for next time
+                }
+            }
+
+            manifest.put(key, entry);
+            manifestChanged = true;
+            writes.add(() ->
+            {
+                written.put(key, writeShard(shard, records, transaction));
+                return null;
+            });
+        }
+
+        IoExecutors.runAll(IoExecutors.shardWriters(), writes);
+        written.forEach(manifest::putStamp);
+        if (manifestChanged)
+        {
+            manifest.save(transaction);
+        }
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     *
+     * @return a new digest
+     */
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Computes the manifest entry of a shard's encoded rows: their count and SHA-256 content hash.
+     *
+     * @param records the shard rows in file order
+     * @return the entry
+     */
+    private PartitionManifest.Entry manifestEntry(List<Map<String, String>> records)
+    {
+        ShardHash hash = new ShardHash();
+        for (Map<String, String> record : records)
+        {
+            hash.add(record);
+        }
+        return hash.entry();
+    }
+
+    /**
+     * Writes one shard, directly or staged in a transaction.
+     * Publishing renames the staged file, which keeps its size and modification time,
+     * so the staged file's stamp is the one the shard will have.
+     *
+     * @param shard the shard file
+     * @param records the shard rows in file order
+     * @param transaction the transaction to stage the file in, or null to write it directly
+     * @return the stamp of the written file
+     * @throws IOException if the shard cannot be written
+     */
+    private FileStamp writeShard(Path shard, List<Map<String, String>> records, FileTransaction transaction) throws IOException
+    {
+        Files.createDirectories(shard.getParent());
+        if (transaction == null)
+        {
+            csvWriter.writeAll(shard, records, codec.headers());
+            return FileStamp.of(shard);
+        }
+        FileStamp[] stamp = new FileStamp[1];
+        transaction.write(shard, staged ->
+        {
+            csvWriter.prepare(staged, records, codec.headers());
+            stamp[0] = FileStamp.of(staged);
+        });
+        return stamp[0];
+    }
+
+    /**
+     * Checks whether a shard file still has the stamp recorded when it was written.
+     * Compares size and modification time only; the manifest does not keep file keys.
+     *
+     * @param recorded the stamp from the manifest, or null if there is none
+     * @param current the file's current stamp
+     * @return true if the file was not changed since it was stamped
+     */
+    private static boolean sameFile(FileStamp recorded, FileStamp current)
+    {
+        return recorded != null && !current.equals(FileStamp.MISSING)
+                && recorded.size() == current.size()
+                && recorded.lastModifiedMillis() == current.lastModifiedMillis();
+    }
+
+    /**
+     * Computes the manifest entry of the shard file on disk. Used when the file's stamp no longer
+     * matches the manifest, so a shard is only skipped when the file itself holds the rows.
+     *
+     * @param shard the shard file
+     * @return the entry, or null if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    private PartitionManifest.Entry manifestEntryOnDisk(Path shard) throws IOException
+    {
+        if (!Files.exists(shard))
+        {
+            return null;
+        }
+        ShardHash hash = new ShardHash();
+        csvReader.read(shard, hash::add);
+        return hash.entry();
+    }
+
+    /**
+     * K-way merges date-ordered shards into one date-ordered list.
+     *
+     * @param shards rows of each shard, each already ordered by date
+     * @param out list to append the merged rows to
+     */
+    private void mergeSorted(List<List<T>> shards, List<T> out)
+    {
+        if (shards.size() == 1)
+        {
+            out.addAll(shards.get(0));
+            return;
+        }
+
+        PriorityQueue<PeekingCursor<T>> heads = new PriorityQueue<>(PeekingCursor::compareTo);
+        for (List<T> shard : shards)
+        {
+            if (!shard.isEmpty())
+            {
+                heads.add(new PeekingCursor<>(shard));
+            }
+        }
+
+        while (!heads.isEmpty())
+        {
+            PeekingCursor<T> head = heads.poll();
+            out.add(head.next());
+            if (head.hasNext())
+            {
+                heads.add(head);
+            }
+        }
+    }
+
+    /**
+     * Lists the shard files in a month directory.
+     *
+     * @param partition the month directory
+     * @return the shard files, empty if the directory does not exist
+     * @throws IOException if the directory cannot be listed
+     */
+    private List<Path> listShards(Path partition) throws IOException
+    {
+        List<Path> shards = new ArrayList<>();
+        if (!Files.isDirectory(partition))
+        {
+            return shards;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(partition, "*" + SHARD_EXTENSION))
+        {
+            for (Path shard : stream)
+            {
+                shards.add(shard);
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Reads one shard file and appends its rows.
+     *
+     * @param shard the shard file
+     * @param items list to append the decoded rows to
+     * @throws IOException if the file cannot be read
+     */
+    private void readShard(Path shard, List<T> items) throws IOException
+    {
+        for (Map<String, String> record : csvReader.readAll(shard))
+        {
+            items.add(codec.fromRecord(record));
+        }
+    }
+
+    /**
+     * Moves rows from older layouts into shards the first time the store is used in a process:
+     * the original single-file CSV, and month files (YYYY-MM.csv) written directly into the
+     * store directory before rows were sharded by course.
+     *
+     * The old files are removed only after the shards are written, the single-file CSV last, so a
+     * migration cut short by a crash is simply run again. Rows already in a shard win over the old
+     * files' copies, since the app may have written them after the interrupted run.
+     *
+     * Rows are also moved out of shards named before course IDs that needed sanitizing got a hash suffix,
+     * when such a shard held rows of several courses.
+     *
+     * @throws IOException if an old file cannot be read or the shards cannot be written
+     */
+    private void migrateLegacyFiles() throws IOException
+    {
+        if (migrated)
+        {
+            return;
+        }
+        synchronized (migrationLock)
+        {
+            if (migrated)
+            {
+                return;
+            }
+
+            List<Path> sources = new ArrayList<>();
+            if (legacyFile != null && Files.exists(legacyFile))
+            {
+                sources.add(legacyFile);
+            }
+            List<Path> partitions = new ArrayList<>();
+            if (Files.isDirectory(directory))
+            {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+                {
+                    for (Path entry : stream)
+                    {
+                        if (Files.isDirectory(entry))
+                        {
+                            partitions.add(entry);
+                        }
+                        else if (entry.getFileName().toString().endsWith(SHARD_EXTENSION)
+                                && !entry.getFileName().toString().equals(MANIFEST_FILE))
+                        {
+                            sources.add(entry);
+                        }
+                    }
+                }
+            }
+
+            if (!sources.isEmpty())
+            {
+                // Month files were written after the single file, so their rows win over its copies
+                Map<String, T> legacyItems = new LinkedHashMap<>();
+                for (Path source : sources)
+                {
+                    for (Map<String, String> record : csvReader.readAll(source))
+                    {
+                        T item = codec.fromRecord(record);
+                        legacyItems.put(codec.idOf(item), item);
+                    }
+                }
+
+                // Left by an interrupted migration and possibly updated since; those rows are kept as they are
+                Map<String, List<T>> storedByShard = new HashMap<>();
+                for (Path partition : partitions)
+                {
+                    for (Path shard : listShards(partition))
+                    {
+                        List<T> rows = new ArrayList<>();
+                        readShard(shard, rows);
+                        for (T row : rows)
+                        {
+                            legacyItems.remove(codec.idOf(row));
+                            storedByShard.computeIfAbsent(shardKey(row), k -> new ArrayList<>()).add(row);
+                        }
+                    }
+                }
+
+                Set<String> shardKeys = new HashSet<>();
+                List<T> items = new ArrayList<>(legacyItems.values());
+                for (T item : legacyItems.values())
+                {
+                    shardKeys.add(shardKey(item));
+                }
+                for (String key : shardKeys)
+                {
+                    items.addAll(storedByShard.getOrDefault(key, List.of()));
+                }
+                writeShards(items, shardKeys, null);
+
+                for (Path source : sources)
+                {
+                    if (!source.equals(legacyFile))
+                    {
+                        Files.delete(source);
+                    }
+                }
+                if (sources.contains(legacyFile))
+                {
+                    // Last, since its presence is what makes the next start finish an interrupted migration
+                    Files.move(legacyFile, legacyFile.resolveSibling(legacyFile.getFileName() + ".migrated"),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            rehomeShards(partitions);
+            migrated = true;
+        }
+    }
+
+    /**
+     * Moves rows out of shards that hold rows belonging to other shard keys. Only shards that the
+     * old course file naming could have shared are read: those with an underscore in their name
+     * and no hash suffix. Written directly, like the rest of the migration; a run cut short leaves
+     * copies in both shards, and the next run keeps one of each.
+     *
+     * @param partitions the month directories
+     * @throws IOException if a shard cannot be read or written
+     */
+    private void rehomeShards(List<Path> partitions) throws IOException
+    {
+        Map<String, List<T>> rowsByShard = new HashMap<>();
+        Set<String> shardKeys = new HashSet<>();
+        for (Path partition : partitions)
+        {
+            for (Path shard : listShards(partition))
+            {
+                String key = shardKey(partition, shard);
+                String stem = key.substring(key.indexOf('/') + 1);
+                if (!stem.contains("_") || stem.contains("."))
+                {
+                    continue;
+                }
+                List<T> rows = new ArrayList<>();
+                readShard(shard, rows);
+                rowsByShard.put(key, rows);
+                for (T row : rows)
+                {
+                    if (!shardKey(row).equals(key))
+                    {
+                        shardKeys.add(key);
+                        shardKeys.add(shardKey(row));
+                    }
+                }
+            }
+        }
+        if (shardKeys.isEmpty())
+        {
+            return;
+        }
+
+        // One copy per ID; rows already in their own shard win over the misplaced copies
+        Map<String, T> items = new LinkedHashMap<>();
+        for (String key : shardKeys)
+        {
+            List<T> rows = rowsByShard.get(key);
+            if (rows == null)
+            {
+                rows = new ArrayList<>();
+                if (Files.exists(shardPath(key)))
+                {
+                    readShard(shardPath(key), rows);
+                }
+            }
+            for (T row : rows)
+            {
+                String id = codec.idOf(row);
+                if (shardKey(row).equals(key) || !items.containsKey(id))
+                {
+                    items.put(id, row);
+                }
+            }
+        }
+        writeShards(items.values(), shardKeys, null);
+    }
+
+    /**
+     * Encodes an item as a row for the ID sort: its ID, which side it came from, then its fields.
+     *
+     * @param side STORED_SIDE or INCOMING_SIDE
+     * @param item the item to encode
+     * @param headers the columns to encode, in order
+     * @return the sort row
+     */
+    private String[] sortRow(String side, T item, String[] headers)
+    {
+        String id = codec.idOf(item);
+        String[] row = new String[headers.length + 2];
+        row[0] = id != null ? id : "";
+        row[1] = side;
+        writeFields(codec.toRecord(item), headers, row, 2);
+        return row;
+    }
+
+    /**
+     * Copies a record's fields into a sort row in header order.
+     *
+     * @param record the record to copy
+     * @param headers the columns to copy, in order
+     * @param row the sort row to fill
+     * @param offset index of the first field in the row
+     */
+    private static void writeFields(Map<String, String> record, String[] headers, String[] row, int offset)
+    {
+        for (int i = 0; i < headers.length; i++)
+        {
+            row[offset + i] = record.get(headers[i]);
+        }
+    }
+
+    /**
+     * Decodes the fields of a sort row back into a record.
+     *
+     * @param row the sort row
+     * @param offset index of the first field in the row
+     * @param headers the columns the fields belong to, in order
+     * @return the record
+     */
+    private static Map<String, String> recordOf(String[] row, int offset, String[] headers)
+    {
+        Map<String, String> record = new HashMap<>();
+        for (int i = 0; i < headers.length; i++)
+        {
+            if (row[offset + i] != null)
+            {
+                record.put(headers[i], row[offset + i]);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Deletes the run files in a spill directory.
+     *
+     * @param spillDirectory the directory to clear
+     * @throws IOException if the directory cannot be listed or a file cannot be deleted
+     */
+    private static void clearSpillDirectory(Path spillDirectory) throws IOException
+    {
+        if (!Files.isDirectory(spillDirectory))
+        {
+            return;
+        }
+        try (DirectoryStream<Path> runs = Files.newDirectoryStream(spillDirectory))
+        {
+            for (Path run : runs)
+            {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * Gets the file path of a shard.
+     *
+     * @param key the shard key (partition/course)
+     * @return path to the shard's CSV file
+     */
+    private Path shardPath(String key)
+    {
+        return directory.resolve(key + SHARD_EXTENSION);
+    }
+
+    /**
+     * Row count and SHA-256 content hash of a shard, computed as its rows stream past.
+     */
+    private final class ShardHash
+    {
+        private final MessageDigest digest = sha256();
+        private int rowCount;
+
+        void add(Map<String, String> record)
+        {
+            for (String header : codec.headers())
+            {
+                String value = record.get(header);
+                digest.update((value != null ? value : "").getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0x1F); // Unit separator between fields
+            }
+            digest.update((byte) 0x1E); // Record separator between rows
+            rowCount++;
+        }
+
+        PartitionManifest.Entry entry()
+        {
+            return new PartitionManifest.Entry(rowCount, HexFormat.of().formatHex(digest.digest()));
+        }
+    }
+
+    /**
+     * Cursor over a shard's rows that can look at its next row without consuming it.
+     * The date and ID of the next row are resolved once per row for comparisons.
+     *
+     * @param <E> the row type
+     */
+    private final class PeekingCursor<E extends T> implements Comparable<PeekingCursor<E>>
+    {
+        private final List<E> list;
+        private int position;
+        private LocalDate headDate;
+        private String headId;
+
+        PeekingCursor(List<E> list)
+        {
+            this.list = list;
+            resolveHead();
+        }
+
+        E peek()
+        {
+            return list.get(position);
+        }
+
+        E next()
+        {
+            E row = list.get(position++);
+            resolveHead();
+            return row;
+        }
+
+        boolean hasNext()
+        {
+            return position < list.size();
+        }
+
+        private void resolveHead()
+        {
+            if (hasNext())
+            {
+                headDate = codec.dateOf(list.get(position));
+                headId = codec.idOf(list.get(position));
+            }
+        }
+
+        @Override
+        public int compareTo(PeekingCursor<E> other)
+        {
+            int dateCompare = DATE_ORDER.compare(headDate, other.headDate);
+            return dateCompare != 0 ? dateCompare : ID_ORDER.compare(headId, other.headId);
+        }
+    }
+}
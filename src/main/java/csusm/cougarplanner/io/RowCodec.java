@@ -0,0 +1,84 @@
+package csusm.cougarplanner.io;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Map;
+
+/**
+ * Describes how a model object is stored as a CSV row.
+ * Lets the partitioned store route, read and write rows without knowing the model type.
+ *
+ * @param <T> the model type stored in the rows (e.g., Assignment, Announcement)
+ */
+public interface RowCodec<T>
+{
+    /**
+     * Gets the CSV column headers in file order.
+     *
+     * @return the column headers
+     */
+    String[] headers();
+
+    /**
+     * Gets the unique identifier of an item.
+     *
+     * @param item the item to identify
+     * @return the item's ID
+     */
+    String idOf(T item);
+
+    /**
+     * Gets the course an item belongs to.
+     *
+     * @param item the item to look up
+     * @return the item's course ID
+     */
+    String courseOf(T item);
+
+    /**
+     * Gets the date an item belongs to (due date, posting date).
+     *
+     * @param item the item to date
+     * @return the item's date, or null if it has none
+     */
+    LocalDate dateOf(T item);
+
+    /**
+     * Gets the time of day that goes with the item's date (due time, posting time).
+     *
+     * @param item the item to look up
+     * @return the item's time, or null if it has none
+     */
+    default LocalTime timeOf(T item)
+    {
+        return null;
+    }
+
+    /**
+     * Converts a CSV record Map to a model object.
+     *
+     * @param record Map representing a CSV row with snake_case keys
+     * @return the model object populated from the CSV data
+     */
+    T fromRecord(Map<String, String> record);
+
+    /**
+     * Converts a model object to a CSV record Map.
+     *
+     * @param item the model object to convert
+     * @return Map representing a CSV row with snake_case keys
+     */
+    Map<String, String> toRecord(T item);
+
+    /**
+     * Copies an item, so a cache can hand out rows that callers may change without changing the cache.
+     * The default goes through a record; codecs of hot types can copy the fields directly.
+     *
+     * @param item the item to copy
+     * @return an equal item that shares no mutable state with the original
+     */
+    default T copy(T item)
+    {
+        return fromRecord(toRecord(item));
+    }
+}
@@ -0,0 +1,70 @@
+package csusm.cougarplanner.io;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds the storage backend a repository shares across all of its instances.
+ * The backend is created on first use instead of when the repository class loads, so a
+ * configuration or storage failure surfaces from the call that needed the backend, and is
+ * retried by the next one, rather than as an ExceptionInInitializerError.
+ * Tests can replace the backend with their own.
+ *
+ * @param <T> the row type
+ */
+final class SharedBackend<T>
+{
+    private final Supplier<StorageBackend<T>> factory;
+    private StorageBackend<T> backend;
+
+    /**
+     * Constructs a holder and routes the watcher's invalidations for an entity type to its backend.
+     *
+     * @param type the entity type the backend stores
+     * @param factory creates the backend on first use
+     */
+    SharedBackend(EntityType type, Supplier<StorageBackend<T>> factory)
+    {
+        this.factory = factory;
+        DataDirectoryWatcher.getInstance().registerCache(type, this::invalidate);
+    }
+
+    /**
+     * Gets the backend, creating it if this is the first use.
+     *
+     * @return the shared backend
+     */
+    synchronized StorageBackend<T> get()
+    {
+        if (backend == null)
+        {
+            backend = factory.get();
+        }
+        return backend;
+    }
+
+    /**
+     * Replaces the backend.
+     *
+     * @param replacement the backend to use from now on, or null to create one from the factory on next use
+     */
+    synchronized void replace(StorageBackend<T> replacement)
+    {
+        backend = replacement;
+    }
+
+    /**
+     * Invalidates the backend if it has been created; one that does not exist yet has nothing cached.
+     */
+    private void invalidate()
+    {
+        StorageBackend<T> current;
+        synchronized (this)
+        {
+            current = backend;
+        }
+        if (current != null)
+        {
+            current.invalidate();
+        }
+    }
+}
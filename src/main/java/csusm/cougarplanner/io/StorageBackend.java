@@ -0,0 +1,218 @@
+package csusm.cougarplanner.io;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BinaryOperator;
+
+/**
+ * Persists the rows of one entity type on behalf of a repository.
+ * Repositories keep the model-specific parts (codecs, merge rules) and delegate queries and
+ * upserts to a backend, so the storage format can change without touching them.
+ *
+ * The CSV backends ({@link IndexedTable} over partitioned CSVs, {@link CachedCsvFile} over a single
+ * CSV) are the default. {@link EmbeddedStore} keeps the rows in one log-structured file with date
+ * and course indexes and is chosen through {@link StorageKind}.
+ *
+ * Every write joins a {@link FileTransaction}; the overloads without one run in a transaction of their own.
+ *
+ * @param <T> the model type stored by the backend
+ */
+public interface StorageBackend<T>
+{
+    /**
+     * Gets every stored row.
+     *
+     * @return List of all rows
+     * @throws IOException if the rows cannot be read
+     */
+    List<T> findAll() throws IOException;
+
+    /**
+     * Gets every row dated within the range, ordered by date, including archived rows.
+     *
+     * @param start the first date of the range (inclusive)
+     * @param end the last date of the range (inclusive)
+     * @return the matching rows
+     * @throws IOException if the rows cannot be read
+     */
+    List<T> findRange(LocalDate start, LocalDate end) throws IOException;
+
+    /**
+     * Gets every row dated on the given day, including archived rows.
+     *
+     * @param day the day to look up
+     * @return the matching rows
+     * @throws IOException if the rows cannot be read
+     */
+    default List<T> findDay(LocalDate day) throws IOException
+    {
+        return findRange(day, day);
+    }
+
+    /**
+     * Gets every stored row of a course.
+     *
+     * @param courseId the course to look up
+     * @return the course's rows
+     * @throws IOException if the rows cannot be read
+     */
+    List<T> findByCourse(String courseId) throws IOException;
+
+    /**
+     * Inserts or replaces rows by ID in a transaction of its own, which is skipped when nothing differs.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @return what the upsert changed
+     * @throws IOException if the rows cannot be read or written
+     */
+    default MergeDiff<T> upsertAll(Collection<T> incoming, BinaryOperator<T> merge) throws IOException
+    {
+        try (FileTransaction transaction = FileTransaction.begin())
+        {
+            MergeDiff<T> diff = upsertAll(incoming, merge, transaction);
+            if (!diff.isEmpty())
+            {
+                transaction.commit();
+            }
+            return diff;
+        }
+    }
+
+    /**
+     * Inserts or replaces rows by ID as part of a transaction.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param transaction the transaction to stage the changes in
+     * @return what the upsert changed
+     * @throws IOException if the rows cannot be read or the changes cannot be staged
+     */
+    default MergeDiff<T> upsertAll(Collection<T> incoming, BinaryOperator<T> merge,
+                                   FileTransaction transaction) throws IOException
+    {
+        return upsertAll(incoming, merge, null, transaction);
+    }
+
+    /**
+     * Inserts or replaces rows by ID as part of a transaction, removing stored rows that the
+     * fetch scope covers but the incoming rows no longer contain.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param scope what the incoming rows cover completely, or null to never remove rows
+     * @param transaction the transaction to stage the changes in
+     * @return what the upsert changed, including the removed rows
+     * @throws IOException if the rows cannot be read or the changes cannot be staged
+     */
+    MergeDiff<T> upsertAll(Collection<T> incoming, BinaryOperator<T> merge, FetchScope scope,
+                           FileTransaction transaction) throws IOException;
+
+    /**
+     * Upserts with a bounded amount of memory in a transaction of its own.
+     * Backends that never hold every row in memory simply upsert.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param memoryBudget bytes of rows the merge may buffer before spilling
+     * @return what the upsert changed
+     * @throws IOException if the rows cannot be read or written
+     */
+    default MergeDiff<T> upsertAllExternal(Collection<T> incoming, BinaryOperator<T> merge,
+                                           long memoryBudget) throws IOException
+    {
+        return upsertAll(incoming, merge);
+    }
+
+    /**
+     * Upserts with a bounded amount of memory as part of a transaction.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param memoryBudget bytes of rows the merge may buffer before spilling
+     * @param transaction the transaction to stage the changes in
+     * @return what the upsert changed
+     * @throws IOException if the rows cannot be read or the changes cannot be staged
+     */
+    default MergeDiff<T> upsertAllExternal(Collection<T> incoming, BinaryOperator<T> merge, long memoryBudget,
+                                           FileTransaction transaction) throws IOException
+    {
+        return upsertAllExternal(incoming, merge, memoryBudget, null, transaction);
+    }
+
+    /**
+     * Upserts with a bounded amount of memory as part of a transaction, removing stored rows
+     * that the fetch scope covers but the incoming rows no longer contain.
+     *
+     * @param incoming rows to insert or update
+     * @param merge combines (existing, incoming) into the row to store when the ID already exists
+     * @param memoryBudget bytes of rows the merge may buffer before spilling
+     * @param scope what the incoming rows cover completely, or null to never remove rows
+     * @param transaction the transaction to stage the changes in
+     * @return what the upsert changed, including the removed rows
+     * @throws IOException if the rows cannot be read or the changes cannot be staged
+     */
+    default MergeDiff<T> upsertAllExternal(Collection<T> incoming, BinaryOperator<T> merge, long memoryBudget,
+                                           FetchScope scope, FileTransaction transaction) throws IOException
+    {
+        return upsertAll(incoming, merge, scope, transaction);
+    }
+
+    /**
+     * Moves every row dated before the cutoff into the archive, in a transaction of its own.
+     *
+     * @param cutoff the first date that stays in the backend
+     * @return the number of rows archived
+     * @throws IOException if the rows cannot be read or written
+     */
+    default int archiveBefore(LocalDate cutoff) throws IOException
+    {
+        try (FileTransaction transaction = FileTransaction.begin())
+        {
+            int archived = archiveBefore(cutoff, transaction);
+            if (archived > 0)
+            {
+                transaction.commit();
+            }
+            return archived;
+        }
+    }
+
+    /**
+     * Moves every row dated before the cutoff into the archive as part of a transaction.
+     * Backends without an archive keep every row.
+     *
+     * @param cutoff the first date that stays in the backend
+     * @param transaction the transaction to stage the changes in
+     * @return the number of rows archived
+     * @throws IOException if the rows cannot be read or the changes cannot be staged
+     */
+    default int archiveBefore(LocalDate cutoff, FileTransaction transaction) throws IOException
+    {
+        return 0;
+    }
+
+    /**
+     * Writes whatever the backend keeps to start up faster. Does nothing for backends that keep nothing.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    default void writeSnapshot() throws IOException
+    {
+    }
+
+    /**
+     * Marks the stored rows as possibly changed outside this backend.
+     * Called by the data directory watcher.
+     */
+    void invalidate();
+
+    /**
+     * Gets the hit, miss and reload counters of the backend's in-memory state.
+     *
+     * @return the cache statistics
+     */
+    CacheStats getCacheStats();
+}
@@ -0,0 +1,25 @@
+package csusm.cougarplanner.io;
+
+/**
+ * The storage formats a repository can keep its rows in.
+ * Chosen once per process through the cougarplanner.storage system property ("csv" or "embedded").
+ */
+public enum StorageKind
+{
+    // CSV files in the data directory, readable and editable by hand
+    CSV,
+    // One log-structured file per entity type under data/store, with date and course indexes
+    EMBEDDED;
+
+    private static final String PROPERTY = "cougarplanner.storage";
+
+    /**
+     * Gets the storage format configured for this process.
+     *
+     * @return EMBEDDED if the property asks for it, otherwise CSV
+     */
+    public static StorageKind configured()
+    {
+        return "embedded".equalsIgnoreCase(System.getProperty(PROPERTY, "").trim()) ? EMBEDDED : CSV;
+    }
+}
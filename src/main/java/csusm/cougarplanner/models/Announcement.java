@@ -10,6 +10,8 @@ public class Announcement
     private String title;
     private String posted_at;
     private String body;
+    private long body_offset = -1;
+    private int body_length;
 
     /**
      * Default constructor for CSV reading and object creation.
@@ -117,7 +119,9 @@ public class Announcement
     }
 
     /**
-     * Gets the announcement body content.
+     * Gets the announcement body content held in memory.
+     * Bodies of stored announcements live in the body store and are null here;
+     * see AnnouncementsRepository.loadBody.
      *
      * @return the body content, which may be null or empty
      */
@@ -136,6 +140,56 @@ public class Announcement
         this.body = body;
     }
 
+    /**
+     * Gets the offset of the compressed body in the body store.
+     *
+     * @return the body offset, or -1 if the body is not in the body store
+     */
+    public long getBodyOffset()
+    {
+        return body_offset;
+    }
+
+    /**
+     * Sets the offset of the compressed body in the body store.
+     *
+     * @param body_offset the body offset, or -1 if the body is not in the body store
+     */
+    public void setBodyOffset(long body_offset)
+    {
+        this.body_offset = body_offset;
+    }
+
+    /**
+     * Gets the length of the compressed body in the body store.
+     *
+     * @return the compressed body length in bytes
+     */
+    public int getBodyLength()
+    {
+        return body_length;
+    }
+
+    /**
+     * Sets the length of the compressed body in the body store.
+     *
+     * @param body_length the compressed body length in bytes
+     */
+    public void setBodyLength(int body_length)
+    {
+        this.body_length = body_length;
+    }
+
+    /**
+     * Checks whether the body is kept in the body store rather than in memory.
+     *
+     * @return true if the announcement carries a body store reference
+     */
+    public boolean hasStoredBody()
+    {
+        return body_offset >= 0;
+    }
+
     /**
      * Returns a string representation of the announcement for debugging.
      *
@@ -150,6 +204,8 @@ public class Announcement
                 ", title='" + title + '\'' +
                 ", posted_at='" + posted_at + '\'' +
                 ", body='" + body + '\'' +
+                ", body_offset=" + body_offset +
+                ", body_length=" + body_length +
                 '}';
     }
 }
\ No newline at end of file
@@ -1,9 +1,12 @@
 package csusm.cougarplanner.models;
 
+import csusm.cougarplanner.util.SortKeys;
+
 /**
  * Data Transfer Object (DTO) for displaying announcement information in the UI.
  * Enriches the base Announcement model with course name for direct display.
- * Provides all necessary information for rendering announcements without additional lookups.
+ * Provides all necessary information for rendering announcements without additional lookups,
+ * except a body kept in the body store, which AnnouncementDataProvider.loadBody reads when the announcement is opened.
  */
 public class AnnouncementDisplay
 {
@@ -13,6 +16,12 @@ public class AnnouncementDisplay
     private final String title;
     private final String postedAt;   // YYYY-MM-DD HH:MM format
     private final String body;
+    private final long bodyOffset;
+    private final int bodyLength;
+
+    // Computed once so sorting never re-parses dates or case-folds names
+    private final long postedAtSortKey;
+    private final String courseNameSortKey;
 
     /**
      * Constructs a new AnnouncementDisplay by combining Announcement data with course information.
@@ -28,6 +37,10 @@ public class AnnouncementDisplay
         this.title = announcement.getTitle();
         this.postedAt = announcement.getPostedAt();
         this.body = announcement.getBody();
+        this.bodyOffset = announcement.getBodyOffset();
+        this.bodyLength = announcement.getBodyLength();
+        this.postedAtSortKey = SortKeys.dateTimeKey(postedAt);
+        this.courseNameSortKey = SortKeys.collationKey(courseName);
     }
 
     public String getAnnouncementId() { return announcementId; }
@@ -35,5 +48,11 @@ public class AnnouncementDisplay
     public String getCourseName() { return courseName; }
     public String getTitle() { return title; }
     public String getPostedAt() { return postedAt; }
+    // The body held in memory; null when it is in the body store
     public String getBody() { return body; }
+    public long getBodyOffset() { return bodyOffset; }
+    public int getBodyLength() { return bodyLength; }
+    public boolean hasStoredBody() { return bodyOffset >= 0; }
+    public long getPostedAtSortKey() { return postedAtSortKey; }
+    public String getCourseNameSortKey() { return courseNameSortKey; }
 }
\ No newline at end of file
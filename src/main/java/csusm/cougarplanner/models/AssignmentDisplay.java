@@ -1,5 +1,7 @@
 package csusm.cougarplanner.models;
 
+import csusm.cougarplanner.util.SortKeys;
+
 /**
  * Data Transfer Object (DTO) for displaying assignment information in the UI.
  * Enriches the base Assignment model with course name for direct display.
@@ -15,6 +17,11 @@ public class AssignmentDisplay
     private final String dueTime;    // HH:MM format (24-hour)
     private final Integer difficulty; // 1-5 scale, null if not set
 
+    // Computed once so sorting never re-parses dates or case-folds names
+    private final long dueSortKey;
+    private final String courseNameSortKey;
+    private final String assignmentNameSortKey;
+
     /**
      * Constructs a new AssignmentDisplay by combining Assignment data with course information.
      *
@@ -30,6 +37,9 @@ public class AssignmentDisplay
         this.dueDate = assignment.getDueDate();
         this.dueTime = assignment.getDueTime();
         this.difficulty = assignment.getDifficulty();
+        this.dueSortKey = SortKeys.dueKey(dueDate, dueTime);
+        this.courseNameSortKey = SortKeys.collationKey(courseName);
+        this.assignmentNameSortKey = SortKeys.collationKey(assignmentName);
     }
 
     public String getAssignmentId() { return assignmentId; }
@@ -39,4 +49,7 @@ public class AssignmentDisplay
     public String getDueDate() { return dueDate; }
     public String getDueTime() { return dueTime; }
     public Integer getDifficulty() { return difficulty; }
+    public long getDueSortKey() { return dueSortKey; }
+    public String getCourseNameSortKey() { return courseNameSortKey; }
+    public String getAssignmentNameSortKey() { return assignmentNameSortKey; }
 }
@@ -1,15 +1,19 @@
 package csusm.cougarplanner.services;
 
-import csusm.cougarplanner.models.Course;
-import csusm.cougarplanner.io.CoursesRepository;
+import csusm.cougarplanner.util.WeekRange;
 import java.io.IOException;
-import java.util.HashMap;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Abstract base class that provides shared features for all item data providers.
- * It manages access to course data, offers fast course name lookups, and defines a common process for enriching data.
+ * It offers course name lookups through the shared CourseDirectory and defines a common process for enriching data.
  *
  * @param <T> The type of domain object this provider handles (e.g., Assignment, Announcement)
  * @param <R> The type of display object this provider returns (e.g., AssignmentDisplay, AnnouncementDisplay)
@@ -17,55 +21,14 @@ import java.util.Map;
 public abstract class AbstractItemDataProvider<T, R> implements ViewDataProvider<R>
 {
     /**
-     * Repository that accesses course data from courses.csv.
-     * Maps course_id to course_name for data enrichment.
-     */
-    protected final CoursesRepository coursesRepository;
-
-    /**
-     * Stores course ID-to-name mappings to avoid repeated database lookups.
-     * Improves performance when handling many items from the same courses.
-     */
-    private Map<String, String> courseIdToNameMap;
-
-    /**
-     * Marks whether the course data has been loaded into the cache.
-     * Prevents reloading so courses are fetched only once per provider instance.
-     */
-    private boolean coursesLoaded = false;
-
-    /**
-     * Constructs a new AbstractItemDataProvider and initializes dependencies.
+     * Constructs a new AbstractItemDataProvider.
      */
     public AbstractItemDataProvider()
-
-    {
-        this.coursesRepository = new CoursesRepository();
-        this.courseIdToNameMap = new HashMap<>();
-    }
-
-    /**
-     * Gets all courses from storage and keeps them in memory for quick lookups.
-     * Only loads them the first time they’re needed.
-     *
-     * @throws IOException If the courses.csv file cannot be read
-     */
-    protected void loadCoursesMap() throws IOException
     {
-        if (!coursesLoaded)
-        {
-            List<Course> courses = coursesRepository.findAll();
-            for (Course course : courses)
-            {
-                courseIdToNameMap.put(course.getCourseId(), course.getCourseName());
-            }
-            coursesLoaded = true;
-        }
     }
 
     /**
-     * Retrieves the course name for a given course ID.
-     * Automatically loads course data if not already cached.
+     * Retrieves the course name for a given course ID from the shared CourseDirectory.
      * Returns "Unknown Course" if the course ID is not found.
      *
      * @param courseId The course ID to look up
@@ -74,8 +37,8 @@ public abstract class AbstractItemDataProvider<T, R> implements ViewDataProvider
      */
     protected String getCourseName(String courseId) throws IOException
     {
-        loadCoursesMap();
-        return courseIdToNameMap.getOrDefault(courseId, "Unknown Course");
+        String name = CourseDirectory.getInstance().nameOf(courseId);
+        return name != null ? name : "Unknown Course";
     }
 
     /**
@@ -87,4 +50,55 @@ public abstract class AbstractItemDataProvider<T, R> implements ViewDataProvider
      * @throws IOException If course data cannot be accessed
      */
     protected abstract List<R> enrichItemsWithCourseNames(List<T> items) throws IOException;
+
+    /**
+     * Fetches the week as one period and deals each item into its day's list in a single pass.
+     * The period is already in display order, so every day's list is too.
+     *
+     * @param week the week to fetch; at most seven days
+     * @return every day of the week mapped to its display objects
+     * @throws IOException If data cannot be loaded
+     * @throws IllegalArgumentException If the range is empty or longer than a week
+     */
+    @Override
+    public Map<DayOfWeek, List<R>> getDataForWeek(WeekRange week) throws IOException
+    {
+        LocalDate start = week.startIncl();
+        int days = (int) ChronoUnit.DAYS.between(start, week.endExcl());
+        if (days < 1 || days > 7)
+        {
+            throw new IllegalArgumentException("Not a week: " + week);
+        }
+
+        List<List<R>> byDay = new ArrayList<>(days);
+        for (int i = 0; i < days; i++)
+        {
+            byDay.add(new ArrayList<>());
+        }
+
+        long startDay = start.toEpochDay();
+        for (R item : getDataForPeriod(start, week.endExcl().minusDays(1)))
+        {
+            long day = epochDayOf(item);
+            if (day >= startDay && day < startDay + days)
+            {
+                byDay.get((int) (day - startDay)).add(item);
+            }
+        }
+
+        Map<DayOfWeek, List<R>> grouped = new EnumMap<>(DayOfWeek.class);
+        for (int i = 0; i < days; i++)
+        {
+            grouped.put(start.getDayOfWeek().plus(i), Collections.unmodifiableList(byDay.get(i)));
+        }
+        return grouped;
+    }
+
+    /**
+     * Gets the day a display object belongs to, from its precomputed sort key.
+     *
+     * @param item the display object
+     * @return the epoch day, or SortKeys.NO_DAY if the item has no date
+     */
+    protected abstract long epochDayOf(R item);
 }
@@ -1,14 +1,19 @@
 package csusm.cougarplanner.services;
 
 import csusm.cougarplanner.io.AnnouncementsRepository;
+import csusm.cougarplanner.io.CacheStats;
+import csusm.cougarplanner.io.EntityType;
+import csusm.cougarplanner.io.IoExecutors;
 import csusm.cougarplanner.models.Announcement;
 import csusm.cougarplanner.models.AnnouncementDisplay;
-import csusm.cougarplanner.util.DateTimeUtil;
+import csusm.cougarplanner.util.SortKeys;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Concrete data provider for announcement information.
@@ -23,6 +28,19 @@ public class AnnouncementDataProvider extends AbstractItemDataProvider<Announcem
      */
     private final AnnouncementsRepository announcementsRepository;
 
+    /**
+     * Order over the keys precomputed by AnnouncementDisplay:
+     * posted_at epoch minute (empty goes last), then the case-folded course name.
+     */
+    private static final Comparator<AnnouncementDisplay> BY_POSTED_AT = Comparator
+            .comparingLong(AnnouncementDisplay::getPostedAtSortKey)
+            .thenComparing(AnnouncementDisplay::getCourseNameSortKey);
+
+    /**
+     * Recently shown periods, shared by every announcement provider.
+     */
+    private static final PeriodCache<List<AnnouncementDisplay>> PERIODS = new PeriodCache<>(EntityType.ANNOUNCEMENTS, 16);
+
     /**
      * Constructs a new AnnouncementDataProvider with required dependencies.
      * Initializes the announcements repository for data access.
@@ -38,13 +56,13 @@ public class AnnouncementDataProvider extends AbstractItemDataProvider<Announcem
      *
      * @param periodStart The start date of the week (inclusive)
      * @param periodEnd The end date of the week (inclusive)
-     * @return List of announcement display objects ready for UI presentation
+     * @return List of announcement display objects ready for UI presentation, unmodifiable
      * @throws IOException If announcement or course data cannot be accessed
      */
     @Override
     public List<AnnouncementDisplay> getDataForPeriod(LocalDate periodStart, LocalDate periodEnd) throws IOException {
-        List<Announcement> announcements = announcementsRepository.findByWeek(periodStart, periodEnd);
-        return enrichItemsWithCourseNames(announcements);
+        return PERIODS.get(periodStart, periodEnd, () -> Collections.unmodifiableList(
+                enrichItemsWithCourseNames(announcementsRepository.findByWeek(periodStart, periodEnd))));
     }
 
     /**
@@ -52,12 +70,32 @@ public class AnnouncementDataProvider extends AbstractItemDataProvider<Announcem
      * This method supports the day view functionality in the main application.
      *
      * @param day The specific day to retrieve announcements for
-     * @return List of announcement display objects for the specified day
+     * @return List of announcement display objects for the specified day, unmodifiable
      * @throws IOException If announcement or course data cannot be accessed
      */
     public List<AnnouncementDisplay> getDataForDay(LocalDate day) throws IOException {
-        List<Announcement> announcements = announcementsRepository.findByDay(day);
-        return enrichItemsWithCourseNames(announcements);
+        return PERIODS.get(day, day, () -> Collections.unmodifiableList(
+                enrichItemsWithCourseNames(announcementsRepository.findByDay(day))));
+    }
+
+    /**
+     * Checks whether a period is in the shared period cache.
+     *
+     * @param periodStart the first date of the period
+     * @param periodEnd the last date of the period
+     * @return true if loading the period would hit the cache
+     */
+    static boolean isCached(LocalDate periodStart, LocalDate periodEnd) {
+        return PERIODS.contains(periodStart, periodEnd);
+    }
+
+    /**
+     * Gets the hit and miss counters of the shared cache of loaded periods.
+     *
+     * @return the period cache statistics
+     */
+    public CacheStats getPeriodCacheStats() {
+        return PERIODS.getStats();
     }
 
     /**
@@ -76,7 +114,7 @@ public class AnnouncementDataProvider extends AbstractItemDataProvider<Announcem
             // Look up course name using the course_id from the announcement
             String courseName = getCourseName(announcement.getCourseId());
 
-            // Create display object with enriched course information
+            // Create display object with enriched course information; a stored body is read when opened
             AnnouncementDisplay displayItem = new AnnouncementDisplay(announcement, courseName);
             enrichedAnnouncements.add(displayItem);
         }
@@ -86,6 +124,45 @@ public class AnnouncementDataProvider extends AbstractItemDataProvider<Announcem
         return enrichedAnnouncements;
     }
 
+    /**
+     * Loads an announcement's body for display, from memory or from the body store.
+     * May read from disk; use loadBodyAsync from the JavaFX Application Thread.
+     *
+     * @param announcement the announcement being opened
+     * @return the body text, or an empty string if the announcement has none
+     * @throws IOException if the body store cannot be read
+     */
+    public String loadBody(AnnouncementDisplay announcement) throws IOException {
+        if (announcement.getBody() != null && !announcement.getBody().isEmpty()) {
+            return announcement.getBody();
+        }
+        if (!announcement.hasStoredBody()) {
+            return "";
+        }
+        return announcementsRepository.loadBody(announcement.getBodyOffset(), announcement.getBodyLength());
+    }
+
+    /**
+     * Loads an announcement's body on the data layer's view loader threads.
+     *
+     * @param announcement the announcement being opened
+     * @return the body text, or a future failed with the IOException if the body store cannot be read
+     */
+    public CompletableFuture<String> loadBodyAsync(AnnouncementDisplay announcement) {
+        return IoExecutors.supplyAsync(IoExecutors.viewLoaders(), () -> loadBody(announcement));
+    }
+
+    /**
+     * Gets the posting day of an announcement from its posted_at key.
+     *
+     * @param announcement the announcement display object
+     * @return the epoch day it was posted, or SortKeys.NO_DAY if posted_at is empty
+     */
+    @Override
+    protected long epochDayOf(AnnouncementDisplay announcement) {
+        return SortKeys.dayOfDateTimeKey(announcement.getPostedAtSortKey());
+    }
+
     /**
      * Provides a user-friendly message for empty announcement states.
      * This message is displayed in the UI when no announcements are available.
@@ -104,15 +181,6 @@ public class AnnouncementDataProvider extends AbstractItemDataProvider<Announcem
      * @param announcements List of AnnouncementDisplay objects to sort in-place
      */
     private void sortAnnouncements(List<AnnouncementDisplay> announcements) {
-        Collections.sort(announcements, (a, b) -> {
-            // 1. Compare posted_at datetime (empty datetimes go last)
-            int dateTimeCompare = DateTimeUtil.compareDateTime(a.getPostedAt(), b.getPostedAt());
-            if (dateTimeCompare != 0) return dateTimeCompare;
-
-            // 2. Compare course names A→Z
-            String courseA = a.getCourseName() != null ? a.getCourseName() : "";
-            String courseB = b.getCourseName() != null ? b.getCourseName() : "";
-            return courseA.compareToIgnoreCase(courseB);
-        });
+        announcements.sort(BY_POSTED_AT);
     }
 }
@@ -1,15 +1,15 @@
 package csusm.cougarplanner.services;
 
-import csusm.cougarplanner.config.Profile;
-import csusm.cougarplanner.config.ProfileReader;
+import csusm.cougarplanner.config.ProfileService;
 import csusm.cougarplanner.io.AssignmentsRepository;
+import csusm.cougarplanner.io.CacheStats;
+import csusm.cougarplanner.io.EntityType;
 import csusm.cougarplanner.models.Assignment;
 import csusm.cougarplanner.models.AssignmentDisplay;
-import csusm.cougarplanner.util.DateTimeUtil;
+import csusm.cougarplanner.util.SortKeys;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -26,6 +26,25 @@ public class AssignmentDataProvider extends AbstractItemDataProvider<Assignment,
      */
     private final AssignmentsRepository assignmentsRepository;
 
+    /**
+     * Recently shown periods, shared by every assignment provider.
+     */
+    private static final PeriodCache<AssignmentPeriod> PERIODS = new PeriodCache<>(EntityType.ASSIGNMENTS, 16);
+
+    /**
+     * The order chosen by the profile's sort settings; updated only when those settings change.
+     */
+    private static volatile AssignmentPeriod.Order profileOrder;
+
+    static {
+        ProfileService.getInstance().addListener((profile, changedKeys) -> {
+            if (changedKeys.contains("defaultSort.mode") || changedKeys.contains("defaultSort.difficultyOrder")) {
+                refreshProfileOrder();
+            }
+        });
+        refreshProfileOrder();
+    }
+
     /**
      * Constructs a new AssignmentDataProvider with required dependencies.
      * Initializes the assignments repository for data access.
@@ -48,11 +67,7 @@ public class AssignmentDataProvider extends AbstractItemDataProvider<Assignment,
     @Override
     public List<AssignmentDisplay> getDataForPeriod(LocalDate periodStart, LocalDate periodEnd) throws IOException
     {
-        // Uses existing repository method for week-based queries
-        List<Assignment> assignments = assignmentsRepository.findByWeek(periodStart, periodEnd);
-
-        // Enriches assignments with course names and convert to display objects
-        return enrichItemsWithCourseNames(assignments);
+        return loadPeriod(periodStart, periodEnd).inOrder(profileOrder);
     }
 
     /**
@@ -65,16 +80,71 @@ public class AssignmentDataProvider extends AbstractItemDataProvider<Assignment,
      */
     public List<AssignmentDisplay> getDataForDay(LocalDate day) throws IOException
     {
-        List<Assignment> assignments = assignmentsRepository.findByDay(day);
-        return enrichItemsWithCourseNames(assignments);
+        return loadDay(day).inOrder(profileOrder);
+    }
+
+    /**
+     * Loads a period's assignments, through the shared period cache.
+     *
+     * @param periodStart The start date of the week (inclusive)
+     * @param periodEnd The end date of the week (inclusive)
+     * @return the period snapshot
+     * @throws IOException If assignment or course data cannot be accessed
+     */
+    public AssignmentPeriod loadPeriod(LocalDate periodStart, LocalDate periodEnd) throws IOException
+    {
+        return PERIODS.get(periodStart, periodEnd, () ->
+        {
+            // Uses existing repository method for week-based queries
+            List<Assignment> assignments = assignmentsRepository.findByWeek(periodStart, periodEnd);
+
+            // Enriches assignments with course names; the orders are built when first shown
+            return AssignmentPeriod.of(periodStart, periodEnd, enrichItemsWithCourseNames(assignments));
+        });
+    }
+
+    /**
+     * Loads a day's assignments, through the shared period cache.
+     *
+     * @param day The specific day to retrieve assignments for
+     * @return the day's snapshot
+     * @throws IOException If assignment or course data cannot be accessed
+     */
+    public AssignmentPeriod loadDay(LocalDate day) throws IOException
+    {
+        return PERIODS.get(day, day, () ->
+                AssignmentPeriod.of(day, day, enrichItemsWithCourseNames(assignmentsRepository.findByDay(day))));
+    }
+
+    /**
+     * Checks whether a period is in the shared period cache.
+     *
+     * @param periodStart the first date of the period
+     * @param periodEnd the last date of the period
+     * @return true if loading the period would hit the cache
+     */
+    static boolean isCached(LocalDate periodStart, LocalDate periodEnd)
+    {
+        return PERIODS.contains(periodStart, periodEnd);
+    }
+
+    /**
+     * Gets the hit and miss counters of the shared cache of loaded periods.
+     *
+     * @return the period cache statistics
+     */
+    public CacheStats getPeriodCacheStats()
+    {
+        return PERIODS.getStats();
     }
 
     /**
      * Enriches assignment objects with course names by looking up course information.
      * Transforms base Assignment objects into AssignmentDisplay objects with full course context.
+     * Ordering is left to AssignmentPeriod.
      *
      * @param assignments List of base assignment objects from repository
-     * @return List of enriched assignment display objects
+     * @return List of enriched assignment display objects, in repository order
      * @throws IOException If course data cannot be accessed for lookup
      */
     @Override
@@ -92,108 +162,37 @@ public class AssignmentDataProvider extends AbstractItemDataProvider<Assignment,
             enrichedAssignments.add(displayItem);
         }
 
-        // Sort the enriched assignments before returning
-        sortAssignments(enrichedAssignments);
         return enrichedAssignments;
     }
 
     /**
-     * Provides a user-friendly message for empty assignment states.
+     * Gets the due day of an assignment from its packed due key.
      *
-     * @return Empty state message for assignments
+     * @param assignment the assignment display object
+     * @return the epoch day of the due date, or SortKeys.NO_DAY if none is set
      */
     @Override
-    public String getEmptyMessage()
+    protected long epochDayOf(AssignmentDisplay assignment)
     {
-        return "No assignments due for this class.";
+        return SortKeys.dayOfDueKey(assignment.getDueSortKey());
     }
 
     /**
-     * Sorts the assignment display list based on user preferences from Profile.
-     * Supports two modes: date_time and difficulty sorting.
+     * Provides a user-friendly message for empty assignment states.
      *
-     * @param assignments List of AssignmentDisplay objects to sort in-place
-     */
-    private void sortAssignments(List<AssignmentDisplay> assignments) {
-        // Create ProfileReader instance and get profile from ReadResult
-        ProfileReader reader = new ProfileReader(java.nio.file.Paths.get(".profile"));
-        ProfileReader.ReadResult result = reader.readProfile();
-        Profile profile = result.getProfile();
-        String sortMode = profile.getDefaultSortMode();
-
-        if ("difficulty".equals(sortMode)) {
-            boolean ascending = "ascending".equals(profile.getDefaultSortDifficultyOrder());
-            sortByDifficulty(assignments, ascending);
-        } else {
-            // Default to date_time sorting
-            sortByDateTime(assignments);
-        }
-    }
-
-    /**
-     * Sorts assignments by date/time mode: due_date → due_time → course_name → assignment_name
+     * @return Empty state message for assignments
      */
-    private void sortByDateTime(List<AssignmentDisplay> assignments) {
-        Collections.sort(assignments, (a, b) -> {
-            // 1. Compare due dates (empty dates go last)
-            int dateCompare = DateTimeUtil.compareDueDate(a.getDueDate(), b.getDueDate());
-            if (dateCompare != 0) return dateCompare;
-
-            // 2. Compare due times within same date (empty times go last)
-            int timeCompare = DateTimeUtil.compareDueTime(a.getDueTime(), b.getDueTime());
-            if (timeCompare != 0) return timeCompare;
-
-            // 3. Compare course names A→Z
-            String courseA = a.getCourseName() != null ? a.getCourseName() : "";
-            String courseB = b.getCourseName() != null ? b.getCourseName() : "";
-            int courseCompare = courseA.compareToIgnoreCase(courseB);
-            if (courseCompare != 0) return courseCompare;
-
-            // 4. Compare assignment names A→Z
-            String assignmentA = a.getAssignmentName() != null ? a.getAssignmentName() : "";
-            String assignmentB = b.getAssignmentName() != null ? b.getAssignmentName() : "";
-            return assignmentA.compareToIgnoreCase(assignmentB);
-        });
+    @Override
+    public String getEmptyMessage()
+    {
+        return "No assignments due for this class.";
     }
 
     /**
-     * Sorts assignments by difficulty mode: difficulty → due_date → due_time → course_name → assignment_name
+     * Picks the profile order from the current sort settings.
+     * Always reads the latest profile, so the last refresh wins even if notifications overlap.
      */
-    private void sortByDifficulty(List<AssignmentDisplay> assignments, boolean ascending) {
-        Collections.sort(assignments, (a, b) -> {
-            // 1. Compare difficulty (empty difficulties go last)
-            Integer diffA = a.getDifficulty();
-            Integer diffB = b.getDifficulty();
-
-            if (diffA != null && diffB != null) {
-                int diffCompare = ascending ? diffA.compareTo(diffB) : diffB.compareTo(diffA);
-                if (diffCompare != 0) return diffCompare;
-            } else if (diffA == null && diffB == null) {
-                // Both null, continue to next criteria
-            } else if (diffA == null) {
-                return 1; // null difficulty goes last
-            } else {
-                return -1; // diffB is null, so it goes last
-            }
-
-            // 2. Compare due dates (empty dates go last)
-            int dateCompare = DateTimeUtil.compareDueDate(a.getDueDate(), b.getDueDate());
-            if (dateCompare != 0) return dateCompare;
-
-            // 3. Compare due times within same date (empty times go last)
-            int timeCompare = DateTimeUtil.compareDueTime(a.getDueTime(), b.getDueTime());
-            if (timeCompare != 0) return timeCompare;
-
-            // 4. Compare course names A→Z
-            String courseA = a.getCourseName() != null ? a.getCourseName() : "";
-            String courseB = b.getCourseName() != null ? b.getCourseName() : "";
-            int courseCompare = courseA.compareToIgnoreCase(courseB);
-            if (courseCompare != 0) return courseCompare;
-
-            // 5. Compare assignment names A→Z
-            String assignmentA = a.getAssignmentName() != null ? a.getAssignmentName() : "";
-            String assignmentB = b.getAssignmentName() != null ? b.getAssignmentName() : "";
-            return assignmentA.compareToIgnoreCase(assignmentB);
-        });
+    private static synchronized void refreshProfileOrder() {
+        profileOrder = AssignmentPeriod.Order.of(ProfileService.getInstance().getProfile());
     }
 }
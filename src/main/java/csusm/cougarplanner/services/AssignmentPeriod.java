@@ -0,0 +1,227 @@
+package csusm.cougarplanner.services;
+
+import csusm.cougarplanner.config.Profile;
+import csusm.cougarplanner.models.AssignmentDisplay;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the assignments loaded for one period, in every order the user can pick.
+ * The date/time order is built when the period is loaded; each difficulty order is built the first
+ * time it is shown and kept, so switching back to it only swaps which list is shown.
+ */
+public final class AssignmentPeriod
+{
+    /**
+     * The orders an assignment list can be shown in, matching the defaultSort profile settings.
+     */
+    public enum Order
+    {
+        // due_date → due_time → course_name → assignment_name
+        DATE_TIME,
+        // difficulty 1 to 5, then date/time; unset difficulties last
+        DIFFICULTY_ASCENDING,
+        // difficulty 5 to 1, then date/time; unset difficulties last
+        DIFFICULTY_DESCENDING;
+
+        /**
+         * Gets the order chosen by a profile's defaultSort settings.
+         *
+         * @param profile the profile to read
+         * @return the chosen order; DATE_TIME unless difficulty sorting is selected
+         */
+        public static Order of(Profile profile)
+        {
+            if (!"difficulty".equals(profile.getDefaultSortMode()))
+            {
+                return DATE_TIME;
+            }
+            return "ascending".equals(profile.getDefaultSortDifficultyOrder()) ? DIFFICULTY_ASCENDING : DIFFICULTY_DESCENDING;
+        }
+    }
+
+    /**
+     * Date/time order over the keys precomputed by AssignmentDisplay:
+     * packed due date and time (empty goes last), then case-folded course and assignment names.
+     */
+    static final Comparator<AssignmentDisplay> BY_DATE_TIME = Comparator
+            .comparingLong(AssignmentDisplay::getDueSortKey)
+            .thenComparing(AssignmentDisplay::getCourseNameSortKey)
+            .thenComparing(AssignmentDisplay::getAssignmentNameSortKey);
+
+    // Difficulties are set on a 1-5 scale
+    private static final int MIN_DIFFICULTY = 1;
+    private static final int MAX_DIFFICULTY = 5;
+
+    private final LocalDate start;
+    private final LocalDate end;
+    private final List<AssignmentDisplay> byDateTime;
+    // Built on first use; a race only builds the same list twice
+    private volatile List<AssignmentDisplay> byDifficultyAscending;
+    private volatile List<AssignmentDisplay> byDifficultyDescending;
+
+    /**
+     * Builds the date/time order of a period's assignments.
+     *
+     * @param start the first date of the period
+     * @param end the last date of the period
+     * @param assignments the period's assignments in any order; sorted in place
+     */
+    private AssignmentPeriod(LocalDate start, LocalDate end, List<AssignmentDisplay> assignments)
+    {
+        this.start = start;
+        this.end = end;
+
+        assignments.sort(BY_DATE_TIME);
+        this.byDateTime = Collections.unmodifiableList(assignments);
+    }
+
+    /**
+     * Builds the snapshot of a period.
+     *
+     * @param start the first date of the period
+     * @param end the last date of the period
+     * @param assignments the period's assignments in any order; the list is taken over and must not be used afterwards
+     * @return the snapshot
+     */
+    public static AssignmentPeriod of(LocalDate start, LocalDate end, List<AssignmentDisplay> assignments)
+    {
+        return new AssignmentPeriod(start, end, assignments);
+    }
+
+    /**
+     * Gets the assignments in one order. Constant time once the order has been shown.
+     *
+     * @param order the order to show
+     * @return the assignments in that order, unmodifiable
+     */
+    public List<AssignmentDisplay> inOrder(Order order)
+    {
+        return switch (order)
+        {
+            case DATE_TIME -> byDateTime;
+            case DIFFICULTY_ASCENDING -> byDifficulty(true);
+            case DIFFICULTY_DESCENDING -> byDifficulty(false);
+        };
+    }
+
+    /**
+     * Gets a difficulty order, building it the first time it is asked for.
+     *
+     * @param ascending true for difficulty 1 first, false for 5 first
+     * @return the assignments in that difficulty order, unmodifiable
+     */
+    private List<AssignmentDisplay> byDifficulty(boolean ascending)
+    {
+        List<AssignmentDisplay> ordered = ascending ? byDifficultyAscending : byDifficultyDescending;
+        if (ordered == null)
+        {
+            ordered = byDifficulty(byDateTime, ascending);
+            if (ascending)
+            {
+                byDifficultyAscending = ordered;
+            }
+            else
+            {
+                byDifficultyDescending = ordered;
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Gets the first date of the period.
+     *
+     * @return the start date
+     */
+    public LocalDate getStart()
+    {
+        return start;
+    }
+
+    /**
+     * Gets the last date of the period.
+     *
+     * @return the end date
+     */
+    public LocalDate getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * Gets the number of assignments in the period.
+     *
+     * @return the assignment count
+     */
+    public int size()
+    {
+        return byDateTime.size();
+    }
+
+    /**
+     * Orders assignments by difficulty with a counting sort: one pass over the date/time order drops
+     * each assignment into its difficulty's bucket, which keeps date/time as the secondary order.
+     *
+     * @param byDateTime the assignments in date/time order
+     * @param ascending true for difficulty 1 first, false for 5 first
+     * @return the assignments in difficulty order, unmodifiable
+     */
+    private static List<AssignmentDisplay> byDifficulty(List<AssignmentDisplay> byDateTime, boolean ascending)
+    {
+        // One bucket per difficulty, then one for unset difficulties, which go last in either direction
+        int levels = MAX_DIFFICULTY - MIN_DIFFICULTY + 1;
+        List<List<AssignmentDisplay>> buckets = new ArrayList<>(levels + 1);
+        for (int i = 0; i <= levels; i++)
+        {
+            buckets.add(new ArrayList<>());
+        }
+
+        for (AssignmentDisplay assignment : byDateTime)
+        {
+            Integer difficulty = assignment.getDifficulty();
+            if (difficulty == null)
+            {
+                buckets.get(levels).add(assignment);
+            }
+            else if (difficulty < MIN_DIFFICULTY || difficulty > MAX_DIFFICULTY)
+            {
+                // A hand-edited value off the scale; buckets cannot place it
+                return comparisonSort(byDateTime, ascending);
+            }
+            else
+            {
+                int level = difficulty - MIN_DIFFICULTY;
+                buckets.get(ascending ? level : levels - 1 - level).add(assignment);
+            }
+        }
+
+        List<AssignmentDisplay> ordered = new ArrayList<>(byDateTime.size());
+        for (List<AssignmentDisplay> bucket : buckets)
+        {
+            ordered.addAll(bucket);
+        }
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /**
+     * Orders assignments by any difficulty value. Stable, so date/time stays the secondary order.
+     *
+     * @param byDateTime the assignments in date/time order
+     * @param ascending true for the lowest difficulty first
+     * @return the assignments in difficulty order, unmodifiable
+     */
+    private static List<AssignmentDisplay> comparisonSort(List<AssignmentDisplay> byDateTime, boolean ascending)
+    {
+        List<AssignmentDisplay> ordered = new ArrayList<>(byDateTime);
+        // Empty difficulties go last in either direction
+        ordered.sort(Comparator.comparingInt(a -> a.getDifficulty() == null
+                ? Integer.MAX_VALUE
+                : ascending ? a.getDifficulty() : -a.getDifficulty()));
+        return Collections.unmodifiableList(ordered);
+    }
+}
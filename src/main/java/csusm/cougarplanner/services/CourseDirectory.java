@@ -0,0 +1,268 @@
+package csusm.cougarplanner.services;
+
+import csusm.cougarplanner.io.ChangeEvent;
+import csusm.cougarplanner.io.ChangeEventBus;
+import csusm.cougarplanner.io.CoursesRepository;
+import csusm.cougarplanner.io.DataDirectoryWatcher;
+import csusm.cougarplanner.io.EntityType;
+import csusm.cougarplanner.models.Course;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide course ID to course name lookup shared by every data provider.
+ * Courses are loaded once into an immutable table with interned names; lookups read the
+ * current table without locking. The table is dropped when courses change, either by a merge
+ * or on disk, and rebuilt on the next lookup.
+ *
+ * Canvas course IDs are numeric, so they are kept as longs in an open-addressing table;
+ * the rare non-numeric ID falls back to a map.
+ */
+public final class CourseDirectory
+{
+    private static final CourseDirectory INSTANCE = new CourseDirectory();
+
+    private final CoursesRepository coursesRepository = new CoursesRepository();
+
+    // Null until loaded and after each invalidation
+    private volatile Table table;
+    // Bumped by every invalidation, so a load that raced one is not published; written under this
+    private volatile long generation;
+    // Held while reading the courses, so concurrent lookups load them once
+    private final Object loadLock = new Object();
+
+    /**
+     * Constructs the directory and follows course changes made outside the app.
+     */
+    private CourseDirectory()
+    {
+        DataDirectoryWatcher.getInstance().registerCache(EntityType.COURSES, () ->
+        {
+            invalidate();
+            // Which courses changed on disk is unknown, so views reload their course names
+            ChangeEventBus.getInstance().publish(List.of(ChangeEvent.unplaced(EntityType.COURSES)));
+        });
+    }
+
+    /**
+     * Gets the process-wide course directory.
+     *
+     * @return the shared directory
+     */
+    public static CourseDirectory getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Looks up a course name by ID.
+     *
+     * @param courseId the course ID
+     * @return the interned course name, or null if the course is unknown
+     * @throws IOException if the courses cannot be loaded
+     */
+    public String nameOf(String courseId) throws IOException
+    {
+        return courseId == null ? null : table().nameOf(courseId);
+    }
+
+    /**
+     * Looks up a course name by numeric ID.
+     *
+     * @param courseId the course ID
+     * @return the interned course name, or null if the course is unknown
+     * @throws IOException if the courses cannot be loaded
+     */
+    public String nameOf(long courseId) throws IOException
+    {
+        return table().nameOf(courseId);
+    }
+
+    /**
+     * Drops the loaded courses so the next lookup reads them again.
+     * Called after courses are merged and when courses change on disk.
+     */
+    public void invalidate()
+    {
+        synchronized (this)
+        {
+            generation++;
+            table = null;
+        }
+        // Cached periods carry the old course names
+        PeriodCache.invalidateAll();
+    }
+
+    /**
+     * Gets the loaded table, loading it if needed.
+     *
+     * @return the current table
+     * @throws IOException if the courses cannot be loaded
+     */
+    private Table table() throws IOException
+    {
+        Table current = table;
+        return current != null ? current : load();
+    }
+
+    /**
+     * Loads the courses into a new table and publishes it unless an invalidation happened meanwhile.
+     *
+     * @return the loaded table
+     * @throws IOException if the courses cannot be loaded
+     */
+    private Table load() throws IOException
+    {
+        synchronized (loadLock)
+        {
+            Table current = table;
+            if (current != null)
+            {
+                return current;
+            }
+
+            long loadedGeneration = generation;
+            Table loaded = new Table(coursesRepository.findAll());
+            // Invalidation never waits for the read, only for this check
+            synchronized (this)
+            {
+                if (generation == loadedGeneration)
+                {
+                    table = loaded;
+                }
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Parses a course ID made only of decimal digits.
+     *
+     * @param courseId the course ID
+     * @return the numeric ID, or -1 if the ID is not a plain non-negative number that fits in a long
+     */
+    private static long parseId(String courseId)
+    {
+        int length = courseId.length();
+        if (length == 0 || length > 18)
+        {
+            return -1;
+        }
+        long id = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = courseId.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        // "007" and "7" are different IDs; only the canonical form takes the numeric path
+        return length > 1 && courseId.charAt(0) == '0' ? -1 : id;
+    }
+
+    /**
+     * An immutable snapshot of the course names, keyed by ID.
+     */
+    private static final class Table
+    {
+        private static final long EMPTY_SLOT = -1;
+
+        private final long[] ids;
+        private final String[] names;
+        private final int mask;
+        private final Map<String, String> otherIds = new HashMap<>();
+
+        /**
+         * Builds the table from the stored courses.
+         *
+         * @param courses the stored courses
+         */
+        Table(List<Course> courses)
+        {
+            // Power-of-two capacity at most half full keeps probe runs short
+            int capacity = Integer.highestOneBit(Math.max(4, courses.size() * 2) - 1) << 1;
+            ids = new long[capacity];
+            names = new String[capacity];
+            mask = capacity - 1;
+            Arrays.fill(ids, EMPTY_SLOT);
+
+            for (Course course : courses)
+            {
+                String courseId = course.getCourseId();
+                if (courseId == null)
+                {
+                    continue;
+                }
+                String name = course.getCourseName() == null ? null : course.getCourseName().intern();
+                long id = parseId(courseId);
+                if (id < 0)
+                {
+                    otherIds.put(courseId, name);
+                    continue;
+                }
+                int slot = slotOf(id);
+                while (ids[slot] != EMPTY_SLOT && ids[slot] != id)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                ids[slot] = id;
+                names[slot] = name;
+            }
+        }
+
+        /**
+         * Looks up a course name by ID.
+         *
+         * @param courseId the course ID
+         * @return the course name, or null if unknown
+         */
+        String nameOf(String courseId)
+        {
+            long id = parseId(courseId);
+            return id < 0 ? otherIds.get(courseId) : nameOf(id);
+        }
+
+        /**
+         * Looks up a course name by numeric ID.
+         *
+         * @param id the course ID
+         * @return the course name, or null if unknown
+         */
+        String nameOf(long id)
+        {
+            if (id < 0)
+            {
+                return null;
+            }
+            int slot = slotOf(id);
+            while (ids[slot] != EMPTY_SLOT)
+            {
+                if (ids[slot] == id)
+                {
+                    return names[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * Gets the home slot of an ID.
+         *
+         * @param id the course ID
+         * @return the slot index
+         */
+        private int slotOf(long id)
+        {
+            // Spreads sequential IDs across the table
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
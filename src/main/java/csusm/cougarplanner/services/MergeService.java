@@ -6,157 +6,448 @@ import csusm.cougarplanner.models.Course;
 import csusm.cougarplanner.io.AnnouncementsRepository;
 import csusm.cougarplanner.io.AssignmentsRepository;
 import csusm.cougarplanner.io.CoursesRepository;
+import csusm.cougarplanner.io.EntityType;
+import csusm.cougarplanner.io.FetchScope;
+import csusm.cougarplanner.io.FileTransaction;
+import csusm.cougarplanner.io.IoExecutors;
+import csusm.cougarplanner.io.MergeDiff;
+import csusm.cougarplanner.util.DateTimeUtil;
 import java.io.IOException;
-import java.util.HashMap;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Service for merging fetched data with local CSV files.
  * Updates existing items and adds new ones while preserving local data.
  * For assignments, preserves local difficulty values during merge operations.
+ * Each merge returns a diff of what it changed and skips writing entirely when the diff is empty.
+ * After each merge that changed something the binary startup snapshot of the merged data is rebuilt.
+ *
+ * With a memory budget, assignments and announcements are merged through sorted spill files
+ * instead of loading every stored row, for local histories too large for the heap. The startup
+ * snapshot is not rebuilt in that mode, since building it needs every row in memory.
+ *
+ * Merges given a fetch scope remove stored rows the fetch no longer returned, keeping them as
+ * tombstones, and a retention period moves old rows into a compressed archive.
  */
 public class MergeService {
 
     private final CoursesRepository coursesRepository;
     private final AssignmentsRepository assignmentsRepository;
     private final AnnouncementsRepository announcementsRepository;
+    // Bytes of rows a merge may buffer before spilling, across every type it merges at once; 0 merges in memory
+    private final long memoryBudget;
 
     /**
-     * Constructs a new MergeService with repository dependencies.
+     * Constructs a new MergeService with repository dependencies that merges in memory.
      */
     public MergeService() {
+        this(0);
+    }
+
+    /**
+     * Constructs a new MergeService that merges assignments and announcements within a memory budget.
+     *
+     * @param memoryBudget bytes of rows a merge may buffer before spilling to disk, or 0 to merge in memory
+     */
+    public MergeService(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Memory budget must not be negative: " + memoryBudget);
+        }
         this.coursesRepository = new CoursesRepository();
         this.assignmentsRepository = new AssignmentsRepository();
         this.announcementsRepository = new AnnouncementsRepository();
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Checks whether merges run through spill files within a memory budget.
+     *
+     * @return true if a memory budget is configured
+     */
+    public boolean isMemoryBounded() {
+        return memoryBudget > 0;
+    }
+
+    /**
+     * What a complete merge changed, per entity type.
+     *
+     * @param courses the diff of the merged courses
+     * @param assignments the diff of the merged assignments
+     * @param announcements the diff of the merged announcements
+     */
+    public record MergeResult(
+        MergeDiff<Course> courses,
+        MergeDiff<Assignment> assignments,
+        MergeDiff<Announcement> announcements
+    ) {
+        /**
+         * Checks whether the merge changed anything at all.
+         *
+         * @return true if none of the entity diffs has changes
+         */
+        public boolean isEmpty() {
+            return courses.isEmpty() && assignments.isEmpty() && announcements.isEmpty();
+        }
     }
 
     /**
      * Merges fetched courses with local CSV data.
      * Updates existing courses by ID and adds new ones.
+     * courses.csv is not written when nothing fetched differs from what is stored.
      *
      * @param fetchedCourses List of courses fetched from external API
+     * @return what the merge changed
      * @throws IOException if the CSV file cannot be read or written
      */
-    public void mergeCourses(List<Course> fetchedCourses) throws IOException {
+    public MergeDiff<Course> mergeCourses(List<Course> fetchedCourses) throws IOException {
         if (fetchedCourses == null || fetchedCourses.isEmpty()) {
-            return;
+            return MergeDiff.empty();
         }
+        // Upsert replaces existing courses by ID and adds new ones; mergeAll publishes the
+        // change events after the course directory is invalidated
+        return mergeAll(fetchedCourses, null, null, null).courses();
+    }
+
+    /**
+     * Tells the period caches which dates a committed merge changed, so only those periods are reloaded.
+     *
+     * @param assignments what the merge changed in assignments
+     * @param announcements what the merge changed in announcements
+     * @throws IOException if the data version cannot be read
+     */
+    private void committed(MergeDiff<Assignment> assignments, MergeDiff<Announcement> announcements) throws IOException {
+        Map<EntityType, Set<LocalDate>> changedDates = new EnumMap<>(EntityType.class);
+        changedDates.put(EntityType.ASSIGNMENTS, changedDates(assignments, a -> DateTimeUtil.parseDate(a.getDueDate())));
+        changedDates.put(EntityType.ANNOUNCEMENTS, changedDates(announcements, a -> {
+            LocalDateTime postedAt = DateTimeUtil.parseDateTime(a.getPostedAt());
+            return postedAt != null ? postedAt.toLocalDate() : null;
+        }));
+        PeriodCache.applyCommit(changedDates);
+    }
 
-        // Load existing courses into a map for efficient lookup
-        Map<String, Course> existingCoursesMap = new HashMap<>();
-        List<Course> existingCourses = coursesRepository.findAll();
-        for (Course course : existingCourses) {
-            existingCoursesMap.put(course.getCourseId(), course);
+    /**
+     * Collects the dates of every added, changed and removed row, before and after each change.
+     *
+     * @param diff what a merge changed
+     * @param dateOf gets a row's date, or null if it has none
+     * @return the dates the merge touched
+     */
+    private static <T> Set<LocalDate> changedDates(MergeDiff<T> diff, Function<T, LocalDate> dateOf) {
+        Set<LocalDate> dates = new HashSet<>();
+        for (T added : diff.getAdded()) {
+            dates.add(dateOf.apply(added));
+        }
+        for (MergeDiff.Change<T> change : diff.getChanged()) {
+            dates.add(dateOf.apply(change.before()));
+            dates.add(dateOf.apply(change.after()));
         }
+        for (T removed : diff.getRemoved()) {
+            dates.add(dateOf.apply(removed));
+        }
+        // Undated rows are in no period
+        dates.remove(null);
+        return dates;
+    }
 
-        // Process each fetched course
+    /**
+     * Keeps only the fetched courses that have an ID.
+     *
+     * @param fetchedCourses List of courses fetched from external API
+     * @return the courses that can be merged
+     */
+    private List<Course> validCourses(List<Course> fetchedCourses) {
+        List<Course> validCourses = new ArrayList<>();
         for (Course fetchedCourse : fetchedCourses) {
             if (fetchedCourse.getCourseId() == null) {
                 continue; // Skip courses without valid IDs
             }
-
-            // Update existing or add new course
-            existingCoursesMap.put(fetchedCourse.getCourseId(), fetchedCourse);
+            validCourses.add(fetchedCourse);
         }
-
-        // Write all courses back to CSV
-        coursesRepository.upsertAll(existingCoursesMap.values().stream().toList());
+        return validCourses;
     }
 
     /**
      * Merges fetched assignments with local CSV data.
      * Updates existing assignments by ID and adds new ones.
      * Preserves local difficulty values when updating existing assignments.
+     * Nothing is written when nothing fetched differs from what is stored.
      *
      * @param fetchedAssignments List of assignments fetched from external API
+     * @return what the merge changed
      * @throws IOException if the CSV file cannot be read or written
      */
-    public void mergeAssignments(List<Assignment> fetchedAssignments) throws IOException {
+    public MergeDiff<Assignment> mergeAssignments(List<Assignment> fetchedAssignments) throws IOException {
         if (fetchedAssignments == null || fetchedAssignments.isEmpty()) {
-            return;
+            return MergeDiff.empty();
         }
 
-        // Load existing assignments into a map for efficient lookup
-        Map<String, Assignment> existingAssignmentsMap = new HashMap<>();
-        List<Assignment> existingAssignments = assignmentsRepository.findAll();
-        for (Assignment assignment : existingAssignments) {
-            existingAssignmentsMap.put(assignment.getAssignmentId(), assignment);
-        }
+        // Upsert routes each assignment to its monthly partition and
+        // preserves the local difficulty value of existing assignments.
+        // If assignment is new, difficulty will remain null (as set by CanvasService)
+        return mergeAll(null, fetchedAssignments, null, null).assignments();
+    }
 
-        // Process each fetched assignment
+    /**
+     * Keeps only the fetched assignments that have an ID.
+     *
+     * @param fetchedAssignments List of assignments fetched from external API
+     * @return the assignments that can be merged
+     */
+    private List<Assignment> validAssignments(List<Assignment> fetchedAssignments) {
+        // Keep only assignments with valid IDs
+        List<Assignment> validAssignments = new ArrayList<>();
         for (Assignment fetchedAssignment : fetchedAssignments) {
             if (fetchedAssignment.getAssignmentId() == null) {
                 continue; // Skip assignments without valid IDs
             }
-
-            // Check if assignment exists locally
-            Assignment existingAssignment = existingAssignmentsMap.get(fetchedAssignment.getAssignmentId());
-
-            if (existingAssignment != null) {
-                // Preserve local difficulty value when updating existing assignment
-                Integer localDifficulty = existingAssignment.getDifficulty();
-                fetchedAssignment.setDifficulty(localDifficulty);
-            }
-            // If assignment is new, difficulty will remain null (as set by CanvasService)
-
-            // Update or add assignment
-            existingAssignmentsMap.put(fetchedAssignment.getAssignmentId(), fetchedAssignment);
+            validAssignments.add(fetchedAssignment);
         }
-
-        // Write all assignments back to CSV
-        assignmentsRepository.upsertAll(existingAssignmentsMap.values().stream().toList());
+        return validAssignments;
     }
 
     /**
      * Merges fetched announcements with local CSV data.
      * Updates existing announcements by ID and adds new ones.
+     * Nothing is written when nothing fetched differs from what is stored.
      *
      * @param fetchedAnnouncements List of announcements fetched from external API
+     * @return what the merge changed
      * @throws IOException if the CSV file cannot be read or written
      */
-    public void mergeAnnouncements(List<Announcement> fetchedAnnouncements) throws IOException {
+    public MergeDiff<Announcement> mergeAnnouncements(List<Announcement> fetchedAnnouncements) throws IOException {
         if (fetchedAnnouncements == null || fetchedAnnouncements.isEmpty()) {
-            return;
+            return MergeDiff.empty();
         }
 
-        // Load existing announcements into a map for efficient lookup
-        Map<String, Announcement> existingAnnouncementsMap = new HashMap<>();
-        List<Announcement> existingAnnouncements = announcementsRepository.findAll();
-        for (Announcement announcement : existingAnnouncements) {
-            existingAnnouncementsMap.put(announcement.getAnnouncementId(), announcement);
-        }
+        // Upsert routes each announcement to its monthly partition
+        return mergeAll(null, null, fetchedAnnouncements, null).announcements();
+    }
 
-        // Process each fetched announcement
+    /**
+     * Keeps only the fetched announcements that have an ID.
+     *
+     * @param fetchedAnnouncements List of announcements fetched from external API
+     * @return the announcements that can be merged
+     */
+    private List<Announcement> validAnnouncements(List<Announcement> fetchedAnnouncements) {
+        // Keep only announcements with valid IDs
+        List<Announcement> validAnnouncements = new ArrayList<>();
         for (Announcement fetchedAnnouncement : fetchedAnnouncements) {
             if (fetchedAnnouncement.getAnnouncementId() == null) {
                 continue; // Skip announcements without valid IDs
             }
-
-            // Update existing or add new announcement
-            existingAnnouncementsMap.put(fetchedAnnouncement.getAnnouncementId(), fetchedAnnouncement);
+            validAnnouncements.add(fetchedAnnouncement);
         }
-
-        // Write all announcements back to CSV
-        announcementsRepository.upsertAll(existingAnnouncementsMap.values().stream().toList());
+        return validAnnouncements;
     }
 
     /**
-     * Performs a complete merge operation for all data types.
-     * Convenience method that merges courses, assignments, and announcements.
+     * Performs a complete merge operation for all data types as one transaction.
+     * The courses, assignments and announcements files are prepared in parallel and published
+     * together, so a crash never leaves assignments pointing at courses that were not written.
+     * Entity types whose diff is empty stage nothing; if all are empty nothing is written.
      *
      * @param fetchedCourses List of courses to merge
      * @param fetchedAssignments List of assignments to merge
      * @param fetchedAnnouncements List of announcements to merge
+     * @return what the merge changed, per entity type
      * @throws IOException if any CSV file cannot be read or written
      */
-    public void mergeAll(
+    public MergeResult mergeAll(
         List<Course> fetchedCourses,
         List<Assignment> fetchedAssignments,
         List<Announcement> fetchedAnnouncements
     ) throws IOException {
-        mergeCourses(fetchedCourses);
-        mergeAssignments(fetchedAssignments);
-        mergeAnnouncements(fetchedAnnouncements);
+        return mergeAll(fetchedCourses, fetchedAssignments, fetchedAnnouncements, null);
+    }
+
+    /**
+     * Merges fetched assignments that cover the scope completely, as its own transaction.
+     * Stored assignments inside the scope that were not fetched are removed and tombstoned.
+     *
+     * @param fetchedAssignments List of assignments fetched from external API
+     * @param scope the courses and dates the fetch returned completely
+     * @return what the merge changed, including the removed assignments
+     * @throws IOException if the CSV files cannot be read or written
+     */
+    public MergeDiff<Assignment> mergeAssignments(List<Assignment> fetchedAssignments, FetchScope scope) throws IOException {
+        return mergeAll(null, fetchedAssignments, null, scope).assignments();
+    }
+
+    /**
+     * Merges fetched announcements that cover the scope completely, as its own transaction.
+     * Stored announcements inside the scope that were not fetched are removed and tombstoned.
+     *
+     * @param fetchedAnnouncements List of announcements fetched from external API
+     * @param scope the courses and dates the fetch returned completely
+     * @return what the merge changed, including the removed announcements
+     * @throws IOException if the CSV files cannot be read or written
+     */
+    public MergeDiff<Announcement> mergeAnnouncements(List<Announcement> fetchedAnnouncements, FetchScope scope) throws IOException {
+        return mergeAll(null, null, fetchedAnnouncements, scope).announcements();
+    }
+
+    /**
+     * Performs a complete merge operation for all data types as one transaction, removing
+     * stored assignments and announcements inside the scope that the fetch no longer returned.
+     * With a scope, an empty assignment or announcement list removes everything the scope covers;
+     * a null list leaves that type alone.
+     *
+     * @param fetchedCourses List of courses to merge
+     * @param fetchedAssignments List of assignments to merge
+     * @param fetchedAnnouncements List of announcements to merge
+     * @param scope the courses and dates the fetch returned completely, or null to never remove rows
+     * @return what the merge changed, per entity type
+     * @throws IOException if any CSV file cannot be read or written
+     */
+    public MergeResult mergeAll(
+        List<Course> fetchedCourses,
+        List<Assignment> fetchedAssignments,
+        List<Announcement> fetchedAnnouncements,
+        FetchScope scope
+    ) throws IOException {
+        AtomicReference<MergeDiff<Course>> courses = new AtomicReference<>(MergeDiff.empty());
+        AtomicReference<MergeDiff<Assignment>> assignments = new AtomicReference<>(MergeDiff.empty());
+        AtomicReference<MergeDiff<Announcement>> announcements = new AtomicReference<>(MergeDiff.empty());
+
+        // The external merges run side by side, so each gets its share of the budget
+        int externalMerges = 0;
+        if (fetchedAssignments != null && (!fetchedAssignments.isEmpty() || scope != null)) {
+            externalMerges++;
+        }
+        if (fetchedAnnouncements != null && (!fetchedAnnouncements.isEmpty() || scope != null)) {
+            externalMerges++;
+        }
+        long mergeBudget = memoryBudget / Math.max(1, externalMerges);
+
+        List<Callable<Void>> preparations = new ArrayList<>();
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            if (fetchedCourses != null && !fetchedCourses.isEmpty()) {
+                preparations.add(() -> {
+                    courses.set(coursesRepository.upsertAll(validCourses(fetchedCourses), transaction));
+                    return null;
+                });
+            }
+            if (fetchedAssignments != null && (!fetchedAssignments.isEmpty() || scope != null)) {
+                preparations.add(() -> {
+                    List<Assignment> valid = validAssignments(fetchedAssignments);
+                    assignments.set(isMemoryBounded()
+                            ? assignmentsRepository.upsertAllExternal(valid, mergeBudget, scope, transaction)
+                            : assignmentsRepository.upsertAll(valid, scope, transaction));
+                    return null;
+                });
+            }
+            if (fetchedAnnouncements != null && (!fetchedAnnouncements.isEmpty() || scope != null)) {
+                preparations.add(() -> {
+                    List<Announcement> valid = validAnnouncements(fetchedAnnouncements);
+                    announcements.set(isMemoryBounded()
+                            ? announcementsRepository.upsertAllExternal(valid, mergeBudget, scope, transaction)
+                            : announcementsRepository.upsertAll(valid, scope, transaction));
+                    return null;
+                });
+            }
+
+            IoExecutors.runAll(IoExecutors.mergePreparers(), preparations);
+            MergeResult result = new MergeResult(courses.get(), assignments.get(), announcements.get());
+            if (result.isEmpty()) {
+                return result; // Nothing staged; closing the transaction discards it
+            }
+            transaction.commit();
+        }
+
+        committed(assignments.get(), announcements.get());
+        if (!courses.get().isEmpty()) {
+            CourseDirectory.getInstance().invalidate();
+        }
+        // After the caches above, so views that reload on these events see the new rows
+        coursesRepository.publishChanges(courses.get());
+        assignmentsRepository.publishChanges(assignments.get());
+        announcementsRepository.publishChanges(announcements.get());
+        writeSnapshots(assignments.get(), announcements.get());
+        return new MergeResult(courses.get(), assignments.get(), announcements.get());
+    }
+
+    /**
+     * Moves assignments and announcements older than the retention period out of the hot
+     * partitions into the compressed archive. Each type is archived in its own transaction.
+     *
+     * @param retentionWeeks how many weeks back the hot partitions keep rows; 0 keeps everything
+     * @return the number of rows archived
+     * @throws IOException if the partitions or the archive cannot be written
+     */
+    public int applyRetention(int retentionWeeks) throws IOException {
+        if (retentionWeeks <= 0) {
+            return 0;
+        }
+        LocalDate cutoff = LocalDate.now().minusWeeks(retentionWeeks);
+
+        int archivedAssignments = assignmentsRepository.archiveBefore(cutoff);
+        int archivedAnnouncements = announcementsRepository.archiveBefore(cutoff);
+        if (!isMemoryBounded()) {
+            if (archivedAssignments > 0) {
+                writeSnapshot("assignments", assignmentsRepository::writeSnapshot);
+            }
+            if (archivedAnnouncements > 0) {
+                writeSnapshot("announcements", announcementsRepository::writeSnapshot);
+            }
+        }
+        return archivedAssignments + archivedAnnouncements;
+    }
+
+    /**
+     * Rewrites the snapshots of the types a committed merge changed. Snapshots are skipped for
+     * memory-bounded merges, which must not load every row.
+     *
+     * @param assignments what the merge changed in assignments
+     * @param announcements what the merge changed in announcements
+     */
+    private void writeSnapshots(MergeDiff<Assignment> assignments, MergeDiff<Announcement> announcements) {
+        if (isMemoryBounded()) {
+            return;
+        }
+        if (!assignments.isEmpty()) {
+            writeSnapshot("assignments", assignmentsRepository::writeSnapshot);
+        }
+        if (!announcements.isEmpty()) {
+            writeSnapshot("announcements", announcementsRepository::writeSnapshot);
+        }
+    }
+
+    /**
+     * Writes one snapshot after a commit. The merge has already succeeded, so a failure is only reported;
+     * the repository has removed the outdated snapshot, and the next startup loads from the CSVs.
+     *
+     * @param type the type the snapshot holds, for the report
+     * @param write writes the snapshot
+     */
+    private static void writeSnapshot(String type, SnapshotWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            System.err.println("Writing the " + type + " snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a repository's snapshot.
+     */
+    @FunctionalInterface
+    private interface SnapshotWrite {
+        /**
+         * Writes the snapshot.
+         *
+         * @throws IOException if the snapshot cannot be written
+         */
+        void run() throws IOException;
     }
 }
@@ -0,0 +1,414 @@
+package csusm.cougarplanner.services;
+
+import csusm.cougarplanner.io.CacheStats;
+import csusm.cougarplanner.io.ChangeEvent;
+import csusm.cougarplanner.io.ChangeEventBus;
+import csusm.cougarplanner.io.DataDirectoryWatcher;
+import csusm.cougarplanner.io.DataLock;
+import csusm.cougarplanner.io.EntityType;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded LRU cache of enriched, sorted period results for one entity type, so flicking back to a
+ * week that was just shown does not query, enrich and sort it again.
+ *
+ * Entries are keyed by period; every sort order of a period is held by its value, so the sort
+ * setting needs no key of its own. The cache tracks the data version its entries reflect:
+ * merges in this process drop only the periods containing a changed date, while any other
+ * write (another process, a hand edit reported by the watcher) drops the whole cache.
+ * Without the watcher, hand edits would go unnoticed, so the cache is bypassed.
+ *
+ * A miss is loaded once: callers that ask for a period while it is being loaded wait for that
+ * load instead of starting their own, so a view and the prefetcher never read the same week twice.
+ *
+ * @param <V> the cached period result
+ */
+final class PeriodCache<V>
+{
+    /**
+     * Loads a period on a miss.
+     *
+     * @param <V> the loaded result
+     */
+    @FunctionalInterface
+    interface Loader<V>
+    {
+        /**
+         * Loads the period.
+         *
+         * @return the result to cache
+         * @throws IOException if the data cannot be read
+         */
+        V load() throws IOException;
+    }
+
+    private record Key(LocalDate start, LocalDate end) {}
+
+    // Every cache, so merges can reach the ones whose data they changed
+    private static final Map<EntityType, PeriodCache<?>> CACHES = new EnumMap<>(EntityType.class);
+    // Misses being loaded right now, across all caches; guarded by LOADS, which is notified when it drops to zero
+    private static final Object LOADS = new Object();
+    private static int loadsInFlight;
+
+    private final EntityType type;
+    private final int capacity;
+    private final CacheStats stats = new CacheStats();
+    // Access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<Key, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Misses being loaded, shared by every caller that asks for the period meanwhile; guarded by this
+    private final Map<Key, CompletableFuture<V>> loading = new HashMap<>();
+
+    // All guarded by this
+    // Bumped by every invalidation, so a load that raced one is not cached
+    private long generation;
+    // The data version the entries reflect
+    private long trustedVersion = -1;
+    // The data version seen by the last watcher event that was already accounted for
+    private long lastEventVersion = -1;
+
+    /**
+     * Constructs the cache of an entity type and follows changes made outside the app.
+     *
+     * @param type the entity type the cache holds
+     * @param capacity the most periods kept
+     */
+    PeriodCache(EntityType type, int capacity)
+    {
+        this.type = type;
+        this.capacity = capacity;
+        synchronized (CACHES)
+        {
+            CACHES.put(type, this);
+        }
+        DataDirectoryWatcher.getInstance().registerCache(type, this::filesChanged);
+    }
+
+    /**
+     * Gets a period from the cache, loading and caching it on a miss.
+     * If the period is already being loaded, waits for that load instead of starting another.
+     *
+     * @param start the first date of the period
+     * @param end the last date of the period
+     * @param loader loads the period on a miss
+     * @return the period result
+     * @throws IOException if the period or the data version cannot be read
+     */
+    V get(LocalDate start, LocalDate end, Loader<V> loader) throws IOException
+    {
+        if (!DataDirectoryWatcher.getInstance().isRunning())
+        {
+            stats.recordMiss();
+            return loader.load();
+        }
+
+        Key key = new Key(start, end);
+        CompletableFuture<V> load;
+        boolean joined;
+        long loadGeneration;
+        synchronized (this)
+        {
+            long version = DataLock.getInstance().version();
+            if (version != trustedVersion)
+            {
+                // Written by someone else since the entries were loaded
+                clear();
+                trustedVersion = version;
+            }
+
+            V cached = entries.get(key);
+            if (cached != null)
+            {
+                stats.recordHit();
+                return cached;
+            }
+            stats.recordMiss();
+
+            CompletableFuture<V> inFlight = loading.get(key);
+            joined = inFlight != null;
+            if (joined)
+            {
+                load = inFlight;
+            }
+            else
+            {
+                load = new CompletableFuture<>();
+                loading.put(key, load);
+            }
+            loadGeneration = generation;
+        }
+        if (joined)
+        {
+            return await(load);
+        }
+
+        loadStarted();
+        try
+        {
+            V loaded = loader.load();
+            synchronized (this)
+            {
+                loading.remove(key, load);
+                if (generation == loadGeneration)
+                {
+                    entries.put(key, loaded);
+                    if (entries.size() > capacity)
+                    {
+                        Iterator<Key> eldest = entries.keySet().iterator();
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }
+            }
+            load.complete(loaded);
+            return loaded;
+        }
+        catch (Throwable e)
+        {
+            synchronized (this)
+            {
+                loading.remove(key, load);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            loadFinished();
+        }
+    }
+
+    /**
+     * Waits for a load another caller started.
+     *
+     * @param load the load to wait for
+     * @return the loaded period
+     * @throws IOException if the load failed to read the data
+     */
+    private static <V> V await(CompletableFuture<V> load) throws IOException
+    {
+        try
+        {
+            return load.join();
+        }
+        catch (CompletionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io)
+            {
+                throw new IOException(io.getMessage(), io);
+            }
+            if (cause instanceof Error error)
+            {
+                throw error;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    /**
+     * Checks whether a period is cached, without counting a hit or miss or touching its recency.
+     *
+     * @param start the first date of the period
+     * @param end the last date of the period
+     * @return true if the period is cached
+     */
+    synchronized boolean contains(LocalDate start, LocalDate end)
+    {
+        return entries.containsKey(new Key(start, end));
+    }
+
+    /**
+     * Waits until no cache is loading a miss, so background loads never compete with the user's.
+     *
+     * @param stop checked on every wake-up; waiting ends early once it is true
+     * @return true if no load is running, false if waiting stopped early
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    static boolean awaitNoLoads(BooleanSupplier stop) throws InterruptedException
+    {
+        synchronized (LOADS)
+        {
+            while (loadsInFlight > 0 && !stop.getAsBoolean())
+            {
+                LOADS.wait();
+            }
+            return loadsInFlight == 0 && !stop.getAsBoolean();
+        }
+    }
+
+    /**
+     * Wakes the threads in awaitNoLoads, so they see that their stop condition changed.
+     */
+    static void wakeLoadWaiters()
+    {
+        synchronized (LOADS)
+        {
+            LOADS.notifyAll();
+        }
+    }
+
+    /**
+     * Counts a miss that started loading.
+     */
+    private static void loadStarted()
+    {
+        synchronized (LOADS)
+        {
+            loadsInFlight++;
+        }
+    }
+
+    /**
+     * Counts a finished load, waking the waiters when none is left.
+     */
+    private static void loadFinished()
+    {
+        synchronized (LOADS)
+        {
+            if (--loadsInFlight == 0)
+            {
+                LOADS.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gets the hit and miss counters of the cache.
+     *
+     * @return the cache statistics
+     */
+    CacheStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * Updates every cache after a merge in this process committed, dropping only the periods
+     * that contain a changed date. Caches that missed any other write are cleared instead.
+     *
+     * @param changedDates the dates whose rows changed, per entity type; types left out changed nothing
+     * @throws IOException if the data version cannot be read
+     */
+    static void applyCommit(Map<EntityType, ? extends Collection<LocalDate>> changedDates) throws IOException
+    {
+        long version = DataLock.getInstance().version();
+        synchronized (CACHES)
+        {
+            for (Map.Entry<EntityType, PeriodCache<?>> entry : CACHES.entrySet())
+            {
+                Collection<LocalDate> dates = changedDates.get(entry.getKey());
+                entry.getValue().committed(dates != null ? dates : Set.of(), version);
+            }
+        }
+    }
+
+    /**
+     * Clears every cache. Called when course names change, since every entry carries them.
+     */
+    static void invalidateAll()
+    {
+        synchronized (CACHES)
+        {
+            for (PeriodCache<?> cache : CACHES.values())
+            {
+                synchronized (cache)
+                {
+                    cache.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the periods a commit changed and moves the cache to the committed version.
+     *
+     * @param dates the dates whose rows changed
+     * @param version the data version after the commit
+     */
+    private synchronized void committed(Collection<LocalDate> dates, long version)
+    {
+        // One commit moves the version by two; anything more means another writer got in too
+        if (trustedVersion != version - 2)
+        {
+            clear();
+        }
+        else if (!dates.isEmpty())
+        {
+            generation++;
+            entries.keySet().removeIf(key -> containsAny(key, dates));
+            // Later callers load the changed periods afresh instead of waiting for a read of the old rows
+            loading.keySet().removeIf(key -> containsAny(key, dates));
+        }
+        trustedVersion = version;
+    }
+
+    /**
+     * Handles a watcher event for the cache's entity type. The event that follows a commit of this
+     * process is already accounted for; any other event is a change the cache cannot place, which
+     * is passed on to the open views.
+     */
+    private void filesChanged()
+    {
+        synchronized (this)
+        {
+            try
+            {
+                long version = DataLock.getInstance().version();
+                if (version == trustedVersion && version != lastEventVersion)
+                {
+                    lastEventVersion = version;
+                    return;
+                }
+            }
+            catch (IOException e)
+            {
+                // Cannot tell whose change it was
+            }
+            clear();
+        }
+        ChangeEventBus.getInstance().publish(List.of(ChangeEvent.unplaced(type)));
+    }
+
+    /**
+     * Drops every entry, and the loads in flight so later callers do not wait for old rows.
+     * Callers hold this cache's lock.
+     */
+    private void clear()
+    {
+        generation++;
+        entries.clear();
+        loading.clear();
+    }
+
+    /**
+     * Checks whether a period contains any of the dates.
+     *
+     * @param key the period
+     * @param dates the dates to look for
+     * @return true if a date lies within the period
+     */
+    private static boolean containsAny(Key key, Collection<LocalDate> dates)
+    {
+        for (LocalDate date : dates)
+        {
+            if (!date.isBefore(key.start()) && !date.isAfter(key.end()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,209 @@
+package csusm.cougarplanner.services;
+
+import csusm.cougarplanner.io.DataDirectoryWatcher;
+import csusm.cougarplanner.io.IoExecutors;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the periods next to the one on screen in the background, so navigating to the previous
+ * or next week (or day) finds them in the period caches instead of loading them cold.
+ *
+ * Prefetching starts shortly after a period is shown, runs on the lowest-priority prefetch thread,
+ * waits whenever a foreground load is running, and is cancelled by the next navigation.
+ * The direction follows the user: after a run of "next" steps it fetches further ahead, after a
+ * run of "previous" steps further behind.
+ */
+public class PeriodPrefetcher
+{
+    /**
+     * The way the user moved to the period on screen.
+     */
+    public enum Direction
+    {
+        BACKWARD,
+        // A jump, such as going to today or changing the week start
+        NONE,
+        FORWARD
+    }
+
+    // Gives the foreground time to render and absorbs rapid clicking
+    private static final long START_DELAY_MILLIS = 150;
+    // Momentum past which the user is taken to be moving one way
+    private static final double STEADY_MOMENTUM = 0.7;
+
+    private final AssignmentDataProvider assignmentProvider = new AssignmentDataProvider();
+    private final AnnouncementDataProvider announcementProvider = new AnnouncementDataProvider();
+
+    // All guarded by this
+    // Recent navigation, from -1 (always backward) to 1 (always forward)
+    private double momentum = 0;
+    private ScheduledFuture<?> scheduled;
+    // The cancel flag of the latest prefetch
+    private AtomicBoolean cancelled = new AtomicBoolean();
+
+    /**
+     * Records that a period is on screen and schedules loading its neighbours,
+     * cancelling whatever was being prefetched for the previous one.
+     *
+     * @param start the first date shown
+     * @param end the last date shown
+     * @param direction how the user got there
+     */
+    public synchronized void viewed(LocalDate start, LocalDate end, Direction direction)
+    {
+        cancel();
+        if (!DataDirectoryWatcher.getInstance().isRunning())
+        {
+            return; // The period caches are bypassed, so nothing would be kept
+        }
+
+        // Older steps count half as much as each newer one
+        switch (direction)
+        {
+            case FORWARD -> momentum = momentum / 2 + 0.5;
+            case BACKWARD -> momentum = momentum / 2 - 0.5;
+            case NONE -> momentum = momentum / 2;
+        }
+
+        List<LocalDate[]> periods = neighbours(start, end, momentum);
+        AtomicBoolean taskCancelled = new AtomicBoolean();
+        cancelled = taskCancelled;
+        scheduled = IoExecutors.prefetcher().schedule(() -> prefetch(periods, taskCancelled),
+                START_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the pending prefetch. A period already being loaded finishes, but nothing after it starts.
+     */
+    public synchronized void cancel()
+    {
+        // Never interrupt: an interrupt closes the file channels a load is reading
+        cancelled.set(true);
+        if (scheduled != null)
+        {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        PeriodCache.wakeLoadWaiters(); // A prefetch waiting for the foreground sees it was cancelled
+    }
+
+    /**
+     * Picks the periods to load, most likely first: the neighbour in the direction of travel,
+     * then a second step that way if the user is moving steadily, otherwise the other neighbour.
+     *
+     * @param start the first date shown
+     * @param end the last date shown
+     * @param momentum the recent navigation tendency
+     * @return the periods to load as {start, end} pairs
+     */
+    private static List<LocalDate[]> neighbours(LocalDate start, LocalDate end, double momentum)
+    {
+        long length = ChronoUnit.DAYS.between(start, end) + 1;
+        int ahead = momentum >= 0 ? 1 : -1;
+
+        List<LocalDate[]> periods = new ArrayList<>(2);
+        periods.add(shift(start, end, ahead * length));
+        if (Math.abs(momentum) >= STEADY_MOMENTUM)
+        {
+            periods.add(shift(start, end, 2 * ahead * length));
+        }
+        else
+        {
+            periods.add(shift(start, end, -ahead * length));
+        }
+        return periods;
+    }
+
+    /**
+     * Moves a period by a number of days.
+     *
+     * @param start the first date
+     * @param end the last date
+     * @param days the days to move by, negative for earlier
+     * @return the moved {start, end} pair
+     */
+    private static LocalDate[] shift(LocalDate start, LocalDate end, long days)
+    {
+        return new LocalDate[] {start.plusDays(days), end.plusDays(days)};
+    }
+
+    /**
+     * Loads each period that is not cached yet, yielding to foreground loads before each one.
+     * Runs on the prefetch thread.
+     *
+     * @param periods the periods to load, most likely first
+     * @param cancelled set when a newer navigation makes these periods moot
+     */
+    private void prefetch(List<LocalDate[]> periods, AtomicBoolean cancelled)
+    {
+        try
+        {
+            for (LocalDate[] period : periods)
+            {
+                boolean day = period[0].equals(period[1]);
+                if (!waitForForeground(cancelled))
+                {
+                    return;
+                }
+                if (!AssignmentDataProvider.isCached(period[0], period[1]))
+                {
+                    if (day)
+                    {
+                        assignmentProvider.loadDay(period[0]);
+                    }
+                    else
+                    {
+                        assignmentProvider.loadPeriod(period[0], period[1]);
+                    }
+                }
+
+                if (!waitForForeground(cancelled))
+                {
+                    return;
+                }
+                if (!AnnouncementDataProvider.isCached(period[0], period[1]))
+                {
+                    if (day)
+                    {
+                        announcementProvider.getDataForDay(period[0]);
+                    }
+                    else
+                    {
+                        announcementProvider.getDataForPeriod(period[0], period[1]);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // Only speculative; the foreground load reports real failures
+        }
+    }
+
+    /**
+     * Waits until no foreground load is running. Woken when the last load finishes or the prefetch is cancelled.
+     *
+     * @param cancelled set when the prefetch should stop
+     * @return false if the prefetch was cancelled while waiting
+     */
+    private static boolean waitForForeground(AtomicBoolean cancelled)
+    {
+        try
+        {
+            return PeriodCache.awaitNoLoads(cancelled::get);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package csusm.cougarplanner.services;
 
+import csusm.cougarplanner.io.IoExecutors;
+import csusm.cougarplanner.util.WeekRange;
+
 import java.io.IOException;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This interface defines what all data providers must do. Data providers connect the data layer and the user interface,
@@ -23,6 +29,42 @@ public interface ViewDataProvider<T>
      */
     List<T> getDataForPeriod(LocalDate periodStart, LocalDate periodEnd) throws IOException;
 
+    /**
+     * Fetches a week's data grouped by day in one query, so the seven day panes fill from a single pass.
+     * Each day's list is in the same order getDataForPeriod would show it.
+     *
+     * @param week the week to fetch; at most seven days
+     * @return every day of the week mapped to its display objects, empty lists for days without data
+     * @throws IOException If data cannot be loaded from underlying repositories
+     */
+    Map<DayOfWeek, List<T>> getDataForWeek(WeekRange week) throws IOException;
+
+    /**
+     * Fetches data for a chosen time period on the data layer's view loader threads.
+     * Use this from the JavaFX Application Thread instead of getDataForPeriod, which blocks on disk reads.
+     * Cancelling the future before the load starts skips the load.
+     *
+     * @param periodStart The start date of the period
+     * @param periodEnd The end date of the period
+     * @return the display objects, or a future failed with the IOException if data cannot be loaded
+     */
+    default CompletableFuture<List<T>> getDataForPeriodAsync(LocalDate periodStart, LocalDate periodEnd)
+    {
+        return IoExecutors.supplyAsync(IoExecutors.viewLoaders(), () -> getDataForPeriod(periodStart, periodEnd));
+    }
+
+    /**
+     * Fetches a week's data grouped by day on the data layer's view loader threads.
+     * Cancelling the future before the load starts skips the load.
+     *
+     * @param week the week to fetch; at most seven days
+     * @return the grouped display objects, or a future failed with the IOException if data cannot be loaded
+     */
+    default CompletableFuture<Map<DayOfWeek, List<T>>> getDataForWeekAsync(WeekRange week)
+    {
+        return IoExecutors.supplyAsync(IoExecutors.viewLoaders(), () -> getDataForWeek(week));
+    }
+
     /**
      * Provides a user-friendly message to display when no data is available.
      *
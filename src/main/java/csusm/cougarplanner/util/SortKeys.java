@@ -0,0 +1,112 @@
+package csusm.cougarplanner.util;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Builds sort keys that are computed once per item, so sorting compares numbers and plain
+ * strings instead of re-parsing dates and case-folding names on every comparison.
+ *
+ * The numeric keys order the same way as the DateTimeUtil compare methods, including
+ * "empty goes last", and the collation keys order the same way as compareToIgnoreCase.
+ */
+public final class SortKeys
+{
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    // A due date's minute slots: one per minute of the day, then one for "no time"
+    private static final int SLOTS_PER_DAY = MINUTES_PER_DAY + 1;
+    private static final int NO_TIME_SLOT = SLOTS_PER_DAY - 1;
+    // Sorts after every date LocalDate can hold
+    private static final long NO_DATE_DAY = LocalDate.MAX.toEpochDay() + 1;
+
+    /**
+     * Key of an empty date-time; sorts after every other key.
+     */
+    public static final long EMPTY = Long.MAX_VALUE;
+
+    /**
+     * Day of a key whose date is empty; no epoch day LocalDate can hold.
+     */
+    public static final long NO_DAY = Long.MIN_VALUE;
+
+    private SortKeys() {}
+
+    /**
+     * Packs a due date and due time into one key: the epoch day times the minute slots per day,
+     * plus the minute of the day. An empty time sorts after every time of its day, and an empty date
+     * after every date, each still ordered by time.
+     *
+     * @param dueDate the due date (YYYY-MM-DD), or null or blank
+     * @param dueTime the due time (HH:MM), or null or blank
+     * @return the packed key
+     */
+    public static long dueKey(String dueDate, String dueTime)
+    {
+        LocalDate date = DateTimeUtil.parseDate(dueDate);
+        LocalTime time = DateTimeUtil.parseTime(dueTime);
+        long day = date != null ? date.toEpochDay() : NO_DATE_DAY;
+        int slot = time != null ? time.getHour() * 60 + time.getMinute() : NO_TIME_SLOT;
+        return day * SLOTS_PER_DAY + slot;
+    }
+
+    /**
+     * Gets the epoch minute of a date-time as its key.
+     *
+     * @param dateTime the date-time (YYYY-MM-DD HH:MM), or null or blank
+     * @return the epoch minute, or EMPTY if the date-time is missing or invalid
+     */
+    public static long dateTimeKey(String dateTime)
+    {
+        LocalDateTime parsed = DateTimeUtil.parseDateTime(dateTime);
+        if (parsed == null)
+        {
+            return EMPTY;
+        }
+        return parsed.toLocalDate().toEpochDay() * MINUTES_PER_DAY + parsed.getHour() * 60 + parsed.getMinute();
+    }
+
+    /**
+     * Gets the epoch day a due key was packed from.
+     *
+     * @param dueKey a key from dueKey
+     * @return the epoch day, or NO_DAY if the due date was empty
+     */
+    public static long dayOfDueKey(long dueKey)
+    {
+        long day = Math.floorDiv(dueKey, SLOTS_PER_DAY);
+        return day == NO_DATE_DAY ? NO_DAY : day;
+    }
+
+    /**
+     * Gets the epoch day of a date-time key.
+     *
+     * @param dateTimeKey a key from dateTimeKey
+     * @return the epoch day, or NO_DAY if the date-time was empty
+     */
+    public static long dayOfDateTimeKey(long dateTimeKey)
+    {
+        return dateTimeKey == EMPTY ? NO_DAY : Math.floorDiv(dateTimeKey, MINUTES_PER_DAY);
+    }
+
+    /**
+     * Folds a name so that plain String comparison of the results orders like compareToIgnoreCase.
+     *
+     * @param name the name, or null
+     * @return the folded name; empty for null
+     */
+    public static String collationKey(String name)
+    {
+        if (name == null)
+        {
+            return "";
+        }
+        char[] folded = new char[name.length()];
+        for (int i = 0; i < folded.length; i++)
+        {
+            // The same per-character folding compareToIgnoreCase applies
+            folded[i] = Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        return new String(folded);
+    }
+}
@@ -0,0 +1,98 @@
+package csusm.cougarplanner.config;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import csusm.cougarplanner.io.CsvPaths;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// The service is process-wide, so each test starts from a saved default profile
+public class ProfileServiceTest {
+
+    private final ProfileService service = ProfileService.getInstance();
+    private final List<Set<String>> notified = new ArrayList<>();
+    private final ProfileService.Listener listener = (profile, changedKeys) -> notified.add(changedKeys);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        service.save(new Profile());
+        service.addListener(listener);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        service.removeListener(listener);
+        service.flush();
+    }
+
+    private static Profile onDisk() {
+        return new ProfileReader(CsvPaths.getProfilePath()).readProfile().getProfile();
+    }
+
+    @Test
+    void testEditsTakeEffectAtOnceAndNotifyTheChangedKeys() {
+        service.update(profile -> {
+            profile.setWeekStart("sunday");
+            profile.setDefaultView("week"); // unchanged
+        });
+
+        assertEquals("sunday", service.getProfile().getWeekStart());
+        assertEquals(List.of(Set.of("weekStart")), notified);
+    }
+
+    @Test
+    void testInvalidValuesAreIgnored() {
+        service.update(profile -> {
+            profile.setWeekStart("friday");
+            profile.setDefaultView("day");
+        });
+
+        assertEquals("monday", service.getProfile().getWeekStart());
+        assertEquals("day", service.getProfile().getDefaultView());
+        assertEquals(List.of(Set.of("defaultView")), notified);
+    }
+
+    @Test
+    void testEditsAreWrittenTogetherOnFlush() throws IOException {
+        service.update(profile -> profile.setWeekStart("sunday"));
+        service.update(profile -> profile.setDefaultView("day"));
+
+        service.flush();
+
+        assertEquals("sunday", onDisk().getWeekStart());
+        assertEquals("day", onDisk().getDefaultView());
+    }
+
+    @Test
+    void testReloadKeepsEditsNotYetWritten() {
+        service.update(profile -> profile.setWeekStart("sunday"));
+        notified.clear();
+
+        service.reload();
+
+        assertEquals("sunday", service.getProfile().getWeekStart());
+        assertTrue(notified.isEmpty(), "Nothing changed, so nobody should be told");
+    }
+
+    @Test
+    void testRemovedListenerIsNotTold() {
+        service.removeListener(listener);
+
+        service.update(profile -> profile.setWeekStart("sunday"));
+
+        assertTrue(notified.isEmpty());
+    }
+
+    @Test
+    void testCopiesDoNotChangeTheProfile() {
+        service.getProfile().setWeekStart("sunday");
+
+        assertEquals("monday", service.getProfile().getWeekStart());
+        assertTrue(notified.isEmpty());
+    }
+}
@@ -0,0 +1,171 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ArchiveStoreTest {
+
+    // An archived row: the archive only needs an ID and a date to place it
+    private record Row(String id, LocalDate date, String name) {}
+
+    private static final RowCodec<Row> CODEC = new RowCodec<>() {
+        @Override
+        public String[] headers() {
+            return new String[] {"id", "date", "name"};
+        }
+
+        @Override
+        public String idOf(Row item) {
+            return item.id();
+        }
+
+        @Override
+        public String courseOf(Row item) {
+            return "c1";
+        }
+
+        @Override
+        public LocalDate dateOf(Row item) {
+            return item.date();
+        }
+
+        @Override
+        public Row fromRecord(Map<String, String> record) {
+            return new Row(record.get("id"), LocalDate.parse(record.get("date")), record.get("name"));
+        }
+
+        @Override
+        public Map<String, String> toRecord(Row item) {
+            return Map.of("id", item.id(), "date", item.date().toString(), "name", item.name());
+        }
+    };
+
+    private static final LocalDate SEPTEMBER = LocalDate.parse("2025-09-01");
+    private static final LocalDate OCTOBER_END = LocalDate.parse("2025-10-31");
+
+    private Path directory;
+    private ArchiveStore<Row> archive;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clearDataDirectory();
+        directory = CsvPaths.getArchiveDirectory().resolve("rows");
+        archive = new ArchiveStore<>(directory, CODEC);
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            archive.append(List.of(
+                    row("a1", "2025-09-10", "Essay"),
+                    row("a2", "2025-09-20", "Quiz"),
+                    row("a3", "2025-10-05", "Lab")), transaction);
+            transaction.commit();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        clearDataDirectory();
+    }
+
+    @Test
+    void testArchivedRowsAreFoundByRangeAndId() throws IOException {
+        assertEquals(List.of("a1", "a2", "a3"), ids(archive.readRange(SEPTEMBER, OCTOBER_END)));
+        assertEquals(List.of("a3"), ids(archive.readRange(LocalDate.parse("2025-10-01"), OCTOBER_END)));
+        assertEquals(row("a2", "2025-09-20", "Quiz"), archive.archived("a2"));
+        assertNull(archive.archived("missing"));
+
+        // A second archive over the same directory reads the same segments from disk
+        ArchiveStore<Row> reopened = new ArchiveStore<>(directory, CODEC);
+        assertEquals(List.of("a1", "a2", "a3"), ids(reopened.readRange(SEPTEMBER, OCTOBER_END)));
+    }
+
+    @Test
+    void testRestoredRowsLeaveTheArchive() throws IOException {
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            archive.remove(List.of("a1", "a3", "missing"), transaction);
+            transaction.commit();
+        }
+
+        assertNull(archive.archived("a1"));
+        assertNull(archive.archived("a3"));
+        assertEquals(List.of("a2"), ids(archive.readRange(SEPTEMBER, OCTOBER_END)));
+        assertTrue(Files.exists(directory.resolve("2025-09.csv.gz")));
+        assertFalse(Files.exists(directory.resolve("2025-10.csv.gz")), "An emptied segment should be deleted");
+
+        ArchiveStore<Row> reopened = new ArchiveStore<>(directory, CODEC);
+        assertEquals(List.of("a2"), ids(reopened.readRange(SEPTEMBER, OCTOBER_END)));
+        assertNull(reopened.archived("a3"));
+    }
+
+    @Test
+    void testRestoreRolledBackLeavesTheArchive() throws IOException {
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            archive.remove(List.of("a1"), transaction);
+        }
+
+        assertEquals(row("a1", "2025-09-10", "Essay"), archive.archived("a1"));
+        assertEquals(List.of("a1", "a2", "a3"), ids(archive.readRange(SEPTEMBER, OCTOBER_END)));
+    }
+
+    @Test
+    void testArchivingAgainReplacesTheArchivedRow() throws IOException {
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            archive.append(List.of(row("a1", "2025-09-10", "Essay v2")), transaction);
+            transaction.commit();
+        }
+
+        assertEquals("Essay v2", archive.archived("a1").name());
+        assertEquals(3, archive.readRange(SEPTEMBER, OCTOBER_END).size());
+    }
+
+    @Test
+    void testTombstonesAreDroppedWhenRestored() throws IOException {
+        Row removed = row("a9", "2026-10-01", "Dropped");
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            archive.updateTombstones(List.of(removed), List.of(), transaction);
+            transaction.commit();
+        }
+        assertEquals(removed, archive.tombstoned("a9"));
+        assertEquals(Set.of("a9"), archive.tombstonedIds());
+
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            archive.updateTombstones(List.of(), List.of("a9"), transaction);
+            transaction.commit();
+        }
+        assertNull(archive.tombstoned("a9"));
+        assertTrue(new ArchiveStore<>(directory, CODEC).tombstonedIds().isEmpty());
+    }
+
+    private static Row row(String id, String date, String name) {
+        return new Row(id, LocalDate.parse(date), name);
+    }
+
+    private static List<String> ids(List<Row> rows) {
+        return rows.stream().map(Row::id).sorted().toList();
+    }
+
+    // Clears archived segments between tests, keeping the lock file the process holds open
+    private static void clearDataDirectory() throws IOException {
+        Path dataDir = CsvPaths.getDataDirectory();
+        if (!Files.exists(dataDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (!path.equals(dataDir) && !path.equals(CsvPaths.getLockPath())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
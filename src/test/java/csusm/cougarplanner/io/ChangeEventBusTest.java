@@ -0,0 +1,97 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Deliveries are queued and run by hand, standing in for Platform::runLater
+public class ChangeEventBusTest {
+
+    private static final LocalDate MONDAY = LocalDate.parse("2025-10-13");
+    private static final LocalDate SUNDAY = LocalDate.parse("2025-10-19");
+
+    private final ChangeEventBus bus = ChangeEventBus.getInstance();
+    private List<Runnable> scheduled;
+    private List<List<ChangeEvent>> delivered;
+
+    @BeforeEach
+    void setUp() {
+        scheduled = new ArrayList<>();
+        delivered = new ArrayList<>();
+    }
+
+    private ChangeEventBus.Subscription subscribe(EntityType... types) {
+        return bus.subscribe(Set.of(types), MONDAY, SUNDAY, scheduled::add, delivered::add);
+    }
+
+    private void runScheduled() {
+        List<Runnable> deliveries = new ArrayList<>(scheduled);
+        scheduled.clear();
+        deliveries.forEach(Runnable::run);
+    }
+
+    private static ChangeEvent event(ChangeEvent.Kind kind, String id, LocalDate... dates) {
+        return new ChangeEvent(EntityType.ASSIGNMENTS, kind, id, Set.of(dates));
+    }
+
+    @Test
+    void testEventsBeforeADeliveryAreCoalescedPerRow() {
+        try (ChangeEventBus.Subscription subscription = subscribe(EntityType.ASSIGNMENTS)) {
+            bus.publish(List.of(event(ChangeEvent.Kind.ADDED, "a1", MONDAY)));
+            bus.publish(List.of(event(ChangeEvent.Kind.CHANGED, "a1", MONDAY, SUNDAY), event(ChangeEvent.Kind.REMOVED, "a2", MONDAY)));
+
+            assertEquals(1, scheduled.size(), "One delivery should be scheduled until it runs");
+            runScheduled();
+
+            assertEquals(List.of(List.of(
+                    event(ChangeEvent.Kind.ADDED, "a1", MONDAY, SUNDAY),
+                    event(ChangeEvent.Kind.REMOVED, "a2", MONDAY))), delivered);
+        }
+    }
+
+    @Test
+    void testOnlyFollowedTypesAndDatesAreDelivered() {
+        try (ChangeEventBus.Subscription subscription = subscribe(EntityType.ASSIGNMENTS)) {
+            bus.publish(List.of(
+                    event(ChangeEvent.Kind.ADDED, "outside", SUNDAY.plusDays(1)),
+                    new ChangeEvent(EntityType.ANNOUNCEMENTS, ChangeEvent.Kind.ADDED, "n1", Set.of(MONDAY))));
+            assertTrue(scheduled.isEmpty());
+
+            bus.publish(List.of(event(ChangeEvent.Kind.ADDED, "a1", MONDAY), event(ChangeEvent.Kind.ADDED, "undated")));
+            subscription.setRange(SUNDAY, SUNDAY.plusDays(6)); // the view moved on before the delivery ran
+            runScheduled();
+
+            assertEquals(List.of(List.of(event(ChangeEvent.Kind.ADDED, "undated"))), delivered);
+        }
+    }
+
+    @Test
+    void testUnplacedChangeReplacesTheRowsOfItsType() {
+        try (ChangeEventBus.Subscription subscription = subscribe(EntityType.ASSIGNMENTS)) {
+            bus.publish(List.of(event(ChangeEvent.Kind.ADDED, "a1", MONDAY)));
+            bus.publish(List.of(ChangeEvent.unplaced(EntityType.ASSIGNMENTS)));
+            bus.publish(List.of(event(ChangeEvent.Kind.CHANGED, "a2", MONDAY)));
+            runScheduled();
+
+            assertEquals(List.of(List.of(ChangeEvent.unplaced(EntityType.ASSIGNMENTS))), delivered);
+        }
+    }
+
+    @Test
+    void testClosedSubscriptionGetsNothing() {
+        ChangeEventBus.Subscription subscription = subscribe(EntityType.ASSIGNMENTS);
+        bus.publish(List.of(event(ChangeEvent.Kind.ADDED, "a1", MONDAY)));
+
+        subscription.close();
+        runScheduled();
+        bus.publish(List.of(event(ChangeEvent.Kind.ADDED, "a2", MONDAY)));
+
+        assertTrue(delivered.isEmpty());
+        assertTrue(scheduled.isEmpty());
+    }
+}
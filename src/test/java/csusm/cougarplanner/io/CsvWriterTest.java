@@ -0,0 +1,58 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CsvWriterTest {
+
+    private static final String[] HEADERS = {"id", "name"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testAppendCreatesTheFileWithHeaders() throws IOException {
+        Path file = directory.resolve("rows.csv");
+
+        new CsvWriter().append(file, Map.of("id", "1", "name", "Essay"), HEADERS);
+
+        assertEquals(List.of(Map.of("id", "1", "name", "Essay")), new CsvReader().readAll(file));
+    }
+
+    @Test
+    void testAppendStartsItsOwnLineAfterAnUnterminatedRow() throws IOException {
+        Path file = directory.resolve("rows.csv");
+        Files.writeString(file, "id,name" + System.lineSeparator() + "1,Essay"); // as left by a hand edit
+
+        new CsvWriter().append(file, Map.of("id", "2", "name", "Quiz"), HEADERS);
+        new CsvWriter().append(file, Map.of("id", "3", "name", "Lab"), HEADERS);
+
+        assertEquals(List.of(
+                Map.of("id", "1", "name", "Essay"),
+                Map.of("id", "2", "name", "Quiz"),
+                Map.of("id", "3", "name", "Lab")), new CsvReader().readAll(file));
+    }
+
+    @Test
+    void testEveryDurabilityModeWritesTheSameFile() throws IOException {
+        List<Map<String, String>> records = List.of(
+                Map.of("id", "1", "name", "Essay, part one"),
+                Map.of("id", "2", "name", "Quiz"));
+
+        for (CsvWriter.Durability durability : CsvWriter.Durability.values()) {
+            Path file = directory.resolve(durability + ".csv");
+            CsvWriter writer = new CsvWriter(durability);
+            writer.writeAll(file, records, HEADERS);
+
+            assertEquals(records, new CsvReader().readAll(file), durability + " should round-trip");
+            assertFalse(Files.exists(directory.resolve(durability + ".csv.tmp")), "The temp file should be moved into place");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class DateIndexTest {
+
+    private static final LocalDate MONDAY = LocalDate.parse("2025-10-13");
+    private static final LocalDate SUNDAY = LocalDate.parse("2025-10-19");
+
+    @Test
+    void testRangeIsInclusiveAndOrderedByDate() {
+        DateIndex<String> index = new DateIndex<>();
+        index.add(SUNDAY, "sunday");
+        index.add(MONDAY.minusDays(1), "before");
+        index.add(MONDAY, "monday");
+        index.add(SUNDAY.plusDays(1), "after");
+        index.add(LocalDate.parse("2025-10-15"), "wednesday");
+        index.add(null, "undated");
+
+        assertEquals(List.of("monday", "wednesday", "sunday"), index.range(MONDAY, SUNDAY));
+        assertEquals(List.of("monday"), index.day(MONDAY));
+        assertTrue(index.range(SUNDAY, MONDAY).isEmpty(), "A reversed range should be empty");
+    }
+
+    @Test
+    void testRemovedItemsLeaveTheirDay() {
+        DateIndex<String> index = new DateIndex<>();
+        index.add(MONDAY, "essay");
+        index.add(MONDAY, "quiz");
+
+        index.remove(MONDAY, "essay");
+        index.remove(SUNDAY, "quiz"); // not under that date
+
+        assertEquals(List.of("quiz"), index.day(MONDAY));
+        index.remove(MONDAY, "quiz");
+        assertTrue(index.range(MONDAY, SUNDAY).isEmpty());
+    }
+
+    @Test
+    void testCopyIsIndependent() {
+        DateIndex<String> index = new DateIndex<>();
+        index.add(MONDAY, "essay");
+
+        DateIndex<String> copy = index.copy();
+        copy.add(MONDAY, "quiz");
+        index.remove(MONDAY, "essay");
+
+        assertEquals(List.of("essay", "quiz"), copy.day(MONDAY));
+        assertTrue(index.day(MONDAY).isEmpty());
+    }
+}
@@ -0,0 +1,201 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class EmbeddedStoreTest {
+
+    // A stored row; the date is optional, so undated rows exercise the course index alone
+    private record Row(String id, String courseId, LocalDate date, String name) {}
+
+    private static final RowCodec<Row> CODEC = new RowCodec<>() {
+        @Override
+        public String[] headers() {
+            return new String[] {"id", "course_id", "date", "name"};
+        }
+
+        @Override
+        public String idOf(Row item) {
+            return item.id();
+        }
+
+        @Override
+        public String courseOf(Row item) {
+            return item.courseId();
+        }
+
+        @Override
+        public LocalDate dateOf(Row item) {
+            return item.date();
+        }
+
+        @Override
+        public Row fromRecord(Map<String, String> record) {
+            String date = record.get("date");
+            return new Row(record.get("id"), record.get("course_id"),
+                    date == null || date.isEmpty() ? null : LocalDate.parse(date), record.get("name"));
+        }
+
+        @Override
+        public Map<String, String> toRecord(Row item) {
+            Map<String, String> record = new HashMap<>();
+            record.put("id", item.id());
+            record.put("course_id", item.courseId());
+            record.put("date", item.date() == null ? "" : item.date().toString());
+            record.put("name", item.name());
+            return record;
+        }
+    };
+
+    private static final BinaryOperator<Row> TAKE_INCOMING = (existing, incoming) -> incoming;
+
+    private Path storePath;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clearDataDirectory();
+        storePath = CsvPaths.getStoreDirectory().resolve("rows.db");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        clearDataDirectory();
+    }
+
+    private EmbeddedStore<Row> open() {
+        return new EmbeddedStore<>(storePath, CODEC, null);
+    }
+
+    @Test
+    void testReopenSeesCommittedRows() throws IOException {
+        EmbeddedStore<Row> store = open();
+        store.upsertAll(List.of(
+                row("a1", "2026-10-05", "Essay"),
+                row("a2", "2026-10-12", "Quiz"),
+                new Row("a3", "c2", null, "Reading")), TAKE_INCOMING);
+        store.upsertAll(List.of(row("a1", "2026-10-06", "Essay v2")), TAKE_INCOMING);
+
+        EmbeddedStore<Row> reopened = open();
+        assertEquals(List.of("a1", "a2", "a3"), ids(reopened.findAll()));
+        assertEquals(List.of("a1"), ids(reopened.findDay(LocalDate.parse("2026-10-06"))));
+        assertTrue(reopened.findDay(LocalDate.parse("2026-10-05")).isEmpty(), "The old date should no longer be indexed");
+        assertEquals(List.of("a1", "a2"), ids(reopened.findRange(LocalDate.parse("2026-10-01"), LocalDate.parse("2026-10-31"))));
+        assertEquals(List.of("a3"), ids(reopened.findByCourse("c2")));
+        assertEquals("Essay v2", reopened.findByCourse("c1").stream()
+                .filter(r -> r.id().equals("a1")).findFirst().orElseThrow().name());
+    }
+
+    @Test
+    void testReopenAfterRemovalByScope() throws IOException {
+        EmbeddedStore<Row> store = open();
+        store.upsertAll(List.of(row("a1", "2026-10-05", "Essay"), row("a2", "2026-10-12", "Quiz")), TAKE_INCOMING);
+
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            MergeDiff<Row> diff = store.upsertAll(List.of(row("a2", "2026-10-12", "Quiz")), TAKE_INCOMING,
+                    FetchScope.wholeCourses(Set.of("c1")), transaction);
+            assertEquals(List.of("a1"), ids(diff.getRemoved()));
+            transaction.commit();
+        }
+
+        assertEquals(List.of("a2"), ids(store.findAll()));
+        assertEquals(List.of("a2"), ids(open().findAll()));
+    }
+
+    @Test
+    void testCompactionDropsDeadRecords() throws IOException {
+        EmbeddedStore<Row> store = open();
+        store.upsertAll(List.of(row("a1", "2026-10-05", "Essay"), row("a2", "2026-10-12", "Quiz")), TAKE_INCOMING);
+        for (int i = 0; i < 20; i++) {
+            store.upsertAll(List.of(row("a1", "2026-10-05", "Essay draft " + i)), TAKE_INCOMING);
+        }
+        long before = Files.size(storePath);
+
+        store.compact();
+
+        assertTrue(Files.size(storePath) < before, "Compaction should shrink the file");
+        assertEquals(List.of("a1", "a2"), ids(store.findAll()));
+        List<Row> reopened = open().findAll();
+        assertEquals(List.of("a1", "a2"), ids(reopened));
+        assertTrue(reopened.contains(row("a1", "2026-10-05", "Essay draft 19")), "The latest version should survive");
+
+        // Writes after compaction go on the compacted file
+        store.upsertAll(List.of(row("a3", "2026-10-20", "Lab")), TAKE_INCOMING);
+        assertEquals(List.of("a1", "a2", "a3"), ids(open().findAll()));
+    }
+
+    @Test
+    void testDamagedRecordIsSkippedAndBlocksCompaction() throws IOException {
+        EmbeddedStore<Row> store = open();
+        store.upsertAll(List.of(row("a1", "2026-10-05", "Essay")), TAKE_INCOMING);
+        long secondRecord = Files.size(storePath);
+        store.upsertAll(List.of(row("a2", "2026-10-12", "Quiz")), TAKE_INCOMING);
+        store.upsertAll(List.of(row("a3", "2026-10-19", "Lab")), TAKE_INCOMING);
+
+        // Flip a byte inside the second record's payload, so its checksum no longer matches
+        try (FileChannel channel = FileChannel.open(storePath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, secondRecord + 12);
+            buffer.put(0, (byte) (buffer.get(0) ^ 0x5A));
+            channel.write(buffer.rewind(), secondRecord + 12);
+        }
+
+        EmbeddedStore<Row> reopened = open();
+        assertEquals(List.of("a1", "a3"), ids(reopened.findAll()), "Records after the damaged one should be found");
+        assertTrue(reopened.getDamagedBytes() > 0, "The skipped bytes should be reported");
+        assertThrows(IOException.class, reopened::compact);
+    }
+
+    @Test
+    void testImportsSourceOnFirstUse() throws IOException {
+        EmbeddedStore<Row> source = new EmbeddedStore<>(CsvPaths.getStoreDirectory().resolve("source.db"), CODEC, null);
+        source.upsertAll(List.of(row("a1", "2026-10-05", "Essay"), row("a2", "2026-10-12", "Quiz")), TAKE_INCOMING);
+
+        EmbeddedStore<Row> store = new EmbeddedStore<>(storePath, CODEC, null, source);
+        assertEquals(List.of("a1", "a2"), ids(store.findAll()));
+        assertTrue(Files.exists(storePath), "The import should be committed to the store file");
+
+        store.upsertAll(List.of(row("a3", "2026-10-19", "Lab")), TAKE_INCOMING);
+        assertEquals(List.of("a1", "a2", "a3"), ids(open().findAll()));
+        assertEquals(List.of("a1", "a2"), ids(source.findAll()), "The source should be left as it was");
+    }
+
+    private static Row row(String id, String date, String name) {
+        return new Row(id, "c1", LocalDate.parse(date), name);
+    }
+
+    private static List<String> ids(List<Row> rows) {
+        return rows.stream().map(Row::id).sorted().toList();
+    }
+
+    // Removes the store files between tests; the lock file is held open by the process
+    private static void clearDataDirectory() throws IOException {
+        Path dataDir = CsvPaths.getDataDirectory();
+        if (!Files.exists(dataDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (!path.equals(dataDir) && !path.equals(CsvPaths.getLockPath())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
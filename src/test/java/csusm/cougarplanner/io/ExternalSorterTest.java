@@ -0,0 +1,119 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ExternalSorterTest {
+
+    private static final Comparator<String[]> BY_KEY = Comparator.comparing(row -> row[0]);
+    // The smallest budget the sorter accepts; a few thousand rows overflow it many times
+    private static final long SMALL_BUDGET = 1;
+
+    private Path spillDirectory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clearDataDirectory();
+        spillDirectory = CsvPaths.getSpillDirectory();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        clearDataDirectory();
+    }
+
+    private static List<String[]> drain(ExternalSorter.RowSource source) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        for (String[] row = source.next(); row != null; row = source.next()) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private long runFiles() throws IOException {
+        if (!Files.exists(spillDirectory)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void testSortsInMemoryWithinBudget() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(BY_KEY, 1024 * 1024, spillDirectory)) {
+            sorter.add(new String[] {"b", "2"});
+            sorter.add(new String[] {"a", "1"});
+            sorter.add(new String[] {"c", null});
+            try (ExternalSorter.RowSource source = sorter.sorted()) {
+                List<String[]> rows = drain(source);
+                assertEquals(List.of("a", "b", "c"), rows.stream().map(row -> row[0]).toList());
+                assertNull(rows.get(2)[1]);
+            }
+            assertEquals(0, sorter.getSpilledRuns());
+        }
+        assertEquals(0, runFiles());
+    }
+
+    @Test
+    void testSpillsAndMergesManyRuns() throws IOException {
+        Random random = new Random(42);
+        List<String[]> added = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            String key = String.format("k%05d", random.nextInt(5_000));
+            // The sequence number shows whether equal keys keep the order they were added in
+            added.add(new String[] {key, Integer.toString(i), i % 7 == 0 ? null : "field, with \"quotes\"\nand a line break"});
+        }
+
+        try (ExternalSorter sorter = new ExternalSorter(BY_KEY, SMALL_BUDGET, spillDirectory)) {
+            for (String[] row : added) {
+                sorter.add(row);
+            }
+            List<String[]> sorted;
+            try (ExternalSorter.RowSource source = sorter.sorted()) {
+                sorted = drain(source);
+            }
+
+            assertTrue(sorter.getSpilledRuns() > 2, "A small budget should spill several runs and merge them in passes");
+            assertEquals(added.size(), sorted.size());
+            for (int i = 1; i < sorted.size(); i++) {
+                String[] previous = sorted.get(i - 1);
+                String[] row = sorted.get(i);
+                int order = previous[0].compareTo(row[0]);
+                assertTrue(order <= 0, "Rows should come back sorted");
+                if (order == 0) {
+                    assertTrue(Integer.parseInt(previous[1]) < Integer.parseInt(row[1]), "Equal rows should keep their order");
+                }
+            }
+            String[] first = added.stream().min(BY_KEY.thenComparing(row -> Integer.parseInt(row[1]))).orElseThrow();
+            assertArrayEquals(first, sorted.get(0), "Fields, nulls included, should survive the run files");
+        }
+        assertEquals(0, runFiles(), "Closing the sorter should remove its run files");
+    }
+
+    // Removes leftover spill runs and other data; the lock file stays open for the whole run
+    private static void clearDataDirectory() throws IOException {
+        Path dataDir = CsvPaths.getDataDirectory();
+        if (!Files.exists(dataDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (!path.equals(dataDir) && !path.equals(CsvPaths.getLockPath())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Each crash test leaves behind what a transaction interrupted at that point would, then runs recovery
+public class FileTransactionTest {
+
+    private Path written;
+    private Path appended;
+    private Path deleted;
+    private Path logPath;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clearDataDirectory();
+        Files.createDirectories(CsvPaths.getDataDirectory());
+        written = CsvPaths.getDataDirectory().resolve("written.txt");
+        appended = CsvPaths.getDataDirectory().resolve("appended.txt");
+        deleted = CsvPaths.getDataDirectory().resolve("deleted.txt");
+        logPath = CsvPaths.getTransactionLogPath();
+        Files.writeString(written, "old");
+        Files.writeString(appended, "head");
+        Files.writeString(deleted, "doomed");
+        FileTransaction.recover();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        clearDataDirectory();
+    }
+
+    private static Path staged(Path target, String content) throws IOException {
+        Path staged = target.resolveSibling(target.getFileName() + ".t1.staged");
+        Files.writeString(staged, content);
+        return staged;
+    }
+
+    private void writeLog(String... lines) throws IOException {
+        Files.write(logPath, List.of(lines), StandardCharsets.UTF_8);
+    }
+
+    private void assertUnchanged() throws IOException {
+        assertEquals("old", Files.readString(written));
+        assertEquals("head", Files.readString(appended));
+        assertTrue(Files.exists(deleted));
+    }
+
+    private void assertPublished() throws IOException {
+        assertEquals("new", Files.readString(written));
+        assertEquals("head+tail", Files.readString(appended));
+        assertFalse(Files.exists(deleted));
+    }
+
+    private void assertClean(Path... stagedFiles) throws IOException {
+        assertFalse(Files.exists(logPath), "The intent log should be removed");
+        for (Path staged : stagedFiles) {
+            assertFalse(Files.exists(staged), "Staged file " + staged + " should be removed");
+        }
+        assertFalse(DataLock.getInstance().isPublishing(), "The version should be even after recovery");
+    }
+
+    @Test
+    void testCommitPublishesEverything() throws IOException {
+        long before = DataLock.getInstance().version();
+        List<Long> seen = new ArrayList<>();
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            transaction.write(written, staged -> Files.writeString(staged, "new"));
+            assertEquals(4, transaction.append(appended, "+tail".getBytes(StandardCharsets.UTF_8)));
+            transaction.delete(deleted);
+            transaction.onCommit(() -> seen.add(transaction.getCommittedVersion()));
+            transaction.commit();
+        }
+
+        assertPublished();
+        assertClean();
+        assertEquals(List.of(DataLock.getInstance().version()), seen);
+        assertTrue(DataLock.getInstance().version() > before);
+    }
+
+    @Test
+    void testCloseWithoutCommitRollsBack() throws IOException {
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            transaction.write(written, staged -> Files.writeString(staged, "new"));
+            transaction.append(appended, "+tail".getBytes(StandardCharsets.UTF_8));
+            transaction.delete(deleted);
+        }
+
+        assertUnchanged();
+        assertClean();
+        try (var files = Files.list(CsvPaths.getDataDirectory())) {
+            assertTrue(files.noneMatch(path -> path.toString().endsWith(".staged")), "No staged file should remain");
+        }
+    }
+
+    @Test
+    void testCrashWhileStagingRollsBack() throws IOException {
+        Path stagedWrite = staged(written, "new");
+        writeLog("BEGIN\tt1", "WRITE\t" + stagedWrite + "\t" + written);
+
+        FileTransaction.recover();
+
+        assertUnchanged();
+        assertClean(stagedWrite);
+    }
+
+    @Test
+    void testCrashWithTornLogLineRollsBack() throws IOException {
+        Path stagedWrite = staged(written, "new");
+        Path stagedAppend = staged(appended, "+tail");
+        writeLog("BEGIN\tt1", "WRITE\t" + stagedWrite + "\t" + written,
+                "APPEND\t" + stagedAppend + "\t" + appended + "\t4", "COMM");
+
+        FileTransaction.recover();
+
+        assertUnchanged();
+        assertClean(stagedWrite, stagedAppend);
+    }
+
+    @Test
+    void testCommitMarkerForAnotherTransactionRollsBack() throws IOException {
+        Path stagedWrite = staged(written, "new");
+        writeLog("BEGIN\tt1", "WRITE\t" + stagedWrite + "\t" + written, "COMMIT\tt0");
+
+        FileTransaction.recover();
+
+        assertUnchanged();
+        assertClean(stagedWrite);
+    }
+
+    @Test
+    void testCrashAfterCommitMarkerReplays() throws IOException {
+        Path stagedWrite = staged(written, "new");
+        Path stagedAppend = staged(appended, "+tail");
+        writeLog("BEGIN\tt1", "WRITE\t" + stagedWrite + "\t" + written,
+                "APPEND\t" + stagedAppend + "\t" + appended + "\t4", "DELETE\t" + deleted, "COMMIT\tt1");
+
+        FileTransaction.recover();
+
+        assertPublished();
+        assertClean(stagedWrite, stagedAppend);
+    }
+
+    @Test
+    void testCrashMidPublishFinishesTheRest() throws IOException {
+        // The write was already moved into place and the version left odd; the append and delete were not
+        Files.writeString(written, "new");
+        Path stagedWrite = written.resolveSibling(written.getFileName() + ".t1.staged");
+        Path stagedAppend = staged(appended, "+tail");
+        writeLog("BEGIN\tt1", "WRITE\t" + stagedWrite + "\t" + written,
+                "APPEND\t" + stagedAppend + "\t" + appended + "\t4", "DELETE\t" + deleted, "COMMIT\tt1");
+        markPublishing();
+
+        FileTransaction.recover();
+
+        assertPublished();
+        assertClean(stagedWrite, stagedAppend);
+    }
+
+    @Test
+    void testReplayingAnAppendTwiceDoesNotDuplicateIt() throws IOException {
+        // The append was written at its offset but the staged file not yet removed
+        Files.writeString(appended, "head+tail");
+        Path stagedAppend = staged(appended, "+tail");
+        writeLog("BEGIN\tt1", "APPEND\t" + stagedAppend + "\t" + appended + "\t4", "COMMIT\tt1");
+
+        FileTransaction.recover();
+
+        assertEquals("head+tail", Files.readString(appended));
+        assertClean(stagedAppend);
+    }
+
+    @Test
+    void testCrashAfterLogRemovedClosesThePublish() throws IOException {
+        markPublishing();
+        assertTrue(DataLock.getInstance().isPublishing());
+
+        FileTransaction.recover();
+
+        assertUnchanged();
+        assertClean();
+    }
+
+    @Test
+    void testBeginRecoversFirst() throws IOException {
+        Path stagedWrite = staged(written, "new");
+        writeLog("BEGIN\tt1", "WRITE\t" + stagedWrite + "\t" + written, "COMMIT\tt1");
+
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            assertEquals("new", Files.readString(written), "The interrupted commit should be finished before a new one starts");
+        }
+        assertClean(stagedWrite);
+    }
+
+    @Test
+    void testFailedPublishIsFinishedByRecovery() throws IOException {
+        // A non-empty directory where a file should go makes publishing fail, and replaying too
+        Path blocked = CsvPaths.getDataDirectory().resolve("blocked");
+        Files.createDirectories(blocked.resolve("inside"));
+        List<Long> seen = new ArrayList<>();
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            transaction.write(written, staged -> Files.writeString(staged, "new"));
+            transaction.write(blocked, staged -> Files.writeString(staged, "unblocked"));
+            transaction.onCommit(() -> seen.add(transaction.getCommittedVersion()));
+            IOException failure = assertThrows(IOException.class, transaction::commit);
+            assertEquals(1, failure.getSuppressed().length, "The failed recovery should be reported with the failure");
+            assertFalse(transaction.holdsLock());
+        }
+        assertTrue(seen.isEmpty(), "Commit actions should not run for files that were not published");
+        assertTrue(Files.exists(logPath), "The log should be kept for the next recovery");
+
+        Files.delete(blocked.resolve("inside"));
+        Files.delete(blocked);
+        FileTransaction.recover();
+
+        assertEquals("new", Files.readString(written));
+        assertEquals("unblocked", Files.readString(blocked));
+        assertClean();
+    }
+
+    private static void markPublishing() throws IOException {
+        DataLock.Held lock = DataLock.getInstance().lockExclusive();
+        try {
+            DataLock.getInstance().beginPublish();
+        } finally {
+            lock.close();
+        }
+    }
+
+    // Leaves the lock file, which the process keeps open across tests
+    private static void clearDataDirectory() throws IOException {
+        Path dataDir = CsvPaths.getDataDirectory();
+        if (!Files.exists(dataDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dataDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (!path.equals(dataDir) && !path.equals(CsvPaths.getLockPath())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PartitionedCsvStoreTest {
+
+    // A stored row; rows without a date go to the undated partition
+    private record Row(String id, String courseId, LocalDate date, String name) {}
+
+    private static final RowCodec<Row> CODEC = new RowCodec<>() {
+        @Override
+        public String[] headers() {
+            return new String[] {"id", "course_id", "date", "name"};
+        }
+
+        @Override
+        public String idOf(Row item) {
+            return item.id();
+        }
+
+        @Override
+        public String courseOf(Row item) {
+            return item.courseId();
+        }
+
+        @Override
+        public LocalDate dateOf(Row item) {
+            return item.date();
+        }
+
+        @Override
+        public Row fromRecord(Map<String, String> record) {
+            String date = record.get("date");
+            return new Row(record.get("id"), record.get("course_id"),
+                    date == null || date.isEmpty() ? null : LocalDate.parse(date), record.get("name"));
+        }
+
+        @Override
+        public Map<String, String> toRecord(Row item) {
+            Map<String, String> record = new HashMap<>();
+            record.put("id", item.id());
+            record.put("course_id", item.courseId());
+            record.put("date", item.date() == null ? "" : item.date().toString());
+            record.put("name", item.name());
+            return record;
+        }
+    };
+
+    @TempDir
+    Path root;
+
+    private Path directory;
+    private Path legacyFile;
+
+    @BeforeEach
+    void setUp() {
+        directory = root.resolve("assignments");
+        legacyFile = root.resolve("assignments.csv");
+    }
+
+    private PartitionedCsvStore<Row> open() {
+        return new PartitionedCsvStore<>(directory, legacyFile, CODEC);
+    }
+
+    private static Row row(String id, String courseId, String date) {
+        return new Row(id, courseId, date == null ? null : LocalDate.parse(date), "Item " + id);
+    }
+
+    @Test
+    void testLegacyFileIsMigratedIntoMonthPartitions() throws IOException {
+        List<Row> legacy = List.of(
+                row("a1", "c1", "2025-10-20"),
+                row("a2", "c1", "2025-09-03"),
+                row("a3", "c1", null));
+        new CsvWriter().writeAll(legacyFile, legacy.stream().map(CODEC::toRecord).toList(), CODEC.headers());
+
+        List<Row> migrated = open().readAll();
+
+        assertEquals(3, migrated.size());
+        assertTrue(migrated.containsAll(legacy));
+        assertTrue(Files.exists(directory.resolve("2025-09").resolve("c1.csv")));
+        assertTrue(Files.exists(directory.resolve("2025-10").resolve("c1.csv")));
+        assertTrue(Files.exists(directory.resolve(PartitionedCsvStore.UNDATED_PARTITION).resolve("c1.csv")));
+        assertFalse(Files.exists(legacyFile), "The legacy file should be set aside once migrated");
+        assertTrue(Files.exists(root.resolve("assignments.csv.migrated")));
+    }
+
+    @Test
+    void testRangeReadsOnlyOverlappingMonthsInDateOrder() throws IOException {
+        List<Row> rows = List.of(
+                row("a1", "c1", "2025-10-20"),
+                row("a2", "c2", "2025-10-02"),
+                row("a3", "c1", "2025-11-05"),
+                row("a4", "c1", "2025-08-30"));
+        open().write(rows, rows);
+
+        List<Row> october = open().readRange(LocalDate.parse("2025-10-01"), LocalDate.parse("2025-10-31"));
+
+        assertEquals(List.of("a2", "a1"), october.stream().map(Row::id).toList());
+    }
+
+    @Test
+    void testWritingOneCourseLeavesOtherShardsAlone() throws IOException {
+        List<Row> rows = List.of(row("a1", "c1", "2025-10-20"), row("a2", "c2", "2025-10-21"));
+        PartitionedCsvStore<Row> store = open();
+        store.write(rows, rows);
+        Path otherShard = directory.resolve("2025-10").resolve("c2.csv");
+        FileTime old = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(otherShard, old);
+
+        Row updated = new Row("a1", "c1", LocalDate.parse("2025-10-20"), "Renamed");
+        store.write(List.of(updated, rows.get(1)), List.of(updated, rows.get(0)));
+
+        assertEquals(old, Files.getLastModifiedTime(otherShard), "The other course's shard should not be rewritten");
+        assertTrue(open().readAll().contains(updated));
+    }
+
+    @Test
+    void testUnsafeCourseIdsGetTheirOwnShards() throws IOException {
+        List<Row> rows = List.of(row("a1", "CS 111", "2025-10-20"), row("a2", "CS_111", "2025-10-20"));
+        open().write(rows, rows);
+
+        assertNotEquals(PartitionedCsvStore.courseFileName("CS 111"), PartitionedCsvStore.courseFileName("CS_111"));
+        try (var shards = Files.list(directory.resolve("2025-10"))) {
+            assertEquals(2, shards.count());
+        }
+        List<Row> read = open().readAll();
+        assertEquals(2, read.size());
+        assertTrue(read.containsAll(rows));
+    }
+
+    @Test
+    void testHandEditedShardIsRewrittenEvenIfTheManifestMatches() throws IOException {
+        List<Row> rows = List.of(row("a1", "c1", "2025-10-20"), row("a2", "c1", "2025-10-21"));
+        open().write(rows, rows);
+        Path shard = directory.resolve("2025-10").resolve("c1.csv");
+        Files.writeString(shard, "id,course_id,date,name" + System.lineSeparator()); // rows deleted by hand
+
+        open().write(rows, rows); // same rows, so the manifest entry still matches them
+
+        assertEquals(2, open().readAll().size(), "The shard's new stamp should force a content check");
+    }
+}
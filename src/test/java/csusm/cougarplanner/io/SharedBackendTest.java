@@ -0,0 +1,113 @@
+package csusm.cougarplanner.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import csusm.cougarplanner.models.Course;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SharedBackendTest {
+
+    private static final RowCodec<Course> CODEC = new RowCodec<>() {
+        @Override
+        public String[] headers() {
+            return new String[] {"course_id", "course_name"};
+        }
+
+        @Override
+        public String idOf(Course item) {
+            return item.getCourseId();
+        }
+
+        @Override
+        public String courseOf(Course item) {
+            return item.getCourseId();
+        }
+
+        @Override
+        public LocalDate dateOf(Course item) {
+            return null;
+        }
+
+        @Override
+        public Course fromRecord(Map<String, String> record) {
+            return new Course(record.get("course_id"), record.get("course_name"));
+        }
+
+        @Override
+        public Map<String, String> toRecord(Course item) {
+            return Map.of("course_id", item.getCourseId(), "course_name", item.getCourseName());
+        }
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testBackendIsCreatedOnFirstUseOnly() {
+        AtomicInteger created = new AtomicInteger();
+        SharedBackend<Course> shared = new SharedBackend<>(EntityType.COURSES, () -> {
+            created.incrementAndGet();
+            return new CachedCsvFile<>(directory.resolve("courses.csv"), CODEC);
+        });
+
+        assertEquals(0, created.get(), "Nothing should be created before the backend is used");
+        StorageBackend<Course> backend = shared.get();
+        assertSame(backend, shared.get());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void testFailedCreationIsRetriedByTheNextUse() {
+        AtomicInteger attempts = new AtomicInteger();
+        SharedBackend<Course> shared = new SharedBackend<>(EntityType.COURSES, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("storage not configured");
+            }
+            return new CachedCsvFile<>(directory.resolve("courses.csv"), CODEC);
+        });
+
+        assertThrows(IllegalStateException.class, shared::get);
+        assertNotNull(shared.get());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void testReplacedBackendIsUsedUntilReset() {
+        AtomicInteger created = new AtomicInteger();
+        SharedBackend<Course> shared = new SharedBackend<>(EntityType.COURSES, () -> {
+            created.incrementAndGet();
+            return new CachedCsvFile<>(directory.resolve("courses.csv"), CODEC);
+        });
+        StorageBackend<Course> replacement = new CachedCsvFile<>(directory.resolve("other.csv"), CODEC);
+
+        shared.replace(replacement);
+        assertSame(replacement, shared.get());
+        assertEquals(0, created.get());
+
+        shared.replace(null);
+        assertNotSame(replacement, shared.get());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void testRepositoryRunsOverAReplacedBackend() throws IOException {
+        CoursesRepository.useBackend(new CachedCsvFile<>(directory.resolve("courses.csv"), CODEC));
+        try {
+            CoursesRepository repository = new CoursesRepository();
+            repository.upsert(new Course("c1", "Algorithms"));
+
+            List<Course> courses = repository.findAll();
+            assertEquals(1, courses.size());
+            assertEquals("Algorithms", courses.get(0).getCourseName());
+        } finally {
+            CoursesRepository.useBackend(null);
+        }
+    }
+}
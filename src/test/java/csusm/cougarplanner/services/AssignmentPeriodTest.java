@@ -0,0 +1,69 @@
+package csusm.cougarplanner.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import csusm.cougarplanner.models.Assignment;
+import csusm.cougarplanner.models.AssignmentDisplay;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class AssignmentPeriodTest {
+
+    private static final LocalDate START = LocalDate.parse("2025-10-13");
+    private static final LocalDate END = LocalDate.parse("2025-10-19");
+
+    private static AssignmentDisplay assignment(String id, String dueDate, String dueTime, Integer difficulty) {
+        return new AssignmentDisplay(new Assignment(id, "c1", "Item " + id, dueDate, dueTime, difficulty), "Course");
+    }
+
+    private static List<String> ids(List<AssignmentDisplay> assignments) {
+        return assignments.stream().map(AssignmentDisplay::getAssignmentId).toList();
+    }
+
+    private static AssignmentPeriod period(AssignmentDisplay... assignments) {
+        return AssignmentPeriod.of(START, END, new ArrayList<>(List.of(assignments)));
+    }
+
+    @Test
+    void testDateTimeOrderPutsEmptyDatesAndTimesLast() {
+        AssignmentPeriod period = period(
+                assignment("none", null, null, null),
+                assignment("late", "2025-10-14", "23:00", 3),
+                assignment("noTime", "2025-10-13", null, 1),
+                assignment("early", "2025-10-13", "09:00", 5));
+
+        assertEquals(List.of("early", "noTime", "late", "none"), ids(period.inOrder(AssignmentPeriod.Order.DATE_TIME)));
+        assertEquals(4, period.size());
+    }
+
+    @Test
+    void testDifficultyOrdersKeepDateTimeWithinEachLevel() {
+        AssignmentPeriod period = period(
+                assignment("d3-late", "2025-10-18", "10:00", 3),
+                assignment("unset", "2025-10-13", "08:00", null),
+                assignment("d1", "2025-10-19", "10:00", 1),
+                assignment("d3-early", "2025-10-14", "10:00", 3),
+                assignment("d5", "2025-10-15", "10:00", 5));
+
+        assertEquals(List.of("d1", "d3-early", "d3-late", "d5", "unset"),
+                ids(period.inOrder(AssignmentPeriod.Order.DIFFICULTY_ASCENDING)));
+        assertEquals(List.of("d5", "d3-early", "d3-late", "d1", "unset"),
+                ids(period.inOrder(AssignmentPeriod.Order.DIFFICULTY_DESCENDING)));
+        assertSame(period.inOrder(AssignmentPeriod.Order.DIFFICULTY_ASCENDING),
+                period.inOrder(AssignmentPeriod.Order.DIFFICULTY_ASCENDING), "An order should be built once and kept");
+    }
+
+    @Test
+    void testOffScaleDifficultiesAreStillOrdered() {
+        AssignmentPeriod period = period(
+                assignment("d9", "2025-10-13", "10:00", 9),
+                assignment("unset", "2025-10-13", "09:00", null),
+                assignment("d2", "2025-10-14", "10:00", 2),
+                assignment("d0", "2025-10-15", "10:00", 0));
+
+        assertEquals(List.of("d0", "d2", "d9", "unset"), ids(period.inOrder(AssignmentPeriod.Order.DIFFICULTY_ASCENDING)));
+        assertEquals(List.of("d9", "d2", "d0", "unset"), ids(period.inOrder(AssignmentPeriod.Order.DIFFICULTY_DESCENDING)));
+    }
+}
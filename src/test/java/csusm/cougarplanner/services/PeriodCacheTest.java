@@ -0,0 +1,152 @@
+package csusm.cougarplanner.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import csusm.cougarplanner.io.CsvPaths;
+import csusm.cougarplanner.io.DataDirectoryWatcher;
+import csusm.cougarplanner.io.EntityType;
+import csusm.cougarplanner.io.FileTransaction;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Without the watcher the cache is bypassed, so it runs for the whole class
+public class PeriodCacheTest {
+
+    private static final LocalDate WEEK = LocalDate.parse("2025-10-12");
+    private static final LocalDate NEXT_WEEK = WEEK.plusWeeks(1);
+
+    private PeriodCache<String> cache;
+    private AtomicInteger loads;
+
+    @BeforeAll
+    static void startWatcher() throws IOException {
+        DataDirectoryWatcher.getInstance().start();
+    }
+
+    @AfterAll
+    static void stopWatcher() throws IOException {
+        DataDirectoryWatcher.getInstance().stop();
+        Files.deleteIfExists(unwatchedFile());
+    }
+
+    @BeforeEach
+    void setUp() {
+        cache = new PeriodCache<>(EntityType.ANNOUNCEMENTS, 2);
+        loads = new AtomicInteger();
+    }
+
+    private String get(LocalDate start) throws IOException {
+        return cache.get(start, start.plusDays(6), () -> start + "#" + loads.incrementAndGet());
+    }
+
+    // A file no entity type owns, so writing it moves the data version without a watcher event
+    private static Path unwatchedFile() {
+        return CsvPaths.getDataDirectory().resolve("period-cache-test.txt");
+    }
+
+    private static void commitWrite() throws IOException {
+        try (FileTransaction transaction = FileTransaction.begin()) {
+            transaction.write(unwatchedFile(), staged -> Files.writeString(staged, "written"));
+            transaction.commit();
+        }
+    }
+
+    @Test
+    void testSecondGetIsAHit() throws IOException {
+        assertEquals(get(WEEK), get(WEEK));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getStats().getHits());
+    }
+
+    @Test
+    void testLeastRecentlyUsedPeriodIsEvicted() throws IOException {
+        get(WEEK);
+        get(NEXT_WEEK);
+        get(WEEK); // now the most recently used
+        get(WEEK.plusWeeks(2));
+
+        assertTrue(cache.contains(WEEK, WEEK.plusDays(6)));
+        assertFalse(cache.contains(NEXT_WEEK, NEXT_WEEK.plusDays(6)));
+    }
+
+    @Test
+    void testCommitDropsOnlyPeriodsWithAChangedDate() throws IOException {
+        get(WEEK);
+        get(NEXT_WEEK);
+
+        commitWrite();
+        PeriodCache.applyCommit(Map.of(EntityType.ANNOUNCEMENTS, List.of(NEXT_WEEK.plusDays(3))));
+
+        assertTrue(cache.contains(WEEK, WEEK.plusDays(6)));
+        assertFalse(cache.contains(NEXT_WEEK, NEXT_WEEK.plusDays(6)));
+        get(WEEK);
+        assertEquals(2, loads.get(), "The unchanged week should still be served from the cache");
+    }
+
+    @Test
+    void testWriteTheCacheWasNotToldAboutClearsIt() throws IOException {
+        get(WEEK);
+
+        commitWrite(); // as another process would
+
+        get(WEEK);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testConcurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch finishLoad = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.get(WEEK, WEEK.plusDays(6), () -> {
+                    loadStarted.countDown();
+                    try {
+                        finishLoad.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return "loaded#" + loads.incrementAndGet();
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return get(WEEK);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        AtomicBoolean stop = new AtomicBoolean();
+        CompletableFuture<Boolean> idle = CompletableFuture.supplyAsync(() -> {
+            try {
+                return PeriodCache.awaitNoLoads(stop::get);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        finishLoad.countDown();
+
+        assertEquals("loaded#1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("loaded#1", second.get(5, TimeUnit.SECONDS), "The second caller should wait for the first load");
+        assertTrue(idle.get(5, TimeUnit.SECONDS), "Waiters should be woken once the last load finishes");
+        assertEquals(1, loads.get());
+    }
+}
@@ -0,0 +1,68 @@
+package csusm.cougarplanner.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// The keys must order exactly like the DateTimeUtil comparisons they replace, empty values last
+public class SortKeysTest {
+
+    private static final List<String> DATES = Arrays.asList("2025-10-13", "2025-10-14", "1969-12-31", "", null, "not a date");
+    private static final List<String> TIMES = Arrays.asList("00:00", "09:30", "23:59", "", null);
+    private static final List<String> DATE_TIMES = Arrays.asList(
+            "2025-10-13 09:30", "2025-10-13 23:59", "2025-10-14 00:00", "1969-12-31 12:00", "", null, "2025-10-13");
+    private static final List<String> NAMES = Arrays.asList("essay", "Essay", "ESSAY 2", "quiz", "Über", "_lab", "", null);
+
+    @Test
+    void testDueKeysOrderLikeDueDateThenDueTime() {
+        for (String dateA : DATES) {
+            for (String timeA : TIMES) {
+                for (String dateB : DATES) {
+                    for (String timeB : TIMES) {
+                        int expected = DateTimeUtil.compareDueDate(dateA, dateB);
+                        if (expected == 0) {
+                            expected = DateTimeUtil.compareDueTime(timeA, timeB);
+                        }
+                        int actual = Long.compare(SortKeys.dueKey(dateA, timeA), SortKeys.dueKey(dateB, timeB));
+                        assertEquals(Integer.signum(expected), Integer.signum(actual),
+                                dateA + " " + timeA + " vs " + dateB + " " + timeB);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDateTimeKeysOrderLikeCompareDateTime() {
+        for (String a : DATE_TIMES) {
+            for (String b : DATE_TIMES) {
+                assertEquals(Integer.signum(DateTimeUtil.compareDateTime(a, b)),
+                        Integer.signum(Long.compare(SortKeys.dateTimeKey(a), SortKeys.dateTimeKey(b))), a + " vs " + b);
+            }
+        }
+    }
+
+    @Test
+    void testDaysComeBackFromKeys() {
+        assertEquals(LocalDate.parse("1969-12-31").toEpochDay(), SortKeys.dayOfDueKey(SortKeys.dueKey("1969-12-31", null)));
+        assertEquals(LocalDate.parse("2025-10-13").toEpochDay(), SortKeys.dayOfDueKey(SortKeys.dueKey("2025-10-13", "23:59")));
+        assertEquals(SortKeys.NO_DAY, SortKeys.dayOfDueKey(SortKeys.dueKey(null, "09:30")));
+        assertEquals(LocalDate.parse("2025-10-14").toEpochDay(), SortKeys.dayOfDateTimeKey(SortKeys.dateTimeKey("2025-10-14 00:00")));
+        assertEquals(SortKeys.NO_DAY, SortKeys.dayOfDateTimeKey(SortKeys.dateTimeKey("")));
+    }
+
+    @Test
+    void testCollationKeysOrderLikeCompareToIgnoreCase() {
+        for (String a : NAMES) {
+            for (String b : NAMES) {
+                String nameA = a == null ? "" : a;
+                String nameB = b == null ? "" : b;
+                assertEquals(Integer.signum(nameA.compareToIgnoreCase(nameB)),
+                        Integer.signum(SortKeys.collationKey(a).compareTo(SortKeys.collationKey(b))), a + " vs " + b);
+            }
+        }
+    }
+}